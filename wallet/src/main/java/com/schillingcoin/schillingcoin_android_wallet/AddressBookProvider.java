@@ -17,7 +17,10 @@
 
 package com.schillingcoin.schillingcoin_android_wallet;
 
+import java.util.Collection;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 import javax.annotation.Nonnull;
 
@@ -68,6 +71,41 @@ public class AddressBookProvider extends ContentProvider
 		return label;
 	}
 
+	/**
+	 * Looks up the labels of many addresses with a single query.
+	 * 
+	 * @return labels by address, addresses without label are missing
+	 */
+	public static Map<String, String> resolveLabels(final Context context, @Nonnull final Collection<String> addresses)
+	{
+		final Map<String, String> labels = new HashMap<String, String>(addresses.size());
+		if (addresses.isEmpty())
+			return labels;
+
+		final StringBuilder selectionArg = new StringBuilder();
+		for (final String address : addresses)
+		{
+			if (selectionArg.length() > 0)
+				selectionArg.append(',');
+			selectionArg.append(address);
+		}
+
+		final Cursor cursor = context.getContentResolver().query(contentUri(context.getPackageName()), new String[] { KEY_ADDRESS, KEY_LABEL },
+				SELECTION_IN, new String[] { selectionArg.toString() }, null);
+
+		if (cursor != null)
+		{
+			final int addressIndex = cursor.getColumnIndexOrThrow(KEY_ADDRESS);
+			final int labelIndex = cursor.getColumnIndexOrThrow(KEY_LABEL);
+			while (cursor.moveToNext())
+				labels.put(cursor.getString(addressIndex), cursor.getString(labelIndex));
+
+			cursor.close();
+		}
+
+		return labels;
+	}
+
 	private Helper helper;
 
 	@Override
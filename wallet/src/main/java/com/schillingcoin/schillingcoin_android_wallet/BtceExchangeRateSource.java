@@ -0,0 +1,90 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.schillingcoin.schillingcoinj.utils.ExchangeRate;
+import com.schillingcoin.schillingcoinj.utils.Fiat;
+
+import com.schillingcoin.schillingcoin_android_wallet.ExchangeRatesProvider.WalletExchangeRate;
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
+
+/**
+ * The last USD price from the btc-e.com ticker.
+ */
+public final class BtceExchangeRateSource extends HttpExchangeRateSource
+{
+	private static final String NAME = "btc-e.com";
+
+	public static final URL TICKER_URL;
+
+	static
+	{
+		try
+		{
+			TICKER_URL = new URL("https://btc-e.com/api/2/oes_usd/ticker");
+		}
+		catch (final MalformedURLException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+
+	private final URL tickerUrl;
+
+	public BtceExchangeRateSource(@Nonnull final HttpClient httpClient)
+	{
+		this(httpClient, TICKER_URL);
+	}
+
+	public BtceExchangeRateSource(@Nonnull final HttpClient httpClient, @Nonnull final URL tickerUrl)
+	{
+		super(NAME, httpClient);
+
+		this.tickerUrl = tickerUrl;
+	}
+
+	@Override
+	public Map<String, WalletExchangeRate> fetch() throws IOException
+	{
+		try
+		{
+			final JSONObject ticker = new JSONObject(get(tickerUrl));
+			final Fiat usdPrice = Fiat.parseFiat("USD", ticker.getJSONObject("ticker").getString("last"));
+			return Collections.singletonMap("USD", new WalletExchangeRate(new ExchangeRate(usdPrice), NAME));
+		}
+		catch (final JSONException x)
+		{
+			throw new IOException("cannot parse ticker from " + tickerUrl, x);
+		}
+		catch (final IllegalArgumentException x)
+		{
+			throw new IOException("cannot parse price from " + tickerUrl, x);
+		}
+	}
+}
@@ -19,18 +19,13 @@ package com.schillingcoin.schillingcoin_android_wallet;
 
 import javax.annotation.Nonnull;
 
-import com.schillingcoin.schillingcoinj.core.Coin;
-import com.schillingcoin.schillingcoinj.utils.Fiat;
 import com.schillingcoin.schillingcoinj.utils.MonetaryFormat;
-import com.schillingcoin.schillingcoinj.utils.ExchangeRate;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import android.content.SharedPreferences;
-import android.content.SharedPreferences.Editor;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.text.format.DateUtils;
-import com.schillingcoin.schillingcoin_android_wallet.ExchangeRatesProvider.WalletExchangeRate;
 
 /**
  * @author Andreas Schildbach
@@ -52,13 +47,11 @@ public class Configuration
 	private static final String PREFS_KEY_LAST_VERSION = "last_version";
 	private static final String PREFS_KEY_LAST_USED = "last_used";
 	private static final String PREFS_KEY_BEST_CHAIN_HEIGHT_EVER = "best_chain_height_ever";
-	private static final String PREFS_KEY_CACHED_EXCHANGE_CURRENCY = "cached_exchange_currency";
-	private static final String PREFS_KEY_CACHED_EXCHANGE_RATE_COIN = "cached_exchange_rate_coin";
-	private static final String PREFS_KEY_CACHED_EXCHANGE_RATE_FIAT = "cached_exchange_rate_fiat";
 	private static final String PREFS_KEY_LAST_EXCHANGE_DIRECTION = "last_exchange_direction";
 	private static final String PREFS_KEY_CHANGE_LOG_VERSION = "change_log_version";
 	public static final String PREFS_KEY_REMIND_BACKUP = "remind_backup";
 	private static final String PREFS_KEY_LAST_BACKUP = "last_backup";
+	private static final String PREFS_KEY_SYNC_SCHEDULER = "sync_scheduler";
 
 	private static final int PREFS_DEFAULT_OES_SHIFT = 0;
 	private static final int PREFS_DEFAULT_OES_PRECISION = 2;
@@ -199,40 +192,25 @@ public class Configuration
 		log.info("just being used - last used {} minutes ago", (now - prefsLastUsed) / DateUtils.MINUTE_IN_MILLIS);
 	}
 
-	public int getBestChainHeightEver()
+	public String getSyncSchedulerState()
 	{
-		return prefs.getInt(PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, 0);
+		return prefs.getString(PREFS_KEY_SYNC_SCHEDULER, null);
 	}
 
-	public void maybeIncrementBestChainHeightEver(final int bestChainHeightEver)
+	public void setSyncSchedulerState(final String syncSchedulerState)
 	{
-		if (bestChainHeightEver > getBestChainHeightEver())
-			prefs.edit().putInt(PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, bestChainHeightEver).commit();
+		prefs.edit().putString(PREFS_KEY_SYNC_SCHEDULER, syncSchedulerState).commit();
 	}
 
-	public WalletExchangeRate getCachedExchangeRate()
+	public int getBestChainHeightEver()
 	{
-		if (prefs.contains(PREFS_KEY_CACHED_EXCHANGE_CURRENCY) && prefs.contains(PREFS_KEY_CACHED_EXCHANGE_RATE_COIN)
-				&& prefs.contains(PREFS_KEY_CACHED_EXCHANGE_RATE_FIAT))
-		{
-			final String cachedExchangeCurrency = prefs.getString(PREFS_KEY_CACHED_EXCHANGE_CURRENCY, null);
-			final Coin cachedExchangeRateCoin = Coin.valueOf(prefs.getLong(PREFS_KEY_CACHED_EXCHANGE_RATE_COIN, 0));
-			final Fiat cachedExchangeRateFiat = Fiat.valueOf(cachedExchangeCurrency, prefs.getLong(PREFS_KEY_CACHED_EXCHANGE_RATE_FIAT, 0));
-			return new WalletExchangeRate(new ExchangeRate(cachedExchangeRateCoin, cachedExchangeRateFiat), null);
-		}
-		else
-		{
-			return null;
-		}
+		return prefs.getInt(PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, 0);
 	}
 
-	public void setCachedExchangeRate(final WalletExchangeRate cachedExchangeRate)
+	public void maybeIncrementBestChainHeightEver(final int bestChainHeightEver)
 	{
-		final Editor edit = prefs.edit();
-		edit.putString(PREFS_KEY_CACHED_EXCHANGE_CURRENCY, cachedExchangeRate.getCurrencyCode());
-		edit.putLong(PREFS_KEY_CACHED_EXCHANGE_RATE_COIN, cachedExchangeRate.rate.coin.value);
-		edit.putLong(PREFS_KEY_CACHED_EXCHANGE_RATE_FIAT, cachedExchangeRate.rate.fiat.value);
-		edit.commit();
+		if (bestChainHeightEver > getBestChainHeightEver())
+			prefs.edit().putInt(PREFS_KEY_BEST_CHAIN_HEIGHT_EVER, bestChainHeightEver).commit();
 	}
 
 	public boolean getLastExchangeDirection()
@@ -47,6 +47,9 @@ public final class Constants
         /** Filename of the wallet. */
         public static final String WALLET_FILENAME_PROTOBUF = "schillingcoin-wallet-protobuf";
 
+        /** Filename of the journal of wallet changes since the last full save. */
+        public static final String WALLET_JOURNAL_FILENAME = "schillingcoin-wallet-journal";
+
         /** Filename of the automatic key backup (old format, can only be read). */
         public static final String WALLET_KEY_BACKUP_BASE58 = "schillingcoin-key-backup-base58";
 
@@ -70,6 +73,21 @@ public final class Constants
 
         public static final String VALID_HASHES_FILENAME = "validhashes";
         public static final String PEERS_FILENAME = "peers";
+
+        /** Filename of the per-peer connection statistics. */
+        public static final String PEER_SCORES_FILENAME = "peerscores";
+
+        /** Filename of the queue of transactions still to be broadcast. */
+        public static final String BROADCAST_QUEUE_FILENAME = "broadcast-queue";
+
+        /** Filename of the history of exchange rates, for valuing past transactions. */
+        public static final String RATE_HISTORY_FILENAME = "exchange-rate-history";
+
+        /** Filename of the cached exchange rates, in the cache dir. */
+        public static final String EXCHANGE_RATES_FILENAME = "exchange-rates";
+
+        /** Filename of the block checkpoints file, bundled as an asset. */
+        public static final String CHECKPOINTS_FILENAME = "checkpoints.txt";
     }
 
     /** Maximum size of backups. Files larger will be rejected. */
@@ -128,11 +146,9 @@ public final class Constants
     public static final String WEBMARKET_APP_URL = "https://play.google.com/store/apps/details?id=%s";
 
     public static final int HTTP_TIMEOUT_MS = 15 * (int) DateUtils.SECOND_IN_MILLIS;
+    public static final int HTTP_MAX_REQUESTS_PER_HOST = 4;
     public static final int PEER_TIMEOUT_MS = 8 * (int) DateUtils.SECOND_IN_MILLIS;
 
-    public static final long LAST_USAGE_THRESHOLD_JUST_MS = DateUtils.HOUR_IN_MILLIS;
-    public static final long LAST_USAGE_THRESHOLD_RECENTLY_MS = 2 * DateUtils.DAY_IN_MILLIS;
-
     public static final int SDK_JELLY_BEAN = 16;
     public static final int SDK_JELLY_BEAN_MR2 = 18;
 
@@ -143,4 +159,7 @@ public final class Constants
 
     public static final int MEMORY_CLASS_LOWEND = 48;
 
+    /** Number of peers to stay connected to once the chain is synced. */
+    public static final int MIN_CONNECTED_PEERS = 2;
+
 }
@@ -0,0 +1,267 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.schillingcoin.schillingcoinj.core.Coin;
+import com.schillingcoin.schillingcoinj.utils.ExchangeRate;
+import com.schillingcoin.schillingcoinj.utils.Fiat;
+
+import com.schillingcoin.schillingcoin_android_wallet.ExchangeRatesProvider.WalletExchangeRate;
+import com.schillingcoin.schillingcoin_android_wallet.util.CircuitBreaker;
+
+/**
+ * Asks all exchange rate sources at once and takes the median rate per currency. Currencies no source quotes directly are
+ * converted from the USD rate, if cross rates are available. A source that keeps failing or timing out is skipped for a
+ * while, so it does not hold up every refresh.
+ */
+public final class ExchangeRateAggregator
+{
+	private static final int FAILURE_THRESHOLD = 2;
+	private static final long COOLDOWN_MS = 5 * 60 * 1000;
+	private static final long MAX_COOLDOWN_MS = 60 * 60 * 1000;
+
+	/**
+	 * Fiat exchange rates, for currencies the coin is not traded in.
+	 */
+	public interface CrossRateSource
+	{
+		@Nonnull
+		String getName();
+
+		/**
+		 * @return the value of one US dollar, by currency code
+		 */
+		@Nonnull
+		Map<String, Fiat> fetch() throws IOException;
+	}
+
+	private final List<ExchangeRateSource> sources;
+	@Nullable
+	private final CrossRateSource crossRates;
+	private final ExecutorService executor;
+	private final long timeoutMs;
+	private final CircuitBreaker[] breakers;
+
+	private static final Logger log = LoggerFactory.getLogger(ExchangeRateAggregator.class);
+
+	/**
+	 * @param executor
+	 *            needs a thread per source plus one, or sources will wait for each other
+	 * @param timeoutMs
+	 *            how long to wait for all sources together
+	 */
+	public ExchangeRateAggregator(@Nonnull final List<ExchangeRateSource> sources, @Nullable final CrossRateSource crossRates,
+			@Nonnull final ExecutorService executor, final long timeoutMs)
+	{
+		this.sources = sources;
+		this.crossRates = crossRates;
+		this.executor = executor;
+		this.timeoutMs = timeoutMs;
+
+		breakers = new CircuitBreaker[sources.size() + 1];
+		for (int i = 0; i < breakers.length; i++)
+			breakers[i] = new CircuitBreaker(FAILURE_THRESHOLD, COOLDOWN_MS, MAX_COOLDOWN_MS);
+	}
+
+	/**
+	 * @return the aggregated rates, or null if no source had any
+	 */
+	@CheckForNull
+	public Map<String, WalletExchangeRate> fetch() throws InterruptedException
+	{
+		final long now = System.currentTimeMillis();
+
+		// the cross rate source goes last, with the last breaker
+		final List<Integer> asked = new ArrayList<Integer>();
+		final List<Callable<Object>> tasks = new ArrayList<Callable<Object>>();
+
+		for (int i = 0; i < sources.size(); i++)
+		{
+			final ExchangeRateSource source = sources.get(i);
+			if (breakers[i].allowRequest(now))
+			{
+				asked.add(i);
+				tasks.add(new Callable<Object>()
+				{
+					@Override
+					public Object call() throws IOException
+					{
+						return source.fetch();
+					}
+				});
+			}
+			else
+			{
+				log.info("skipping exchange rate source {}, {}", source.getName(), breakers[i]);
+			}
+		}
+
+		final int crossRatesIndex = sources.size();
+		if (crossRates != null && breakers[crossRatesIndex].allowRequest(now))
+		{
+			asked.add(crossRatesIndex);
+			tasks.add(new Callable<Object>()
+			{
+				@Override
+				public Object call() throws IOException
+				{
+					return crossRates.fetch();
+				}
+			});
+		}
+
+		// tasks still running at the deadline are cancelled
+		final List<Future<Object>> futures = executor.invokeAll(tasks, timeoutMs, TimeUnit.MILLISECONDS);
+
+		final Map<String, List<WalletExchangeRate>> quotes = new TreeMap<String, List<WalletExchangeRate>>();
+		Map<String, Fiat> usdRates = null;
+
+		for (int i = 0; i < futures.size(); i++)
+		{
+			final int index = asked.get(i);
+			final String name = index == crossRatesIndex ? crossRates.getName() : sources.get(index).getName();
+			final Object result = resultOf(futures.get(i), name);
+
+			if (result == null)
+			{
+				breakers[index].recordFailure(System.currentTimeMillis());
+				continue;
+			}
+
+			breakers[index].recordSuccess();
+
+			if (index == crossRatesIndex)
+			{
+				@SuppressWarnings("unchecked")
+				final Map<String, Fiat> rates = (Map<String, Fiat>) result;
+				usdRates = rates;
+			}
+			else
+			{
+				@SuppressWarnings("unchecked")
+				final Map<String, WalletExchangeRate> rates = (Map<String, WalletExchangeRate>) result;
+				for (final WalletExchangeRate rate : rates.values())
+				{
+					List<WalletExchangeRate> list = quotes.get(rate.getCurrencyCode());
+					if (list == null)
+					{
+						list = new ArrayList<WalletExchangeRate>();
+						quotes.put(rate.getCurrencyCode(), list);
+					}
+					list.add(rate);
+				}
+			}
+		}
+
+		final Map<String, WalletExchangeRate> aggregated = new TreeMap<String, WalletExchangeRate>();
+		for (final Map.Entry<String, List<WalletExchangeRate>> entry : quotes.entrySet())
+			aggregated.put(entry.getKey(), median(entry.getKey(), entry.getValue()));
+
+		final WalletExchangeRate usd = aggregated.get("USD");
+		if (usd != null && usdRates != null)
+		{
+			final long usdPrice = usd.rate.coinToFiat(Coin.COIN).value;
+			final String source = usd.source + ", " + crossRates.getName();
+
+			for (final Map.Entry<String, Fiat> entry : usdRates.entrySet())
+			{
+				if (aggregated.containsKey(entry.getKey()))
+					continue;
+
+				// divide by 10000 as Fiat are moved 4 decimal places
+				final Fiat price = entry.getValue().multiply(usdPrice).divide(10000);
+				aggregated.put(entry.getKey(), new WalletExchangeRate(new ExchangeRate(price), source));
+			}
+		}
+
+		return aggregated.isEmpty() ? null : aggregated;
+	}
+
+	@CheckForNull
+	private static Object resultOf(@Nonnull final Future<Object> future, @Nonnull final String name) throws InterruptedException
+	{
+		try
+		{
+			final Object result = future.get();
+			if (result instanceof Map && ((Map<?, ?>) result).isEmpty())
+			{
+				log.info("no exchange rates from {}", name);
+				return null;
+			}
+			return result;
+		}
+		catch (final CancellationException x)
+		{
+			log.info("timeout fetching exchange rates from {}", name);
+			return null;
+		}
+		catch (final ExecutionException x)
+		{
+			log.info("problem fetching exchange rates from " + name, x.getCause());
+			return null;
+		}
+	}
+
+	/**
+	 * @return the median price of one coin; for an even number of quotes, the mean of the middle two
+	 */
+	@Nonnull
+	private static WalletExchangeRate median(@Nonnull final String currencyCode, @Nonnull final List<WalletExchangeRate> quotes)
+	{
+		if (quotes.size() == 1)
+			return quotes.get(0);
+
+		final long[] prices = new long[quotes.size()];
+		final StringBuilder source = new StringBuilder();
+
+		for (int i = 0; i < prices.length; i++)
+		{
+			final WalletExchangeRate quote = quotes.get(i);
+			prices[i] = quote.rate.coinToFiat(Coin.COIN).value;
+			if (source.length() > 0)
+				source.append(", ");
+			source.append(quote.source);
+		}
+
+		Arrays.sort(prices);
+		final int middle = prices.length / 2;
+		final long median = prices.length % 2 == 1 ? prices[middle] : prices[middle - 1] + (prices[middle] - prices[middle - 1]) / 2;
+
+		return new WalletExchangeRate(new ExchangeRate(Fiat.valueOf(currencyCode, median)), source.toString());
+	}
+}
@@ -0,0 +1,45 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet;
+
+import java.io.IOException;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.schillingcoin.schillingcoin_android_wallet.ExchangeRatesProvider.WalletExchangeRate;
+
+/**
+ * Somewhere to get exchange rates from, usually a web API. Called on a background thread only.
+ */
+public interface ExchangeRateSource
+{
+	/**
+	 * @return a short name to show next to its rates, e.g. the host name
+	 */
+	@Nonnull
+	String getName();
+
+	/**
+	 * @return rates by currency code, not empty
+	 * @throws IOException
+	 *             if the source could not be reached or gave no usable rates
+	 */
+	@Nonnull
+	Map<String, WalletExchangeRate> fetch() throws IOException;
+}
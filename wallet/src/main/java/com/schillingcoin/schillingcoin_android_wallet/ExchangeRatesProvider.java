@@ -17,22 +17,18 @@
 
 package com.schillingcoin.schillingcoin_android_wallet;
 
-import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
 import java.io.IOException;
-import java.io.InputStream;
-import java.io.InputStreamReader;
-import java.io.Reader;
-import java.net.HttpURLConnection;
-import java.net.MalformedURLException;
-import java.net.URL;
+import java.util.Arrays;
 import java.util.Currency;
-import java.util.Iterator;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Locale;
 import java.util.Map;
 import java.util.TreeMap;
-import java.util.zip.GZIPInputStream;
-import java.math.BigDecimal;
-import java.math.BigInteger;
+import java.util.concurrent.Executors;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -41,9 +37,6 @@ import com.schillingcoin.schillingcoinj.core.Coin;
 import com.schillingcoin.schillingcoinj.utils.Fiat;
 import com.schillingcoin.schillingcoinj.utils.ExchangeRate;
 
-import org.json.JSONArray;
-import org.json.JSONException;
-import org.json.JSONObject;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -53,14 +46,13 @@ import android.content.Context;
 import android.database.Cursor;
 import android.database.MatrixCursor;
 import android.net.Uri;
-import android.preference.PreferenceManager;
 import android.provider.BaseColumns;
 import android.text.format.DateUtils;
 
-import com.google.common.base.Charsets;
-
-import com.schillingcoin.schillingcoin_android_wallet.util.GenericUtils;
-import com.schillingcoin.schillingcoin_android_wallet.util.Io;
+import com.schillingcoin.schillingcoin_android_wallet.util.CurrencySearchIndex;
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
+import com.schillingcoin.schillingcoin_android_wallet.util.RateHistory;
+import com.schillingcoin.schillingcoin_android_wallet.util.RefreshingCache;
 
 /**
  * @author Andreas Schildbach
@@ -98,28 +90,18 @@ public class ExchangeRatesProvider extends ContentProvider
 	public static final String QUERY_PARAM_Q = "q";
 	private static final String QUERY_PARAM_OFFLINE = "offline";
 
-	private Configuration config;
-	private String userAgent;
-
-	@CheckForNull
-	private Map<String, WalletExchangeRate> exchangeRates = null;
-	private long lastUpdated = 0;
-
-	private static final URL BTCE_URL;
-	private static final String BTCE_SOURCE = "btc-e.com";
-
-	// https://bitmarket.eu/api/ticker
+	private RefreshingCache<Map<String, WalletExchangeRate>> cache;
 
-	static {
-		try {
-			BTCE_URL = new URL("https://btc-e.com/api/2/oes_usd/ticker");
-		} catch (final MalformedURLException x) {
-			throw new RuntimeException(x); // cannot happen
-		}
-	}
+	// guarded by this
+	private CurrencySearchIndex searchIndex = null;
+	private Map<String, WalletExchangeRate> searchIndexRates = null;
 
+	/** Rates older than this are fetched again, but still shown meanwhile. */
 	private static final long UPDATE_FREQ_MS = 10 * DateUtils.MINUTE_IN_MILLIS;
-
+	/** Rates older than this are not shown at all. */
+	private static final long MAX_STALE_MS = DateUtils.DAY_IN_MILLIS;
+	/** All sources are asked at once; those that did not answer by then are left out. */
+	private static final long FETCH_TIMEOUT_MS = 10 * DateUtils.SECOND_IN_MILLIS;
 
 	private static final Logger log = LoggerFactory.getLogger(ExchangeRatesProvider.class);
 
@@ -128,16 +110,34 @@ public class ExchangeRatesProvider extends ContentProvider
 	{
 		final Context context = getContext();
 
-		this.config = new Configuration(PreferenceManager.getDefaultSharedPreferences(context));
+		final HttpClient httpClient = ((WalletApplication) context.getApplicationContext()).getHttpClient();
+		final List<ExchangeRateSource> sources = Arrays.<ExchangeRateSource> asList(new BtceExchangeRateSource(httpClient));
+		final ExchangeRateAggregator aggregator = new ExchangeRateAggregator(sources, new YahooCrossRateSource(httpClient),
+				Executors.newCachedThreadPool(), FETCH_TIMEOUT_MS);
 
-		this.userAgent = WalletApplication.httpUserAgent(WalletApplication.packageInfoFromContext(context).versionName);
+		final RefreshingCache.Loader<Map<String, WalletExchangeRate>> loader = new RefreshingCache.Loader<Map<String, WalletExchangeRate>>()
+		{
+			@Override
+			public Map<String, WalletExchangeRate> load() throws InterruptedException
+			{
+				return aggregator.fetch();
+			}
+		};
 
-		final WalletExchangeRate cachedExchangeRate = config.getCachedExchangeRate();
-		if (cachedExchangeRate != null)
+		cache = new RefreshingCache<Map<String, WalletExchangeRate>>(new File(context.getCacheDir(), Constants.Files.EXCHANGE_RATES_FILENAME),
+				CODEC, loader, Executors.newSingleThreadExecutor(), UPDATE_FREQ_MS, MAX_STALE_MS);
+
+		cache.setListener(new RefreshingCache.Listener<Map<String, WalletExchangeRate>>()
 		{
-			exchangeRates = new TreeMap<String, WalletExchangeRate>();
-			exchangeRates.put(cachedExchangeRate.getCurrencyCode(), cachedExchangeRate);
-		}
+			@Override
+			public void onRefreshed(final RefreshingCache.Entry<Map<String, WalletExchangeRate>> entry)
+			{
+				appendToHistory(((WalletApplication) context.getApplicationContext()).getRateHistory(), entry);
+
+				// loaders watching a cursor of ours will query again
+				context.getContentResolver().notifyChange(contentUri(context.getPackageName(), false), null);
+			}
+		});
 
 		return true;
 	}
@@ -150,76 +150,63 @@ public class ExchangeRatesProvider extends ContentProvider
 		return uri.build();
 	}
 
+	/**
+	 * Answers from the cache right away and never waits for the network. Stale rates are fetched again in the background,
+	 * unless asked offline; the cursor is notified when they arrive.
+	 */
 	@Override
 	public Cursor query(final Uri uri, final String[] projection, final String selection, final String[] selectionArgs, final String sortOrder)
 	{
-		return null;
-
-//		final long now = System.currentTimeMillis();
-//
-//		final boolean offline = uri.getQueryParameter(QUERY_PARAM_OFFLINE) != null;
-//
-//		if (!offline && (lastUpdated == 0 || now - lastUpdated > UPDATE_FREQ_MS))
-//		{
-//			Map<String, WalletExchangeRate> newExchangeRates = null;
-//			if (newExchangeRates == null)
-//				newExchangeRates = requestExchangeRates(userAgent);
-//
-//			if (newExchangeRates != null)
-//			{
-//				exchangeRates = newExchangeRates;
-//				lastUpdated = now;
-//
-//				final WalletExchangeRate exchangeRateToCache = bestExchangeRate(config.getExchangeCurrencyCode());
-//				if (exchangeRateToCache != null)
-//					config.setCachedExchangeRate(exchangeRateToCache);
-//			}
-//		}
-//
-//		if (exchangeRates == null)
-//			return null;
-//
-//		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE_COIN, KEY_RATE_FIAT, KEY_SOURCE });
-//
-//		if (selection == null)
-//		{
-//			for (final Map.Entry<String, WalletExchangeRate> entry : exchangeRates.entrySet())
-//			{
-//				final WalletExchangeRate exchangeRate = entry.getValue();
-//				final ExchangeRate rate = exchangeRate.rate;
-//				final String currencyCode = exchangeRate.getCurrencyCode();
-//				cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source);
-//			}
-//		}
-//		else if (selection.equals(QUERY_PARAM_Q))
-//		{
-//			final String selectionArg = selectionArgs[0].toLowerCase(Locale.US);
-//			for (final Map.Entry<String, WalletExchangeRate> entry : exchangeRates.entrySet())
-//			{
-//				final WalletExchangeRate exchangeRate = entry.getValue();
-//				final ExchangeRate rate = exchangeRate.rate;
-//				final String currencyCode = exchangeRate.getCurrencyCode();
-//				final String currencySymbol = GenericUtils.currencySymbol(currencyCode);
-//				if (currencyCode.toLowerCase(Locale.US).contains(selectionArg) || currencySymbol.toLowerCase(Locale.US).contains(selectionArg))
-//					cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source);
-//			}
-//		}
-//		else if (selection.equals(KEY_CURRENCY_CODE))
-//		{
-//			final String selectionArg = selectionArgs[0];
-//			final WalletExchangeRate exchangeRate = bestExchangeRate(selectionArg);
-//			if (exchangeRate != null)
-//			{
-//				final ExchangeRate rate = exchangeRate.rate;
-//				final String currencyCode = exchangeRate.getCurrencyCode();
-//				cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source);
-//			}
-//		}
-//
-//		return cursor;
+		final boolean offline = uri.getQueryParameter(QUERY_PARAM_OFFLINE) != null;
+
+		final RefreshingCache.Entry<Map<String, WalletExchangeRate>> entry = cache.get(System.currentTimeMillis(), !offline);
+		final Map<String, WalletExchangeRate> exchangeRates = entry != null ? entry.value : new TreeMap<String, WalletExchangeRate>();
+
+		final MatrixCursor cursor = new MatrixCursor(new String[] { BaseColumns._ID, KEY_CURRENCY_CODE, KEY_RATE_COIN, KEY_RATE_FIAT, KEY_SOURCE });
+		cursor.setNotificationUri(getContext().getContentResolver(), contentUri(getContext().getPackageName(), false));
+
+		if (selection == null)
+		{
+			for (final WalletExchangeRate exchangeRate : exchangeRates.values())
+				addRow(cursor, exchangeRate);
+		}
+		else if (selection.equals(QUERY_PARAM_Q))
+		{
+			for (final String currencyCode : searchIndex(exchangeRates).search(selectionArgs[0]))
+				addRow(cursor, exchangeRates.get(currencyCode));
+		}
+		else if (selection.equals(KEY_CURRENCY_CODE))
+		{
+			final WalletExchangeRate exchangeRate = bestExchangeRate(exchangeRates, selectionArgs[0]);
+			if (exchangeRate != null)
+				addRow(cursor, exchangeRate);
+		}
+
+		return cursor;
+	}
+
+	private synchronized CurrencySearchIndex searchIndex(@Nonnull final Map<String, WalletExchangeRate> exchangeRates)
+	{
+		// the cache hands out the same map until it is refreshed
+		final Locale locale = Locale.getDefault();
+		if (exchangeRates != searchIndexRates || !locale.equals(searchIndex.getLocale()))
+		{
+			searchIndex = CurrencySearchIndex.build(exchangeRates.keySet(), locale);
+			searchIndexRates = exchangeRates;
+		}
+
+		return searchIndex;
 	}
 
-	private WalletExchangeRate bestExchangeRate(final String currencyCode)
+	private static void addRow(@Nonnull final MatrixCursor cursor, @Nonnull final WalletExchangeRate exchangeRate)
+	{
+		final ExchangeRate rate = exchangeRate.rate;
+		final String currencyCode = exchangeRate.getCurrencyCode();
+		cursor.newRow().add(currencyCode.hashCode()).add(currencyCode).add(rate.coin.value).add(rate.fiat.value).add(exchangeRate.source);
+	}
+
+	@CheckForNull
+	private WalletExchangeRate bestExchangeRate(@Nonnull final Map<String, WalletExchangeRate> exchangeRates, final String currencyCode)
 	{
 		WalletExchangeRate rate = currencyCode != null ? exchangeRates.get(currencyCode) : null;
 		if (rate != null)
@@ -280,120 +267,59 @@ public class ExchangeRatesProvider extends ContentProvider
 		throw new UnsupportedOperationException();
 	}
 
-	private static String getURLResult(URL url, final String userAgent) {
-
-		HttpURLConnection connection = null;
-		Reader reader = null;
-
-		try {
-			connection = (HttpURLConnection) url.openConnection();
-
-			connection.setInstanceFollowRedirects(false);
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.addRequestProperty("User-Agent", userAgent);
-			connection.addRequestProperty("Accept-Encoding", "gzip");
-			connection.connect();
-
-			final int responseCode = connection.getResponseCode();
-			if (responseCode == HttpURLConnection.HTTP_OK) {
-
-				final String contentEncoding = connection.getContentEncoding();
-
-				InputStream is = new BufferedInputStream(connection.getInputStream(), 1024);
-				if ("gzip".equalsIgnoreCase(contentEncoding))
-					is = new GZIPInputStream(is);
-
-				reader = new InputStreamReader(is, Charsets.UTF_8);
-				final StringBuilder content = new StringBuilder();
-
-				Io.copy(reader, content);	
-				return content.toString();
+	private static void appendToHistory(@CheckForNull final RateHistory history,
+			@Nonnull final RefreshingCache.Entry<Map<String, WalletExchangeRate>> entry)
+	{
+		if (history == null)
+			return;
 
-			} else {
-				log.warn("http status {} when fetching exchange rates from {}", responseCode, BTCE_URL);
-			}
-		} catch (final Exception x) {
-			log.warn("problem fetching exchange rates from " + BTCE_URL, x);
-		} finally {
-			if (reader != null) {
-				try {
-					reader.close();
-				} catch (final IOException x) {
-					// swallow
-				}
-			}
+		final Map<String, Long> values = new HashMap<String, Long>();
+		for (final WalletExchangeRate exchangeRate : entry.value.values())
+			values.put(exchangeRate.getCurrencyCode(), exchangeRate.rate.coinToFiat(Coin.COIN).value);
 
-			if (connection != null)
-				connection.disconnect();
+		try
+		{
+			history.append(entry.fetchedAt, values);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem appending to rate history", x);
 		}
-
-		return null;
-
 	}
 
-	private static Map<String, WalletExchangeRate> requestExchangeRates(final String userAgent) {
-
-		final Map<String, WalletExchangeRate> rates = new TreeMap<String, WalletExchangeRate>();
-
-		String usdPriceResult = getURLResult(BTCE_URL, userAgent);
-		if (usdPriceResult == null)
-			return null;
-
-		final Fiat usdPrice;
-
-		try {
-			JSONObject jsonResult = new JSONObject(usdPriceResult);
-			String usdStr = jsonResult.getJSONObject("ticker").getString("last");
-			usdPrice = Fiat.parseFiat("USD", usdStr);
-		}catch (JSONException e) {
-			return null;
-		}
-			
-		rates.put("USD", new WalletExchangeRate(new ExchangeRate(usdPrice), BTCE_SOURCE));
-
-		// Now for USD conversions
-		
-		URL yahoo;
-
-		try {
-			yahoo = new URL(
-				Uri.parse("https://query.yahooapis.com/v1/public/yql")
-				.buildUpon()
-				.appendQueryParameter("q", "select * from yahoo.finance.xchange where pair=\"usdeur, usdgbp, usdcny, usdjpy, usdsgd, usdhkd, usdcad, usdnzd, usdaud, usdclp, usddkk, usdsek, usdisk, usdchf, usdbrl, usdrub, usdpln, usdthb, usdkrw, usdtwd\"")
-				.appendQueryParameter("format", "json")
-				.appendQueryParameter("env", "store://datatables.org/alltableswithkeys")
-				.build().toString()
-			);	
-		} catch (final MalformedURLException e) {
-			return rates;
+	private static final RefreshingCache.Codec<Map<String, WalletExchangeRate>> CODEC = new RefreshingCache.Codec<Map<String, WalletExchangeRate>>()
+	{
+		@Override
+		public void write(final Map<String, WalletExchangeRate> rates, final DataOutputStream os) throws IOException
+		{
+			os.writeInt(rates.size());
+
+			for (final WalletExchangeRate exchangeRate : rates.values())
+			{
+				os.writeUTF(exchangeRate.getCurrencyCode());
+				os.writeLong(exchangeRate.rate.coin.value);
+				os.writeLong(exchangeRate.rate.fiat.value);
+				os.writeUTF(exchangeRate.source != null ? exchangeRate.source : "");
+			}
 		}
 
-		String yahooRes = getURLResult(yahoo, userAgent);
-		if (yahooRes != null) {
-			try {
-
-				JSONObject head = new JSONObject(yahooRes);
-				JSONArray convs = head.getJSONObject("query").getJSONObject("results").getJSONArray("rate");
-
-				for (int x = 0; x < convs.length(); x++) {
-					JSONObject conv = convs.getJSONObject(x);
-					String currency = conv.getString("id").substring(3);
-					String priceString = conv.getString("Rate");
-
-                    // Divide by 10000 as Fiat are moved 4 decimal places
-                    Fiat price = Fiat.parseFiat(currency, priceString).multiply(usdPrice.longValue()).divide(10000); 
+		@Override
+		public Map<String, WalletExchangeRate> read(final DataInputStream is) throws IOException
+		{
+			final Map<String, WalletExchangeRate> rates = new TreeMap<String, WalletExchangeRate>();
 
-					rates.put(currency, new WalletExchangeRate(new ExchangeRate(price), BTCE_SOURCE));
-				}
+			final int size = is.readInt();
+			for (int i = 0; i < size; i++)
+			{
+				final String currencyCode = is.readUTF();
+				final Coin rateCoin = Coin.valueOf(is.readLong());
+				final Fiat rateFiat = Fiat.valueOf(currencyCode, is.readLong());
+				final String source = is.readUTF();
 
-			} catch (Exception e) {
-				log.warn("Got error reading yahoo exchange rates: {}", e);
+				rates.put(currencyCode, new WalletExchangeRate(new ExchangeRate(rateCoin, rateFiat), source.length() > 0 ? source : null));
 			}
-		}
-
-		return rates;
 
-	}
+			return rates;
+		}
+	};
 }
-
@@ -0,0 +1,66 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet;
+
+import java.io.IOException;
+import java.net.URL;
+
+import javax.annotation.Nonnull;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
+
+/**
+ * Exchange rate source that fetches documents over HTTP. Subclasses only parse; the URLs are passed in, so they can be
+ * pointed at a local server in tests.
+ */
+public abstract class HttpExchangeRateSource implements ExchangeRateSource
+{
+	static final long MAX_CHARS = 256 * 1024;
+
+	private final String name;
+	private final HttpClient httpClient;
+
+	protected HttpExchangeRateSource(@Nonnull final String name, @Nonnull final HttpClient httpClient)
+	{
+		this.name = name;
+		this.httpClient = httpClient;
+	}
+
+	@Override
+	public String getName()
+	{
+		return name;
+	}
+
+	/**
+	 * @return the body of a successful response
+	 * @throws IOException
+	 *             on any other response, or if there was none
+	 */
+	@Nonnull
+	protected String get(@Nonnull final URL url) throws IOException
+	{
+		return httpClient.getString(url, MAX_CHARS);
+	}
+
+	@Override
+	public String toString()
+	{
+		return getClass().getSimpleName() + '[' + name + ']';
+	}
+}
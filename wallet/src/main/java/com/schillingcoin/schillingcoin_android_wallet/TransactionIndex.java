@@ -0,0 +1,377 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.Date;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.StateBus;
+import com.schillingcoin.schillingcoin_android_wallet.util.WalletUtils;
+import com.schillingcoin.schillingcoinj.core.AbstractWalletEventListener;
+import com.schillingcoin.schillingcoinj.core.Address;
+import com.schillingcoin.schillingcoinj.core.Coin;
+import com.schillingcoin.schillingcoinj.core.Sha256Hash;
+import com.schillingcoin.schillingcoinj.core.Transaction;
+import com.schillingcoin.schillingcoinj.core.Transaction.Purpose;
+import com.schillingcoin.schillingcoinj.core.TransactionConfidence;
+import com.schillingcoin.schillingcoinj.core.TransactionConfidence.ConfidenceType;
+import com.schillingcoin.schillingcoinj.core.Wallet;
+import com.schillingcoin.schillingcoinj.utils.Threading;
+
+/**
+ * Sorted index of all transactions of the wallet, shared by every view listing transactions.
+ *
+ * Each transaction is a {@link Row} with its value, direction, address and sort key worked out once, off the main thread,
+ * when the transaction changes. Wallet events only mark transactions dirty; at most once per {@value #THROTTLE_MS} ms the
+ * dirty rows are recomputed and moved within the sorted set, and a new immutable {@link Snapshot} is published if anything
+ * changed. Depth changes, which touch every transaction on every block, change neither the order nor any column and are
+ * ignored.
+ */
+public final class TransactionIndex
+{
+	private static final long THROTTLE_MS = 1000;
+
+	public static final class Row
+	{
+		public final Transaction tx;
+		/** value to the wallet; negative if sent */
+		public final Coin value;
+		public final boolean sent;
+		/** own address received to if sent, first sender address if received; null if not known */
+		@Nullable
+		public final Address address;
+		/** moving coins between own keys, e.g. for key rotation */
+		public final boolean internal;
+		public final boolean pending;
+		public final long time;
+		/** chain height of the block the transaction is in, or -1 if it is in none */
+		public final int height;
+
+		private Row(final Transaction tx, final Coin value, final boolean internal, final Wallet wallet)
+		{
+			final TransactionConfidence confidence = tx.getConfidence();
+			final Date updateTime = tx.getUpdateTime();
+
+			this.tx = tx;
+			this.value = value;
+			this.sent = value.signum() < 0;
+			this.address = sent ? WalletUtils.getWalletAddressOfReceived(tx, wallet) : WalletUtils.getFirstFromAddress(tx);
+			this.internal = internal;
+			this.pending = confidence.getConfidenceType() == ConfidenceType.PENDING;
+			this.time = updateTime != null ? updateTime.getTime() : 0;
+			this.height = height(confidence);
+		}
+
+		private boolean isStale(final TransactionConfidence confidence)
+		{
+			return pending != (confidence.getConfidenceType() == ConfidenceType.PENDING) || height != height(confidence);
+		}
+
+		private static int height(final TransactionConfidence confidence)
+		{
+			return confidence.getConfidenceType() == ConfidenceType.BUILDING ? confidence.getAppearedAtChainHeight() : -1;
+		}
+	}
+
+	/** pending first, then newest first */
+	private static final Comparator<Row> ROW_ORDER = new Comparator<Row>()
+	{
+		@Override
+		public int compare(final Row row1, final Row row2)
+		{
+			if (row1.pending != row2.pending)
+				return row1.pending ? -1 : 1;
+
+			if (row1.time != row2.time)
+				return row1.time > row2.time ? -1 : 1;
+
+			return row1.tx.getHash().compareTo(row2.tx.getHash());
+		}
+	};
+
+	public static final class Snapshot
+	{
+		/** all rows, pending first, then newest first */
+		public final List<Row> rows;
+
+		private final List<Row> received;
+		private final List<Row> sent;
+
+		private Snapshot(final List<Row> rows)
+		{
+			final List<Row> received = new ArrayList<Row>();
+			final List<Row> sent = new ArrayList<Row>();
+
+			for (final Row row : rows)
+				if (!row.internal)
+					(row.sent ? sent : received).add(row);
+
+			this.rows = Collections.unmodifiableList(rows);
+			this.received = Collections.unmodifiableList(received);
+			this.sent = Collections.unmodifiableList(sent);
+		}
+
+		/**
+		 * @return received rows in order, apart from internal ones
+		 */
+		public List<Row> getReceived()
+		{
+			return received;
+		}
+
+		/**
+		 * @return sent rows in order, apart from internal ones
+		 */
+		public List<Row> getSent()
+		{
+			return sent;
+		}
+
+		/**
+		 * @return transactions in a block at or above the given height
+		 */
+		public Set<Transaction> getTransactionsInBlocks(final int minHeight)
+		{
+			final Set<Transaction> transactions = new HashSet<Transaction>();
+			for (final Row row : rows)
+				if (row.height >= minHeight)
+					transactions.add(row.tx);
+			return transactions;
+		}
+	}
+
+	private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+	private final StateBus<Snapshot> snapshots = new StateBus<Snapshot>();
+
+	// only touched on the executor, apart from reading rows in wallet callbacks
+	private Wallet wallet = null;
+	private final Map<Sha256Hash, Row> rowsByHash = new ConcurrentHashMap<Sha256Hash, Row>();
+	private final TreeSet<Row> rows = new TreeSet<Row>(ROW_ORDER);
+
+	// guarded by this
+	private final Set<Transaction> dirty = new LinkedHashSet<Transaction>();
+	private boolean rebuildNeeded = false;
+	private boolean flushScheduled = false;
+
+	private static final Logger log = LoggerFactory.getLogger(TransactionIndex.class);
+
+	/**
+	 * Snapshots of the index, each published once the transactions have settled for a moment.
+	 */
+	public StateBus<Snapshot> getSnapshots()
+	{
+		return snapshots;
+	}
+
+	@CheckForNull
+	public Snapshot get()
+	{
+		return snapshots.get();
+	}
+
+	/**
+	 * Indexes the given wallet from scratch, and follows it from now on instead of the previous one.
+	 */
+	public void attach(@Nonnull final Wallet wallet)
+	{
+		executor.execute(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (TransactionIndex.this.wallet != null)
+					TransactionIndex.this.wallet.removeEventListener(walletListener);
+
+				TransactionIndex.this.wallet = wallet;
+				wallet.addEventListener(walletListener, Threading.SAME_THREAD);
+
+				rebuild();
+			}
+		});
+	}
+
+	/**
+	 * Indexes the current wallet from scratch, e.g. after its transactions were reset.
+	 */
+	public synchronized void invalidate()
+	{
+		rebuildNeeded = true;
+		scheduleFlush();
+	}
+
+	private final AbstractWalletEventListener walletListener = new AbstractWalletEventListener()
+	{
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+		{
+			markDirty(tx);
+		}
+
+		@Override
+		public void onCoinsSent(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+		{
+			markDirty(tx);
+		}
+
+		@Override
+		public void onTransactionConfidenceChanged(final Wallet wallet, final Transaction tx)
+		{
+			// mostly just depth, which does not matter here
+			final Row row = rowsByHash.get(tx.getHash());
+			if (row == null || row.isStale(tx.getConfidence()))
+				markDirty(tx);
+		}
+
+		@Override
+		public void onReorganize(final Wallet wallet)
+		{
+			invalidate();
+		}
+	};
+
+	private synchronized void markDirty(final Transaction tx)
+	{
+		dirty.add(tx);
+		scheduleFlush();
+	}
+
+	private void scheduleFlush()
+	{
+		if (!flushScheduled)
+		{
+			flushScheduled = true;
+			executor.schedule(flush, THROTTLE_MS, TimeUnit.MILLISECONDS);
+		}
+	}
+
+	private final Runnable flush = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			final boolean rebuild;
+			final List<Transaction> transactions;
+
+			synchronized (TransactionIndex.this)
+			{
+				flushScheduled = false;
+				rebuild = rebuildNeeded;
+				rebuildNeeded = false;
+				transactions = new ArrayList<Transaction>(dirty);
+				dirty.clear();
+			}
+
+			if (wallet == null)
+				return;
+
+			if (rebuild)
+			{
+				rebuild();
+				return;
+			}
+
+			boolean changed = false;
+			for (final Transaction tx : transactions)
+				changed |= update(tx);
+
+			if (changed)
+				publish();
+		}
+	};
+
+	private void rebuild()
+	{
+		final long start = System.currentTimeMillis();
+
+		rowsByHash.clear();
+		rows.clear();
+
+		for (final Transaction tx : wallet.getTransactions(true))
+			put(new Row(tx, tx.getValue(wallet), tx.getPurpose() == Purpose.KEY_ROTATION, wallet));
+
+
+		publish();
+
+		log.info("indexed {} transactions, took {} ms", rows.size(), System.currentTimeMillis() - start);
+	}
+
+	/**
+	 * @return true if the index changed
+	 */
+	private boolean update(final Transaction tx)
+	{
+		final Row previous = rowsByHash.get(tx.getHash());
+
+		// the wallet may have dropped it meanwhile
+		final Transaction walletTx = wallet.getTransaction(tx.getHash());
+		if (walletTx == null)
+		{
+			if (previous == null)
+				return false;
+
+			rowsByHash.remove(tx.getHash());
+			rows.remove(previous);
+			return true;
+		}
+
+		final Row row = new Row(walletTx, walletTx.getValue(wallet), walletTx.getPurpose() == Purpose.KEY_ROTATION, wallet);
+		if (previous != null)
+		{
+			if (previous.tx == row.tx && ROW_ORDER.compare(previous, row) == 0 && previous.height == row.height
+					&& previous.value.equals(row.value) && previous.internal == row.internal)
+				return false;
+
+			rows.remove(previous);
+		}
+
+		put(row);
+		return true;
+	}
+
+	private void put(final Row row)
+	{
+		final Row previous = rowsByHash.put(row.tx.getHash(), row);
+		if (previous != null)
+			rows.remove(previous);
+		rows.add(row);
+	}
+
+	private void publish()
+	{
+		snapshots.publish(new Snapshot(new ArrayList<Row>(rows)));
+	}
+}
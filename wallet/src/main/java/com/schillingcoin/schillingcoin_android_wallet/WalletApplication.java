@@ -18,15 +18,20 @@
 package com.schillingcoin.schillingcoin_android_wallet;
 
 import java.io.File;
-import java.io.FileInputStream;
-import java.io.FileNotFoundException;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.OutputStream;
+import java.security.KeyStore;
 import java.util.ArrayList;
+import java.util.TimeZone;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
 import java.util.concurrent.TimeUnit;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.net.ssl.SSLContext;
+import javax.net.ssl.SSLSocketFactory;
+import javax.net.ssl.TrustManagerFactory;
 
 import com.schillingcoin.schillingcoinj.core.Transaction;
 import com.schillingcoin.schillingcoinj.core.VerificationException;
@@ -36,8 +41,6 @@ import com.schillingcoin.schillingcoinj.crypto.MnemonicCode;
 import com.schillingcoin.schillingcoinj.store.UnreadableWalletException;
 import com.schillingcoin.schillingcoinj.store.WalletProtobufSerializer;
 import com.schillingcoin.schillingcoinj.utils.Threading;
-import com.schillingcoin.schillingcoinj.wallet.Protos;
-import com.schillingcoin.schillingcoinj.wallet.WalletFiles;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -50,6 +53,7 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.pm.PackageInfo;
 import android.content.pm.PackageManager.NameNotFoundException;
+import android.os.Build;
 import android.os.Handler;
 import android.os.Looper;
 import android.preference.PreferenceManager;
@@ -66,9 +70,17 @@ import ch.qos.logback.core.rolling.TimeBasedRollingPolicy;
 
 import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainService;
 import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainServiceImpl;
+import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainState;
+import com.schillingcoin.schillingcoin_android_wallet.service.BroadcastQueue;
+import com.schillingcoin.schillingcoin_android_wallet.service.SyncJobService;
+import com.schillingcoin.schillingcoin_android_wallet.service.SyncScheduler;
 import com.schillingcoin.schillingcoin_android_wallet.util.CrashReporter;
-import com.schillingcoin.schillingcoin_android_wallet.util.Io;
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
 import com.schillingcoin.schillingcoin_android_wallet.util.LinuxSecureRandom;
+import com.schillingcoin.schillingcoin_android_wallet.util.MemoryGovernor;
+import com.schillingcoin.schillingcoin_android_wallet.util.StartupGraph;
+import com.schillingcoin.schillingcoin_android_wallet.util.RateHistory;
+import com.schillingcoin.schillingcoin_android_wallet.util.StateBus;
 import com.schillingcoin.schillingcoinj.shapeshift.ShapeShift;
 import com.schillingcoin.schillingcoin_android_wallet.R;
 import java.util.concurrent.locks.Condition;
@@ -83,6 +95,20 @@ import static junit.framework.Assert.assertTrue;
 public class WalletApplication extends Application
 {
     private Configuration config = null; 
+    private SyncScheduler syncScheduler;
+    private BroadcastQueue broadcastQueue;
+    private final Executor broadcastQueueExecutor = Executors.newSingleThreadExecutor();
+    private final StateBus<BlockchainState> blockchainStateBus = new StateBus<BlockchainState>();
+    private final StateBus<Integer> peerStateBus = new StateBus<Integer>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Executor mainThreadExecutor = new Executor()
+    {
+        @Override
+        public void execute(final Runnable command)
+        {
+            mainHandler.post(command);
+        }
+    };
     private ActivityManager activityManager;
 
     private Intent blockchainServiceIntent;
@@ -94,11 +120,20 @@ public class WalletApplication extends Application
     private final Condition blockchainServiceStopCond = blockchainServiceStopLock.newCondition();
 
     private File walletFile;
+    private WalletStorage walletStorage;
+    private WalletKeyBackup keyBackup;
+    private final MemoryGovernor memoryGovernor = new MemoryGovernor();
+    private final TransactionIndex transactionIndex = new TransactionIndex();
+    private RateHistory rateHistory;
+    private boolean rateHistoryOpened = false;
+    private HttpClient httpClient;
     private Wallet wallet;
     private PackageInfo packageInfo;
 
     public static final String ACTION_WALLET_CHANGED = WalletApplication.class.getPackage().getName() + ".wallet_changed";
 
+    private static final long PENDING_BROADCAST_WAKEUP_MS = 5 * DateUtils.MINUTE_IN_MILLIS;
+
     private static final Logger log = LoggerFactory.getLogger(WalletApplication.class);
 
     private ArrayList<Runnable> loadedCallbacks = new ArrayList<Runnable>();
@@ -127,10 +162,11 @@ public class WalletApplication extends Application
             }
         };
 
-        initMnemonicCode();
-
         config = new Configuration(PreferenceManager.getDefaultSharedPreferences(this));
+        syncScheduler = SyncScheduler.deserialize(config.getSyncSchedulerState(), SyncScheduler.SYSTEM_CLOCK, TimeZone.getDefault());
         walletFile = getFileStreamPath(Constants.Files.WALLET_FILENAME_PROTOBUF);
+        walletStorage = new WalletStorage(walletFile, getFileStreamPath(Constants.Files.WALLET_JOURNAL_FILENAME));
+        keyBackup = new WalletKeyBackup(getFileStreamPath(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF));
 
         // Rename old wallets
 
@@ -138,12 +174,101 @@ public class WalletApplication extends Application
         if (oldWalletFile.exists())
             oldWalletFile.renameTo(walletFile);
 
-        loadWalletFromProtobuf();
+        final StartupGraph startup = new StartupGraph("wallet");
 
-        config.updateLastVersionCode(packageInfo.versionCode);
+        startup.add("mnemonic", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                initMnemonicCode();
+            }
+        });
 
-        afterLoadWallet();
-        cleanupFiles();
+        startup.add("cleanup-files", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                cleanupFiles();
+            }
+        });
+
+        final Runnable loadWallet = new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                loadWalletFromProtobuf();
+            }
+        };
+
+        // only a newly created wallet needs the wordlist, for deriving its seed, and writes its key backup through a temp file
+        if (walletFile.exists())
+            startup.add("load-wallet", loadWallet);
+        else
+            startup.add("load-wallet", loadWallet, "mnemonic", "cleanup-files");
+
+        // autosave writes temp files, which must not be swept up by cleanupFiles()
+        startup.add("autosave", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                startAutosave();
+            }
+        }, "load-wallet", "cleanup-files");
+
+        startup.add("cleanup-wallet", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // clean up spam
+                wallet.cleanup();
+            }
+        }, "autosave");
+
+        startup.add("transaction-index", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                transactionIndex.attach(wallet);
+            }
+        }, "cleanup-wallet");
+
+        startup.add("broadcast-queue", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                broadcastQueue = BroadcastQueue.load(getFileStreamPath(Constants.Files.BROADCAST_QUEUE_FILENAME));
+            }
+        });
+
+        // opening indexes the whole file, so do it here rather than on the main thread when the transaction list first shows
+        startup.add("rate-history", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                getRateHistory();
+            }
+        });
+
+        startup.add("migrate-backup", new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                migrateBackup();
+            }
+        }, "load-wallet", "cleanup-files");
+
+        startup.run();
+
+        config.updateLastVersionCode(packageInfo.versionCode);
 
         synchronized (this) {
 
@@ -199,7 +324,7 @@ public class WalletApplication extends Application
 
     private void afterLoadWallet()
     {
-        wallet.autosaveToFile(walletFile, 10, TimeUnit.SECONDS, new WalletAutosaveEventListener());
+        startAutosave();
 
         // clean up spam
         wallet.cleanup();
@@ -207,6 +332,11 @@ public class WalletApplication extends Application
         migrateBackup();
     }
 
+    private void startAutosave()
+    {
+        walletStorage.start(wallet);
+    }
+
     private void initLogging()
     {
         final File logDir = getDir("log", Constants.TEST ? Context.MODE_WORLD_READABLE : MODE_PRIVATE);
@@ -272,30 +402,139 @@ public class WalletApplication extends Application
         }
     }
 
-    private static final class WalletAutosaveEventListener implements WalletFiles.Listener
+    public Configuration getConfiguration()
     {
-        @Override
-        public void onBeforeAutoSave(final File file)
-        {
-        }
+        return config;
+    }
 
-        @Override
-        public void onAfterAutoSave(final File file)
+    public Wallet getWallet()
+    {
+        return wallet;
+    }
+
+    public SyncScheduler getSyncScheduler()
+    {
+        return syncScheduler;
+    }
+
+    /** Transactions that have not been seen on the network yet. */
+    public BroadcastQueue getBroadcastQueue()
+    {
+        return broadcastQueue;
+    }
+
+    /** Latest chain state published by the blockchain service. */
+    public StateBus<BlockchainState> getBlockchainStateBus()
+    {
+        return blockchainStateBus;
+    }
+
+    /** Number of connected peers, as published by the blockchain service. */
+    public StateBus<Integer> getPeerStateBus()
+    {
+        return peerStateBus;
+    }
+
+    public Executor getMainThreadExecutor()
+    {
+        return mainThreadExecutor;
+    }
+
+    public MemoryGovernor getMemoryGovernor()
+    {
+        return memoryGovernor;
+    }
+
+    @Override
+    public void onTrimMemory(final int level)
+    {
+        super.onTrimMemory(level);
+
+        log.info("onTrimMemory({}) called", level);
+
+        memoryGovernor.onTrimMemory(level);
+    }
+
+    public TransactionIndex getTransactionIndex()
+    {
+        return transactionIndex;
+    }
+
+    /**
+     * Opened during startup, or on first use if that comes earlier, which can be from the exchange rates provider before
+     * {@link #onCreate()}.
+     */
+    @Nullable
+    public synchronized RateHistory getRateHistory()
+    {
+        if (!rateHistoryOpened)
         {
-            // make wallets world accessible in test mode
-            if (Constants.TEST)
-                Io.chmod(file, 0777);
+            rateHistoryOpened = true;
+
+            try
+            {
+                rateHistory = RateHistory.open(getFileStreamPath(Constants.Files.RATE_HISTORY_FILENAME));
+            }
+            catch (final IOException x)
+            {
+                // without the history, past transactions just cannot be valued
+                log.error("problem opening rate history", x);
+            }
         }
+
+        return rateHistory;
     }
 
-    public Configuration getConfiguration()
+    /**
+     * Created on first use, which can be from the exchange rates provider, before {@link #onCreate()}.
+     */
+    public synchronized HttpClient getHttpClient()
     {
-        return config;
+        if (httpClient == null)
+            httpClient = new HttpClient(httpUserAgent(packageInfoFromContext(this).versionName), pinnedSocketFactory(),
+                    Constants.HTTP_MAX_REQUESTS_PER_HOST);
+
+        return httpClient;
     }
 
-    public Wallet getWallet()
+    @Nullable
+    private SSLSocketFactory pinnedSocketFactory()
     {
-        return wallet;
+        InputStream is = null;
+
+        try
+        {
+            is = getAssets().open("ssl-keystore");
+            final KeyStore keystore = KeyStore.getInstance("BKS");
+            keystore.load(is, "password".toCharArray());
+
+            final TrustManagerFactory tmf = TrustManagerFactory.getInstance("X509");
+            tmf.init(keystore);
+
+            final SSLContext sslContext = SSLContext.getInstance("TLS");
+            sslContext.init(null, tmf.getTrustManagers(), null);
+            return sslContext.getSocketFactory();
+        }
+        catch (final Exception x)
+        {
+            // requests to our own servers will fail, all others work
+            log.error("problem loading ssl keystore", x);
+            return null;
+        }
+        finally
+        {
+            if (is != null)
+            {
+                try
+                {
+                    is.close();
+                }
+                catch (final IOException x)
+                {
+                    // swallow
+                }
+            }
+        }
     }
 
     private void loadWalletFromProtobuf()
@@ -304,20 +543,16 @@ public class WalletApplication extends Application
         {
             final long start = System.currentTimeMillis();
 
-            FileInputStream walletStream = null;
-
             try
             {
-                walletStream = new FileInputStream(walletFile);
-
-                wallet = new WalletProtobufSerializer().readWallet(walletStream);
+                wallet = walletStorage.load();
 
                 if (!wallet.getParams().equals(Constants.NETWORK_PARAMETERS))
                     throw new UnreadableWalletException("bad wallet network parameters: " + wallet.getParams().getId());
 
                 log.info("wallet loaded from: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
             }
-            catch (final FileNotFoundException x)
+            catch (final IOException x)
             {
                 log.error("problem loading wallet", x);
 
@@ -333,20 +568,6 @@ public class WalletApplication extends Application
 
                 wallet = restoreWalletFromBackup();
             }
-            finally
-            {
-                if (walletStream != null)
-                {
-                    try
-                    {
-                        walletStream.close();
-                    }
-                    catch (final IOException x)
-                    {
-                        // swallow
-                    }
-                }
-            }
 
             if (!wallet.isConsistent())
             {
@@ -413,60 +634,19 @@ public class WalletApplication extends Application
     }
 
     public void saveWallet() {
-        try {
-            protobufSerializeWallet(wallet);
-        } catch (final IOException x) {
-            throw new RuntimeException(x);
-        }
-    }
-
-    private void protobufSerializeWallet(@Nonnull final Wallet wallet) throws IOException
-    {
-        final long start = System.currentTimeMillis();
-
-        wallet.saveToFile(walletFile);
-
-        // make wallets world accessible in test mode
-        if (Constants.TEST)
-            Io.chmod(walletFile, 0777);
-
-        log.debug("wallet saved to: '" + walletFile + "', took " + (System.currentTimeMillis() - start) + "ms");
+        walletStorage.save();
     }
 
     public void backupWallet()
     {
-        final Protos.Wallet.Builder builder = new WalletProtobufSerializer().walletToProto(wallet).toBuilder();
-
-        // strip redundant
-        builder.clearTransaction();
-        builder.clearLastSeenBlockHash();
-        builder.setLastSeenBlockHeight(-1);
-        builder.clearLastSeenBlockTimeSecs();
-        final Protos.Wallet walletProto = builder.build();
-
-        OutputStream os = null;
-
         try
         {
-            os = openFileOutput(Constants.Files.WALLET_KEY_BACKUP_PROTOBUF, Context.MODE_PRIVATE);
-            walletProto.writeTo(os);
+            keyBackup.write(wallet);
         }
         catch (final IOException x)
         {
             log.error("problem writing key backup", x);
         }
-        finally
-        {
-            try
-            {
-                os.close();
-            }
-            catch (final IOException x)
-            {
-                // swallow
-            }
-        }
-
     }
 
     private void migrateBackup()
@@ -517,6 +697,7 @@ public class WalletApplication extends Application
     public void resetBlockchain() {
         internalResetBlockchain();
         waitForBlockChainServiceToStop();
+        transactionIndex.invalidate();
         startBlockchainService(true);
 
         final Intent broadcast = new Intent(ACTION_WALLET_CHANGED);
@@ -560,11 +741,12 @@ public class WalletApplication extends Application
 
         internalResetBlockchain(); // implicitly stops blockchain service
         waitForBlockChainServiceToStop();
-        wallet.shutdownAutosaveAndWait();
+        walletStorage.stop();
 
         wallet = newWallet;
         config.maybeIncrementBestChainHeightEver(newWallet.getLastBlockSeenHeight());
         afterLoadWallet();
+        transactionIndex.attach(wallet);
 
         final Intent broadcast = new Intent(ACTION_WALLET_CHANGED);
         broadcast.setPackage(getPackageName());
@@ -588,10 +770,26 @@ public class WalletApplication extends Application
 
     public void broadcastTransaction(@Nonnull final Transaction tx)
     {
-        final Intent intent = new Intent(BlockchainService.ACTION_BROADCAST_TRANSACTION, null, this, BlockchainServiceImpl.class);
-        intent.putExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH, tx.getHash().getBytes());
         assertTrue(config != null);
-        startService(intent);
+
+        final String hash = tx.getHashAsString();
+        final long now = System.currentTimeMillis();
+
+        // the queue writes its file on every change, so stay off the caller's thread, which is mostly the main thread
+        broadcastQueueExecutor.execute(new Runnable()
+        {
+            @Override
+            public void run()
+            {
+                // queue first, so the transaction survives if the service cannot broadcast it right now
+                broadcastQueue.add(hash, now);
+
+                final Intent intent = new Intent(BlockchainService.ACTION_BROADCAST_TRANSACTION, null, WalletApplication.this,
+                        BlockchainServiceImpl.class);
+                intent.putExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH, tx.getHash().getBytes());
+                startService(intent);
+            }
+        });
     }
 
     public static PackageInfo packageInfoFromContext(final Context context)
@@ -642,6 +840,20 @@ public class WalletApplication extends Application
             return 6;
     }
 
+    public int peakConnectedPeers() {
+        final int memoryClass = activityManager.getMemoryClass();
+        if (memoryClass <= Constants.MEMORY_CLASS_LOWEND)
+            return 6;
+        else
+            return 10;
+    }
+
+    public boolean isLowOnMemory() {
+        final ActivityManager.MemoryInfo memoryInfo = new ActivityManager.MemoryInfo();
+        activityManager.getMemoryInfo(memoryInfo);
+        return memoryInfo.lowMemory;
+    }
+
     public void scheduleStartBlockchainService() {
 
         final WalletApplication wa = this;
@@ -652,26 +864,28 @@ public class WalletApplication extends Application
             public void run() {
 
                 final long lastUsedAgo = config.getLastUsedAgo();
+                config.setSyncSchedulerState(syncScheduler.serialize());
+                final SyncScheduler.WakeUp wakeUp = syncScheduler.nextWakeUp(lastUsedAgo);
 
-                // apply some backoff
-                final long alarmInterval;
-                if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_JUST_MS)
-                    alarmInterval = AlarmManager.INTERVAL_FIFTEEN_MINUTES;
-                else if (lastUsedAgo < Constants.LAST_USAGE_THRESHOLD_RECENTLY_MS)
-                    alarmInterval = AlarmManager.INTERVAL_HALF_DAY;
-                else
-                    alarmInterval = AlarmManager.INTERVAL_DAY;
+                // transactions waiting for the network take priority
+                final boolean pendingBroadcasts = !broadcastQueue.isEmpty();
+                final long delayMs = pendingBroadcasts ? Math.min(wakeUp.delayMs, PENDING_BROADCAST_WAKEUP_MS) : wakeUp.delayMs;
 
-                log.info("last used {} minutes ago, rescheduling blockchain sync in roughly {} minutes", lastUsedAgo / DateUtils.MINUTE_IN_MILLIS,
-                        alarmInterval / DateUtils.MINUTE_IN_MILLIS);
+                log.info("last used {} minutes ago{}, rescheduling blockchain sync in roughly {} minutes", lastUsedAgo / DateUtils.MINUTE_IN_MILLIS,
+                        pendingBroadcasts ? ", transactions queued" : wakeUp.busyHour ? ", payments expected" : "", delayMs / DateUtils.MINUTE_IN_MILLIS);
 
+                // also drops the repeating alarm set by earlier versions
                 final AlarmManager alarmManager = (AlarmManager) getSystemService(Context.ALARM_SERVICE);
                 final PendingIntent alarmIntent = PendingIntent.getService(wa, 0, new Intent(wa, BlockchainServiceImpl.class), 0);
                 alarmManager.cancel(alarmIntent);
 
-                // workaround for no inexact set() before KitKat
-                final long now = System.currentTimeMillis();
-                alarmManager.setInexactRepeating(AlarmManager.RTC_WAKEUP, now + alarmInterval, AlarmManager.INTERVAL_DAY, alarmIntent);
+                if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                    // the job waits for connectivity, so wake-ups while offline are folded into the next network change
+                    SyncJobService.schedule(wa, delayMs);
+                } else {
+                    final long now = System.currentTimeMillis();
+                    alarmManager.setWindow(AlarmManager.RTC_WAKEUP, now + delayMs, wakeUp.windowMs, alarmIntent);
+                }
 
             }
 
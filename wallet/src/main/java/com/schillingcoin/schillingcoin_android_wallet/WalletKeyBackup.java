@@ -0,0 +1,148 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.protobuf.ByteString;
+import com.schillingcoin.schillingcoinj.core.Wallet;
+import com.schillingcoin.schillingcoinj.core.WalletExtension;
+import com.schillingcoin.schillingcoinj.crypto.KeyCrypter;
+import com.schillingcoin.schillingcoinj.crypto.KeyCrypterScrypt;
+import com.schillingcoin.schillingcoinj.script.Script;
+import com.schillingcoin.schillingcoinj.wallet.Protos;
+
+/**
+ * Writes the automatic key backup. The key chain, watched scripts, extensions and tags go into the backup, but not the
+ * transactions, so writing it does not serialize them. The backup is replaced atomically, and not at all if the keys did not change since the
+ * last backup.
+ */
+public final class WalletKeyBackup
+{
+	private static final HashFunction DIGEST = Hashing.sha256();
+
+	private final File file;
+	@Nullable
+	private HashCode lastDigest = null;
+
+	private static final Logger log = LoggerFactory.getLogger(WalletKeyBackup.class);
+
+	public WalletKeyBackup(@Nonnull final File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * @return true if the backup was written, false if it was up to date already
+	 */
+	public synchronized boolean write(@Nonnull final Wallet wallet) throws IOException
+	{
+		final byte[] backup = keysToProto(wallet).toByteArray();
+		final HashCode digest = DIGEST.hashBytes(backup);
+
+		if (lastDigest == null && file.exists())
+			lastDigest = Files.hash(file, DIGEST);
+
+		if (digest.equals(lastDigest))
+		{
+			log.debug("key backup '{}' is up to date", file);
+			return false;
+		}
+
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		final FileOutputStream os = new FileOutputStream(tmpFile);
+
+		try
+		{
+			os.write(backup);
+			os.flush();
+			os.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tmpFile.renameTo(file))
+			throw new IOException("cannot rename " + tmpFile + " to " + file);
+
+		lastDigest = digest;
+
+		log.info("key backup written to '{}'", file);
+
+		return true;
+	}
+
+	private static Protos.Wallet keysToProto(final Wallet wallet)
+	{
+		final Protos.Wallet.Builder builder = Protos.Wallet.newBuilder();
+		builder.setNetworkIdentifier(wallet.getNetworkParameters().getId());
+		builder.setVersion(wallet.getVersion());
+		if (wallet.getDescription() != null)
+			builder.setDescription(wallet.getDescription());
+
+		builder.addAllKey(wallet.serializeKeychainToProtobuf());
+
+		final KeyCrypter keyCrypter = wallet.getKeyCrypter();
+		if (keyCrypter == null)
+		{
+			builder.setEncryptionType(Protos.Wallet.EncryptionType.UNENCRYPTED);
+		}
+		else
+		{
+			builder.setEncryptionType(keyCrypter.getUnderstoodEncryptionType());
+			if (keyCrypter instanceof KeyCrypterScrypt)
+				builder.setEncryptionParameters(((KeyCrypterScrypt) keyCrypter).getScryptParameters());
+		}
+
+		final Date keyRotationTime = wallet.getKeyRotationTime();
+		if (keyRotationTime != null)
+			builder.setKeyRotationTime(keyRotationTime.getTime() / 1000);
+
+		// same as WalletProtobufSerializer, so a restored wallet watches and carries everything the original did
+		for (final Script script : wallet.getWatchedScripts())
+			builder.addWatchedScript(Protos.Script.newBuilder().setProgram(ByteString.copyFrom(script.getProgram()))
+					.setCreationTimestamp(script.getCreationTimeSeconds()));
+
+		for (final WalletExtension extension : wallet.getExtensions().values())
+			builder.addExtension(Protos.Extension.newBuilder().setId(extension.getWalletExtensionID())
+					.setMandatory(extension.isWalletExtensionMandatory()).setData(ByteString.copyFrom(extension.serializeWalletExtension())));
+
+		for (final Map.Entry<String, ByteString> tag : wallet.getTags().entrySet())
+			builder.addTags(Protos.Tag.newBuilder().setTag(tag.getKey()).setData(tag.getValue()));
+
+		// the backup is restored by replaying the chain from the keys' birth
+		builder.setLastSeenBlockHeight(-1);
+
+		return builder.build();
+	}
+}
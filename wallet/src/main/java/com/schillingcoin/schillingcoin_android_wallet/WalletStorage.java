@@ -0,0 +1,350 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedInputStream;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.format.DateUtils;
+
+import com.google.common.io.BaseEncoding;
+import com.schillingcoin.schillingcoin_android_wallet.util.Io;
+import com.schillingcoin.schillingcoin_android_wallet.util.WalletJournal;
+import com.schillingcoin.schillingcoin_android_wallet.util.WalletSnapshot;
+import com.schillingcoin.schillingcoinj.core.AbstractWalletEventListener;
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.Wallet;
+import com.schillingcoin.schillingcoinj.core.WalletEventListener;
+import com.schillingcoin.schillingcoinj.store.UnreadableWalletException;
+import com.schillingcoin.schillingcoinj.store.WalletProtobufSerializer;
+import com.schillingcoin.schillingcoinj.utils.Threading;
+import com.schillingcoin.schillingcoinj.wallet.Protos;
+
+/**
+ * Keeps the wallet on disk as a {@link WalletSnapshot} plus a {@link WalletJournal}. Changes are saved a few seconds after they
+ * happen by appending just the transactions, keys and metadata that changed. Once the journal has grown to a fair fraction of
+ * the snapshot, the next save writes a new snapshot and starts over with an empty journal.
+ */
+public final class WalletStorage
+{
+	private static final long SAVE_DELAY_MS = 10 * DateUtils.SECOND_IN_MILLIS;
+	private static final long MIN_COMPACT_BYTES = 256 * 1024;
+	private static final int MIN_PARALLEL_DECODE = 1000;
+	private static final int MAX_DECODE_THREADS = 4;
+	private static final BaseEncoding HEX = BaseEncoding.base16().lowerCase();
+
+	private final File walletFile;
+	private final WalletJournal journal;
+	private final Handler handler;
+	private final AtomicBoolean saveScheduled = new AtomicBoolean();
+
+	// guarded by this
+	@Nullable
+	private Wallet wallet = null;
+	@Nullable
+	private Wallet loadedWallet = null;
+	private boolean needsSnapshot = true;
+	private long snapshotSize = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(WalletStorage.class);
+
+	public WalletStorage(@Nonnull final File walletFile, @Nonnull final File journalFile)
+	{
+		this.walletFile = walletFile;
+		this.journal = new WalletJournal(journalFile);
+
+		final HandlerThread thread = new HandlerThread("wallet storage", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * Reads the snapshot and replays the journal on top of it.
+	 */
+	public synchronized Wallet load() throws IOException, UnreadableWalletException
+	{
+		final long snapshotId;
+		final WalletJournal.State state;
+		final boolean legacy;
+
+		if (WalletSnapshot.isSnapshot(walletFile))
+		{
+			final WalletSnapshot snapshot = WalletSnapshot.open(walletFile);
+			snapshotId = snapshot.getId();
+			state = snapshot.toState();
+			legacy = false;
+		}
+		else
+		{
+			// plain protobuf wallet, as saved by older versions
+			final CheckedInputStream is = new CheckedInputStream(new BufferedInputStream(new FileInputStream(walletFile)), new CRC32());
+
+			try
+			{
+				state = toState(WalletProtobufSerializer.parseToProto(is));
+			}
+			finally
+			{
+				is.close();
+			}
+
+			snapshotId = is.getChecksum().getValue();
+			legacy = true;
+		}
+
+		snapshotSize = walletFile.length();
+
+		journal.open(snapshotId, state);
+		needsSnapshot = legacy || !journal.isOpen();
+
+		final Protos.Wallet proto = toProto(state);
+
+		final NetworkParameters params = NetworkParameters.fromID(proto.getNetworkIdentifier());
+		if (params == null)
+			throw new UnreadableWalletException("unknown network: " + proto.getNetworkIdentifier());
+
+		loadedWallet = new WalletProtobufSerializer().readWallet(params, null, proto);
+		return loadedWallet;
+	}
+
+	/**
+	 * Starts saving changes of the given wallet. A wallet that was not just read by {@link #load()}, such as a new, restored
+	 * or replacing one, is saved as a snapshot right away.
+	 */
+	public void start(@Nonnull final Wallet wallet)
+	{
+		final boolean snapshotNow;
+
+		synchronized (this)
+		{
+			this.wallet = wallet;
+			snapshotNow = wallet != loadedWallet;
+			if (snapshotNow)
+				needsSnapshot = true;
+			loadedWallet = null;
+		}
+
+		wallet.addEventListener(changeListener, Threading.SAME_THREAD);
+
+		if (snapshotNow)
+			scheduleSave(0);
+	}
+
+	/**
+	 * Stops saving changes, after saving what is pending.
+	 */
+	public void stop()
+	{
+		final Wallet wallet;
+		synchronized (this)
+		{
+			wallet = this.wallet;
+		}
+
+		if (wallet == null)
+			return;
+
+		wallet.removeEventListener(changeListener);
+		save();
+
+		synchronized (this)
+		{
+			this.wallet = null;
+		}
+	}
+
+	/**
+	 * Saves now, on the calling thread.
+	 */
+	public synchronized void save()
+	{
+		if (wallet == null)
+			return;
+
+		final long start = System.currentTimeMillis();
+		final Protos.Wallet proto = new WalletProtobufSerializer().walletToProto(wallet);
+
+		try
+		{
+			if (needsSnapshot || journal.size() > Math.max(MIN_COMPACT_BYTES, snapshotSize / 2))
+			{
+				writeSnapshot(proto);
+
+				log.info("wallet snapshot saved to: '{}', took {}ms", walletFile, System.currentTimeMillis() - start);
+			}
+			else
+			{
+				final int records = journal.append(toState(proto));
+
+				log.debug("{} wallet changes journaled, took {}ms", records, System.currentTimeMillis() - start);
+			}
+		}
+		catch (final IOException x)
+		{
+			// the journal may be torn, so start over from a snapshot
+			needsSnapshot = true;
+
+			log.error("problem saving wallet", x);
+		}
+	}
+
+	private void scheduleSave(final long delayMs)
+	{
+		if (saveScheduled.compareAndSet(false, true))
+			handler.postDelayed(saveRunnable, delayMs);
+	}
+
+	private final Runnable saveRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			saveScheduled.set(false);
+			save();
+		}
+	};
+
+	private final WalletEventListener changeListener = new AbstractWalletEventListener()
+	{
+		@Override
+		public void onChange()
+		{
+			scheduleSave(SAVE_DELAY_MS);
+		}
+	};
+
+	private void writeSnapshot(final Protos.Wallet proto) throws IOException
+	{
+		final File tmpFile = new File(walletFile.getPath() + ".tmp");
+		final WalletJournal.State state = toState(proto);
+		final long snapshotId = WalletSnapshot.write(tmpFile, state);
+
+		if (!tmpFile.renameTo(walletFile))
+			throw new IOException("cannot rename " + tmpFile + " to " + walletFile);
+
+		// make wallets world accessible in test mode
+		if (Constants.TEST)
+			Io.chmod(walletFile, 0777);
+
+		// a crash right here leaves the old journal, which no longer matches the snapshot and is dropped on load
+		journal.reset(snapshotId, state);
+		snapshotSize = walletFile.length();
+		needsSnapshot = false;
+	}
+
+	private WalletJournal.State toState(final Protos.Wallet proto)
+	{
+		final WalletJournal.State state = new WalletJournal.State();
+		state.header = proto.toBuilder().clearTransaction().build().toByteArray();
+		for (final Protos.Transaction tx : proto.getTransactionList())
+		{
+			state.entries.put(HEX.encode(tx.getHash().toByteArray()), tx.toByteArray());
+		}
+		return state;
+	}
+
+	/**
+	 * Decodes the transactions, split across a few threads for big wallets.
+	 */
+	private static Protos.Wallet toProto(final WalletJournal.State state) throws IOException
+	{
+		final Protos.Wallet.Builder builder = Protos.Wallet.parseFrom(state.header).toBuilder();
+		final List<byte[]> values = new ArrayList<byte[]>(state.entries.values());
+		final Protos.Transaction[] txs = new Protos.Transaction[values.size()];
+		final int numThreads = Math.min(Runtime.getRuntime().availableProcessors(), MAX_DECODE_THREADS);
+
+		if (numThreads <= 1 || txs.length < MIN_PARALLEL_DECODE)
+		{
+			decode(values, txs, 0, txs.length);
+		}
+		else
+		{
+			final ExecutorService executor = Executors.newFixedThreadPool(numThreads);
+			final List<Future<Void>> futures = new ArrayList<Future<Void>>(numThreads);
+			final int chunkSize = (txs.length + numThreads - 1) / numThreads;
+
+			try
+			{
+				for (int from = 0; from < txs.length; from += chunkSize)
+				{
+					final int chunkFrom = from;
+					final int chunkTo = Math.min(from + chunkSize, txs.length);
+					futures.add(executor.submit(new Callable<Void>()
+					{
+						@Override
+						public Void call() throws IOException
+						{
+							decode(values, txs, chunkFrom, chunkTo);
+							return null;
+						}
+					}));
+				}
+
+				for (final Future<Void> future : futures)
+					future.get();
+			}
+			catch (final ExecutionException x)
+			{
+				final Throwable cause = x.getCause();
+				if (cause instanceof IOException)
+					throw (IOException) cause;
+				throw new RuntimeException(cause);
+			}
+			catch (final InterruptedException x)
+			{
+				throw new InterruptedIOException("interrupted while decoding wallet");
+			}
+			finally
+			{
+				executor.shutdownNow();
+			}
+		}
+
+		builder.addAllTransaction(Arrays.asList(txs));
+		return builder.build();
+	}
+
+	private static void decode(final List<byte[]> values, final Protos.Transaction[] txs, final int from, final int to) throws IOException
+	{
+		for (int i = from; i < to; i++)
+			txs[i] = Protos.Transaction.parseFrom(values.get(i));
+	}
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Map;
+import java.util.TreeMap;
+
+import javax.annotation.Nonnull;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import com.schillingcoin.schillingcoinj.utils.Fiat;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
+
+/**
+ * USD exchange rates for the major currencies, from Yahoo Finance.
+ */
+public final class YahooCrossRateSource implements ExchangeRateAggregator.CrossRateSource
+{
+	private static final String NAME = "yahoo.com";
+
+	public static final URL QUERY_URL;
+
+	static
+	{
+		try
+		{
+			QUERY_URL = new URL("https://query.yahooapis.com/v1/public/yql?format=json"
+					+ "&env=store%3A%2F%2Fdatatables.org%2Falltableswithkeys"
+					+ "&q=select%20*%20from%20yahoo.finance.xchange%20where%20pair%3D%22usdeur%2C%20usdgbp%2C%20usdcny%2C%20usdjpy%2C"
+					+ "%20usdsgd%2C%20usdhkd%2C%20usdcad%2C%20usdnzd%2C%20usdaud%2C%20usdclp%2C%20usddkk%2C%20usdsek%2C%20usdisk%2C"
+					+ "%20usdchf%2C%20usdbrl%2C%20usdrub%2C%20usdpln%2C%20usdthb%2C%20usdkrw%2C%20usdtwd%22");
+		}
+		catch (final MalformedURLException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+
+	private final HttpClient httpClient;
+	private final URL url;
+
+	public YahooCrossRateSource(@Nonnull final HttpClient httpClient)
+	{
+		this(httpClient, QUERY_URL);
+	}
+
+	public YahooCrossRateSource(@Nonnull final HttpClient httpClient, @Nonnull final URL url)
+	{
+		this.httpClient = httpClient;
+		this.url = url;
+	}
+
+	@Override
+	public String getName()
+	{
+		return NAME;
+	}
+
+	@Override
+	public Map<String, Fiat> fetch() throws IOException
+	{
+		final Map<String, Fiat> rates = new TreeMap<String, Fiat>();
+
+		try
+		{
+			final JSONObject head = new JSONObject(httpClient.getString(url, HttpExchangeRateSource.MAX_CHARS));
+			final JSONArray convs = head.getJSONObject("query").getJSONObject("results").getJSONArray("rate");
+
+			for (int i = 0; i < convs.length(); i++)
+			{
+				final JSONObject conv = convs.getJSONObject(i);
+				final String currency = conv.getString("id").substring(3);
+				rates.put(currency, Fiat.parseFiat(currency, conv.getString("Rate")));
+			}
+		}
+		catch (final JSONException x)
+		{
+			throw new IOException("cannot parse cross rates from " + url, x);
+		}
+		catch (final IllegalArgumentException x)
+		{
+			throw new IOException("cannot parse cross rate from " + url, x);
+		}
+
+		return rates;
+	}
+}
@@ -20,14 +20,11 @@ package com.schillingcoin.schillingcoin_android_wallet.offline;
 import java.io.DataInputStream;
 import java.io.DataOutputStream;
 import java.io.IOException;
-import java.io.InputStream;
 import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
-import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
 import com.schillingcoin.schillingcoinj.protocols.payments.Protos;
 import com.schillingcoin.schillingcoinj.protocols.payments.Protos.Payment;
@@ -40,8 +37,8 @@ import android.bluetooth.BluetoothDevice;
 import android.bluetooth.BluetoothSocket;
 import android.os.Handler;
 import android.os.Looper;
-import com.schillingcoin.schillingcoin_android_wallet.Constants;
 import com.schillingcoin.schillingcoin_android_wallet.util.Bluetooth;
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
 import com.schillingcoin.schillingcoin_android_wallet.R;
 
 /**
@@ -72,16 +69,15 @@ public abstract class DirectPaymentTask
 	public final static class HttpPaymentTask extends DirectPaymentTask
 	{
 		private final String url;
-		@CheckForNull
-		private final String userAgent;
+		private final HttpClient httpClient;
 
 		public HttpPaymentTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback, @Nonnull final String url,
-				@Nullable final String userAgent)
+				@Nonnull final HttpClient httpClient)
 		{
 			super(backgroundHandler, resultCallback);
 
 			this.url = url;
-			this.userAgent = userAgent;
+			this.httpClient = httpClient;
 		}
 
 		@Override
@@ -94,18 +90,14 @@ public abstract class DirectPaymentTask
 				{
 					log.info("trying to send tx to {}", url);
 
-					HttpURLConnection connection = null;
+					HttpClient.Call call = null;
 					OutputStream os = null;
-					InputStream is = null;
 
 					try
 					{
-						connection = (HttpURLConnection) new URL(url).openConnection();
+						call = httpClient.open(new URL(url), false);
+						final HttpURLConnection connection = call.connection;
 
-						connection.setInstanceFollowRedirects(false);
-						connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setUseCaches(false);
 						connection.setDoInput(true);
 						connection.setDoOutput(true);
 
@@ -113,8 +105,6 @@ public abstract class DirectPaymentTask
 						connection.setRequestProperty("Content-Type", PaymentProtocol.MIMETYPE_PAYMENT);
 						connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTACK);
 						connection.setRequestProperty("Content-Length", Integer.toString(payment.getSerializedSize()));
-						if (userAgent != null)
-							connection.addRequestProperty("User-Agent", userAgent);
 						connection.connect();
 
 						os = connection.getOutputStream();
@@ -123,12 +113,10 @@ public abstract class DirectPaymentTask
 
 						log.info("tx sent via http");
 
-						final int responseCode = connection.getResponseCode();
+						final int responseCode = call.getResponseCode();
 						if (responseCode == HttpURLConnection.HTTP_OK)
 						{
-							is = connection.getInputStream();
-
-							final Protos.PaymentACK paymentAck = Protos.PaymentACK.parseFrom(is);
+							final Protos.PaymentACK paymentAck = Protos.PaymentACK.parseFrom(call.getInputStream());
 
 							final boolean ack = !"nack".equals(PaymentProtocol.parsePaymentAck(paymentAck).getMemo());
 
@@ -165,20 +153,8 @@ public abstract class DirectPaymentTask
 							}
 						}
 
-						if (is != null)
-						{
-							try
-							{
-								is.close();
-							}
-							catch (final IOException x)
-							{
-								// swallow
-							}
-						}
-
-						if (connection != null)
-							connection.disconnect();
+						if (call != null)
+							call.close();
 					}
 				}
 			});
@@ -29,11 +29,6 @@ import com.schillingcoin.schillingcoinj.core.StoredBlock;
  */
 public interface BlockchainService
 {
-	public static final String ACTION_PEER_STATE = BlockchainService.class.getPackage().getName() + ".peer_state";
-	public static final String ACTION_PEER_STATE_NUM_PEERS = "num_peers";
-
-	public static final String ACTION_BLOCKCHAIN_STATE = BlockchainService.class.getPackage().getName() + ".blockchain_state";
-
 	public static final String ACTION_CANCEL_COINS_RECEIVED = BlockchainService.class.getPackage().getName() + ".cancel_coins_received";
 	public static final String ACTION_RESET_BLOCKCHAIN = BlockchainService.class.getPackage().getName() + ".reset_blockchain";
 	public static final String ACTION_BROADCAST_TRANSACTION = BlockchainService.class.getPackage().getName() + ".broadcast_transaction";
@@ -45,4 +40,6 @@ public interface BlockchainService
 	List<Peer> getConnectedPeers();
 
 	List<StoredBlock> getRecentBlocks(int maxBlocks);
+
+	SyncMetrics.Snapshot getSyncMetrics();
 }
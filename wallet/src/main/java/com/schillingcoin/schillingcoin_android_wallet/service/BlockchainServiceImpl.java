@@ -23,31 +23,44 @@ import java.io.InputStream;
 import java.net.InetSocketAddress;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
 import java.util.Date;
 import java.util.EnumSet;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Locale;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
 import java.util.concurrent.TimeUnit;
 import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
 import javax.annotation.Nullable;
 
+import com.schillingcoin.schillingcoinj.core.AbstractBlockChainListener;
 import com.schillingcoin.schillingcoinj.core.AbstractPeerEventListener;
 import com.schillingcoin.schillingcoinj.core.Address;
 import com.schillingcoin.schillingcoinj.core.Block;
+import com.schillingcoin.schillingcoinj.core.BlockChainListener;
 import com.schillingcoin.schillingcoinj.core.Coin;
 import com.schillingcoin.schillingcoinj.core.Peer;
+import com.schillingcoin.schillingcoinj.core.PeerAddress;
 import com.schillingcoin.schillingcoinj.core.PeerEventListener;
 import com.schillingcoin.schillingcoinj.core.PeerGroup;
 import com.schillingcoin.schillingcoinj.core.Sha256Hash;
 import com.schillingcoin.schillingcoinj.core.StoredBlock;
 import com.schillingcoin.schillingcoinj.core.Transaction;
 import com.schillingcoin.schillingcoinj.core.TransactionConfidence.ConfidenceType;
+import com.schillingcoin.schillingcoinj.core.VersionMessage;
 import com.schillingcoin.schillingcoinj.core.Wallet;
 import com.schillingcoin.schillingcoinj.core.WalletEventListener;
 import com.schillingcoin.schillingcoinj.net.discovery.DnsDiscovery;
@@ -55,7 +68,6 @@ import com.schillingcoin.schillingcoinj.net.discovery.PeerDBDiscovery;
 import com.schillingcoin.schillingcoinj.net.discovery.PeerDiscovery;
 import com.schillingcoin.schillingcoinj.net.discovery.PeerDiscoveryException;
 import com.schillingcoin.schillingcoinj.store.BlockStoreException;
-import com.schillingcoin.schillingcoinj.utils.MonetaryFormat;
 import com.schillingcoin.schillingcoinj.utils.Threading;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -74,16 +86,17 @@ import android.content.Loader.OnLoadCompleteListener;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
 import android.net.ConnectivityManager;
-import android.net.Uri;
+import android.net.TrafficStats;
+import android.os.BatteryManager;
 import android.os.Binder;
 import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.PowerManager;
 import android.os.PowerManager.WakeLock;
-import android.support.v4.content.LocalBroadcastManager;
+import android.os.Process;
 import android.text.format.DateUtils;
 
-import com.schillingcoin.schillingcoin_android_wallet.AddressBookProvider;
 import com.schillingcoin.schillingcoin_android_wallet.Configuration;
 import com.schillingcoin.schillingcoin_android_wallet.Constants;
 import com.schillingcoin.schillingcoin_android_wallet.WalletApplication;
@@ -93,6 +106,7 @@ import com.schillingcoin.schillingcoin_android_wallet.ui.BlockchainData;
 import com.schillingcoin.schillingcoin_android_wallet.ui.BlockchainLoader;
 import com.schillingcoin.schillingcoin_android_wallet.ui.WalletActivity;
 import com.schillingcoin.schillingcoin_android_wallet.util.CrashReporter;
+import com.schillingcoin.schillingcoin_android_wallet.util.MemoryGovernor;
 import com.schillingcoin.schillingcoin_android_wallet.util.ThrottlingWalletChangeListener;
 import com.schillingcoin.schillingcoin_android_wallet.util.WalletUtils;
 import com.schillingcoin.schillingcoin_android_wallet.R;
@@ -114,23 +128,27 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
     private final Handler handler = new Handler();
     private final Handler delayHandler = new Handler();
+    private HandlerThread backgroundThread;
+    private Handler backgroundHandler;
     private WakeLock wakeLock;
 
     BlockchainLoader loadBlockchain = null;
     PeerDBDiscoveryLoader loadPDB = null;
 
     private PeerConnectivityListener peerConnectivityListener;
+    private PeerScoreListener peerScoreListener;
+    private PeerCountController peerCountController;
     private NotificationManager nm;
     private static final int NOTIFICATION_ID_CONNECTED = 0;
     private static final int NOTIFICATION_ID_COINS_RECEIVED = 1;
 
     private final Set<Impediment> impediments = EnumSet.noneOf(Impediment.class);
-    private int notificationCount = 0;
-    private Coin notificationAccumulatedAmount = Coin.ZERO;
-    private final List<Address> notificationAddresses = new LinkedList<Address>();
+    private CoinsReceivedNotifier coinsReceivedNotifier;
     private AtomicInteger transactionsReceived = new AtomicInteger();
     private long serviceCreatedAt;
     private boolean resetBlockchainOnShutdown = false;
+    private final SyncMetrics syncMetrics = new SyncMetrics(System.currentTimeMillis());
+    private final RecentBlocks recentBlocks = new RecentBlocks(MAX_RECENT_BLOCKS);
 
     private static final int MIN_COLLECT_HISTORY = 2;
     private static final int IDLE_BLOCK_TIMEOUT_MIN = 2;
@@ -138,6 +156,13 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
     private static final int MAX_HISTORY_SIZE = Math.max(IDLE_TRANSACTION_TIMEOUT_MIN, IDLE_BLOCK_TIMEOUT_MIN);
     private static final long APPWIDGET_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
     private static final long BLOCKCHAIN_STATE_BROADCAST_THROTTLE_MS = DateUtils.SECOND_IN_MILLIS;
+    private static final long PEER_DISCOVERY_TIMEOUT_MS = 5 * DateUtils.SECOND_IN_MILLIS;
+    private static final long PEER_COUNT_INTERVAL_MS = DateUtils.MINUTE_IN_MILLIS;
+    private static final int MAX_RECENT_BLOCKS = 64;
+    private static final int PEER_BYTES = 64 * 1024; // rough estimate of buffers and state per peer, for logging
+    private static final int MIN_BROADCAST_PEERS = 2;
+    private static final int BROADCAST_BATCH_SIZE = 8;
+    private static final long BROADCAST_KEEPALIVE_MS = 15 * DateUtils.MINUTE_IN_MILLIS;
 
     private static final Logger log = LoggerFactory.getLogger(BlockchainServiceImpl.class);
 
@@ -161,19 +186,15 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             final Coin amount = tx.getValue(wallet);
             final ConfidenceType confidenceType = tx.getConfidence().getConfidenceType();
 
-            handler.post(new Runnable()
-                    {
-                        @Override
-                        public void run()
-                        {
-                            final boolean isReceived = amount.signum() > 0;
-                            final boolean replaying = bestChainHeight < config.getBestChainHeightEver();
-                            final boolean isReplayedTx = confidenceType == ConfidenceType.BUILDING && replaying;
+            final boolean isReceived = amount.signum() > 0;
+            final boolean replaying = bestChainHeight < config.getBestChainHeightEver();
+            final boolean isReplayedTx = confidenceType == ConfidenceType.BUILDING && replaying;
 
-                            if (isReceived && !isReplayedTx)
-                                notifyCoinsReceived(from, amount);
-                        }
-                    });
+            if (isReceived && !isReplayedTx)
+            {
+                application.getSyncScheduler().recordPayment();
+                coinsReceivedNotifier.add(from, amount);
+            }
         }
 
         @Override
@@ -187,48 +208,6 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         return bcd == null ? config.getBestChainHeightEver() : bcd.blockChain.getBestChainHeight();
     }
 
-    private void notifyCoinsReceived(@Nullable final Address from, @Nonnull final Coin amount)
-    {
-        if (notificationCount == 1)
-            nm.cancel(NOTIFICATION_ID_COINS_RECEIVED);
-
-        notificationCount++;
-        notificationAccumulatedAmount = notificationAccumulatedAmount.add(amount);
-        if (from != null && !notificationAddresses.contains(from))
-            notificationAddresses.add(from);
-
-        final MonetaryFormat oesFormat = config.getFormat();
-
-        final String packageFlavor = application.applicationPackageFlavor();
-        final String msgSuffix = packageFlavor != null ? " [" + packageFlavor + "]" : "";
-
-        final String tickerMsg = getString(R.string.notification_coins_received_msg, oesFormat.format(amount)) + msgSuffix;
-        final String msg = getString(R.string.notification_coins_received_msg, oesFormat.format(notificationAccumulatedAmount)) + msgSuffix;
-
-        final StringBuilder text = new StringBuilder();
-        for (final Address address : notificationAddresses)
-        {
-            if (text.length() > 0)
-                text.append(", ");
-
-            final String addressStr = address.toString();
-            final String label = AddressBookProvider.resolveLabel(getApplicationContext(), addressStr);
-            text.append(label != null ? label : addressStr);
-        }
-
-        final Notification.Builder notification = new Notification.Builder(this);
-        notification.setSmallIcon(R.drawable.stat_notify_received);
-        notification.setTicker(tickerMsg);
-        notification.setContentTitle(msg);
-        if (text.length() > 0)
-            notification.setContentText(text);
-        notification.setContentIntent(PendingIntent.getActivity(this, 0, new Intent(this, WalletActivity.class), 0));
-        notification.setNumber(notificationCount == 1 ? 0 : notificationCount);
-        notification.setWhen(System.currentTimeMillis());
-        notification.setSound(Uri.parse("android.resource://" + getPackageName() + "/" + R.raw.coins_received));
-        nm.notify(NOTIFICATION_ID_COINS_RECEIVED, notification.getNotification());
-    }
-
     private final class PeerConnectivityListener extends AbstractPeerEventListener implements OnSharedPreferenceChangeListener
     {
         private int peerCount;
@@ -306,15 +285,140 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         }
     }
 
+    private final class PeerScoreListener extends AbstractPeerEventListener
+    {
+        private final PeerScoreStore peerScores;
+        private final Set<InetSocketAddress> connected = Collections.synchronizedSet(new HashSet<InetSocketAddress>());
+
+        public PeerScoreListener(final PeerScoreStore peerScores)
+        {
+            this.peerScores = peerScores;
+        }
+
+        @Override
+        public void onPeerConnected(final Peer peer, final int peerCount)
+        {
+            final InetSocketAddress address = peer.getAddress().toSocketAddress();
+            connected.add(address);
+            peerScores.recordConnected(address, System.currentTimeMillis());
+        }
+
+        @Override
+        public void onPeerDisconnected(final Peer peer, final int peerCount)
+        {
+            final InetSocketAddress address = peer.getAddress().toSocketAddress();
+
+            // peers that go away before completing the handshake count as failed
+            if (connected.remove(address))
+                peerScores.recordPing(address, peer.getPingTime());
+            else
+                peerScores.recordFailure(address);
+        }
+
+        @Override
+        public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
+        {
+            peerScores.recordBlock(peer.getAddress().toSocketAddress());
+        }
+
+        public void save(@Nullable final PeerGroup peerGroup)
+        {
+            if (peerGroup != null)
+                for (final Peer peer : peerGroup.getConnectedPeers())
+                    peerScores.recordPing(peer.getAddress().toSocketAddress(), peer.getPingTime());
+
+            try
+            {
+                peerScores.save();
+            }
+            catch (final IOException x)
+            {
+                log.warn("problem saving peer scores", x);
+            }
+        }
+    }
+
+    // hashes of queued transactions handed to registeredBroadcastsGroup, a new peer group has to be handed them again
+    private final Set<String> registeredBroadcasts = new HashSet<String>();
+    private PeerGroup registeredBroadcastsGroup = null;
+
+    private final PeerEventListener broadcastQueueListener = new AbstractPeerEventListener()
+    {
+        @Override
+        public void onPeerConnected(final Peer peer, final int peerCount)
+        {
+            postFlushBroadcastQueue();
+        }
+    };
+
+    private final Runnable flushBroadcastQueueRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            flushBroadcastQueue();
+        }
+    };
+
+    private final PeerEventListener metricsListener = new AbstractPeerEventListener()
+    {
+        @Override
+        public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
+        {
+            syncMetrics.recordBlock(System.currentTimeMillis());
+        }
+
+        @Override
+        public void onTransaction(final Peer peer, final Transaction tx)
+        {
+            syncMetrics.recordTransaction(System.currentTimeMillis());
+        }
+    };
+
+    private final BlockChainListener recentBlocksListener = new AbstractBlockChainListener()
+    {
+        @Override
+        public void reorganize(final StoredBlock splitPoint, final List<StoredBlock> oldBlocks, final List<StoredBlock> newBlocks)
+        {
+            log.info("reorganize at {}, {} blocks replaced by {}", splitPoint.getHeight(), oldBlocks.size(), newBlocks.size());
+            recentBlocks.reorganize(splitPoint, newBlocks);
+        }
+    };
+
     private final PeerEventListener blockchainDownloadListener = new AbstractPeerEventListener()
     {
         private final AtomicLong lastMessageTime = new AtomicLong(0);
+        private final AtomicLong syncStartedAt = new AtomicLong(0);
+
+        @Override
+        public void onChainDownloadStarted(final Peer peer, final int blocksLeft)
+        {
+            // only catching up tells how long a sync takes; a switch of download peer does not restart the clock
+            if (blocksLeft > 0)
+                syncStartedAt.compareAndSet(0, System.currentTimeMillis());
+        }
 
         @Override
         public void onBlocksDownloaded(final Peer peer, final Block block, final int blocksLeft)
         {
             config.maybeIncrementBestChainHeightEver(bcd.blockChain.getChainHead().getHeight());
 
+            if (blocksLeft == 0)
+            {
+                final long startedAt = syncStartedAt.getAndSet(-1);
+                if (startedAt > 0)
+                    application.getSyncScheduler().recordSyncDuration(System.currentTimeMillis() - startedAt);
+            }
+
+            try
+            {
+                recentBlocks.update(bcd.blockChain.getChainHead(), bcd.blockStore);
+            }
+            catch (final BlockStoreException x)
+            {
+                log.warn("cannot update recent blocks", x);
+            }
+
             delayHandler.removeCallbacksAndMessages(null);
 
             final long now = System.currentTimeMillis();
@@ -356,12 +460,25 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 CrashReporter.saveBackgroundTrace(new RuntimeException(message), application.packageInfo());
             }
 
+            final PeerScoreStore peerScores = bcd.peerScores;
+
             log.info("starting peergroup");
-            peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, bcd.blockChain);
+            peerGroup = new PeerGroup(Constants.NETWORK_PARAMETERS, bcd.blockChain)
+            {
+                @Override
+                protected Peer createPeer(final PeerAddress address, final VersionMessage ver)
+                {
+                    // called as the connection is opened, so connect latency is measured from the dial
+                    peerScores.recordDialled(address.toSocketAddress(), System.currentTimeMillis());
+                    return super.createPeer(address, ver);
+                }
+            };
             peerGroup.setDownloadTxDependencies(false); // recursive implementation causes StackOverflowError
             peerGroup.addWallet(wallet);
             peerGroup.setUserAgent(Constants.USER_AGENT, application.packageInfo().versionName);
             peerGroup.addEventListener(peerConnectivityListener);
+            peerGroup.addEventListener(metricsListener, Threading.SAME_THREAD);
+            peerGroup.addEventListener(broadcastQueueListener);
 
             final int maxConnectedPeers = application.maxConnectedPeers();
 
@@ -386,8 +503,55 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                 loadPDB.startLoading();
             }
 
+            peerScoreListener = new PeerScoreListener(peerScores);
+            peerGroup.addEventListener(peerScoreListener, Threading.SAME_THREAD);
+
+            final PeerDiscovery normalPeerDiscovery = new DnsDiscovery(Constants.NETWORK_PARAMETERS);
+            final AtomicReference<FutureTask<InetSocketAddress[]>> prefetchedPeers = new AtomicReference<FutureTask<InetSocketAddress[]>>();
+
+            if (!hasTrustedPeer)
+            {
+                // dial the best known peers right away, while seeds are resolved in the background
+                final List<InetSocketAddress> bestPeers = peerScores.getBestPeers(maxConnectedPeers);
+                for (final InetSocketAddress address : bestPeers)
+                    peerGroup.addAddress(new PeerAddress(address.getAddress(), address.getPort()));
+                log.info("warm start with {} of {} known peers", bestPeers.size(), peerScores.size());
+
+                final FutureTask<InetSocketAddress[]> prefetch = new FutureTask<InetSocketAddress[]>(new Callable<InetSocketAddress[]>()
+                {
+                    @Override
+                    public InetSocketAddress[] call() throws PeerDiscoveryException
+                    {
+                        return normalPeerDiscovery.getPeers(PEER_DISCOVERY_TIMEOUT_MS, TimeUnit.MILLISECONDS);
+                    }
+                });
+                prefetchedPeers.set(prefetch);
+                new Thread(prefetch, "peer discovery prefetch").start();
+            }
+
             peerGroup.addPeerDiscovery(new PeerDiscovery() {
-                private final PeerDiscovery normalPeerDiscovery = new DnsDiscovery(Constants.NETWORK_PARAMETERS);
+                private InetSocketAddress[] discoverPeers(final long timeoutValue, final TimeUnit timeoutUnit) throws PeerDiscoveryException
+                {
+                    final FutureTask<InetSocketAddress[]> prefetch = prefetchedPeers.getAndSet(null);
+                    if (prefetch == null)
+                        return normalPeerDiscovery.getPeers(timeoutValue, timeoutUnit);
+
+                    try
+                    {
+                        return prefetch.get();
+                    }
+                    catch (final InterruptedException x)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new PeerDiscoveryException(x);
+                    }
+                    catch (final ExecutionException x)
+                    {
+                        if (x.getCause() instanceof PeerDiscoveryException)
+                            throw (PeerDiscoveryException) x.getCause();
+                        throw new PeerDiscoveryException(x.getCause());
+                    }
+                }
 
                 @Override
                 public InetSocketAddress[] getPeers(final long timeoutValue, final TimeUnit timeoutUnit) throws PeerDiscoveryException
@@ -409,7 +573,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                     }
 
                     if (!connectTrustedPeerOnly)
-                        peers.addAll(Arrays.asList(normalPeerDiscovery.getPeers(timeoutValue, timeoutUnit)));
+                        peers.addAll(Arrays.asList(discoverPeers(timeoutValue, timeoutUnit)));
 
                     // workaround because PeerGroup will shuffle peers
                     if (needsTrimPeersWorkaround)
@@ -421,6 +585,10 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
                 @Override
                 public void shutdown() {
+                    final FutureTask<InetSocketAddress[]> prefetch = prefetchedPeers.getAndSet(null);
+                    if (prefetch != null)
+                        prefetch.cancel(true);
+
                     normalPeerDiscovery.shutdown();
                 }
             });
@@ -428,11 +596,22 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             // start peergroup
             peerGroup.startAsync();
             peerGroup.startBlockChainDownload(blockchainDownloadListener);
+
+            if (!connectTrustedPeerOnly)
+            {
+                peerCountController = new PeerCountController(Constants.MIN_CONNECTED_PEERS, application.peakConnectedPeers(), maxConnectedPeers);
+                handler.postDelayed(peerCountRunnable, PEER_COUNT_INTERVAL_MS);
+            }
         }
         else if (!impediments.isEmpty() && peerGroup != null)
         {
             log.info("stopping peergroup");
+            handler.removeCallbacks(peerCountRunnable);
+            peerCountController = null;
             peerGroup.removeEventListener(peerConnectivityListener);
+            peerGroup.removeEventListener(metricsListener);
+            peerGroup.removeEventListener(broadcastQueueListener);
+            peerGroup.removeEventListener(peerScoreListener);
             peerGroup.removeWallet(wallet);
             peerGroup.stopAsync();
             peerGroup = null;
@@ -444,6 +623,39 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         broadcastBlockchainState();
     }
 
+    private final Runnable peerCountRunnable = new Runnable()
+    {
+        @Override
+        public void run()
+        {
+            final PeerGroup peerGroup = BlockchainServiceImpl.this.peerGroup;
+            final PeerCountController peerCountController = BlockchainServiceImpl.this.peerCountController;
+            if (peerGroup == null || peerCountController == null)
+                return;
+
+            final int blocksLeft = peerGroup.numConnectedPeers() > 0 ? peerGroup.getMostCommonChainHeight() - bcd.blockChain.getBestChainHeight() : -1;
+            final double blocksPerSecond = syncMetrics.blocksPerSecond(System.currentTimeMillis());
+            final boolean lowMemory = application.isLowOnMemory()
+                    || application.getMemoryGovernor().getLevel() >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND;
+            final int maxConnections = peerCountController.update(blocksPerSecond, blocksLeft, isCharging(), lowMemory);
+
+            if (maxConnections != peerGroup.getMaxConnections())
+            {
+                log.info("{} blocks left at {} blocks/s, adjusting max connections from {} to {}", blocksLeft,
+                        String.format(Locale.US, "%.1f", blocksPerSecond), peerGroup.getMaxConnections(), maxConnections);
+                peerGroup.setMaxConnections(maxConnections);
+            }
+
+            handler.postDelayed(this, PEER_COUNT_INTERVAL_MS);
+        }
+    };
+
+    private boolean isCharging()
+    {
+        final Intent batteryChanged = registerReceiver(null, new IntentFilter(Intent.ACTION_BATTERY_CHANGED));
+        return batteryChanged != null && batteryChanged.getIntExtra(BatteryManager.EXTRA_PLUGGED, 0) != 0;
+    }
+
     private final BroadcastReceiver connectivityReceiver = new BroadcastReceiver()
     {
         @Override
@@ -522,6 +734,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                     builder.append(entry);
                 }
                 log.info("History of transactions/blocks: " + builder);
+                log.info("Sync metrics: " + getSyncMetrics());
 
                 // determine if block and transaction activity is idling
                 boolean isIdle = false;
@@ -542,6 +755,15 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                     }
                 }
 
+                postFlushBroadcastQueue();
+
+                // stay around for a while if transactions have not made it to the network yet
+                final BroadcastQueue broadcastQueue = application.getBroadcastQueue();
+                if (isIdle && !broadcastQueue.isEmpty() && broadcastQueue.getOldestAgeMs(System.currentTimeMillis()) < BROADCAST_KEEPALIVE_MS) {
+                    log.info("idling, but {} transactions still queued for broadcast", broadcastQueue.size());
+                    isIdle = false;
+                }
+
                 // if idling, shutdown service
                 if (isIdle) {
                     log.info("idling detected, stopping service");
@@ -591,12 +813,22 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
 
         application = (WalletApplication) getApplication();
 
+        backgroundThread = new HandlerThread("backgroundThread", Process.THREAD_PRIORITY_BACKGROUND);
+        backgroundThread.start();
+        backgroundHandler = new Handler(backgroundThread.getLooper());
+
+        final MemoryGovernor memoryGovernor = application.getMemoryGovernor();
+        memoryGovernor.register(peerShedder, ComponentCallbacks2.TRIM_MEMORY_BACKGROUND);
+        memoryGovernor.register(recentBlocks, ComponentCallbacks2.TRIM_MEMORY_MODERATE);
+
         application.setOnLoadedCallback(new Runnable () {
 
             @Override
             public void run() {
 
                 config = application.getConfiguration();
+                coinsReceivedNotifier = new CoinsReceivedNotifier(BlockchainServiceImpl.this, nm, config, NOTIFICATION_ID_COINS_RECEIVED,
+                        application.applicationPackageFlavor());
                 peerConnectivityListener = new PeerConnectivityListener();
                 broadcastPeerState(0);
 
@@ -622,6 +854,7 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
     @Override
     public void onLoadComplete(Loader<BlockchainData> loader, BlockchainData data) {
         bcd = data;
+        bcd.blockChain.addListener(recentBlocksListener, Threading.SAME_THREAD);
         check();
     }
 
@@ -636,24 +869,23 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             final String action = intent.getAction();
 
             if (BlockchainService.ACTION_CANCEL_COINS_RECEIVED.equals(action)) {
-                notificationCount = 0;
-                notificationAccumulatedAmount = Coin.ZERO;
-                notificationAddresses.clear();
-
-                nm.cancel(NOTIFICATION_ID_COINS_RECEIVED);
+                if (coinsReceivedNotifier != null)
+                    coinsReceivedNotifier.cancel();
+                else
+                    nm.cancel(NOTIFICATION_ID_COINS_RECEIVED);
             } else if (BlockchainService.ACTION_RESET_BLOCKCHAIN.equals(action)) {
                 log.info("will remove blockchain on service shutdown");
                 resetBlockchainOnShutdown = true;
                 stopSelf();
             } else if (BlockchainService.ACTION_BROADCAST_TRANSACTION.equals(action)) {
                 final Sha256Hash hash = new Sha256Hash(intent.getByteArrayExtra(BlockchainService.ACTION_BROADCAST_TRANSACTION_HASH));
-                final Transaction tx = application.getWallet().getTransaction(hash);
 
+                // already queued by the application, see WalletApplication.broadcastTransaction()
                 if (peerGroup != null) {
-                    log.info("broadcasting transaction " + tx.getHashAsString());
-                    peerGroup.broadcastTransaction(tx);
+                    log.info("broadcasting transaction " + hash);
+                    postFlushBroadcastQueue();
                 } else
-                    log.info("peergroup not available, not broadcasting transaction " + tx.getHashAsString());
+                    log.info("peergroup not available, transaction " + hash + " stays queued");
 
             }
 
@@ -679,15 +911,25 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
             bcd = new BlockchainData(this);
 
         if (bcd != null) {
+            if (bcd.blockChain != null)
+                bcd.blockChain.removeListener(recentBlocksListener);
             bcd.delete(resetBlockchainOnShutdown);
             bcd = null;
         }
 
+        application.getMemoryGovernor().unregister(peerShedder);
+        application.getMemoryGovernor().unregister(recentBlocks);
+
         application.scheduleStartBlockchainService();
         unregisterReceiver(tickReceiver);
         unregisterReceiver(connectivityReceiver);
         application.getWallet().removeEventListener(walletEventListener);
         delayHandler.removeCallbacksAndMessages(null);
+        handler.removeCallbacks(peerCountRunnable);
+        backgroundHandler.removeCallbacksAndMessages(null);
+        backgroundThread.getLooper().quit();
+        if (coinsReceivedNotifier != null)
+            coinsReceivedNotifier.stop();
 
         // Use a Thread to do the shutdown which takes some significant time.
         // As this is used rarely, do not use a Thread pool?
@@ -703,9 +945,17 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
                         loadPDB.stopLoading();
 
                     peerGroup.removeEventListener(peerConnectivityListener);
+                    peerGroup.removeEventListener(metricsListener);
+                    peerGroup.removeEventListener(broadcastQueueListener);
+                    peerGroup.removeEventListener(peerScoreListener);
+                    peerScoreListener.save(peerGroup);
                     peerGroup.removeWallet(application.getWallet());
                     peerGroup.stopAsync();
 
+                } else if (peerScoreListener != null) {
+
+                    peerScoreListener.save(null);
+
                 }
 
                 peerConnectivityListener.stop();
@@ -727,15 +977,43 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
         log.info("service was up for " + ((System.currentTimeMillis() - serviceCreatedAt) / 1000 / 60) + " minutes");
     }
 
-    @Override
-    public void onTrimMemory(final int level) {
-        log.info("onTrimMemory({}) called", level);
+    /**
+     * Gives up peers as memory gets tight. Only when the process is next in line to be killed is the service stopped, so the
+     * wallet is saved and sync resumes from there.
+     */
+    private final MemoryGovernor.Sheddable peerShedder = new MemoryGovernor.Sheddable()
+    {
+        @Override
+        public long getSheddableBytes()
+        {
+            final PeerGroup peerGroup = BlockchainServiceImpl.this.peerGroup;
+            return peerGroup != null ? (long) peerGroup.numConnectedPeers() * PEER_BYTES : 0;
+        }
 
-        if (level >= ComponentCallbacks2.TRIM_MEMORY_BACKGROUND) {
-            log.warn("low memory detected, stopping service");
-            stopSelf();
+        @Override
+        public void shed(final int level)
+        {
+            if (level >= ComponentCallbacks2.TRIM_MEMORY_COMPLETE)
+            {
+                log.warn("trim level {}, stopping service", level);
+                stopSelf();
+                return;
+            }
+
+            final PeerGroup peerGroup = BlockchainServiceImpl.this.peerGroup;
+            if (peerGroup == null)
+                return;
+
+            final int current = peerGroup.getMaxConnections();
+            final int target = level >= ComponentCallbacks2.TRIM_MEMORY_MODERATE ? Constants.MIN_CONNECTED_PEERS : current / 2;
+            final int maxConnections = Math.min(current, Math.max(Constants.MIN_CONNECTED_PEERS, target));
+            if (maxConnections != current)
+            {
+                log.info("trim level {}, reducing max connections from {} to {}", level, current, maxConnections);
+                peerGroup.setMaxConnections(maxConnections);
+            }
         }
-    }
+    };
 
     @Override
     public BlockchainState getBlockchainState()
@@ -763,48 +1041,129 @@ public class BlockchainServiceImpl extends android.app.Service implements Blockc
     @Override
     public List<StoredBlock> getRecentBlocks(final int maxBlocks)
     {
-        final List<StoredBlock> blocks = new ArrayList<StoredBlock>(maxBlocks);
-
         if (bcd == null)
-            return blocks;
+            return new ArrayList<StoredBlock>(0);
 
         try
         {
-            StoredBlock block = bcd.blockChain.getChainHead();
+            // normally a no-op, the ring follows the chain head through the listeners
+            recentBlocks.update(bcd.blockChain.getChainHead(), bcd.blockStore);
 
-            while (block != null)
-            {
-                blocks.add(block);
+            final List<StoredBlock> blocks = recentBlocks.get(maxBlocks);
 
-                if (blocks.size() >= maxBlocks)
+            // only asking for more than the ring holds needs the store
+            while (!blocks.isEmpty() && blocks.size() < maxBlocks)
+            {
+                final StoredBlock prev = blocks.get(blocks.size() - 1).getPrev(bcd.blockStore);
+                if (prev == null)
                     break;
-
-                block = block.getPrev(bcd.blockStore);
+                blocks.add(prev);
             }
+
+            return blocks;
         }
         catch (final BlockStoreException x)
         {
-            // swallow
+            return recentBlocks.get(maxBlocks);
+        }
+    }
+
+    @Override
+    public SyncMetrics.Snapshot getSyncMetrics()
+    {
+        final long now = System.currentTimeMillis();
+        final int uid = Process.myUid();
+        syncMetrics.sampleTraffic(now, TrafficStats.getUidRxBytes(uid), TrafficStats.getUidTxBytes(uid));
+
+        final PeerGroup peerGroup = this.peerGroup;
+        final List<Peer> peers = peerGroup != null ? peerGroup.getConnectedPeers() : Collections.<Peer> emptyList();
+        final String[] peerHosts = new String[peers.size()];
+        final long[] peerPingMs = new long[peers.size()];
+        for (int i = 0; i < peerHosts.length; i++)
+        {
+            final Peer peer = peers.get(i);
+            peerHosts[i] = peer.getAddress().getAddr().getHostAddress();
+            peerPingMs[i] = peer.getPingTime();
         }
 
-        return blocks;
+        final int bestChainHeight = bcd != null ? bcd.blockChain.getBestChainHeight() : 0;
+
+        return syncMetrics.snapshot(now, bestChainHeight, peerHosts, peerPingMs);
     }
 
-    private void broadcastPeerState(final int numPeers)
+    /**
+     * Flushes the broadcast queue off the main thread, as the queue writes its file on every change.
+     */
+    private void postFlushBroadcastQueue()
     {
-        final Intent broadcast = new Intent(ACTION_PEER_STATE);
-        broadcast.setPackage(getPackageName());
-        broadcast.putExtra(ACTION_PEER_STATE_NUM_PEERS, numPeers);
+        backgroundHandler.removeCallbacks(flushBroadcastQueueRunnable);
+        backgroundHandler.post(flushBroadcastQueueRunnable);
+    }
+
+    /**
+     * Announces due transactions from the broadcast queue once enough peers are connected. A transaction is dequeued when a peer
+     * announces it back, when it is no longer pending or when the wallet forgot about it.
+     */
+    private synchronized void flushBroadcastQueue()
+    {
+        final PeerGroup peerGroup = this.peerGroup;
+        final BroadcastQueue queue = application.getBroadcastQueue();
+        if (peerGroup != registeredBroadcastsGroup)
+        {
+            registeredBroadcasts.clear();
+            registeredBroadcastsGroup = peerGroup;
+        }
+        if (peerGroup == null || queue.isEmpty())
+            return;
 
-        LocalBroadcastManager.getInstance(this).sendBroadcast(broadcast);
+        final List<Peer> peers = peerGroup.getConnectedPeers();
+        if (peers.size() < Math.min(MIN_BROADCAST_PEERS, peerGroup.getMaxConnections()))
+            return;
+
+        final Map<String, Peer> peersByAddress = new HashMap<String, Peer>(peers.size());
+        for (final Peer peer : peers)
+            peersByAddress.put(peer.getAddress().toString(), peer);
+        final List<String> addresses = new ArrayList<String>(peersByAddress.keySet());
+
+        final long now = System.currentTimeMillis();
+        final Wallet wallet = application.getWallet();
+
+        for (final String hash : queue.due(now, BROADCAST_BATCH_SIZE))
+        {
+            final Transaction tx = wallet.getTransaction(new Sha256Hash(hash));
+            if (tx == null || tx.getConfidence().getConfidenceType() != ConfidenceType.PENDING || tx.getConfidence().numBroadcastPeers() > 0)
+            {
+                log.info("transaction {} has been seen or is gone, dequeueing", hash);
+                queue.remove(hash);
+                continue;
+            }
+
+            if (registeredBroadcasts.add(hash))
+            {
+                // the first round goes through the peer group, which registers the transaction for confidence tracking, so
+                // peers announcing it back count towards numBroadcastPeers(); it picks its own half of the peers
+                log.info("broadcasting transaction {} through the peer group", hash);
+                queue.markAnnounced(hash, now);
+                peerGroup.broadcastTransaction(tx);
+                continue;
+            }
+
+            for (final String address : queue.announce(hash, addresses, now))
+            {
+                log.info("announcing transaction {} to {}", hash, address);
+                peersByAddress.get(address).sendMessage(tx);
+            }
+        }
+    }
+
+    private void broadcastPeerState(final int numPeers)
+    {
+        application.getPeerStateBus().publish(numPeers);
     }
 
     private void broadcastBlockchainState()
     {
-        final Intent broadcast = new Intent(ACTION_BLOCKCHAIN_STATE);
-        broadcast.setPackage(getPackageName());
-        getBlockchainState().putExtras(broadcast);
-        LocalBroadcastManager.getInstance(this).sendBroadcast(broadcast);
+        application.getBlockchainStateBus().publish(getBlockchainState());
     }
 
 }
@@ -21,19 +21,13 @@ import java.util.Date;
 import java.util.EnumSet;
 import java.util.Set;
 
-import android.content.Intent;
-
 /**
+ * Immutable snapshot of the chain sync state, published through {@link com.schillingcoin.schillingcoin_android_wallet.WalletApplication#getBlockchainStateBus()}.
+ * 
  * @author Andreas Schildbach
  */
 public class BlockchainState
 {
-	private static final String EXTRA_BEST_CHAIN_DATE = "best_chain_date";
-	private static final String EXTRA_BEST_CHAIN_HEIGHT = "best_chain_height";
-	private static final String EXTRA_REPLAYING = "replaying";
-	private static final String EXTRA_IMPEDIMENTS = "impediment";
-    private static final String EXTRA_LOADED = "loaded";
-
 	public enum Impediment
 	{
 		STORAGE, NETWORK
@@ -61,34 +55,4 @@ public class BlockchainState
 		this.impediments = EnumSet.copyOf(impediments);
         this.loaded = true;
 	}
-
-	public static BlockchainState fromIntent(final Intent intent)
-	{
-
-        if (!intent.getBooleanExtra(EXTRA_LOADED, false))
-            return new BlockchainState();
-
-		final Date bestChainDate = (Date) intent.getSerializableExtra(EXTRA_BEST_CHAIN_DATE);
-		final int bestChainHeight = intent.getIntExtra(EXTRA_BEST_CHAIN_HEIGHT, -1);
-		final boolean replaying = intent.getBooleanExtra(EXTRA_REPLAYING, false);
-		final Set<Impediment> impediments = (Set<Impediment>) intent.getSerializableExtra(EXTRA_IMPEDIMENTS);
-
-		return new BlockchainState(bestChainDate, bestChainHeight, replaying, impediments);
-
-	}
-
-	public void putExtras(final Intent intent)
-	{
-
-        intent.putExtra(EXTRA_LOADED, loaded);
-
-        if (!loaded)
-            return;
-
-		intent.putExtra(EXTRA_BEST_CHAIN_DATE, bestChainDate);
-		intent.putExtra(EXTRA_BEST_CHAIN_HEIGHT, bestChainHeight);
-		intent.putExtra(EXTRA_REPLAYING, replaying);
-		intent.putExtra(EXTRA_IMPEDIMENTS, impediments);
-
-	}
 }
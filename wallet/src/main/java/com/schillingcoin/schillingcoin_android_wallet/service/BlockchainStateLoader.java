@@ -23,16 +23,14 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.schillingcoin.schillingcoin_android_wallet.WalletApplication;
+import com.schillingcoin.schillingcoin_android_wallet.util.StateBus;
 
 import android.content.AsyncTaskLoader;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 
 import static junit.framework.Assert.assertTrue;
 
@@ -41,7 +39,7 @@ import static junit.framework.Assert.assertTrue;
  */
 public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState>
 {
-	private final LocalBroadcastManager broadcastManager;
+	private final StateBus<BlockchainState> stateBus;
 	private BlockchainService service;
 
 	private static final Logger log = LoggerFactory.getLogger(BlockchainStateLoader.class);
@@ -50,7 +48,7 @@ public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState>
 	{
 		super(context);
 
-		this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+		this.stateBus = ((WalletApplication) context.getApplicationContext()).getBlockchainStateBus();
 	}
 
 	@Override
@@ -58,8 +56,9 @@ public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState>
 	{
 		super.onStartLoading();
 
-		broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
 		final Context context = getContext();
+		stateBus.subscribe(stateListener, StateBus.<BlockchainState> anyChange(),
+				((WalletApplication) context.getApplicationContext()).getMainThreadExecutor());
 	
 		assertTrue(((WalletApplication)context.getApplicationContext()).getConfiguration() != null);
 		
@@ -69,7 +68,7 @@ public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState>
 	@Override
 	protected void onStopLoading()
 	{
-		broadcastManager.unregisterReceiver(broadcastReceiver);
+		stateBus.unsubscribe(stateListener);
 
 		super.onStopLoading();
 	}
@@ -101,14 +100,14 @@ public class BlockchainStateLoader extends AsyncTaskLoader<BlockchainState>
 		}
 	};
 
-	private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+	private final StateBus.Listener<BlockchainState> stateListener = new StateBus.Listener<BlockchainState>()
 	{
 		@Override
-		public void onReceive(final Context context, final Intent broadcast)
+		public void onStateChanged(final BlockchainState state, final long version)
 		{
 			try
 			{
-				deliverResult(BlockchainState.fromIntent(broadcast));
+				deliverResult(state);
 			}
 			catch (final RejectedExecutionException x)
 			{
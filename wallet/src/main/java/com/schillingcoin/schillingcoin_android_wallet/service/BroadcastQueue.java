@@ -0,0 +1,294 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Transactions waiting to be seen on the network, keyed by transaction hash. The queue itself is saved on every change, so
+ * transactions created while offline are still announced after the service or the whole app was restarted. Announce counts
+ * per peer are only kept for the lifetime of the process.
+ */
+public final class BroadcastQueue
+{
+	private static final int MAGIC = 0x42513031; // "BQ01"
+
+	/** Wait this long for a transaction to be announced back before announcing it to more peers. */
+	public static final long RETRY_MS = 60 * 1000L;
+	/** Transactions still not seen after this long are given up on. */
+	public static final long MAX_AGE_MS = 7 * 24 * 60 * 60 * 1000L;
+	private static final int MAX_ANNOUNCES_PER_PEER = 3;
+
+	private final File file;
+	private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+	private static final Logger log = LoggerFactory.getLogger(BroadcastQueue.class);
+
+	private static final class Entry
+	{
+		final long enqueuedAt;
+		long lastAnnouncedAt = -1; // never
+		final Map<String, Integer> announces = new HashMap<String, Integer>();
+
+		Entry(final long enqueuedAt)
+		{
+			this.enqueuedAt = enqueuedAt;
+		}
+
+		int announces(final String peer)
+		{
+			final Integer count = announces.get(peer);
+			return count != null ? count : 0;
+		}
+	}
+
+	private BroadcastQueue(@Nonnull final File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Loads the queue from disk. A missing or unreadable file yields an empty queue.
+	 */
+	public static BroadcastQueue load(@Nonnull final File file)
+	{
+		final BroadcastQueue queue = new BroadcastQueue(file);
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (is.readInt() != MAGIC)
+				throw new IOException("bad magic");
+
+			final int numEntries = is.readInt();
+			for (int i = 0; i < numEntries; i++)
+			{
+				final String hash = is.readUTF();
+				queue.entries.put(hash, new Entry(is.readLong()));
+			}
+
+			log.info("loaded {} queued transactions from '{}'", queue.entries.size(), file);
+		}
+		catch (final FileNotFoundException x)
+		{
+			// nothing queued yet
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading broadcast queue, starting over", x);
+			queue.entries.clear();
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+
+		return queue;
+	}
+
+	/**
+	 * @return true if the transaction was not queued already
+	 */
+	public synchronized boolean add(@Nonnull final String txHash, final long nowMs)
+	{
+		if (entries.containsKey(txHash))
+			return false;
+
+		entries.put(txHash, new Entry(nowMs));
+		save();
+		return true;
+	}
+
+	/**
+	 * Drops a transaction, because it has been seen on the network, got into a block or is no longer valid.
+	 */
+	public synchronized void remove(@Nonnull final String txHash)
+	{
+		if (entries.remove(txHash) != null)
+			save();
+	}
+
+	/**
+	 * @return up to {@code max} transactions that should be announced now, oldest first
+	 */
+	public synchronized List<String> due(final long nowMs, final int max)
+	{
+		final List<String> due = new ArrayList<String>();
+		boolean expired = false;
+
+		for (final Iterator<Map.Entry<String, Entry>> i = entries.entrySet().iterator(); i.hasNext();)
+		{
+			final Map.Entry<String, Entry> mapEntry = i.next();
+			final Entry entry = mapEntry.getValue();
+
+			if (nowMs - entry.enqueuedAt > MAX_AGE_MS)
+			{
+				log.info("giving up on broadcasting {}", mapEntry.getKey());
+				i.remove();
+				expired = true;
+			}
+			else if (due.size() < max && (entry.lastAnnouncedAt < 0 || nowMs - entry.lastAnnouncedAt >= RETRY_MS))
+			{
+				due.add(mapEntry.getKey());
+			}
+		}
+
+		if (expired)
+			save();
+
+		return due;
+	}
+
+	/**
+	 * Picks the peers to announce a transaction to, and counts the announces. The first round goes to half of the peers so the
+	 * other half can confirm it propagated by announcing it back. Later rounds go to the peers it was announced to least.
+	 *
+	 * @return peers to send the transaction to, may be empty if every peer has had it often enough
+	 */
+	public synchronized List<String> announce(@Nonnull final String txHash, @Nonnull final List<String> connectedPeers, final long nowMs)
+	{
+		final Entry entry = entries.get(txHash);
+		if (entry == null || connectedPeers.isEmpty())
+			return Collections.emptyList();
+
+		final List<String> candidates = new ArrayList<String>();
+		for (final String peer : connectedPeers)
+			if (entry.announces(peer) < MAX_ANNOUNCES_PER_PEER)
+				candidates.add(peer);
+
+		Collections.sort(candidates, new Comparator<String>()
+		{
+			@Override
+			public int compare(final String lhs, final String rhs)
+			{
+				return entry.announces(lhs) - entry.announces(rhs);
+			}
+		});
+
+		final int numPeers = Math.min(candidates.size(), (connectedPeers.size() + 1) / 2);
+		final List<String> chosen = new ArrayList<String>(candidates.subList(0, numPeers));
+		for (final String peer : chosen)
+			entry.announces.put(peer, entry.announces(peer) + 1);
+		entry.lastAnnouncedAt = nowMs;
+
+		return chosen;
+	}
+
+	/**
+	 * Notes a round of announces made elsewhere, so the transaction is not due again before {@link #RETRY_MS}.
+	 */
+	public synchronized void markAnnounced(@Nonnull final String txHash, final long nowMs)
+	{
+		final Entry entry = entries.get(txHash);
+		if (entry != null)
+			entry.lastAnnouncedAt = nowMs;
+	}
+
+	public synchronized int getAnnounceCount(@Nonnull final String txHash, @Nonnull final String peer)
+	{
+		final Entry entry = entries.get(txHash);
+		return entry != null ? entry.announces(peer) : 0;
+	}
+
+	public synchronized boolean isEmpty()
+	{
+		return entries.isEmpty();
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	/**
+	 * @return age of the oldest queued transaction, or 0 if the queue is empty
+	 */
+	public synchronized long getOldestAgeMs(final long nowMs)
+	{
+		long oldest = nowMs;
+		for (final Entry entry : entries.values())
+			oldest = Math.min(oldest, entry.enqueuedAt);
+		return nowMs - oldest;
+	}
+
+	private void save()
+	{
+		final File tmpFile = new File(file.getPath() + ".tmp");
+
+		try
+		{
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+			try
+			{
+				os.writeInt(MAGIC);
+				os.writeInt(entries.size());
+
+				for (final Map.Entry<String, Entry> mapEntry : entries.entrySet())
+				{
+					os.writeUTF(mapEntry.getKey());
+					os.writeLong(mapEntry.getValue().enqueuedAt);
+				}
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tmpFile.renameTo(file))
+				throw new IOException("cannot rename " + tmpFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem saving broadcast queue", x);
+		}
+	}
+}
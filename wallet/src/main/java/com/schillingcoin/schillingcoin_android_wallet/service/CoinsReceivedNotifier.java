@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.service;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.app.Notification;
+import android.app.NotificationManager;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.net.Uri;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.text.format.DateUtils;
+
+import com.schillingcoin.schillingcoin_android_wallet.AddressBookProvider;
+import com.schillingcoin.schillingcoin_android_wallet.Configuration;
+import com.schillingcoin.schillingcoin_android_wallet.R;
+import com.schillingcoin.schillingcoin_android_wallet.ui.WalletActivity;
+import com.schillingcoin.schillingcoinj.core.Address;
+import com.schillingcoin.schillingcoinj.core.Coin;
+import com.schillingcoin.schillingcoinj.utils.MonetaryFormat;
+
+/**
+ * Maintains the "coins received" notification on a background thread. Payments arriving within {@link #COALESCE_MS} of each
+ * other are folded into one update, which resolves all new address labels with a single address book query and plays the
+ * sound once.
+ */
+public final class CoinsReceivedNotifier
+{
+	private static final long COALESCE_MS = DateUtils.SECOND_IN_MILLIS;
+
+	private final Context context;
+	private final NotificationManager nm;
+	private final Configuration config;
+	private final int notificationId;
+	private final String msgSuffix;
+
+	private final HandlerThread thread;
+	private final Handler handler;
+
+	// only touched on the handler thread
+	private int count = 0;
+	private int shownCount = 0;
+	private Coin accumulatedAmount = Coin.ZERO;
+	private Coin batchAmount = Coin.ZERO;
+	private final Set<String> addresses = new LinkedHashSet<String>();
+	private final Map<String, String> labels = new HashMap<String, String>();
+	private boolean flushScheduled = false;
+
+	private static final Logger log = LoggerFactory.getLogger(CoinsReceivedNotifier.class);
+
+	public CoinsReceivedNotifier(@Nonnull final Context context, @Nonnull final NotificationManager nm, @Nonnull final Configuration config,
+			final int notificationId, @Nullable final String packageFlavor)
+	{
+		this.context = context;
+		this.nm = nm;
+		this.config = config;
+		this.notificationId = notificationId;
+		this.msgSuffix = packageFlavor != null ? " [" + packageFlavor + "]" : "";
+
+		thread = new HandlerThread("coins received notifier", Process.THREAD_PRIORITY_BACKGROUND);
+		thread.start();
+		handler = new Handler(thread.getLooper());
+	}
+
+	/**
+	 * May be called from any thread.
+	 */
+	public void add(@Nullable final Address from, @Nonnull final Coin amount)
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				count++;
+				accumulatedAmount = accumulatedAmount.add(amount);
+				batchAmount = batchAmount.add(amount);
+				if (from != null)
+					addresses.add(from.toString());
+
+				if (!flushScheduled)
+				{
+					flushScheduled = true;
+					handler.postDelayed(flush, COALESCE_MS);
+				}
+			}
+		});
+	}
+
+	public void cancel()
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				handler.removeCallbacks(flush);
+				flushScheduled = false;
+				count = 0;
+				shownCount = 0;
+				accumulatedAmount = Coin.ZERO;
+				batchAmount = Coin.ZERO;
+				addresses.clear();
+				labels.clear();
+
+				nm.cancel(notificationId);
+			}
+		});
+	}
+
+	/**
+	 * Shows what is still pending, then ends the background thread.
+	 */
+	public void stop()
+	{
+		handler.post(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (flushScheduled)
+				{
+					handler.removeCallbacks(flush);
+					flush.run();
+				}
+			}
+		});
+		thread.quitSafely();
+	}
+
+	private final Runnable flush = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			flushScheduled = false;
+			if (count == 0)
+				return;
+
+			final List<String> unresolved = new ArrayList<String>();
+			for (final String address : addresses)
+				if (!labels.containsKey(address))
+					unresolved.add(address);
+
+			if (!unresolved.isEmpty())
+			{
+				final Map<String, String> resolved = AddressBookProvider.resolveLabels(context, unresolved);
+				for (final String address : unresolved)
+					labels.put(address, resolved.get(address));
+			}
+
+			final StringBuilder text = new StringBuilder();
+			for (final String address : addresses)
+			{
+				if (text.length() > 0)
+					text.append(", ");
+
+				final String label = labels.get(address);
+				text.append(label != null ? label : address);
+			}
+
+			final MonetaryFormat oesFormat = config.getFormat();
+			final String tickerMsg = context.getString(R.string.notification_coins_received_msg, oesFormat.format(batchAmount)) + msgSuffix;
+			final String msg = context.getString(R.string.notification_coins_received_msg, oesFormat.format(accumulatedAmount)) + msgSuffix;
+
+			// a single notification shows no number, so it has to be replaced rather than updated
+			if (shownCount == 1)
+				nm.cancel(notificationId);
+
+			final Notification.Builder notification = new Notification.Builder(context);
+			notification.setSmallIcon(R.drawable.stat_notify_received);
+			notification.setTicker(tickerMsg);
+			notification.setContentTitle(msg);
+			if (text.length() > 0)
+				notification.setContentText(text);
+			notification.setContentIntent(PendingIntent.getActivity(context, 0, new Intent(context, WalletActivity.class), 0));
+			notification.setNumber(count == 1 ? 0 : count);
+			notification.setWhen(System.currentTimeMillis());
+			notification.setSound(Uri.parse("android.resource://" + context.getPackageName() + "/" + R.raw.coins_received));
+			nm.notify(notificationId, notification.getNotification());
+
+			log.debug("notified {} received payments, {} in this batch", count, count - shownCount);
+
+			shownCount = count;
+			batchAmount = Coin.ZERO;
+		}
+	};
+}
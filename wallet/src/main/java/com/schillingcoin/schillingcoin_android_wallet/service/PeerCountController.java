@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.service;
+
+/**
+ * Decides how many peers to stay connected to. While catching up, it adds one peer at a time for as long as each addition
+ * still improves the measured download rate. Once synced, it falls back to the minimum. Running on battery or under memory
+ * pressure lowers the ceiling.
+ */
+public final class PeerCountController
+{
+	/** Chain distance up to which the wallet is considered synced. */
+	public static final int SYNCED_BLOCKS_LEFT = 6;
+
+	/** An added peer has to improve the download rate by this factor to justify probing the next one. */
+	private static final double MIN_IMPROVEMENT = 1.1;
+
+	private final int minPeers;
+	private final int maxPeers;
+
+	private int current;
+	private double rateAtLastIncrease = -1;
+
+	public PeerCountController(final int minPeers, final int maxPeers, final int initialPeers)
+	{
+		if (minPeers < 1 || maxPeers < minPeers)
+			throw new IllegalArgumentException("bad bounds: " + minPeers + ".." + maxPeers);
+
+		this.minPeers = minPeers;
+		this.maxPeers = maxPeers;
+		this.current = clamp(initialPeers, maxPeers);
+	}
+
+	/**
+	 * @param blocksPerSecond
+	 *            recent download rate
+	 * @param blocksLeft
+	 *            distance to the chain head as seen by peers, or negative if unknown
+	 * @return the number of peers to connect to from now on
+	 */
+	public int update(final double blocksPerSecond, final int blocksLeft, final boolean charging, final boolean lowMemory)
+	{
+		int ceiling = maxPeers;
+		if (!charging)
+			ceiling = (minPeers + ceiling + 1) / 2;
+		if (lowMemory)
+			ceiling = minPeers + (ceiling - minPeers) / 2;
+
+		if (blocksLeft < 0)
+		{
+			// no peers to ask, keep what we have
+		}
+		else if (blocksLeft <= SYNCED_BLOCKS_LEFT)
+		{
+			current = minPeers;
+			rateAtLastIncrease = -1;
+		}
+		else if (rateAtLastIncrease < 0 || blocksPerSecond >= rateAtLastIncrease * MIN_IMPROVEMENT)
+		{
+			// the last added peer paid off, or we just started catching up: probe one more
+			if (current < ceiling)
+				current++;
+			rateAtLastIncrease = blocksPerSecond;
+		}
+		else if (blocksPerSecond * MIN_IMPROVEMENT < rateAtLastIncrease)
+		{
+			// throughput dropped, e.g. a fast peer went away: lower the bar so the next improvement probes again
+			rateAtLastIncrease = blocksPerSecond;
+		}
+
+		current = clamp(current, ceiling);
+		return current;
+	}
+
+	public int getCurrent()
+	{
+		return current;
+	}
+
+	private int clamp(final int peers, final int ceiling)
+	{
+		return Math.max(minPeers, Math.min(ceiling, peers));
+	}
+}
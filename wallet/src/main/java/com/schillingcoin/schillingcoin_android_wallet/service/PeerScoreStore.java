@@ -0,0 +1,272 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.service;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Remembers how well each peer address performed across service restarts, so that the best ones can be dialled right away on
+ * the next start. Entries are kept in least-recently-used order and the eldest are evicted beyond {@link #MAX_ENTRIES}.
+ */
+public final class PeerScoreStore
+{
+	private static final int MAGIC = 0x50534331; // "PSC1"
+	private static final int MAX_ENTRIES = 128;
+	private static final int UNKNOWN = -1;
+
+	/** Dials that neither connected nor failed within this time are forgotten; longer than any connect timeout. */
+	private static final long MAX_DIAL_MS = 60 * 1000;
+
+	/** Peers that failed this often in a row are not dialled on warm start. */
+	private static final int MAX_CONSECUTIVE_FAILURES = 3;
+
+	private final File file;
+	private final LinkedHashMap<InetSocketAddress, Score> entries = new LinkedHashMap<InetSocketAddress, Score>(16, 0.75f, true)
+	{
+		@Override
+		protected boolean removeEldestEntry(final Map.Entry<InetSocketAddress, Score> eldest)
+		{
+			return size() > MAX_ENTRIES;
+		}
+	};
+	private final Map<InetSocketAddress, Long> dialledAt = new HashMap<InetSocketAddress, Long>();
+
+	private static final Logger log = LoggerFactory.getLogger(PeerScoreStore.class);
+
+	private static final class Score
+	{
+		long lastSeen;
+		int connectLatencyMs = UNKNOWN;
+		int pingMs = UNKNOWN;
+		int blocksServed;
+		int failures;
+
+		double score()
+		{
+			final int latencyMs = pingMs != UNKNOWN ? pingMs : connectLatencyMs != UNKNOWN ? connectLatencyMs : 1000;
+			return (1 + Math.log1p(blocksServed)) / (1 + failures) / (1 + latencyMs / 1000.0);
+		}
+	}
+
+	private PeerScoreStore(@Nonnull final File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Loads the store from disk. A missing or unreadable file yields an empty store.
+	 */
+	public static PeerScoreStore load(@Nonnull final File file)
+	{
+		final PeerScoreStore store = new PeerScoreStore(file);
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (is.readInt() != MAGIC)
+				throw new IOException("bad magic");
+
+			final int numEntries = is.readInt();
+			for (int i = 0; i < numEntries; i++)
+			{
+				final byte[] addressBytes = new byte[is.readUnsignedByte()];
+				is.readFully(addressBytes);
+				final int port = is.readUnsignedShort();
+
+				final Score score = new Score();
+				score.lastSeen = is.readLong();
+				score.connectLatencyMs = is.readInt();
+				score.pingMs = is.readInt();
+				score.blocksServed = is.readInt();
+				score.failures = is.readInt();
+
+				store.entries.put(new InetSocketAddress(InetAddress.getByAddress(addressBytes), port), score);
+			}
+
+			log.info("loaded {} peer scores from '{}'", store.entries.size(), file);
+		}
+		catch (final FileNotFoundException x)
+		{
+			// first start
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem loading peer scores, starting over", x);
+			store.entries.clear();
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+
+		return store;
+	}
+
+	public synchronized void save() throws IOException
+	{
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmpFile)));
+
+		try
+		{
+			os.writeInt(MAGIC);
+			os.writeInt(entries.size());
+
+			// iteration order is eldest first, which reproduces the recency order on load
+			for (final Map.Entry<InetSocketAddress, Score> mapEntry : entries.entrySet())
+			{
+				final byte[] addressBytes = mapEntry.getKey().getAddress().getAddress();
+				os.writeByte(addressBytes.length);
+				os.write(addressBytes);
+				os.writeShort(mapEntry.getKey().getPort());
+
+				final Score score = mapEntry.getValue();
+				os.writeLong(score.lastSeen);
+				os.writeInt(score.connectLatencyMs);
+				os.writeInt(score.pingMs);
+				os.writeInt(score.blocksServed);
+				os.writeInt(score.failures);
+			}
+		}
+		finally
+		{
+			os.close();
+		}
+
+		if (!tmpFile.renameTo(file))
+			throw new IOException("cannot rename " + tmpFile + " to " + file);
+	}
+
+	/** Notes that a connection to the address is being opened, for measuring how long the connect takes. */
+	public synchronized void recordDialled(@Nonnull final InetSocketAddress address, final long nowMs)
+	{
+		// dials that never got an answer either way
+		for (final Iterator<Long> i = dialledAt.values().iterator(); i.hasNext();)
+			if (nowMs - i.next() > MAX_DIAL_MS)
+				i.remove();
+
+		dialledAt.put(address, nowMs);
+	}
+
+	public synchronized void recordConnected(@Nonnull final InetSocketAddress address, final long nowMs)
+	{
+		final Score score = score(address);
+		score.lastSeen = nowMs;
+		score.failures = 0;
+
+		final Long dialled = dialledAt.remove(address);
+		if (dialled != null && nowMs - dialled <= MAX_DIAL_MS)
+			score.connectLatencyMs = (int) Math.min(Integer.MAX_VALUE, nowMs - dialled);
+	}
+
+	public synchronized void recordPing(@Nonnull final InetSocketAddress address, final long pingMs)
+	{
+		if (pingMs >= 0 && pingMs < Integer.MAX_VALUE)
+			score(address).pingMs = (int) pingMs;
+	}
+
+	public synchronized void recordBlock(@Nonnull final InetSocketAddress address)
+	{
+		score(address).blocksServed++;
+	}
+
+	public synchronized void recordFailure(@Nonnull final InetSocketAddress address)
+	{
+		dialledAt.remove(address);
+		score(address).failures++;
+	}
+
+	/**
+	 * @return up to {@code max} addresses, best score first
+	 */
+	public synchronized List<InetSocketAddress> getBestPeers(final int max)
+	{
+		final List<Map.Entry<InetSocketAddress, Score>> candidates = new ArrayList<Map.Entry<InetSocketAddress, Score>>(entries.size());
+		for (final Map.Entry<InetSocketAddress, Score> mapEntry : entries.entrySet())
+			if (mapEntry.getValue().failures < MAX_CONSECUTIVE_FAILURES)
+				candidates.add(mapEntry);
+
+		Collections.sort(candidates, new Comparator<Map.Entry<InetSocketAddress, Score>>()
+		{
+			@Override
+			public int compare(final Map.Entry<InetSocketAddress, Score> lhs, final Map.Entry<InetSocketAddress, Score> rhs)
+			{
+				return Double.compare(rhs.getValue().score(), lhs.getValue().score());
+			}
+		});
+
+		final List<InetSocketAddress> best = new ArrayList<InetSocketAddress>(Math.min(max, candidates.size()));
+		for (int i = 0; i < candidates.size() && best.size() < max; i++)
+			best.add(candidates.get(i).getKey());
+
+		return best;
+	}
+
+	public synchronized int size()
+	{
+		return entries.size();
+	}
+
+	private Score score(final InetSocketAddress address)
+	{
+		Score score = entries.get(address);
+
+		if (score == null)
+		{
+			score = new Score();
+			entries.put(address, score);
+		}
+
+		return score;
+	}
+}
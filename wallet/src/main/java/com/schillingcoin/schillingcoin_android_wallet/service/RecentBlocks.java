@@ -0,0 +1,166 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.service;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+
+import javax.annotation.Nonnull;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.MemoryGovernor;
+import com.schillingcoin.schillingcoinj.core.StoredBlock;
+import com.schillingcoin.schillingcoinj.store.BlockStore;
+import com.schillingcoin.schillingcoinj.store.BlockStoreException;
+
+/**
+ * Ring of the latest blocks of the best chain. Keeping it current costs a store lookup only for blocks that were
+ * not seen through {@link #update(StoredBlock, BlockStore)} or {@link #reorganize(StoredBlock, List)} already, so reading the
+ * recent blocks normally does no block store I/O at all.
+ */
+public final class RecentBlocks implements MemoryGovernor.Sheddable
+{
+	private static final int STORED_BLOCK_BYTES = 250; // rough estimate, for logging
+
+	private final StoredBlock[] ring;
+	private int newest = -1;
+	private int size = 0;
+
+	public RecentBlocks(final int capacity)
+	{
+		this.ring = new StoredBlock[capacity];
+	}
+
+	/**
+	 * Moves the ring forward to a new chain head, walking back through the store only as far as needed to connect it to what is
+	 * already in the ring. A head on a different branch replaces the blocks above the fork point.
+	 */
+	public synchronized void update(@Nonnull final StoredBlock chainHead, @Nonnull final BlockStore blockStore) throws BlockStoreException
+	{
+		final LinkedList<StoredBlock> missing = new LinkedList<StoredBlock>();
+		StoredBlock block = chainHead;
+
+		while (block != null && missing.size() < ring.length)
+		{
+			final StoredBlock top = peek();
+			if (top != null && block.getHeight() <= top.getHeight())
+			{
+				if (block.getHeight() == top.getHeight() && block.getHeader().getHash().equals(top.getHeader().getHash()))
+					break; // connected
+
+				// either an older head or a different branch: drop what we have above the fork point and keep looking
+				truncate(block.getHeight() - 1);
+				continue;
+			}
+
+			missing.addFirst(block);
+
+			// the usual case, one block on top of the ring, needs no store lookup
+			if (top != null && block.getHeight() == top.getHeight() + 1
+					&& block.getHeader().getPrevBlockHash().equals(top.getHeader().getHash()))
+				break;
+
+			block = block.getPrev(blockStore);
+		}
+
+		if (missing.size() >= ring.length)
+			clear();
+
+		for (final StoredBlock b : missing)
+			push(b);
+	}
+
+	/**
+	 * @param newBlocks
+	 *            blocks of the new best branch above the split point, newest first
+	 */
+	public synchronized void reorganize(@Nonnull final StoredBlock splitPoint, @Nonnull final List<StoredBlock> newBlocks)
+	{
+		truncate(splitPoint.getHeight());
+
+		final StoredBlock top = peek();
+		if (top == null || !top.getHeader().getHash().equals(splitPoint.getHeader().getHash()))
+		{
+			// split point is older than the ring, so the ring would have a gap
+			clear();
+			push(splitPoint);
+		}
+
+		for (int i = newBlocks.size() - 1; i >= 0; i--)
+			push(newBlocks.get(i));
+	}
+
+	/**
+	 * @return up to {@code maxBlocks} blocks, newest first
+	 */
+	public synchronized List<StoredBlock> get(final int maxBlocks)
+	{
+		final int count = Math.min(maxBlocks, size);
+		final List<StoredBlock> blocks = new ArrayList<StoredBlock>(count);
+		for (int i = 0; i < count; i++)
+			blocks.add(ring[(newest - i + ring.length) % ring.length]);
+		return blocks;
+	}
+
+	public synchronized int size()
+	{
+		return size;
+	}
+
+	@Override
+	public synchronized long getSheddableBytes()
+	{
+		return (long) size * STORED_BLOCK_BYTES;
+	}
+
+	/**
+	 * Empties the ring. The next {@link #update(StoredBlock, BlockStore)} reads it back from the store.
+	 */
+	@Override
+	public synchronized void shed(final int level)
+	{
+		clear();
+	}
+
+	private StoredBlock peek()
+	{
+		return size > 0 ? ring[newest] : null;
+	}
+
+	private void push(final StoredBlock block)
+	{
+		newest = (newest + 1) % ring.length;
+		ring[newest] = block;
+		size = Math.min(size + 1, ring.length);
+	}
+
+	private void truncate(final int maxHeight)
+	{
+		while (size > 0 && ring[newest].getHeight() > maxHeight)
+		{
+			ring[newest] = null;
+			newest = (newest - 1 + ring.length) % ring.length;
+			size--;
+		}
+	}
+
+	private void clear()
+	{
+		truncate(-1);
+	}
+}
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.service;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import android.annotation.TargetApi;
+import android.app.job.JobInfo;
+import android.app.job.JobParameters;
+import android.app.job.JobScheduler;
+import android.app.job.JobService;
+import android.content.ComponentName;
+import android.content.Context;
+import android.os.Build;
+
+import com.schillingcoin.schillingcoin_android_wallet.WalletApplication;
+
+/**
+ * Starts the blockchain service once the wake-up chosen by {@link SyncScheduler} is due and the device is online.
+ */
+@TargetApi(Build.VERSION_CODES.LOLLIPOP)
+public class SyncJobService extends JobService
+{
+	private static final int JOB_ID = 1;
+
+	private static final Logger log = LoggerFactory.getLogger(SyncJobService.class);
+
+	public static void schedule(final Context context, final long delayMs)
+	{
+		final JobInfo job = new JobInfo.Builder(JOB_ID, new ComponentName(context, SyncJobService.class))
+				.setMinimumLatency(delayMs).setRequiredNetworkType(JobInfo.NETWORK_TYPE_ANY).build();
+
+		final JobScheduler jobScheduler = (JobScheduler) context.getSystemService(Context.JOB_SCHEDULER_SERVICE);
+		jobScheduler.schedule(job);
+	}
+
+	@Override
+	public boolean onStartJob(final JobParameters params)
+	{
+		log.info("sync job due");
+
+		final WalletApplication application = (WalletApplication) getApplication();
+		application.startBlockchainService(false);
+
+		// the service reschedules when it stops, this is the fallback in case it gets killed instead
+		application.scheduleStartBlockchainService();
+
+		return false;
+	}
+
+	@Override
+	public boolean onStopJob(final JobParameters params)
+	{
+		return false;
+	}
+}
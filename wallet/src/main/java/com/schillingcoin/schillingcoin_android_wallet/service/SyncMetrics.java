@@ -0,0 +1,159 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.service;
+
+import java.util.Locale;
+
+import javax.annotation.Nonnull;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.RollingCounter;
+
+/**
+ * Counters and rolling rates of the blockchain sync, kept in fixed-size buckets so that recording from network threads does
+ * not allocate.
+ */
+public final class SyncMetrics
+{
+	private static final int WINDOW_BUCKETS = 60;
+	private static final long BUCKET_MS = 1000;
+
+	private final RollingCounter blocks = new RollingCounter(WINDOW_BUCKETS, BUCKET_MS);
+	private final RollingCounter transactions = new RollingCounter(WINDOW_BUCKETS, BUCKET_MS);
+	private final RollingCounter bytesIn = new RollingCounter(WINDOW_BUCKETS, BUCKET_MS);
+	private final RollingCounter bytesOut = new RollingCounter(WINDOW_BUCKETS, BUCKET_MS);
+
+	private final long createdAt;
+	private volatile long lastBlockAt = 0;
+	private long lastRxTotal = -1;
+	private long lastTxTotal = -1;
+
+	public SyncMetrics(final long nowMs)
+	{
+		this.createdAt = nowMs;
+	}
+
+	public void recordBlock(final long nowMs)
+	{
+		blocks.add(nowMs, 1);
+		lastBlockAt = nowMs;
+	}
+
+	public void recordTransaction(final long nowMs)
+	{
+		transactions.add(nowMs, 1);
+	}
+
+	/**
+	 * Feeds monotonically increasing traffic totals, as reported by the platform. Negative totals mean unsupported and are
+	 * ignored.
+	 */
+	public synchronized void sampleTraffic(final long nowMs, final long rxTotal, final long txTotal)
+	{
+		if (rxTotal >= 0)
+		{
+			if (lastRxTotal >= 0 && rxTotal >= lastRxTotal)
+				bytesIn.add(nowMs, rxTotal - lastRxTotal);
+			lastRxTotal = rxTotal;
+		}
+
+		if (txTotal >= 0)
+		{
+			if (lastTxTotal >= 0 && txTotal >= lastTxTotal)
+				bytesOut.add(nowMs, txTotal - lastTxTotal);
+			lastTxTotal = txTotal;
+		}
+	}
+
+	public double blocksPerSecond(final long nowMs)
+	{
+		return blocks.ratePerSecond(nowMs);
+	}
+
+	public Snapshot snapshot(final long nowMs, final int bestChainHeight, @Nonnull final String[] peerHosts, @Nonnull final long[] peerPingMs)
+	{
+		final long lastBlockAt = this.lastBlockAt;
+
+		return new Snapshot(nowMs - createdAt, bestChainHeight, blocks.total(), blocks.ratePerSecond(nowMs), transactions.total(),
+				transactions.ratePerSecond(nowMs), bytesIn.total(), bytesIn.ratePerSecond(nowMs), bytesOut.total(), bytesOut.ratePerSecond(nowMs),
+				lastBlockAt > 0 ? nowMs - lastBlockAt : -1, peerHosts, peerPingMs);
+	}
+
+	public static final class Snapshot
+	{
+		public final long uptimeMs;
+		public final int bestChainHeight;
+		public final int numPeers;
+		public final long blocksTotal;
+		public final double blocksPerSecond;
+		public final long transactionsTotal;
+		public final double transactionsPerSecond;
+		public final long bytesInTotal;
+		public final double bytesInPerSecond;
+		public final long bytesOutTotal;
+		public final double bytesOutPerSecond;
+
+		/** Milliseconds since the last downloaded block, or -1 if none has been downloaded yet. */
+		public final long msSinceLastBlock;
+
+		private final String[] peerHosts;
+		private final long[] peerPingMs;
+
+		private Snapshot(final long uptimeMs, final int bestChainHeight, final long blocksTotal, final double blocksPerSecond,
+				final long transactionsTotal, final double transactionsPerSecond, final long bytesInTotal, final double bytesInPerSecond,
+				final long bytesOutTotal, final double bytesOutPerSecond, final long msSinceLastBlock, final String[] peerHosts,
+				final long[] peerPingMs)
+		{
+			if (peerHosts.length != peerPingMs.length)
+				throw new IllegalArgumentException("peer arrays differ in length");
+
+			this.uptimeMs = uptimeMs;
+			this.bestChainHeight = bestChainHeight;
+			this.numPeers = peerHosts.length;
+			this.blocksTotal = blocksTotal;
+			this.blocksPerSecond = blocksPerSecond;
+			this.transactionsTotal = transactionsTotal;
+			this.transactionsPerSecond = transactionsPerSecond;
+			this.bytesInTotal = bytesInTotal;
+			this.bytesInPerSecond = bytesInPerSecond;
+			this.bytesOutTotal = bytesOutTotal;
+			this.bytesOutPerSecond = bytesOutPerSecond;
+			this.msSinceLastBlock = msSinceLastBlock;
+			this.peerHosts = peerHosts.clone();
+			this.peerPingMs = peerPingMs.clone();
+		}
+
+		public String getPeerHost(final int index)
+		{
+			return peerHosts[index];
+		}
+
+		/** Last measured ping of the peer in milliseconds, or {@link Long#MAX_VALUE} if unknown. */
+		public long getPeerPingMs(final int index)
+		{
+			return peerPingMs[index];
+		}
+
+		@Override
+		public String toString()
+		{
+			return String.format(Locale.US, "height %d, peers %d, blocks %d (%.2f/s), txns %d (%.2f/s), in %d (%.0f B/s), out %d (%.0f B/s), last block %ds ago",
+					bestChainHeight, numPeers, blocksTotal, blocksPerSecond, transactionsTotal, transactionsPerSecond, bytesInTotal, bytesInPerSecond,
+					bytesOutTotal, bytesOutPerSecond, msSinceLastBlock >= 0 ? msSinceLastBlock / 1000 : -1);
+		}
+	}
+}
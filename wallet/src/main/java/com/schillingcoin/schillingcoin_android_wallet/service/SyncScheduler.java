@@ -0,0 +1,269 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.service;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Predicts when the next background sync is worth doing. Incoming payments are counted per hour of the week, with older
+ * payments fading out over {@link #HALF_LIFE_MS}. During hours that usually see payments the wallet syncs often, and it wakes up
+ * ahead of such hours by the typical sync duration so it is caught up when they start. Otherwise it falls back to backing off
+ * by how long ago the app was last used.
+ */
+public final class SyncScheduler
+{
+	public interface Clock
+	{
+		long currentTimeMillis();
+	}
+
+	public static final Clock SYSTEM_CLOCK = new Clock()
+	{
+		@Override
+		public long currentTimeMillis()
+		{
+			return System.currentTimeMillis();
+		}
+	};
+
+	public static final class WakeUp
+	{
+		public final long delayMs;
+		/** How far the wake-up may be deferred to batch it with other work. */
+		public final long windowMs;
+		public final boolean busyHour;
+
+		private WakeUp(final long delayMs, final long windowMs, final boolean busyHour)
+		{
+			this.delayMs = delayMs;
+			this.windowMs = windowMs;
+			this.busyHour = busyHour;
+		}
+	}
+
+	private static final long MINUTE_MS = 60 * 1000L;
+	private static final long HOUR_MS = 60 * MINUTE_MS;
+	private static final long DAY_MS = 24 * HOUR_MS;
+
+	private static final long LAST_USAGE_THRESHOLD_JUST_MS = HOUR_MS;
+	private static final long LAST_USAGE_THRESHOLD_RECENTLY_MS = 2 * DAY_MS;
+
+	private static final long MIN_INTERVAL_MS = 15 * MINUTE_MS;
+	private static final long HALF_LIFE_MS = 28 * DAY_MS;
+	private static final int HOURS_PER_WEEK = 7 * 24;
+
+	/** Below this much (decayed) history, there is nothing to learn from. */
+	private static final float MIN_HISTORY = 3;
+	/** An hour is busy if it sees this many times its uniform share of payments. */
+	private static final float BUSY_FACTOR = 2;
+
+	private static final int MAX_SYNC_SAMPLES = 8;
+	private static final long DEFAULT_SYNC_DURATION_MS = 2 * MINUTE_MS;
+	private static final long MAX_SYNC_DURATION_MS = HOUR_MS;
+
+	private static final String STATE_VERSION = "1";
+
+	private final Clock clock;
+	private final TimeZone timeZone;
+
+	private final float[] paymentWeights = new float[HOURS_PER_WEEK];
+	private long decayedAt;
+	private final long[] syncDurations = new long[MAX_SYNC_SAMPLES];
+	private int numSyncDurations = 0;
+	private int nextSyncDuration = 0;
+
+	public SyncScheduler(@Nonnull final Clock clock, @Nonnull final TimeZone timeZone)
+	{
+		this.clock = clock;
+		this.timeZone = timeZone;
+		this.decayedAt = clock.currentTimeMillis();
+	}
+
+	public synchronized void recordPayment()
+	{
+		final long now = clock.currentTimeMillis();
+		decay(now);
+		paymentWeights[hourOfWeek(now)] += 1;
+	}
+
+	public synchronized void recordSyncDuration(final long durationMs)
+	{
+		if (durationMs <= 0)
+			return;
+
+		syncDurations[nextSyncDuration] = Math.min(durationMs, MAX_SYNC_DURATION_MS);
+		nextSyncDuration = (nextSyncDuration + 1) % MAX_SYNC_SAMPLES;
+		numSyncDurations = Math.min(numSyncDurations + 1, MAX_SYNC_SAMPLES);
+	}
+
+	public synchronized long getTypicalSyncDurationMs()
+	{
+		if (numSyncDurations == 0)
+			return DEFAULT_SYNC_DURATION_MS;
+
+		long sum = 0;
+		for (int i = 0; i < numSyncDurations; i++)
+			sum += syncDurations[i];
+		return sum / numSyncDurations;
+	}
+
+	/**
+	 * @param lastUsedAgoMs
+	 *            time since the user last opened the app, which bounds how long the wallet may stay asleep
+	 */
+	public synchronized WakeUp nextWakeUp(final long lastUsedAgoMs)
+	{
+		final long now = clock.currentTimeMillis();
+		decay(now);
+
+		final long maxDelay;
+		if (lastUsedAgoMs < LAST_USAGE_THRESHOLD_JUST_MS)
+			maxDelay = MIN_INTERVAL_MS;
+		else if (lastUsedAgoMs < LAST_USAGE_THRESHOLD_RECENTLY_MS)
+			maxDelay = DAY_MS / 2;
+		else
+			maxDelay = DAY_MS;
+
+		float total = 0;
+		for (final float weight : paymentWeights)
+			total += weight;
+
+		if (total >= MIN_HISTORY && maxDelay > MIN_INTERVAL_MS)
+		{
+			final float busyWeight = BUSY_FACTOR * total / HOURS_PER_WEEK;
+			final long lead = getTypicalSyncDurationMs();
+
+			if (paymentWeights[hourOfWeek(now)] >= busyWeight)
+				return new WakeUp(MIN_INTERVAL_MS, MIN_INTERVAL_MS / 3, true);
+
+			// find the next busy hour we can still reach in time
+			final Calendar calendar = Calendar.getInstance(timeZone);
+			calendar.setTimeInMillis(now);
+			calendar.set(Calendar.MINUTE, 0);
+			calendar.set(Calendar.SECOND, 0);
+			calendar.set(Calendar.MILLISECOND, 0);
+
+			while (true)
+			{
+				calendar.add(Calendar.HOUR_OF_DAY, 1);
+				final long hourStart = calendar.getTimeInMillis();
+				final long delay = hourStart - lead - now;
+				if (delay > maxDelay)
+					break;
+
+				if (paymentWeights[hourOfWeek(hourStart)] >= busyWeight)
+					return new WakeUp(Math.max(MIN_INTERVAL_MS, delay), MIN_INTERVAL_MS / 3, true);
+			}
+		}
+
+		return new WakeUp(maxDelay, maxDelay / 4, false);
+	}
+
+	public synchronized String serialize()
+	{
+		final StringBuilder builder = new StringBuilder(STATE_VERSION);
+		builder.append('|').append(decayedAt).append('|');
+
+		boolean first = true;
+		for (int i = 0; i < HOURS_PER_WEEK; i++)
+		{
+			if (paymentWeights[i] > 0)
+			{
+				if (!first)
+					builder.append(',');
+				builder.append(i).append(':').append(paymentWeights[i]);
+				first = false;
+			}
+		}
+
+		builder.append('|');
+		for (int i = 0; i < numSyncDurations; i++)
+		{
+			if (i > 0)
+				builder.append(',');
+			// oldest first, so that restoring keeps the ring in order
+			builder.append(syncDurations[(nextSyncDuration - numSyncDurations + i + MAX_SYNC_SAMPLES) % MAX_SYNC_SAMPLES]);
+		}
+
+		return builder.toString();
+	}
+
+	/**
+	 * Restores a scheduler from {@link #serialize()} output. Missing or malformed state yields a scheduler without history.
+	 */
+	public static SyncScheduler deserialize(@Nullable final String state, @Nonnull final Clock clock, @Nonnull final TimeZone timeZone)
+	{
+		final SyncScheduler scheduler = new SyncScheduler(clock, timeZone);
+		if (state == null)
+			return scheduler;
+
+		final String[] parts = state.split("\\|", -1);
+		if (parts.length != 4 || !STATE_VERSION.equals(parts[0]))
+			return scheduler;
+
+		try
+		{
+			final long decayedAt = Long.parseLong(parts[1]);
+			final float[] weights = new float[HOURS_PER_WEEK];
+			if (!parts[2].isEmpty())
+			{
+				for (final String entry : parts[2].split(","))
+				{
+					final int colon = entry.indexOf(':');
+					weights[Integer.parseInt(entry.substring(0, colon))] = Float.parseFloat(entry.substring(colon + 1));
+				}
+			}
+
+			scheduler.decayedAt = decayedAt;
+			System.arraycopy(weights, 0, scheduler.paymentWeights, 0, HOURS_PER_WEEK);
+
+			if (!parts[3].isEmpty())
+				for (final String duration : parts[3].split(","))
+					scheduler.recordSyncDuration(Long.parseLong(duration));
+		}
+		catch (final RuntimeException x)
+		{
+			// NumberFormatException, StringIndexOutOfBoundsException, ArrayIndexOutOfBoundsException
+			return new SyncScheduler(clock, timeZone);
+		}
+
+		return scheduler;
+	}
+
+	private void decay(final long now)
+	{
+		if (now <= decayedAt)
+			return;
+
+		final float factor = (float) Math.pow(0.5, (double) (now - decayedAt) / HALF_LIFE_MS);
+		for (int i = 0; i < HOURS_PER_WEEK; i++)
+			paymentWeights[i] *= factor;
+		decayedAt = now;
+	}
+
+	private int hourOfWeek(final long time)
+	{
+		final Calendar calendar = Calendar.getInstance(timeZone);
+		calendar.setTimeInMillis(time);
+		return (calendar.get(Calendar.DAY_OF_WEEK) - Calendar.SUNDAY) * 24 + calendar.get(Calendar.HOUR_OF_DAY);
+	}
+}
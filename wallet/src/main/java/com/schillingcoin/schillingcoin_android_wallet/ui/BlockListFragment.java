@@ -21,7 +21,6 @@ import java.util.ArrayList;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
 import java.util.Set;
 import java.util.concurrent.RejectedExecutionException;
 
@@ -36,6 +35,7 @@ import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.AsyncTaskLoader;
 import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
@@ -45,7 +45,6 @@ import android.content.ServiceConnection;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
@@ -59,16 +58,19 @@ import android.widget.ListView;
 import android.widget.TextView;
 
 import com.schillingcoin.schillingcoinj.core.Block;
-import com.schillingcoin.schillingcoinj.core.Sha256Hash;
 import com.schillingcoin.schillingcoinj.core.StoredBlock;
 import com.schillingcoin.schillingcoinj.core.Transaction;
 import com.schillingcoin.schillingcoinj.core.Wallet;
 
 import com.schillingcoin.schillingcoin_android_wallet.Configuration;
 import com.schillingcoin.schillingcoin_android_wallet.Constants;
+import com.schillingcoin.schillingcoin_android_wallet.TransactionIndex;
 import com.schillingcoin.schillingcoin_android_wallet.WalletApplication;
 import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainService;
 import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainServiceImpl;
+import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainState;
+import com.schillingcoin.schillingcoin_android_wallet.util.MemoryGovernor;
+import com.schillingcoin.schillingcoin_android_wallet.util.StateBus;
 import com.schillingcoin.schillingcoin_android_wallet.util.WalletUtils;
 import com.schillingcoin.schillingcoin_android_wallet.R;
 
@@ -94,6 +96,7 @@ public final class BlockListFragment extends ListFragment
 	private static final int ID_TRANSACTION_LOADER = 1;
 
 	private static final int MAX_BLOCKS = 32;
+	private static final int STORED_BLOCK_BYTES = 250; // rough estimate, for logging
 
 	private static final Logger log = LoggerFactory.getLogger(BlockListFragment.class);
 
@@ -145,6 +148,7 @@ public final class BlockListFragment extends ListFragment
 			public void run() {
 				adapter = new BlockListAdapter();
 				setListAdapter(adapter);
+				application.getMemoryGovernor().register(adapter, ComponentCallbacks2.TRIM_MEMORY_UI_HIDDEN);
 			}
 			
 		});
@@ -272,7 +276,7 @@ public final class BlockListFragment extends ListFragment
 		}
 	};
 
-	private final class BlockListAdapter extends BaseAdapter
+	private final class BlockListAdapter extends BaseAdapter implements MemoryGovernor.Sheddable
 	{
 		private static final int ROW_BASE_CHILD_COUNT = 2;
 		private static final int ROW_INSERT_INDEX = 1;
@@ -297,6 +301,22 @@ public final class BlockListFragment extends ListFragment
 			notifyDataSetChanged();
 		}
 
+		@Override
+		public long getSheddableBytes()
+		{
+			return transactionsAdapter.getSheddableBytes() + (long) blocks.size() * STORED_BLOCK_BYTES;
+		}
+
+		/**
+		 * Only called while hidden; the block loader fetches the blocks again when the list is shown.
+		 */
+		@Override
+		public void shed(final int level)
+		{
+			transactionsAdapter.shed(level);
+			clear();
+		}
+
 		@Override
 		public int getCount()
 		{
@@ -384,16 +404,25 @@ public final class BlockListFragment extends ListFragment
 		}
 	}
 
+	private static final StateBus.Filter<BlockchainState> CHAIN_HEIGHT_FILTER = new StateBus.Filter<BlockchainState>()
+	{
+		@Override
+		public boolean isRelevant(final BlockchainState previous, final BlockchainState current)
+		{
+			return previous == null || previous.bestChainHeight != current.bestChainHeight;
+		}
+	};
+
 	private static class BlockLoader extends AsyncTaskLoader<List<StoredBlock>>
 	{
-		private LocalBroadcastManager broadcastManager;
+		private final WalletApplication application;
 		private BlockchainService service;
 
 		private BlockLoader(final Context context, final BlockchainService service)
 		{
 			super(context);
 
-			this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+			this.application = (WalletApplication) context.getApplicationContext();
 			this.service = service;
 		}
 
@@ -402,7 +431,7 @@ public final class BlockListFragment extends ListFragment
 		{
 			super.onStartLoading();
 
-			broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+			application.getBlockchainStateBus().subscribe(stateListener, CHAIN_HEIGHT_FILTER, application.getMainThreadExecutor());
 
 			forceLoad();
 		}
@@ -410,7 +439,7 @@ public final class BlockListFragment extends ListFragment
 		@Override
 		protected void onStopLoading()
 		{
-			broadcastManager.unregisterReceiver(broadcastReceiver);
+			application.getBlockchainStateBus().unsubscribe(stateListener);
 
 			super.onStopLoading();
 		}
@@ -421,10 +450,10 @@ public final class BlockListFragment extends ListFragment
 			return service.getRecentBlocks(MAX_BLOCKS);
 		}
 
-		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+		private final StateBus.Listener<BlockchainState> stateListener = new StateBus.Listener<BlockchainState>()
 		{
 			@Override
-			public void onReceive(final Context context, final Intent intent)
+			public void onStateChanged(final BlockchainState state, final long version)
 			{
 				try
 				{
@@ -465,30 +494,61 @@ public final class BlockListFragment extends ListFragment
 
 	private static class TransactionsLoader extends AsyncTaskLoader<Set<Transaction>>
 	{
+		private final WalletApplication application;
 		private final Wallet wallet;
+		private final StateBus<TransactionIndex.Snapshot> snapshots;
 
 		private TransactionsLoader(final Context context, final Wallet wallet)
 		{
 			super(context);
 
+			this.application = (WalletApplication) context.getApplicationContext();
 			this.wallet = wallet;
+			this.snapshots = application.getTransactionIndex().getSnapshots();
+		}
+
+		@Override
+		protected void onStartLoading()
+		{
+			super.onStartLoading();
+
+			snapshots.subscribe(snapshotListener, StateBus.<TransactionIndex.Snapshot> anyChange(), application.getMainThreadExecutor());
+		}
+
+		@Override
+		protected void onStopLoading()
+		{
+			snapshots.unsubscribe(snapshotListener);
+
+			super.onStopLoading();
 		}
 
 		@Override
 		public Set<Transaction> loadInBackground()
 		{
-			final Set<Transaction> transactions = wallet.getTransactions(true);
+			final TransactionIndex.Snapshot snapshot = snapshots.get();
+			if (snapshot == null)
+				return new HashSet<Transaction>();
+
+			// only transactions recent enough to be in one of the shown blocks
+			return snapshot.getTransactionsInBlocks(wallet.getLastBlockSeenHeight() - MAX_BLOCKS);
+		}
 
-			final Set<Transaction> filteredTransactions = new HashSet<Transaction>(transactions.size());
-			for (final Transaction tx : transactions)
+		private final StateBus.Listener<TransactionIndex.Snapshot> snapshotListener = new StateBus.Listener<TransactionIndex.Snapshot>()
+		{
+			@Override
+			public void onStateChanged(final TransactionIndex.Snapshot snapshot, final long version)
 			{
-				final Map<Sha256Hash, Integer> appearsIn = tx.getAppearsInHashes();
-				if (appearsIn != null && !appearsIn.isEmpty()) // TODO filter by updateTime
-					filteredTransactions.add(tx);
+				try
+				{
+					forceLoad();
+				}
+				catch (final RejectedExecutionException x)
+				{
+					log.info("rejected execution: " + TransactionsLoader.this.toString());
+				}
 			}
-
-			return filteredTransactions;
-		}
+		};
 	}
 
 	private final LoaderCallbacks<Set<Transaction>> transactionLoaderCallbacks = new LoaderCallbacks<Set<Transaction>>()
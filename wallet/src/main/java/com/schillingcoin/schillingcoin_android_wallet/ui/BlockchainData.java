@@ -19,6 +19,7 @@ package com.schillingcoin.schillingcoin_android_wallet.ui;
 
 import android.content.Context;
 import com.schillingcoin.schillingcoin_android_wallet.Constants;
+import com.schillingcoin.schillingcoin_android_wallet.service.PeerScoreStore;
 import java.io.File;
 
 import com.schillingcoin.schillingcoinj.core.BlockChain;
@@ -33,11 +34,14 @@ public class BlockchainData {
 	public BlockChain blockChain = null;
 	public File validHashStoreFile = null;
 	public ValidHashStore validHashStore = null;
+	public File peerScoresFile = null;
+	public PeerScoreStore peerScores = null;
 	
         public BlockchainData(Context context) {
             
             blockChainFile = new File(context.getDir("blockstore", Context.MODE_PRIVATE), Constants.Files.BLOCKCHAIN_FILENAME);
             validHashStoreFile = new File(context.getDir("validhashes", Context.MODE_PRIVATE), Constants.Files.VALID_HASHES_FILENAME);
+            peerScoresFile = new File(context.getDir("peers", Context.MODE_PRIVATE), Constants.Files.PEER_SCORES_FILENAME);
             
         }
         
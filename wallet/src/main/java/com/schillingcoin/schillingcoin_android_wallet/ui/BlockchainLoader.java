@@ -17,15 +17,19 @@
 
 package com.schillingcoin.schillingcoin_android_wallet.ui;
 
-import java.io.File;
+import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.io.InputStream;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import com.schillingcoin.schillingcoin_android_wallet.Constants;
 import com.schillingcoin.schillingcoin_android_wallet.WalletApplication;
+import com.schillingcoin.schillingcoin_android_wallet.service.PeerScoreStore;
+import com.schillingcoin.schillingcoin_android_wallet.util.StartupGraph;
 import com.schillingcoin.schillingcoinj.core.BlockChain;
+import com.schillingcoin.schillingcoinj.core.CheckpointManager;
 import com.schillingcoin.schillingcoinj.core.Wallet;
 import com.schillingcoin.schillingcoinj.store.BlockStoreException;
 import com.schillingcoin.schillingcoinj.store.SPVBlockStore;
@@ -72,12 +76,64 @@ public class BlockchainLoader extends AsyncTaskLoader<BlockchainData> {
 			wallet.setLastBlockSeenHash(null);
 		}
 		
+		if(!isStarted())
+			return null;
+
+		// the stores do not depend on each other
+		final StartupGraph startup = new StartupGraph("blockchain");
+
+		startup.add("blockstore", new Runnable() {
+
+			@Override
+			public void run() {
+				openBlockStore(wallet, blockChainFileExists);
+			}
+
+		});
+
+		startup.add("validhashstore", new Runnable() {
+
+			@Override
+			public void run() {
+				openValidHashStore();
+			}
+
+		});
+
+		startup.add("peerscores", new Runnable() {
+
+			@Override
+			public void run() {
+				bcd.peerScores = PeerScoreStore.load(bcd.peerScoresFile);
+			}
+
+		});
+
+		startup.run();
+
 		if(!isStarted())
 			return null;
 
+		try {
+			bcd.blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, wallet, bcd.blockStore, bcd.validHashStore);
+		}catch (final BlockStoreException x) {
+			throw new Error("blockchain cannot be created", x);
+		}
+		
+		return bcd;
+		
+	}
+        
+	private void openBlockStore(final Wallet wallet, final boolean blockChainFileExists) {
+
 		try {
 			bcd.blockStore = new SPVBlockStore(Constants.NETWORK_PARAMETERS, bcd.blockChainFile);
 			bcd.blockStore.getChainHead(); // detect corruptions as early as possible
+
+			final long earliestKeyCreationTime = wallet.getEarliestKeyCreationTime();
+
+			if (!blockChainFileExists && earliestKeyCreationTime > 0)
+				checkpoint(earliestKeyCreationTime);
 		}catch (final BlockStoreException x) {
 			bcd.blockChainFile.delete();
 
@@ -85,34 +141,50 @@ public class BlockchainLoader extends AsyncTaskLoader<BlockchainData> {
 			log.error(msg, x);
 			throw new Error(msg, x);
 		}
-		
-		if(!isStarted())
-			return null;
 
 		log.info("using " + bcd.blockStore.getClass().getName());
-		
+
+	}
+
+	private void openValidHashStore() {
+
 		try{
-            bcd.validHashStore = new ValidHashStore(bcd.validHashStoreFile, TrustedServerList.getInstance(context));
+			bcd.validHashStore = new ValidHashStore(bcd.validHashStoreFile, TrustedServerList.getInstance(context));
 		}catch (IOException x){
 			bcd.validHashStoreFile.delete();
 			final String msg = "validhashstore cannot be created";
 			log.error(msg, x);
 			throw new Error(msg, x);
 		}
-		
-		if(!isStarted())
-			return null;
+
+	}
+
+	private void checkpoint(final long earliestKeyCreationTime) throws BlockStoreException {
+
+		InputStream checkpointsInputStream = null;
 
 		try {
-			bcd.blockChain = new BlockChain(Constants.NETWORK_PARAMETERS, wallet, bcd.blockStore, bcd.validHashStore);
-		}catch (final BlockStoreException x) {
-			throw new Error("blockchain cannot be created", x);
+			final long start = System.currentTimeMillis();
+			checkpointsInputStream = context.getAssets().open(Constants.Files.CHECKPOINTS_FILENAME);
+			CheckpointManager.checkpoint(Constants.NETWORK_PARAMETERS, checkpointsInputStream, bcd.blockStore, earliestKeyCreationTime);
+			log.info("checkpoints loaded from '" + Constants.Files.CHECKPOINTS_FILENAME + "', took " + (System.currentTimeMillis() - start)
+					+ "ms, starting at height " + bcd.blockStore.getChainHead().getHeight());
+		}catch (final FileNotFoundException x) {
+			log.info("no checkpoints bundled, syncing from genesis");
+		}catch (final IOException x) {
+			log.error("problem reading checkpoints, syncing from genesis", x);
+		}finally {
+			if (checkpointsInputStream != null) {
+				try {
+					checkpointsInputStream.close();
+				}catch (final IOException x) {
+					// swallow
+				}
+			}
 		}
-		
-		return bcd;
-		
+
 	}
-        
+
     public void stopLoading(boolean resetBlockchain) {
 		this.resetBlockchain = resetBlockchain;
 		super.stopLoading();
@@ -26,19 +26,14 @@ import com.schillingcoin.schillingcoinj.wallet.DeterministicUpgradeRequiresPassw
 import android.app.Activity;
 import android.app.Fragment;
 import android.app.FragmentManager;
-import android.content.BroadcastReceiver;
-import android.content.Context;
-import android.content.Intent;
-import android.content.IntentFilter;
 import android.os.Bundle;
-import android.support.v4.content.LocalBroadcastManager;
 
 import com.google.common.util.concurrent.ListenableFuture;
 
 import com.schillingcoin.schillingcoin_android_wallet.WalletApplication;
-import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainService;
 import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainState;
 import com.schillingcoin.schillingcoin_android_wallet.ui.send.MaintenanceDialogFragment;
+import com.schillingcoin.schillingcoin_android_wallet.util.StateBus;
 
 /**
  * @author Andreas Schildbach
@@ -59,7 +54,6 @@ public class MaybeMaintenanceFragment extends Fragment
 
 	private WalletActivity activity;
 	private WalletApplication application;
-	private LocalBroadcastManager broadcastManager;
 	private boolean dialogWasShown = false;
 
 	@Override
@@ -69,7 +63,6 @@ public class MaybeMaintenanceFragment extends Fragment
 
 		this.activity = (WalletActivity) activity;
 		application = this.activity.getWalletApplication();
-		broadcastManager = LocalBroadcastManager.getInstance(activity);
 	}
 
 	@Override
@@ -89,7 +82,7 @@ public class MaybeMaintenanceFragment extends Fragment
 
 		    @Override
 		    public void run() {
-			broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_BLOCKCHAIN_STATE));
+			application.getBlockchainStateBus().subscribe(stateListener, RELEVANT_STATE_FILTER, application.getMainThreadExecutor());
 		    }
 		    
 		});
@@ -99,18 +92,26 @@ public class MaybeMaintenanceFragment extends Fragment
 	@Override
 	public void onPause()
 	{
-		broadcastManager.unregisterReceiver(broadcastReceiver);
+		application.getBlockchainStateBus().unsubscribe(stateListener);
 
 		super.onPause();
 	}
 
-	private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+	// checking for maintenance is expensive, so skip states that cannot change the outcome
+	private static final StateBus.Filter<BlockchainState> RELEVANT_STATE_FILTER = new StateBus.Filter<BlockchainState>()
 	{
 		@Override
-		public void onReceive(final Context context, final Intent broadcast)
+		public boolean isRelevant(final BlockchainState previous, final BlockchainState current)
 		{
-			final BlockchainState blockchainState = BlockchainState.fromIntent(broadcast);
+			return previous == null || previous.loaded != current.loaded || previous.replaying != current.replaying;
+		}
+	};
 
+	private final StateBus.Listener<BlockchainState> stateListener = new StateBus.Listener<BlockchainState>()
+	{
+		@Override
+		public void onStateChanged(final BlockchainState blockchainState, final long version)
+		{
 			if (!dialogWasShown && blockchainState.loaded && !blockchainState.replaying && maintenanceRecommended())
 			{
 				MaintenanceDialogFragment.show(getFragmentManager());
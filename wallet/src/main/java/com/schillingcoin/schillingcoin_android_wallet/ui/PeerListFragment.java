@@ -32,18 +32,15 @@ import android.app.Activity;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
 import android.content.AsyncTaskLoader;
-import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.ServiceConnection;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
-import android.support.v4.content.LocalBroadcastManager;
 import android.text.format.DateUtils;
 import android.view.LayoutInflater;
 import android.view.View;
@@ -56,6 +53,7 @@ import com.schillingcoin.schillingcoinj.core.VersionMessage;
 
 import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainService;
 import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainServiceImpl;
+import com.schillingcoin.schillingcoin_android_wallet.util.StateBus;
 import com.schillingcoin.schillingcoin_android_wallet.util.WholeStringBuilder;
 import com.schillingcoin.schillingcoin_android_wallet.R;
 import com.schillingcoin.schillingcoin_android_wallet.WalletApplication;
@@ -238,16 +236,25 @@ public final class PeerListFragment extends FancyListFragment
 		}
 	};
 
+	private static final StateBus.Filter<Integer> PEER_COUNT_FILTER = new StateBus.Filter<Integer>()
+	{
+		@Override
+		public boolean isRelevant(final Integer previous, final Integer current)
+		{
+			return !current.equals(previous);
+		}
+	};
+
 	private static class PeerLoader extends AsyncTaskLoader<List<Peer>>
 	{
-		private LocalBroadcastManager broadcastManager;
+		private final WalletApplication application;
 		private BlockchainService service;
 
 		private PeerLoader(final Context context, @Nonnull final BlockchainService service)
 		{
 			super(context);
 
-			this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
+			this.application = (WalletApplication) context.getApplicationContext();
 			this.service = service;
 		}
 
@@ -256,7 +263,7 @@ public final class PeerListFragment extends FancyListFragment
 		{
 			super.onStartLoading();
 
-			broadcastManager.registerReceiver(broadcastReceiver, new IntentFilter(BlockchainService.ACTION_PEER_STATE));
+			application.getPeerStateBus().subscribe(stateListener, PEER_COUNT_FILTER, application.getMainThreadExecutor());
 
 			forceLoad();
 		}
@@ -264,7 +271,7 @@ public final class PeerListFragment extends FancyListFragment
 		@Override
 		protected void onStopLoading()
 		{
-			broadcastManager.unregisterReceiver(broadcastReceiver);
+			application.getPeerStateBus().unsubscribe(stateListener);
 
 			super.onStopLoading();
 		}
@@ -275,10 +282,10 @@ public final class PeerListFragment extends FancyListFragment
 			return service.getConnectedPeers();
 		}
 
-		private final BroadcastReceiver broadcastReceiver = new BroadcastReceiver()
+		private final StateBus.Listener<Integer> stateListener = new StateBus.Listener<Integer>()
 		{
 			@Override
-			public void onReceive(final Context context, final Intent intent)
+			public void onStateChanged(final Integer state, final long version)
 			{
 				try
 				{
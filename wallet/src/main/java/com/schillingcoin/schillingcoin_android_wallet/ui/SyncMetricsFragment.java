@@ -0,0 +1,177 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.ui;
+
+import android.app.Activity;
+import android.app.Fragment;
+import android.content.ComponentName;
+import android.content.Context;
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.os.Bundle;
+import android.os.Handler;
+import android.os.IBinder;
+import android.text.format.DateUtils;
+import android.text.format.Formatter;
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainService;
+import com.schillingcoin.schillingcoin_android_wallet.service.BlockchainServiceImpl;
+import com.schillingcoin.schillingcoin_android_wallet.service.SyncMetrics;
+import com.schillingcoin.schillingcoin_android_wallet.R;
+
+/**
+ * Live view of the sync counters and rates kept by {@link BlockchainService#getSyncMetrics()}.
+ */
+public final class SyncMetricsFragment extends Fragment
+{
+	private AbstractWalletActivity activity;
+
+	private BlockchainService service;
+
+	private TextView blocksView;
+	private TextView transactionsView;
+	private TextView trafficView;
+	private TextView lastBlockView;
+	private TextView pingsView;
+
+	private final Handler handler = new Handler();
+
+	private static final long REFRESH_MS = DateUtils.SECOND_IN_MILLIS;
+
+	@Override
+	public void onAttach(final Activity activity)
+	{
+		super.onAttach(activity);
+
+		this.activity = (AbstractWalletActivity) activity;
+	}
+
+	@Override
+	public void onActivityCreated(final Bundle savedInstanceState)
+	{
+		super.onActivityCreated(savedInstanceState);
+
+		activity.runAfterLoad(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				activity.bindService(new Intent(activity, BlockchainServiceImpl.class), serviceConnection, Context.BIND_AUTO_CREATE);
+			}
+		});
+	}
+
+	@Override
+	public View onCreateView(final LayoutInflater inflater, final ViewGroup container, final Bundle savedInstanceState)
+	{
+		final View view = inflater.inflate(R.layout.sync_metrics_fragment, container, false);
+
+		blocksView = (TextView) view.findViewById(R.id.sync_metrics_blocks);
+		transactionsView = (TextView) view.findViewById(R.id.sync_metrics_transactions);
+		trafficView = (TextView) view.findViewById(R.id.sync_metrics_traffic);
+		lastBlockView = (TextView) view.findViewById(R.id.sync_metrics_last_block);
+		pingsView = (TextView) view.findViewById(R.id.sync_metrics_pings);
+
+		return view;
+	}
+
+	@Override
+	public void onResume()
+	{
+		super.onResume();
+
+		handler.post(refreshRunnable);
+	}
+
+	@Override
+	public void onPause()
+	{
+		handler.removeCallbacksAndMessages(null);
+
+		super.onPause();
+	}
+
+	@Override
+	public void onDestroy()
+	{
+		activity.unbindService(serviceConnection);
+
+		super.onDestroy();
+	}
+
+	private final Runnable refreshRunnable = new Runnable()
+	{
+		@Override
+		public void run()
+		{
+			if (service != null)
+				updateView(service.getSyncMetrics());
+
+			handler.postDelayed(this, REFRESH_MS);
+		}
+	};
+
+	private void updateView(final SyncMetrics.Snapshot metrics)
+	{
+		blocksView.setText(getString(R.string.sync_metrics_blocks, metrics.blocksTotal, metrics.blocksPerSecond));
+		transactionsView.setText(getString(R.string.sync_metrics_transactions, metrics.transactionsTotal, metrics.transactionsPerSecond));
+		trafficView.setText(getString(R.string.sync_metrics_traffic, Formatter.formatShortFileSize(activity, metrics.bytesInTotal),
+				Formatter.formatShortFileSize(activity, (long) metrics.bytesInPerSecond),
+				Formatter.formatShortFileSize(activity, metrics.bytesOutTotal),
+				Formatter.formatShortFileSize(activity, (long) metrics.bytesOutPerSecond)));
+
+		if (metrics.msSinceLastBlock >= 0)
+			lastBlockView.setText(getString(R.string.sync_metrics_last_block, metrics.bestChainHeight,
+					DateUtils.formatElapsedTime(metrics.msSinceLastBlock / DateUtils.SECOND_IN_MILLIS)));
+		else
+			lastBlockView.setText(getString(R.string.sync_metrics_last_block_none, metrics.bestChainHeight));
+
+		final StringBuilder pings = new StringBuilder();
+		for (int i = 0; i < metrics.numPeers; i++)
+		{
+			final long pingMs = metrics.getPeerPingMs(i);
+			if (pingMs == Long.MAX_VALUE)
+				continue;
+
+			if (pings.length() > 0)
+				pings.append(", ");
+			pings.append(metrics.getPeerHost(i)).append(' ').append(getString(R.string.peer_list_row_ping_time, pingMs));
+		}
+		pingsView.setText(pings);
+		pingsView.setVisibility(pings.length() > 0 ? View.VISIBLE : View.GONE);
+	}
+
+	private final ServiceConnection serviceConnection = new ServiceConnection()
+	{
+		@Override
+		public void onServiceConnected(final ComponentName name, final IBinder binder)
+		{
+			service = ((BlockchainServiceImpl.LocalBinder) binder).getService();
+		}
+
+		@Override
+		public void onServiceDisconnected(final ComponentName name)
+		{
+			service = null;
+		}
+	};
+}
@@ -25,6 +25,7 @@ import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
 
 import com.schillingcoin.schillingcoinj.core.Address;
 import com.schillingcoin.schillingcoinj.core.Coin;
@@ -34,6 +35,8 @@ import com.schillingcoin.schillingcoinj.core.Transaction.Purpose;
 import com.schillingcoin.schillingcoinj.core.TransactionConfidence;
 import com.schillingcoin.schillingcoinj.core.TransactionConfidence.ConfidenceType;
 import com.schillingcoin.schillingcoinj.core.Wallet;
+import com.schillingcoin.schillingcoinj.utils.ExchangeRate;
+import com.schillingcoin.schillingcoinj.utils.Fiat;
 import com.schillingcoin.schillingcoinj.utils.MonetaryFormat;
 import com.schillingcoin.schillingcoinj.wallet.DefaultCoinSelector;
 
@@ -52,19 +55,26 @@ import android.widget.TextView;
 
 import com.schillingcoin.schillingcoin_android_wallet.AddressBookProvider;
 import com.schillingcoin.schillingcoin_android_wallet.Constants;
+import com.schillingcoin.schillingcoin_android_wallet.TransactionIndex;
 import com.schillingcoin.schillingcoin_android_wallet.util.CircularProgressView;
+import com.schillingcoin.schillingcoin_android_wallet.util.MemoryGovernor;
+import com.schillingcoin.schillingcoin_android_wallet.util.RateHistory;
 import com.schillingcoin.schillingcoin_android_wallet.util.WalletUtils;
 import com.schillingcoin.schillingcoin_android_wallet.R;
 
 /**
  * @author Andreas Schildbach
  */
-public class TransactionsListAdapter extends BaseAdapter
+public class TransactionsListAdapter extends BaseAdapter implements MemoryGovernor.Sheddable
 {
 	private final Context context;
 	private final LayoutInflater inflater;
 	private final Wallet wallet;
 	private final int maxConnectedPeers;
+	@Nullable
+	private RateHistory rateHistory = null;
+	@Nullable
+	private String rateCurrencyCode = null;
 
 	public final List<Transaction> transactions = new ArrayList<Transaction>();
 	private MonetaryFormat format;
@@ -80,10 +90,14 @@ public class TransactionsListAdapter extends BaseAdapter
 
 	private final Map<String, String> labelCache = new HashMap<String, String>();
 	private final static String CACHE_NULL_MARKER = "";
+	private static final int CACHE_ENTRY_BYTES = 200; // rough estimate, for logging
 
 	private static final String CONFIDENCE_SYMBOL_DEAD = "\u271D"; // latin cross
 	private static final String CONFIDENCE_SYMBOL_UNKNOWN = "?";
 
+	/** Rates older than this at the time of a transaction are not used to value it. */
+	private static final long RATE_MAX_AGE_MS = DateUtils.DAY_IN_MILLIS;
+
 	private static final int VIEW_TYPE_TRANSACTION = 0;
 	private static final int VIEW_TYPE_WARNING = 1;
 
@@ -111,6 +125,43 @@ public class TransactionsListAdapter extends BaseAdapter
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * Values transactions in the given currency, at the rate from when they happened.
+	 */
+	public void setRateHistory(@Nullable final RateHistory rateHistory, @Nullable final String currencyCode)
+	{
+		if (rateHistory == this.rateHistory && (currencyCode == null ? rateCurrencyCode == null : currencyCode.equals(rateCurrencyCode)))
+			return;
+
+		this.rateHistory = rateHistory;
+		this.rateCurrencyCode = currencyCode;
+		transactionCache.clear();
+
+		notifyDataSetChanged();
+	}
+
+	@Nullable
+	public String getRateCurrencyCode()
+	{
+		return rateHistory != null ? rateCurrencyCode : null;
+	}
+
+	@Override
+	public long getSheddableBytes()
+	{
+		return (long) (labelCache.size() + transactionCache.size()) * CACHE_ENTRY_BYTES;
+	}
+
+	/**
+	 * Drops the label and value caches. Both are rebuilt as rows are bound.
+	 */
+	@Override
+	public void shed(final int level)
+	{
+		labelCache.clear();
+		transactionCache.clear();
+	}
+
 	public void clear()
 	{
 		transactions.clear();
@@ -126,6 +177,30 @@ public class TransactionsListAdapter extends BaseAdapter
 		notifyDataSetChanged();
 	}
 
+	/**
+	 * Like {@link #replace(Collection)}, but takes value, direction and address from the index rather than working them out
+	 * again as rows are bound.
+	 */
+	public void replaceRows(@Nonnull final List<TransactionIndex.Row> rows)
+	{
+		final Map<Sha256Hash, TransactionIndex.Row> indexRows = new HashMap<Sha256Hash, TransactionIndex.Row>(rows.size());
+		final List<Transaction> transactions = new ArrayList<Transaction>(rows.size());
+
+		for (final TransactionIndex.Row row : rows)
+		{
+			final Sha256Hash hash = row.tx.getHash();
+			indexRows.put(hash, row);
+			transactions.add(row.tx);
+
+			// rows are immutable, so a different row means the cached values may be stale
+			if (this.indexRows.get(hash) != row)
+				transactionCache.remove(hash);
+		}
+
+		this.indexRows = indexRows;
+		replace(transactions);
+	}
+
 	public void replace(@Nonnull final Collection<Transaction> transactions)
 	{
 		this.transactions.clear();
@@ -223,29 +298,39 @@ public class TransactionsListAdapter extends BaseAdapter
 
 	public class TransactionCacheEntry
 	{
-		public TransactionCacheEntry(final Coin value, final boolean sent, final Address address)
+		public TransactionCacheEntry(final Coin value, final boolean sent, final Address address, @Nullable final Fiat fiatValue)
 		{
 			this.value = value;
 			this.sent = sent;
 			this.address = address;
+			this.fiatValue = fiatValue;
 		}
 
 		public final Coin value;
 		public final boolean sent;
 		public final Address address;
+		/** Value at the time of the transaction, or null if there was no rate. */
+		@Nullable
+		public final Fiat fiatValue;
 	}
 
 	private Map<Sha256Hash, TransactionCacheEntry> transactionCache = new HashMap<Sha256Hash, TransactionCacheEntry>();
+	private Map<Sha256Hash, TransactionIndex.Row> indexRows = new HashMap<Sha256Hash, TransactionIndex.Row>();
 
 	public TransactionCacheEntry getTxCache(final Transaction tx) {
 		
 		TransactionCacheEntry txCache = transactionCache.get(tx.getHash());
 		
 		if (txCache == null) {
-			final Coin value = tx.getValue(wallet);
-			final boolean sent = value.signum() < 0;
-			final Address address = sent ? WalletUtils.getWalletAddressOfReceived(tx, wallet) : WalletUtils.getFirstFromAddress(tx);
-			txCache = new TransactionCacheEntry(value, sent, address);
+			final TransactionIndex.Row row = indexRows.get(tx.getHash());
+			if (row != null && row.tx == tx) {
+				txCache = new TransactionCacheEntry(row.value, row.sent, row.address, fiatValueAt(row.value, tx.getUpdateTime()));
+			} else {
+				final Coin value = tx.getValue(wallet);
+				final boolean sent = value.signum() < 0;
+				final Address address = sent ? WalletUtils.getWalletAddressOfReceived(tx, wallet) : WalletUtils.getFirstFromAddress(tx);
+				txCache = new TransactionCacheEntry(value, sent, address, fiatValueAt(value, tx.getUpdateTime()));
+			}
 
 			transactionCache.put(tx.getHash(), txCache);
 		}
@@ -254,6 +339,16 @@ public class TransactionsListAdapter extends BaseAdapter
 		
 	}
 
+	@Nullable
+	private Fiat fiatValueAt(@Nonnull final Coin value, @Nullable final Date time)
+	{
+		if (rateHistory == null || rateCurrencyCode == null || time == null)
+			return null;
+
+		final long rate = rateHistory.valueAt(rateCurrencyCode, time.getTime(), RATE_MAX_AGE_MS);
+		return rate >= 0 ? new ExchangeRate(Fiat.valueOf(rateCurrencyCode, rate)).coinToFiat(value) : null;
+	}
+
 	public void bindView(@Nonnull final View row, @Nonnull final Transaction tx) {
 
 		final TransactionConfidence confidence = tx.getConfidence();
@@ -374,6 +469,20 @@ public class TransactionsListAdapter extends BaseAdapter
 		rowValue.setFormat(format);
 		rowValue.setAmount(hasFee && rowExtendFee != null ? txCache.value.add(fee) : txCache.value);
 
+		// value at the time
+		final View rowExtendFiat = row.findViewById(R.id.transaction_row_extend_fiat);
+		if (rowExtendFiat != null)
+		{
+			rowExtendFiat.setVisibility(txCache.fiatValue != null ? View.VISIBLE : View.GONE);
+			if (txCache.fiatValue != null)
+			{
+				final CurrencyTextView rowFiat = (CurrencyTextView) row.findViewById(R.id.transaction_row_fiat);
+				rowFiat.setAlwaysSigned(true);
+				rowFiat.setFormat(Constants.LOCAL_FORMAT.code(0, rateCurrencyCode));
+				rowFiat.setAmount(txCache.fiatValue);
+			}
+		}
+
 		// message
 		final View rowExtendMessage = row.findViewById(R.id.transaction_row_extend_message);
 		if (rowExtendMessage != null)
@@ -18,13 +18,8 @@
 package com.schillingcoin.schillingcoin_android_wallet.ui;
 
 import java.text.DateFormat;
-import java.util.ArrayList;
-import java.util.Collections;
-import java.util.Comparator;
 import java.util.Date;
 import java.util.List;
-import java.util.Set;
-import java.util.concurrent.RejectedExecutionException;
 
 import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
@@ -35,7 +30,6 @@ import com.schillingcoin.schillingcoinj.core.Coin;
 import com.schillingcoin.schillingcoinj.core.ScriptException;
 import com.schillingcoin.schillingcoinj.core.Transaction;
 import com.schillingcoin.schillingcoinj.core.Transaction.Purpose;
-import com.schillingcoin.schillingcoinj.core.TransactionConfidence.ConfidenceType;
 import com.schillingcoin.schillingcoinj.core.Wallet;
 import com.schillingcoin.schillingcoinj.utils.Threading;
 import org.slf4j.Logger;
@@ -44,12 +38,10 @@ import org.slf4j.LoggerFactory;
 import android.app.Activity;
 import android.app.LoaderManager;
 import android.app.LoaderManager.LoaderCallbacks;
-import android.content.AsyncTaskLoader;
-import android.content.BroadcastReceiver;
+import android.content.ComponentCallbacks2;
 import android.content.ContentResolver;
 import android.content.Context;
 import android.content.Intent;
-import android.content.IntentFilter;
 import android.content.Loader;
 import android.content.SharedPreferences;
 import android.content.SharedPreferences.OnSharedPreferenceChangeListener;
@@ -59,7 +51,6 @@ import android.graphics.Typeface;
 import android.net.Uri;
 import android.os.Bundle;
 import android.os.Handler;
-import android.support.v4.content.LocalBroadcastManager;
 import android.text.SpannableStringBuilder;
 import android.text.format.DateUtils;
 import android.text.style.StyleSpan;
@@ -73,9 +64,11 @@ import android.widget.ListView;
 import com.schillingcoin.schillingcoin_android_wallet.AddressBookProvider;
 import com.schillingcoin.schillingcoin_android_wallet.Configuration;
 import com.schillingcoin.schillingcoin_android_wallet.Constants;
+import com.schillingcoin.schillingcoin_android_wallet.TransactionIndex;
 import com.schillingcoin.schillingcoin_android_wallet.WalletApplication;
 import com.schillingcoin.schillingcoin_android_wallet.util.BitmapFragment;
 import com.schillingcoin.schillingcoin_android_wallet.util.Qr;
+import com.schillingcoin.schillingcoin_android_wallet.util.StateBus;
 import com.schillingcoin.schillingcoin_android_wallet.util.ThrottlingWalletChangeListener;
 import com.schillingcoin.schillingcoin_android_wallet.util.WalletUtils;
 import com.schillingcoin.schillingcoin_android_wallet.R;
@@ -83,7 +76,7 @@ import com.schillingcoin.schillingcoin_android_wallet.R;
 /**
  * @author Andreas Schildbach
  */
-public class TransactionsListFragment extends FancyListFragment implements LoaderCallbacks<List<Transaction>>, OnSharedPreferenceChangeListener
+public class TransactionsListFragment extends FancyListFragment implements LoaderCallbacks<List<TransactionIndex.Row>>, OnSharedPreferenceChangeListener
 {
     public enum Direction
     {
@@ -163,6 +156,7 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
                 config = application.getConfiguration();
                 wallet = application.getWallet();
                 adapter = new TransactionsListAdapter(activity, wallet, application.maxConnectedPeers(), showBackupWarning);
+                application.getMemoryGovernor().register(adapter, ComponentCallbacks2.TRIM_MEMORY_RUNNING_LOW);
                 setListAdapter(adapter);
 
                 if (direction == null)
@@ -263,7 +257,7 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
                             mode.setTitle(time != null ? (DateUtils.isToday(time.getTime()) ? getString(R.string.time_today) : dateFormat.format(time))
                                     + ", " + timeFormat.format(time) : null);
 
-                            final Coin value = tx.getValue(wallet);
+                            final Coin value = adapter.getTxCache(tx).value;
                             final boolean sent = value.signum() < 0;
 
                             address = sent ? WalletUtils.getWalletAddressOfReceived(tx, wallet) : WalletUtils.getFirstFromAddress(tx);
@@ -359,15 +353,15 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
     }
 
     @Override
-    public Loader<List<Transaction>> onCreateLoader(final int id, final Bundle args)
+    public Loader<List<TransactionIndex.Row>> onCreateLoader(final int id, final Bundle args)
     {
-        return new TransactionsLoader(activity, wallet, direction);
+        return new TransactionsLoader(activity, direction);
     }
 
     @Override
-    public void onLoadFinished(final Loader<List<Transaction>> loader, final List<Transaction> transactions)
+    public void onLoadFinished(final Loader<List<TransactionIndex.Row>> loader, final List<TransactionIndex.Row> rows)
     {
-        adapter.replace(transactions);
+        adapter.replaceRows(rows);
 
         final SpannableStringBuilder emptyText = new SpannableStringBuilder(
                 getString(direction == Direction.SENT ? R.string.wallet_transactions_fragment_empty_text_sent
@@ -380,7 +374,7 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
     }
 
     @Override
-    public void onLoaderReset(final Loader<List<Transaction>> loader)
+    public void onLoaderReset(final Loader<List<TransactionIndex.Row>> loader)
     {
         // don't clear the adapter, because it will confuse users
     }
@@ -394,19 +388,19 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
         }
     };
 
-    private static class TransactionsLoader extends AsyncTaskLoader<List<Transaction>>
+    private static class TransactionsLoader extends Loader<List<TransactionIndex.Row>>
     {
-        private LocalBroadcastManager broadcastManager;
-        private final Wallet wallet;
+        private final WalletApplication application;
+        private final StateBus<TransactionIndex.Snapshot> snapshots;
         @CheckForNull
         private final Direction direction;
 
-        private TransactionsLoader(final Context context, @Nonnull final Wallet wallet, @Nullable final Direction direction)
+        private TransactionsLoader(final Context context, @Nullable final Direction direction)
         {
             super(context);
 
-            this.broadcastManager = LocalBroadcastManager.getInstance(context.getApplicationContext());
-            this.wallet = wallet;
+            this.application = (WalletApplication) context.getApplicationContext();
+            this.snapshots = application.getTransactionIndex().getSnapshots();
             this.direction = direction;
         }
 
@@ -415,104 +409,52 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
         {
             super.onStartLoading();
 
-            wallet.addEventListener(transactionAddRemoveListener, Threading.SAME_THREAD);
-            broadcastManager.registerReceiver(walletChangeReceiver, new IntentFilter(WalletApplication.ACTION_WALLET_CHANGED));
-            transactionAddRemoveListener.onReorganize(null); // trigger at least one reload
+            snapshots.subscribe(snapshotListener, StateBus.<TransactionIndex.Snapshot> anyChange(), application.getMainThreadExecutor());
 
-            safeForceLoad();
+            forceLoad();
         }
 
         @Override
-        protected void onStopLoading()
+        protected void onForceLoad()
         {
-            broadcastManager.unregisterReceiver(walletChangeReceiver);
-            wallet.removeEventListener(transactionAddRemoveListener);
-            transactionAddRemoveListener.removeCallbacks();
-
-            super.onStopLoading();
+            final TransactionIndex.Snapshot snapshot = snapshots.get();
+            if (snapshot != null)
+                deliverResult(rows(snapshot));
         }
 
         @Override
-        protected void onReset()
+        protected void onStopLoading()
         {
-            broadcastManager.unregisterReceiver(walletChangeReceiver);
-            wallet.removeEventListener(transactionAddRemoveListener);
-            transactionAddRemoveListener.removeCallbacks();
+            snapshots.unsubscribe(snapshotListener);
 
-            super.onReset();
+            super.onStopLoading();
         }
 
         @Override
-        public List<Transaction> loadInBackground()
+        protected void onReset()
         {
-            final Set<Transaction> transactions = wallet.getTransactions(true);
-            final List<Transaction> filteredTransactions = new ArrayList<Transaction>(transactions.size());
+            snapshots.unsubscribe(snapshotListener);
 
-            for (final Transaction tx : transactions)
-            {
-                final boolean sent = tx.getValue(wallet).signum() < 0;
-                final boolean isInternal = tx.getPurpose() == Purpose.KEY_ROTATION;
-
-                if ((direction == Direction.RECEIVED && !sent && !isInternal) || direction == null
-                        || (direction == Direction.SENT && sent && !isInternal))
-                    filteredTransactions.add(tx);
-            }
-
-            Collections.sort(filteredTransactions, TRANSACTION_COMPARATOR);
-
-            return filteredTransactions;
+            super.onReset();
         }
 
-        private final ThrottlingWalletChangeListener transactionAddRemoveListener = new ThrottlingWalletChangeListener(THROTTLE_MS, true, true, false)
-        {
-            @Override
-            public void onThrottledWalletChanged()
-            {
-                safeForceLoad();
-            }
-        };
-
-        private final BroadcastReceiver walletChangeReceiver = new BroadcastReceiver()
-        {
-            @Override
-            public void onReceive(final Context context, final Intent intent)
-            {
-                safeForceLoad();
-            }
-        };
-
-        private void safeForceLoad()
+        private List<TransactionIndex.Row> rows(final TransactionIndex.Snapshot snapshot)
         {
-            try
-            {
-                forceLoad();
-            }
-            catch (final RejectedExecutionException x)
-            {
-                log.info("rejected execution: " + TransactionsLoader.this.toString());
-            }
+            if (direction == Direction.RECEIVED)
+                return snapshot.getReceived();
+            else if (direction == Direction.SENT)
+                return snapshot.getSent();
+            else
+                return snapshot.rows;
         }
 
-        private static final Comparator<Transaction> TRANSACTION_COMPARATOR = new Comparator<Transaction>()
+        private final StateBus.Listener<TransactionIndex.Snapshot> snapshotListener = new StateBus.Listener<TransactionIndex.Snapshot>()
         {
             @Override
-            public int compare(final Transaction tx1, final Transaction tx2)
+            public void onStateChanged(final TransactionIndex.Snapshot snapshot, final long version)
             {
-                final boolean pending1 = tx1.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-                final boolean pending2 = tx2.getConfidence().getConfidenceType() == ConfidenceType.PENDING;
-
-                if (pending1 != pending2)
-                    return pending1 ? -1 : 1;
-
-                final Date updateTime1 = tx1.getUpdateTime();
-                final long time1 = updateTime1 != null ? updateTime1.getTime() : 0;
-                final Date updateTime2 = tx2.getUpdateTime();
-                final long time2 = updateTime2 != null ? updateTime2.getTime() : 0;
-
-                if (time1 != time2)
-                    return time1 > time2 ? -1 : 1;
-
-                return tx1.getHash().compareTo(tx2.getHash());
+                if (isStarted())
+                    deliverResult(rows(snapshot));
             }
         };
     }
@@ -520,12 +462,14 @@ public class TransactionsListFragment extends FancyListFragment implements Loade
     @Override
     public void onSharedPreferenceChanged(final SharedPreferences sharedPreferences, final String key)
     {
-        if (Configuration.PREFS_KEY_OES_PRECISION.equals(key))
+        if (Configuration.PREFS_KEY_OES_PRECISION.equals(key) || Configuration.PREFS_KEY_EXCHANGE_CURRENCY.equals(key))
             updateView();
     }
 
     private void updateView()
     {
+        final String currencyCode = config.getExchangeCurrencyCode();
+        adapter.setRateHistory(application.getRateHistory(), currencyCode != null ? currencyCode : Constants.DEFAULT_EXCHANGE_CURRENCY);
         adapter.setFormat(config.getFormat());
         adapter.clearLabelCache();
     }
@@ -378,7 +378,8 @@ public final class WalletActivity extends AbstractWalletActivity
         try {
 
             final BufferedWriter writer = new BufferedWriter(new FileWriter(file));
-            writer.append("Date,Label,Amount (" + MonetaryFormat.CODE_OES + "),Fee (" + MonetaryFormat.CODE_OES + "),Address,Transaction Hash,Confirmations\n");
+            final String rateCurrencyCode = txListAdapter != null ? txListAdapter.getRateCurrencyCode() : null;
+            writer.append("Date,Label,Amount (" + MonetaryFormat.CODE_OES + "),Fee (" + MonetaryFormat.CODE_OES + "),Value" + (rateCurrencyCode != null ? " (" + rateCurrencyCode + ")" : "") + ",Address,Transaction Hash,Confirmations\n");
 
             if (txListAdapter == null || txListAdapter.transactions.isEmpty()) {
                 longToast(R.string.export_transactions_mail_intent_failed);
@@ -400,6 +401,7 @@ public final class WalletActivity extends AbstractWalletActivity
                 writer.append(memo + ",");
                 writer.append(txCache.value.toPlainString() + ",");
                 writer.append(fee + ",");
+                writer.append((txCache.fiatValue != null ? txCache.fiatValue.toPlainString() : "") + ",");
                 writer.append(address + ",");
                 writer.append(tx.getHash().toString() + ",");
                 writer.append(tx.getConfidence().getDepthInBlocks() + "\n");
@@ -786,7 +788,7 @@ public final class WalletActivity extends AbstractWalletActivity
 		final String base = Constants.VERSION_URL + (versionNameSplit >= 0 ? packageInfo.versionName.substring(versionNameSplit) : "");
 		final String url = base + "?package=" + packageInfo.packageName + "&current=" + packageInfo.versionCode;
 
-		new HttpGetThread(getAssets(), url, application.httpUserAgent())
+		new HttpGetThread(application.getHttpClient(), url)
 		{
 			@Override
 			protected void handleLine(final String line, final long serverTime)
@@ -51,6 +51,11 @@ public class TrustedServer implements Parcelable {
      */
     public ServerStatus status = ServerStatus.SERVER_NOT_TRIED;
 
+    /**
+     * Latency and reliability, kept across restarts. Not parcelled.
+     */
+    public final TrustedServerStats stats;
+
     /**
      * Store information for a particular server for obtaining valid block hashes.
      *
@@ -60,10 +65,15 @@ public class TrustedServer implements Parcelable {
      * @param equal If true the server will have the same priority as the one above it.
      */
     public TrustedServer(long id, String name, String url, boolean equal) {
+        this(id, name, url, equal, new TrustedServerStats());
+    }
+
+    public TrustedServer(long id, String name, String url, boolean equal, TrustedServerStats stats) {
         this.id = id;
         this.name = name;
         this.url = url;
         this.equal = equal;
+        this.stats = stats;
     }
 
     @Override
@@ -97,6 +107,7 @@ public class TrustedServer implements Parcelable {
 
     private TrustedServer(Parcel in) {
 
+        stats = new TrustedServerStats();
         id = in.readLong();
         name = in.readString();
         url = in.readString();
@@ -21,13 +21,18 @@ import android.database.Cursor;
 import android.os.Handler;
 import android.os.Looper;
 import android.widget.Toast;
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
 
 import com.schillingcoin.schillingcoin_android_wallet.R;
 import com.schillingcoin.schillingcoin_android_wallet.ui.preference.TrustedServer.ServerStatus;
+import com.schillingcoin.schillingcoin_android_wallet.util.HedgedCall;
 import com.schillingcoin.schillingcoinj.store.ValidHashStore.TrustedServersInterface;
+import java.net.HttpURLConnection;
 import java.net.MalformedURLException;
 import java.net.URL;
 import java.util.Random;
@@ -39,13 +44,19 @@ import org.slf4j.LoggerFactory;
  */
 public class TrustedServerList extends ArrayList<TrustedServer> implements TrustedServersInterface {
 
+    private static final Random prng = new Random();
+
     /**
-     * An executor to write changes to the database asynchronously.
+     * After a failure, servers of the same priority are probed in parallel, hedged, before one is handed out. See {@link #getNext(boolean)}.
      */
-    private static final ExecutorService dbExecutor = Executors.newSingleThreadExecutor();
-    private static final Random prng = new Random();
+    private static final ExecutorService probeExecutor = Executors.newCachedThreadPool();
+    private static final int MAX_HEDGED_SERVERS = 3;
+    private static final int PROBE_TIMEOUT_MS = 5000;
+    private static final long STATS_STALE_MS = 10 * 60 * 1000;
+    private final HedgedCall<TrustedServer> hedgedProbe = new HedgedCall<TrustedServer>(probeExecutor, 0.9, 250, 3000, 32);
 
     private final Context context;
+    private final TrustedServerWriteQueue writeQueue;
     private Runnable onChanged = null;
 
     /**
@@ -57,6 +68,7 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
         public int size;
         public int start = prng.nextInt(Integer.MAX_VALUE);
         public int cursor = 0;
+        private TrustedServer[] ranked = null;
 
         /**
          * Create a priority bucket referencing servers in the TrustedServerList
@@ -80,16 +92,47 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
                 return null;
             }
 
-            return TrustedServerList.this.get(offset + (start + cursor++) % size);
+            return at(cursor++);
 
         }
 
         /**
-         * Reset cursor at the next server, so getNext will return the server, but also continue though the other servers afterwards.
+         * The servers in the order they are tried: fastest first by their statistics, with servers that have none before all
+         * others so they get measured. Servers that compare equal stay in the random rotation given by start.
+         */
+        private TrustedServer at(int index) {
+
+            if (ranked == null) {
+                ranked = new TrustedServer[size];
+                for (int i = 0; i < size; i++)
+                    ranked[i] = TrustedServerList.this.get(offset + (start + i) % size);
+                TrustedServerStats.sortByExpectedLatency(ranked);
+            }
+
+            return ranked[index];
+
+        }
+
+        /**
+         * Get up to max servers that getNext would return next, without moving the cursor.
+         */
+        public List<TrustedServer> peek(int max) {
+
+            List<TrustedServer> servers = new ArrayList<TrustedServer>();
+            for (int i = cursor; i < size && servers.size() < max; i++)
+                servers.add(at(i));
+            return servers;
+
+        }
+
+        /**
+         * Rank the servers again by their latest statistics and start over with the best one. Ties move on in the rotation.
          */
         public void resetAt() {
-            start = (start + cursor) % size;
+            if (size > 0)
+                start = (start + cursor) % size;
             cursor = 0;
+            ranked = null;
         }
 
     }
@@ -99,13 +142,32 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
     private ArrayList<PriorityBucket> priorityInfo = new ArrayList<PriorityBucket>();
     private int currentPriorityBucket = 0;
     private TrustedServer lastServer = null;
+    private long lastServerSince = 0;
     private TrustedServer lastSuccessfulServer = null;
+    private long lastSuccessfulTime = 0;
     private boolean invalidated = false;
 
     private static TrustedServerList instance = null;
 
     private TrustedServerList(final Context context) {
+
         this.context = context;
+        this.writeQueue = new TrustedServerWriteQueue(TrustedServersDatabaseHelper.getInstance(context), new TrustedServerWriteQueue.OrderSource() {
+
+            @Override
+            public long[] getIdsInOrder() {
+
+                synchronized (TrustedServerList.this) {
+                    long[] ids = new long[size()];
+                    for (int i = 0; i < ids.length; i++)
+                        ids[i] = get(i).id;
+                    return ids;
+                }
+
+            }
+
+        });
+
     }
 
     /**
@@ -120,7 +182,7 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
         Cursor cursor = TrustedServersDatabaseHelper.getInstance(context).getServersCursor();
 
         while (cursor.moveToNext())
-            instance.add(new TrustedServer(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getInt(3) != 0));
+            instance.add(TrustedServersDatabaseHelper.readServer(cursor));
 
         cursor.close();
         instance.calculatePriority();
@@ -195,14 +257,7 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
 
         }
 
-        dbExecutor.submit(new Runnable() {
-
-            @Override
-            public void run() {
-                TrustedServersDatabaseHelper.getInstance(context).updateOrder(server.id, from, to);
-            }
-
-        });
+        writeQueue.updateOrder();
 
     }
 
@@ -215,21 +270,37 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
             clear();
         }
 
-        dbExecutor.execute(new Runnable() {
+        writeQueue.submit(new Callable<Void>() {
 
             @Override
-            public void run() {
+            public Void call() {
 
                 TrustedServer[] servers = TrustedServersDatabaseHelper.getInstance(context).restoreDefaults();
+                replaceAll(servers);
+                return null;
 
-                synchronized (this) {
-                    for (TrustedServer server: servers)
-                        addServer(server);
-                    invalidated = true;
-                }
+            }
 
-                if (onChanged != null)
-                    onChanged.run();
+        });
+
+    }
+
+    /**
+     * Replaces all servers with the given ones, e.g. from an imported server list, keeping their statistics.
+     */
+    public void importServers(final List<TrustedServer> servers) {
+
+        synchronized (this) {
+            clear();
+        }
+
+        writeQueue.submit(new Callable<Void>() {
+
+            @Override
+            public Void call() {
+
+                replaceAll(TrustedServersDatabaseHelper.getInstance(context).replaceServers(servers));
+                return null;
 
             }
 
@@ -237,25 +308,46 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
 
     }
 
+    /**
+     * @return a copy of all servers in order, e.g. for exporting the server list
+     */
+    public synchronized List<TrustedServer> exportServers() {
+        return new ArrayList<TrustedServer>(this);
+    }
+
+    private void replaceAll(TrustedServer[] servers) {
+
+        synchronized (this) {
+            clear();
+            for (TrustedServer server: servers)
+                add(server);
+            calculatePriority();
+            invalidated = true;
+        }
+
+        if (onChanged != null)
+            onChanged.run();
+
+    }
+
     /**
      * Inserts a new server to the end of the list
      */
     public void newServer(final String name, final String url, final boolean equal) {
 
-        dbExecutor.execute(new Runnable() {
+        writeQueue.submit(new Callable<Void>() {
 
             @Override
-            public void run() {
+            public Void call() {
 
                 TrustedServer server = TrustedServersDatabaseHelper.getInstance(context).insertServer(name, url, equal);
-
-                synchronized (this) {
-                    addServer(server);
-                }
+                addServer(server);
 
                 if (onChanged != null)
                     onChanged.run();
 
+                return null;
+
             }
 
         });
@@ -283,6 +375,7 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
             if (!inlist.url.equals(url)) {
                 inlist.url = url;
                 inlist.status = ServerStatus.SERVER_NOT_TRIED;
+                inlist.stats.clear();
             }
 
             if (inlist.equal != equal) {
@@ -292,14 +385,8 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
 
         }
 
-        dbExecutor.submit(new Runnable() {
-
-            @Override
-            public void run() {
-                TrustedServersDatabaseHelper.getInstance(context).updateServerDetails(inlist.id, name, url, equal);
-            }
-
-        });
+        writeQueue.updateDetails(inlist.id, name, url, equal);
+        writeQueue.updateStats(inlist.id, inlist.stats);
 
     }
 
@@ -318,14 +405,7 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
 
         }
 
-        dbExecutor.submit(new Runnable() {
-
-            @Override
-            public void run() {
-                TrustedServersDatabaseHelper.getInstance(context).deleteServer(server.order);
-            }
-
-        });
+        writeQueue.delete(server.id);
 
     }
 
@@ -343,59 +423,194 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
 
     }
 
+    /**
+     * Gets the next server to ask. While the last success is recent, the best ranked server is handed out as is. After a failure,
+     * or once the statistics are stale, up to MAX_HEDGED_SERVERS servers of the current priority are probed: the first one right
+     * away and the next whenever no answer came within the usual latency. The first to answer is handed out, so a dead or slow
+     * server costs a fraction of a second instead of a full timeout.
+     */
     @Override
     public URL getNext(boolean didFail) {
 
-        synchronized (this) {
+        boolean reset = !didFail;
+        final boolean hedge = didFail || isStale();
 
-            invalidated = false;
+        for (;;) {
 
-            if (isEmpty())
-                return null;
+            final List<TrustedServer> candidates;
+
+            synchronized (this) {
+
+                invalidated = false;
+
+                if (isEmpty())
+                    return null;
+
+                if (reset) {
+
+                    // Go to first bucket and reset all the buckets, as we want to try the highest priority servers first.
+                    currentPriorityBucket = 0;
+                    for (PriorityBucket bucket : priorityInfo)
+                        bucket.resetAt();
+                    reset = false;
+
+                }
+
+                final PriorityBucket bucket = priorityInfo.get(currentPriorityBucket);
+                candidates = bucket.peek(MAX_HEDGED_SERVERS);
+
+                if (!hedge || candidates.size() <= 1) {
+
+                    final TrustedServer server = bucket.getNext();
+
+                    if (server != null) {
+                        try {
+                            URL url = new URL(server.url);
+                            lastServer = server;
+                            lastServerSince = System.currentTimeMillis();
+                            return url;
+                        } catch (MalformedURLException ex) {}
+                    } else if (++currentPriorityBucket == priorityInfo.size()) {
+
+                        Handler handler = new Handler(Looper.getMainLooper());
+                        handler.post(
+                                new Runnable(){
+                                    @Override
+                                    public void run() {
+                                        Toast.makeText(context, R.string.failed_all_servers, Toast.LENGTH_LONG).show();
+                                    }
+                                }
+                                );
+
+                        currentPriorityBucket = 0;
+                        lastServer = null;
+
+                        return null;
+
+                    }
 
-            if (!didFail) {
+                    continue;
 
-                // Go to first bucket and reset all the buckets, as we want to try the highest priority servers first.
-                currentPriorityBucket = 0;
-                for (PriorityBucket bucket : priorityInfo)
-                    bucket.resetAt();
+                }
 
             }
 
-            for (;;) {
+            // Probing takes a while, so don't hold up edits of the list meanwhile.
+            final TrustedServer winner = probe(candidates);
+
+            for (TrustedServer candidate : candidates)
+                saveStats(candidate);
 
-                TrustedServer server = priorityInfo.get(currentPriorityBucket).getNext();
+            synchronized (this) {
 
-                if (server != null) {
+                // Skip the servers that were slower than the winner, or all of them if none answered.
+                final PriorityBucket bucket = priorityInfo.get(currentPriorityBucket);
+                for (TrustedServer candidate : candidates) {
+                    bucket.getNext();
+                    if (candidate == winner)
+                        break;
+                    if (winner == null)
+                        candidate.status = ServerStatus.SERVER_FAILED;
+                }
+
+                if (winner != null) {
                     try {
-                        URL url = new URL(server.url);
-                        lastServer = server;
+                        URL url = new URL(winner.url);
+                        lastServer = winner;
+                        lastServerSince = System.currentTimeMillis();
                         return url;
                     } catch (MalformedURLException ex) {}
-                } else if (++currentPriorityBucket == priorityInfo.size()) {
-
-                    Handler handler = new Handler(Looper.getMainLooper());
-                    handler.post(
-                            new Runnable(){
-                                @Override
-                                public void run() {
-                                    Toast.makeText(context, R.string.failed_all_servers, Toast.LENGTH_LONG).show();
-                                }
-                            }
-                            );
+                }
 
-                    currentPriorityBucket = 0;
-                    lastServer = null;
+            }
 
-                    return null;
+            if (onChanged != null)
+                onChanged.run();
 
-                }
+        }
+
+    }
+
+    /**
+     * Returns true if no server succeeded lately, so the ranking may no longer match which servers answer.
+     */
+    private boolean isStale() {
+
+        synchronized (lastSuccessfulLock) {
+            return lastSuccessfulServer == null || System.currentTimeMillis() - lastSuccessfulTime > STATS_STALE_MS;
+        }
+
+    }
+
+    private TrustedServer probe(final List<TrustedServer> candidates) {
+
+        final List<ServerProbe> probes = new ArrayList<ServerProbe>(candidates.size());
+        for (TrustedServer candidate : candidates)
+            probes.add(new ServerProbe(candidate));
+
+        try {
+            return hedgedProbe.call(probes, PROBE_TIMEOUT_MS);
+        } catch (InterruptedException ex) {
+            Thread.currentThread().interrupt();
+            // Fall back to asking the servers one by one.
+            return candidates.get(0);
+        }
+
+    }
 
+    /**
+     * Checks whether a server answers at all. Any response other than a server error counts.
+     */
+    private static class ServerProbe implements HedgedCall.Attempt<TrustedServer> {
+
+        private final TrustedServer server;
+        private volatile HttpURLConnection connection = null;
+        private volatile boolean cancelled = false;
+
+        public ServerProbe(TrustedServer server) {
+            this.server = server;
+        }
+
+        @Override
+        public TrustedServer call() throws IOException {
+
+            connection = (HttpURLConnection) new URL(server.url).openConnection();
+            connection.setRequestMethod("HEAD");
+            connection.setConnectTimeout(PROBE_TIMEOUT_MS);
+            connection.setReadTimeout(PROBE_TIMEOUT_MS);
+            connection.setUseCaches(false);
+
+            try {
+                final int responseCode = connection.getResponseCode();
+                if (responseCode > 0 && responseCode < 500)
+                    return server;
+            } catch (IOException ex) {
+                // Counted as a failure below, unless the probe was cancelled.
             }
+
+            if (!cancelled)
+                server.stats.recordFailure(System.currentTimeMillis());
+            return null;
+
+        }
+
+        @Override
+        public void cancel() {
+
+            cancelled = true;
+
+            final HttpURLConnection connection = this.connection;
+            if (connection != null)
+                connection.disconnect();
+
         }
 
     }
 
+    private void saveStats(final TrustedServer server) {
+        writeQueue.updateStats(server.id, server.stats);
+    }
+
     @Override
     public boolean invalidated() {
         return invalidated;
@@ -404,10 +619,20 @@ public class TrustedServerList extends ArrayList<TrustedServer> implements Trust
     @Override
     public void markSuccess(boolean success) {
 
+        final TrustedServer lastServer = this.lastServer;
+
         if (lastServer != null) {
+
+            if (success)
+                lastServer.stats.recordSuccess(System.currentTimeMillis() - lastServerSince);
+            else
+                lastServer.stats.recordFailure(System.currentTimeMillis());
+            saveStats(lastServer);
+
             if (success) {
                 synchronized (lastSuccessfulLock) {
                     lastSuccessfulServer = lastServer;
+                    lastSuccessfulTime = System.currentTimeMillis();
                 }
                 lastServer.status = ServerStatus.SERVER_SUCCEEDED;
             } else {
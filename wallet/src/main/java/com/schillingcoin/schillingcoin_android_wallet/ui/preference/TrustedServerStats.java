@@ -0,0 +1,218 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.schillingcoin.schillingcoin_android_wallet.ui.preference;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Latency and reliability of a trusted server: the latencies of its last successful requests, a success ratio that favours
+ * recent requests, and when it last failed.
+ */
+public class TrustedServerStats {
+
+    private static final int NUM_LATENCIES = 32;
+
+    /**
+     * Successes and failures are halved when their sum reaches this, so old outcomes fade out.
+     */
+    private static final int MAX_OUTCOMES = 64;
+
+    private static final class Ranked {
+
+        final TrustedServer server;
+        final long expectedLatencyMs;
+
+        Ranked(TrustedServer server) {
+            this.server = server;
+            this.expectedLatencyMs = server.stats.getExpectedLatencyMs();
+        }
+
+    }
+
+    private static final Comparator<Ranked> BY_EXPECTED_LATENCY = new Comparator<Ranked>() {
+
+        @Override
+        public int compare(Ranked lhs, Ranked rhs) {
+
+            final long l = lhs.expectedLatencyMs;
+            final long r = rhs.expectedLatencyMs;
+            return l < r ? -1 : (l == r ? 0 : 1);
+
+        }
+
+    };
+
+    /**
+     * Orders servers by how long a request to them is expected to take, counting failures as retries. Servers without any
+     * statistics come first, so they get tried. Servers that compare equal keep their order.
+     *
+     * The expected latencies are taken once before sorting, as requests running meanwhile change them and a sort must not see
+     * its keys change.
+     */
+    public static void sortByExpectedLatency(TrustedServer[] servers) {
+
+        final Ranked[] ranked = new Ranked[servers.length];
+        for (int i = 0; i < servers.length; i++)
+            ranked[i] = new Ranked(servers[i]);
+
+        Arrays.sort(ranked, BY_EXPECTED_LATENCY);
+
+        for (int i = 0; i < servers.length; i++)
+            servers[i] = ranked[i].server;
+
+    }
+
+    private final int[] latencies = new int[NUM_LATENCIES];
+    private int numLatencies = 0;
+    private int nextLatency = 0;
+    private int successes = 0;
+    private int failures = 0;
+    private long lastErrorTime = 0;
+
+    public TrustedServerStats() {
+    }
+
+    /**
+     * Restores statistics as stored by the database helper.
+     */
+    public TrustedServerStats(byte[] latencyBytes, int successes, int failures, long lastErrorTime) {
+
+        if (latencyBytes != null) {
+            final ByteBuffer buffer = ByteBuffer.wrap(latencyBytes);
+            while (buffer.remaining() >= 4 && numLatencies < NUM_LATENCIES)
+                latencies[numLatencies++] = buffer.getInt();
+            nextLatency = numLatencies % NUM_LATENCIES;
+        }
+
+        this.successes = successes;
+        this.failures = failures;
+        this.lastErrorTime = lastErrorTime;
+
+    }
+
+    public synchronized void recordSuccess(long latencyMs) {
+
+        latencies[nextLatency] = (int) Math.min(latencyMs, Integer.MAX_VALUE);
+        nextLatency = (nextLatency + 1) % NUM_LATENCIES;
+        numLatencies = Math.min(numLatencies + 1, NUM_LATENCIES);
+
+        successes++;
+        decay();
+
+    }
+
+    public synchronized void recordFailure(long now) {
+
+        failures++;
+        lastErrorTime = now;
+        decay();
+
+    }
+
+    /**
+     * Forgets everything, e.g. because the server moved to a different URL.
+     */
+    public synchronized void clear() {
+
+        numLatencies = 0;
+        nextLatency = 0;
+        successes = 0;
+        failures = 0;
+        lastErrorTime = 0;
+
+    }
+
+    private void decay() {
+
+        if (successes + failures >= MAX_OUTCOMES) {
+            successes /= 2;
+            failures /= 2;
+        }
+
+    }
+
+    /**
+     * @return the latency in milliseconds below which the given fraction of recent requests were answered, or -1 if none were
+     */
+    public synchronized long getLatencyPercentile(double percentile) {
+
+        if (numLatencies == 0)
+            return -1;
+
+        final int[] sorted = Arrays.copyOf(latencies, numLatencies);
+        Arrays.sort(sorted);
+        final int index = (int) Math.ceil(percentile * numLatencies) - 1;
+        return sorted[Math.max(0, Math.min(index, numLatencies - 1))];
+
+    }
+
+    /**
+     * @return the fraction of recent requests that succeeded, or -1 if there were none
+     */
+    public synchronized double getSuccessRatio() {
+
+        final int total = successes + failures;
+        return total == 0 ? -1 : (double) successes / total;
+
+    }
+
+    /**
+     * @return the time of the last failure in milliseconds since the epoch, or 0 if it never failed
+     */
+    public synchronized long getLastErrorTime() {
+        return lastErrorTime;
+    }
+
+    /**
+     * @return the median latency divided by the success ratio, or -1 if not known
+     */
+    public synchronized long getExpectedLatencyMs() {
+
+        final long median = getLatencyPercentile(0.5);
+        final double successRatio = getSuccessRatio();
+
+        if (successRatio < 0)
+            return -1;
+
+        if (median < 0)
+            return Long.MAX_VALUE; // only ever failed
+
+        return (long) (median / Math.max(successRatio, 0.01));
+
+    }
+
+    public synchronized byte[] getLatencyBytes() {
+
+        final ByteBuffer buffer = ByteBuffer.allocate(numLatencies * 4);
+        // oldest first, so restoring continues the ring in order
+        for (int i = 0; i < numLatencies; i++)
+            buffer.putInt(latencies[(nextLatency - numLatencies + i + NUM_LATENCIES) % NUM_LATENCIES]);
+        return buffer.array();
+
+    }
+
+    public synchronized int getSuccesses() {
+        return successes;
+    }
+
+    public synchronized int getFailures() {
+        return failures;
+    }
+
+}
@@ -0,0 +1,178 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+package com.schillingcoin.schillingcoin_android_wallet.ui.preference;
+
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Write-behind queue for the trusted server database. Changes are kept per server, so repeated changes to the same server
+ * collapse into one, and a short while after the first change all of them are written in a single transaction. The order is
+ * not queued at all: a flush writes the order the list has at that moment.
+ */
+public class TrustedServerWriteQueue {
+
+    private static final long FLUSH_DELAY_MS = 500;
+
+    /**
+     * The current order of the servers, read when a flush writes it.
+     */
+    public interface OrderSource {
+        long[] getIdsInOrder();
+    }
+
+    /**
+     * Name, URL and priority equality of a server, as of when they were queued.
+     */
+    public static class Details {
+
+        public final String name;
+        public final String url;
+        public final boolean equal;
+
+        public Details(String name, String url, boolean equal) {
+            this.name = name;
+            this.url = url;
+            this.equal = equal;
+        }
+
+    }
+
+    private final TrustedServersDatabaseHelper db;
+    private final OrderSource orderSource;
+    private final ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+
+    // guarded by this
+    private Set<Long> deletes = new HashSet<Long>();
+    private Map<Long, Details> details = new LinkedHashMap<Long, Details>();
+    private Map<Long, TrustedServerStats> stats = new LinkedHashMap<Long, TrustedServerStats>();
+    private boolean orderChanged = false;
+    private boolean flushScheduled = false;
+
+    private static final Logger log = LoggerFactory.getLogger(TrustedServerWriteQueue.class);
+
+    public TrustedServerWriteQueue(TrustedServersDatabaseHelper db, OrderSource orderSource) {
+        this.db = db;
+        this.orderSource = orderSource;
+    }
+
+    public synchronized void updateDetails(long id, String name, String url, boolean equal) {
+        details.put(id, new Details(name, url, equal));
+        scheduleFlush();
+    }
+
+    public synchronized void updateStats(long id, TrustedServerStats serverStats) {
+        stats.put(id, serverStats);
+        scheduleFlush();
+    }
+
+    public synchronized void updateOrder() {
+        orderChanged = true;
+        scheduleFlush();
+    }
+
+    public synchronized void delete(long id) {
+
+        details.remove(id);
+        stats.remove(id);
+        deletes.add(id);
+        orderChanged = true;
+        scheduleFlush();
+
+    }
+
+    /**
+     * Runs a task on the database thread, after everything queued so far has been written.
+     */
+    public <T> Future<T> submit(final Callable<T> task) {
+
+        return executor.submit(new Callable<T>() {
+
+            @Override
+            public T call() throws Exception {
+                flush();
+                return task.call();
+            }
+
+        });
+
+    }
+
+    private void scheduleFlush() {
+
+        if (flushScheduled)
+            return;
+
+        flushScheduled = true;
+        executor.schedule(new Runnable() {
+
+            @Override
+            public void run() {
+                flush();
+            }
+
+        }, FLUSH_DELAY_MS, TimeUnit.MILLISECONDS);
+
+    }
+
+    /**
+     * Writes everything queued in one transaction. Runs on the database thread.
+     */
+    private void flush() {
+
+        final Set<Long> deletes;
+        final Map<Long, Details> details;
+        final Map<Long, TrustedServerStats> stats;
+        final boolean orderChanged;
+
+        synchronized (this) {
+
+            deletes = this.deletes;
+            details = this.details;
+            stats = this.stats;
+            orderChanged = this.orderChanged;
+
+            this.deletes = new HashSet<Long>();
+            this.details = new LinkedHashMap<Long, Details>();
+            this.stats = new LinkedHashMap<Long, TrustedServerStats>();
+            this.orderChanged = false;
+            flushScheduled = false;
+
+        }
+
+        if (deletes.isEmpty() && details.isEmpty() && stats.isEmpty() && !orderChanged)
+            return;
+
+        final long start = System.currentTimeMillis();
+        db.applyChanges(deletes, details, stats, orderChanged ? orderSource.getIdsInOrder() : null);
+
+        log.debug("{} deletes, {} detail and {} stats updates{} written, took {}ms", deletes.size(), details.size(), stats.size(),
+                orderChanged ? " and the order" : "", System.currentTimeMillis() - start);
+
+    }
+
+}
@@ -24,7 +24,9 @@ import android.database.sqlite.SQLiteDatabase;
 import android.database.sqlite.SQLiteOpenHelper;
 
 import com.schillingcoin.schillingcoin_android_wallet.R;
-import java.util.Locale;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 /**
  * A database helper for storing trusted servers in an SQLite database.
@@ -33,7 +35,7 @@ import java.util.Locale;
 public class TrustedServersDatabaseHelper extends SQLiteOpenHelper {
 
     private static final String DATABASE_NAME = "trusted_servers.db";
-    private static final int DATABASE_VERSION = 1;
+    private static final int DATABASE_VERSION = 2;
 
     private static final String TABLE_NAME =  "servers";
 
@@ -42,6 +44,10 @@ public class TrustedServersDatabaseHelper extends SQLiteOpenHelper {
     private static final String FIELD_NAME =  "name";
     private static final String FIELD_URL =   "url";
     private static final String FIELD_EQUAL = "equal";
+    private static final String FIELD_LATENCIES = "latencies";
+    private static final String FIELD_SUCCESSES = "successes";
+    private static final String FIELD_FAILURES = "failures";
+    private static final String FIELD_LAST_ERROR = "last_error";
 
     // public static final String DEFAULT_SERVER_NEW_YORK = "https://peercoinexplorer.info/q/getvalidhashes";
     // public static final String DEFAULT_SERVER_LONDON = "https://london.getvalidhashes.com/peercoin";
@@ -126,94 +132,78 @@ public class TrustedServersDatabaseHelper extends SQLiteOpenHelper {
     }
 
     /**
-     * Deletes a server from the list by specifying its order.
+     * Applies queued changes in one transaction: deletes servers, updates details and statistics, and if order is not null,
+     * renumbers the servers to the order of the given ids.
      */
-    public void deleteServer(int order) {
+    public void applyChanges(Set<Long> deletes, Map<Long, TrustedServerWriteQueue.Details> details, Map<Long, TrustedServerStats> stats,
+            long[] order) {
 
         SQLiteDatabase db = getWritableDatabase();
-
         db.beginTransaction();
 
         try {
 
-            // Delete the server and also update the orders of higher servers to be decremented
+            for (long id : deletes)
+                db.delete(TABLE_NAME, FIELD_ID + " = " + id, null);
 
-            db.delete(TABLE_NAME, FIELD_ORDER + " = " + order, null);
+            for (Map.Entry<Long, TrustedServerWriteQueue.Details> entry : details.entrySet()) {
 
-            db.execSQL(String.format(
-                        Locale.US,
-                        "UPDATE %s SET %s = %s - 1 WHERE %s > %d;", 
-                        TABLE_NAME, FIELD_ORDER, FIELD_ORDER, FIELD_ORDER, order
-                        ));
+                final TrustedServerWriteQueue.Details server = entry.getValue();
+                ContentValues values = new ContentValues(3);
+                values.put(FIELD_NAME, server.name);
+                values.put(FIELD_URL, server.url);
+                values.put(FIELD_EQUAL, server.equal);
+                db.update(TABLE_NAME, values, FIELD_ID + " = " + entry.getKey(), null);
 
-            db.setTransactionSuccessful();
+            }
 
-        } finally {
-            db.endTransaction();
-        }
+            for (Map.Entry<Long, TrustedServerStats> entry : stats.entrySet())
+                db.update(TABLE_NAME, statsToValues(entry.getValue()), FIELD_ID + " = " + entry.getKey(), null);
 
-    }
+            if (order != null) {
 
-    /**
-     * For a given server id, update its details in the database.
-     */
-    public void updateServerDetails(long id, String name, String url, boolean equal) {
+                ContentValues values = new ContentValues(1);
+                for (int i = 0; i < order.length; i++) {
+                    values.put(FIELD_ORDER, i);
+                    db.update(TABLE_NAME, values, FIELD_ID + " = " + order[i], null);
+                }
 
-        ContentValues values = new ContentValues(3);
-        values.put(FIELD_NAME, name);
-        values.put(FIELD_URL, url);
-        values.put(FIELD_EQUAL, equal);
+            }
 
-        getWritableDatabase().update(TABLE_NAME, values, FIELD_ID + " = " + id, null);
+            db.setTransactionSuccessful();
+
+        } finally {
+            db.endTransaction();
+        }
 
     }
 
     /**
-     * Moves the server given by its id, from its correct specified postion to a new position.
+     * Replaces all servers with the given ones, in one transaction. Statistics are kept along.
+     * @return the servers as stored, with their new ids
      */
-    public void updateOrder(long id, int prevOrder, int newOrder) {
-
-        /* 
-         * Given that p is the previous order and n is the new order:
-         * If p = n then do nothing
-         * If p < n then for all p + 1 ... n, decrement order.
-         * If p > n then for all n ... p - 1, increment order.
-         */
-
-        if (prevOrder == newOrder)
-            return;
-
-        int start, end;
-        String operator;
-
-        if (prevOrder < newOrder) {
-            operator = "-";
-            start = prevOrder + 1;
-            end = newOrder;
-        } else {
-            operator = "+";
-            start = newOrder;
-            end = prevOrder - 1;
-        }
-
-        // Update database in transaction
+    public TrustedServer[] replaceServers(List<TrustedServer> servers) {
 
         SQLiteDatabase db = getWritableDatabase();
+        TrustedServer[] inserted = new TrustedServer[servers.size()];
         db.beginTransaction();
 
         try {
 
-            // As SQLiteDatabase has trouble with the update method, do a raw query.
+            db.delete(TABLE_NAME, null, null);
 
-            db.execSQL(String.format(
-                        Locale.US,
-                        "UPDATE %s SET %s = %s %s 1 WHERE %s BETWEEN %d AND %d;", 
-                        TABLE_NAME, FIELD_ORDER, FIELD_ORDER, operator, FIELD_ORDER, start, end
-                        ));
+            for (int i = 0; i < servers.size(); i++) {
 
-            ContentValues values = new ContentValues(1);
-            values.put(FIELD_ORDER, newOrder);
-            db.update(TABLE_NAME, values, FIELD_ID + " = " + id, null);
+                final TrustedServer server = servers.get(i);
+                ContentValues values = statsToValues(server.stats);
+                values.put(FIELD_ORDER, i);
+                values.put(FIELD_NAME, server.name);
+                values.put(FIELD_URL, server.url);
+                values.put(FIELD_EQUAL, server.equal);
+
+                inserted[i] = new TrustedServer(db.insert(TABLE_NAME, null, values), server.name, server.url, server.equal, server.stats);
+
+            }
 
             db.setTransactionSuccessful();
 
@@ -221,19 +211,45 @@ public class TrustedServersDatabaseHelper extends SQLiteOpenHelper {
             db.endTransaction();
         }
 
+        return inserted;
+
+    }
+
+    private static ContentValues statsToValues(TrustedServerStats stats) {
+
+        ContentValues values = new ContentValues(4);
+        values.put(FIELD_LATENCIES, stats.getLatencyBytes());
+        values.put(FIELD_SUCCESSES, stats.getSuccesses());
+        values.put(FIELD_FAILURES, stats.getFailures());
+        values.put(FIELD_LAST_ERROR, stats.getLastErrorTime());
+        return values;
+
     }
 
     /**
-     * Gets a Cursor object for the server id, name, url, and priority equality, for all servers in ascending order.
+     * Gets a Cursor object for the server id, name, url, priority equality, latencies, successes, failures and last error time,
+     * for all servers in ascending order.
      */
     public Cursor getServersCursor() {
 
         return getReadableDatabase().query(
-                TABLE_NAME, new String[]{ FIELD_ID, FIELD_NAME, FIELD_URL, FIELD_EQUAL }, null, null, null, null, FIELD_ORDER + " ASC"
+                TABLE_NAME,
+                new String[]{ FIELD_ID, FIELD_NAME, FIELD_URL, FIELD_EQUAL, FIELD_LATENCIES, FIELD_SUCCESSES, FIELD_FAILURES, FIELD_LAST_ERROR },
+                null, null, null, null, FIELD_ORDER + " ASC"
                 );
 
     }
 
+    /**
+     * Reads the server at the current position of a cursor from {@link #getServersCursor()}.
+     */
+    public static TrustedServer readServer(Cursor cursor) {
+
+        final TrustedServerStats stats = new TrustedServerStats(cursor.getBlob(4), cursor.getInt(5), cursor.getInt(6), cursor.getLong(7));
+        return new TrustedServer(cursor.getLong(0), cursor.getString(1), cursor.getString(2), cursor.getInt(3) != 0, stats);
+
+    }
+
     @Override
     public void onCreate(SQLiteDatabase db) {
 
@@ -243,7 +259,11 @@ public class TrustedServersDatabaseHelper extends SQLiteOpenHelper {
                 + FIELD_ORDER + " integer not null, "
                 + FIELD_NAME + " text not null, "
                 + FIELD_URL + " text not null, "
-                + FIELD_EQUAL + " boolean not null"
+                + FIELD_EQUAL + " boolean not null, "
+                + FIELD_LATENCIES + " blob, "
+                + FIELD_SUCCESSES + " integer not null default 0, "
+                + FIELD_FAILURES + " integer not null default 0, "
+                + FIELD_LAST_ERROR + " integer not null default 0"
                 + ");"
                 );
 
@@ -255,7 +275,14 @@ public class TrustedServersDatabaseHelper extends SQLiteOpenHelper {
 
     @Override
     public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
-        // No upgrade necessary
+
+        if (oldVersion < 2) {
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + FIELD_LATENCIES + " blob;");
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + FIELD_SUCCESSES + " integer not null default 0;");
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + FIELD_FAILURES + " integer not null default 0;");
+            db.execSQL("ALTER TABLE " + TABLE_NAME + " ADD COLUMN " + FIELD_LAST_ERROR + " integer not null default 0;");
+        }
+
     }
 
 }
@@ -23,6 +23,7 @@ import android.content.Loader;
 import android.graphics.Typeface;
 import android.os.Bundle;
 import android.os.Parcelable;
+import android.text.format.DateUtils;
 import android.view.ActionMode;
 import android.view.LayoutInflater;
 import android.view.Menu;
@@ -155,6 +156,9 @@ public class TrustedServersFragment extends ListFragment
 
                     status.setBackgroundColor(getResources().getColor(colour));
 
+                    final TextView stats = (TextView) v.findViewById(R.id.trusted_server_stats);
+                    stats.setText(formatStats(server.stats));
+
                     int tf = servers.isLastServer(server) ? Typeface.BOLD : Typeface.NORMAL;
                     name.setTypeface(null, tf);
                     priority.setTypeface(null, tf);
@@ -177,6 +181,33 @@ public class TrustedServersFragment extends ListFragment
 
     };
 
+    /**
+     * Median and 90th percentile latency on the first line, success ratio and last failure on the second.
+     */
+    private String formatStats(TrustedServerStats stats) {
+
+        final double successRatio = stats.getSuccessRatio();
+        if (successRatio < 0)
+            return "";
+
+        final StringBuilder text = new StringBuilder();
+
+        final long median = stats.getLatencyPercentile(0.5);
+        if (median >= 0)
+            text.append(getString(R.string.trusted_server_stats_latency, median, stats.getLatencyPercentile(0.9))).append('\n');
+
+        final int percent = (int) Math.round(successRatio * 100);
+        final long lastErrorTime = stats.getLastErrorTime();
+        if (lastErrorTime > 0)
+            text.append(getString(R.string.trusted_server_stats_last_error, percent,
+                    DateUtils.getRelativeTimeSpanString(lastErrorTime, System.currentTimeMillis(), DateUtils.MINUTE_IN_MILLIS)));
+        else
+            text.append(getString(R.string.trusted_server_stats_reliability, percent));
+
+        return text.toString();
+
+    }
+
     @Override
     public void onActivityCreated(Bundle savedInstanceState) {
 
@@ -23,9 +23,7 @@ import java.io.OutputStream;
 import java.net.HttpURLConnection;
 import java.net.URL;
 
-import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
 
 import com.schillingcoin.schillingcoinj.protocols.payments.PaymentProtocol;
 import org.slf4j.Logger;
@@ -40,10 +38,10 @@ import android.os.Looper;
 import com.google.protobuf.CodedInputStream;
 import com.google.protobuf.CodedOutputStream;
 
-import com.schillingcoin.schillingcoin_android_wallet.Constants;
 import com.schillingcoin.schillingcoin_android_wallet.data.PaymentIntent;
 import com.schillingcoin.schillingcoin_android_wallet.ui.InputParser;
 import com.schillingcoin.schillingcoin_android_wallet.util.Bluetooth;
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
 import com.schillingcoin.schillingcoin_android_wallet.R;
 
 /**
@@ -73,15 +71,14 @@ public abstract class RequestPaymentRequestTask
 
 	public final static class HttpRequestTask extends RequestPaymentRequestTask
 	{
-		@CheckForNull
-		private final String userAgent;
+		private final HttpClient httpClient;
 
 		public HttpRequestTask(@Nonnull final Handler backgroundHandler, @Nonnull final ResultCallback resultCallback,
-				@Nullable final String userAgent)
+				@Nonnull final HttpClient httpClient)
 		{
 			super(backgroundHandler, resultCallback);
 
-			this.userAgent = userAgent;
+			this.httpClient = httpClient;
 		}
 
 		@Override
@@ -94,30 +91,24 @@ public abstract class RequestPaymentRequestTask
 				{
 					log.info("trying to request payment request from {}", url);
 
-					HttpURLConnection connection = null;
-					InputStream is = null;
+					HttpClient.Call call = null;
 
 					try
 					{
-						connection = (HttpURLConnection) new URL(url).openConnection();
+						call = httpClient.open(new URL(url), false);
+						final HttpURLConnection connection = call.connection;
 
-						connection.setInstanceFollowRedirects(false);
-						connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-						connection.setUseCaches(false);
 						connection.setDoInput(true);
 						connection.setDoOutput(false);
 
 						connection.setRequestMethod("GET");
 						connection.setRequestProperty("Accept", PaymentProtocol.MIMETYPE_PAYMENTREQUEST);
-						if (userAgent != null)
-							connection.addRequestProperty("User-Agent", userAgent);
 						connection.connect();
 
-						final int responseCode = connection.getResponseCode();
+						final int responseCode = call.getResponseCode();
 						if (responseCode == HttpURLConnection.HTTP_OK)
 						{
-							is = connection.getInputStream();
+							final InputStream is = call.getInputStream();
 
 							new InputParser.StreamInputParser(connection.getContentType(), is)
 							{
@@ -153,20 +144,8 @@ public abstract class RequestPaymentRequestTask
 					}
 					finally
 					{
-						if (is != null)
-						{
-							try
-							{
-								is.close();
-							}
-							catch (final IOException x)
-							{
-								// swallow
-							}
-						}
-
-						if (connection != null)
-							connection.disconnect();
+						if (call != null)
+							call.close();
 					}
 				}
 			});
@@ -1609,7 +1609,7 @@ public final class SendCoinsFragment extends Fragment
 
                 if (paymentIntent.isHttpPaymentUrl())
                 {
-                    new DirectPaymentTask.HttpPaymentTask(backgroundHandler, callback, paymentIntent.paymentUrl, application.httpUserAgent())
+                    new DirectPaymentTask.HttpPaymentTask(backgroundHandler, callback, paymentIntent.paymentUrl, application.getHttpClient())
                         .send(payment);
                 }
                 else if (paymentIntent.isBluetoothPaymentUrl() && bluetoothAdapter != null && bluetoothAdapter.isEnabled())
@@ -2220,7 +2220,7 @@ public final class SendCoinsFragment extends Fragment
         };
 
         if (!Bluetooth.isBluetoothUrl(paymentIntent.paymentRequestUrl))
-            new RequestPaymentRequestTask.HttpRequestTask(backgroundHandler, callback, application.httpUserAgent())
+            new RequestPaymentRequestTask.HttpRequestTask(backgroundHandler, callback, application.getHttpClient())
                 .requestPaymentRequest(paymentIntent.paymentRequestUrl);
         else
             new RequestPaymentRequestTask.BluetoothRequestTask(backgroundHandler, callback, bluetoothAdapter)
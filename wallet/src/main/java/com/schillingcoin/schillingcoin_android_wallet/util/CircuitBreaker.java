@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+/**
+ * Stops calling something that keeps failing. After a number of failures in a row the breaker opens and refuses calls for a
+ * cooldown. Then it lets a single trial call through: success closes it again, failure opens it for twice as long, up to a
+ * maximum.
+ */
+public final class CircuitBreaker
+{
+	private final int failureThreshold;
+	private final long cooldownMs;
+	private final long maxCooldownMs;
+
+	// guarded by this
+	private int consecutiveFailures = 0;
+	private long currentCooldownMs;
+	private long openUntil = 0;
+	private boolean trialRunning = false;
+
+	public CircuitBreaker(final int failureThreshold, final long cooldownMs, final long maxCooldownMs)
+	{
+		if (failureThreshold < 1 || cooldownMs > maxCooldownMs)
+			throw new IllegalArgumentException();
+
+		this.failureThreshold = failureThreshold;
+		this.cooldownMs = cooldownMs;
+		this.maxCooldownMs = maxCooldownMs;
+		this.currentCooldownMs = cooldownMs;
+	}
+
+	/**
+	 * @return whether a call may be made now; if true, its outcome must be recorded
+	 */
+	public synchronized boolean allowRequest(final long now)
+	{
+		if (consecutiveFailures < failureThreshold)
+			return true;
+
+		if (now < openUntil || trialRunning)
+			return false;
+
+		trialRunning = true;
+		return true;
+	}
+
+	public synchronized void recordSuccess()
+	{
+		consecutiveFailures = 0;
+		currentCooldownMs = cooldownMs;
+		trialRunning = false;
+	}
+
+	public synchronized void recordFailure(final long now)
+	{
+		if (trialRunning)
+			currentCooldownMs = Math.min(currentCooldownMs * 2, maxCooldownMs);
+
+		consecutiveFailures++;
+		trialRunning = false;
+
+		if (consecutiveFailures >= failureThreshold)
+			openUntil = now + currentCooldownMs;
+	}
+
+	public synchronized boolean isOpen(final long now)
+	{
+		return consecutiveFailures >= failureThreshold && now < openUntil;
+	}
+
+	@Override
+	public synchronized String toString()
+	{
+		return getClass().getSimpleName() + '[' + consecutiveFailures + " failures, open until " + openUntil + ']';
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+
+import javax.annotation.Nonnull;
+
+/**
+ * Substring search over currency codes, symbols and localized currency names, as typed into a search field.
+ *
+ * Every substring of up to {@value #GRAM_LENGTH} characters of every term is indexed, so short queries are answered by a
+ * single lookup. Longer queries intersect the postings of their trigrams and check the few candidates left. A query that
+ * extends the previous one only filters the previous result, so each keystroke refines the last result set.
+ */
+public final class CurrencySearchIndex
+{
+	private static final int GRAM_LENGTH = 3;
+	private static final int[] NONE = new int[0];
+
+	private final Locale locale;
+	private final String[] currencyCodes;
+	private final String[][] terms;
+	private final Map<String, int[]> postings;
+
+	// guarded by this
+	private String lastQuery = null;
+	private int[] lastResult = null;
+
+	private CurrencySearchIndex(final Locale locale, final String[] currencyCodes, final String[][] terms, final Map<String, int[]> postings)
+	{
+		this.locale = locale;
+		this.currencyCodes = currencyCodes;
+		this.terms = terms;
+		this.postings = postings;
+	}
+
+	public static CurrencySearchIndex build(@Nonnull final Collection<String> currencyCodes, @Nonnull final Locale locale)
+	{
+		final String[] codes = currencyCodes.toArray(new String[currencyCodes.size()]);
+		Arrays.sort(codes);
+
+		final String[][] terms = new String[codes.length][];
+		final Map<String, List<Integer>> lists = new HashMap<String, List<Integer>>();
+
+		for (int id = 0; id < codes.length; id++)
+		{
+			terms[id] = terms(codes[id], locale);
+
+			final Set<String> grams = new LinkedHashSet<String>();
+			for (final String term : terms[id])
+				for (int start = 0; start < term.length(); start++)
+					for (int end = start + 1; end <= Math.min(start + GRAM_LENGTH, term.length()); end++)
+						grams.add(term.substring(start, end));
+
+			for (final String gram : grams)
+			{
+				List<Integer> list = lists.get(gram);
+				if (list == null)
+				{
+					list = new ArrayList<Integer>(4);
+					lists.put(gram, list);
+				}
+				list.add(id); // ascending, as ids are handed out in order
+			}
+		}
+
+		final Map<String, int[]> postings = new HashMap<String, int[]>(lists.size());
+		for (final Map.Entry<String, List<Integer>> entry : lists.entrySet())
+		{
+			final List<Integer> list = entry.getValue();
+			final int[] ids = new int[list.size()];
+			for (int i = 0; i < ids.length; i++)
+				ids[i] = list.get(i);
+			postings.put(entry.getKey(), ids);
+		}
+
+		return new CurrencySearchIndex(locale, codes, terms, postings);
+	}
+
+	public Locale getLocale()
+	{
+		return locale;
+	}
+
+	/**
+	 * @return currency codes of which the code, symbol or name contains the query, ignoring case, in order of code
+	 */
+	public synchronized List<String> search(@Nonnull final String query)
+	{
+		final String q = query.trim().toLowerCase(locale);
+		final int[] result;
+
+		if (q.isEmpty())
+		{
+			result = new int[currencyCodes.length];
+			for (int id = 0; id < result.length; id++)
+				result[id] = id;
+		}
+		else if (lastQuery != null && q.contains(lastQuery))
+		{
+			// whatever matches the longer query also matched the shorter one
+			result = verified(lastResult, q);
+		}
+		else if (q.length() <= GRAM_LENGTH)
+		{
+			final int[] ids = postings.get(q);
+			result = ids != null ? ids : NONE;
+		}
+		else
+		{
+			int[] candidates = null;
+			for (int start = 0; start + GRAM_LENGTH <= q.length() && (candidates == null || candidates.length > 0); start++)
+			{
+				final int[] ids = postings.get(q.substring(start, start + GRAM_LENGTH));
+				candidates = ids == null ? NONE : candidates == null ? ids : intersect(candidates, ids);
+			}
+			result = verified(candidates, q);
+		}
+
+		lastQuery = q;
+		lastResult = result;
+
+		final List<String> codes = new ArrayList<String>(result.length);
+		for (final int id : result)
+			codes.add(currencyCodes[id]);
+		return codes;
+	}
+
+	private int[] verified(final int[] candidates, final String q)
+	{
+		final int[] result = new int[candidates.length];
+		int length = 0;
+
+		for (final int id : candidates)
+		{
+			for (final String term : terms[id])
+			{
+				if (term.contains(q))
+				{
+					result[length++] = id;
+					break;
+				}
+			}
+		}
+
+		return Arrays.copyOf(result, length);
+	}
+
+	private static int[] intersect(final int[] a, final int[] b)
+	{
+		final int[] result = new int[Math.min(a.length, b.length)];
+		int length = 0;
+
+		for (int i = 0, j = 0; i < a.length && j < b.length;)
+		{
+			if (a[i] < b[j])
+				i++;
+			else if (a[i] > b[j])
+				j++;
+			else
+			{
+				result[length++] = a[i];
+				i++;
+				j++;
+			}
+		}
+
+		return Arrays.copyOf(result, length);
+	}
+
+	private static String[] terms(final String currencyCode, final Locale locale)
+	{
+		final String code = currencyCode.toLowerCase(locale);
+
+		try
+		{
+			final Currency currency = Currency.getInstance(currencyCode);
+			return new String[] { code, currency.getSymbol(locale).toLowerCase(locale), currency.getDisplayName(locale).toLowerCase(locale) };
+		}
+		catch (final IllegalArgumentException x)
+		{
+			// not an ISO 4217 currency
+			return new String[] { code };
+		}
+	}
+}
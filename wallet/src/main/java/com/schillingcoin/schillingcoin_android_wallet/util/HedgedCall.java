@@ -0,0 +1,200 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Asks several equivalent sources for the same answer, one after the other, but without waiting for a slow one to time out.
+ * The next source is asked as soon as the ones asked so far have failed, or when none answered within the hedge delay. The
+ * first answer wins and the others are cancelled.
+ *
+ * The hedge delay follows a percentile of recent answer latencies, so only the slowest few percent of calls go to a second
+ * source.
+ */
+public final class HedgedCall<T>
+{
+	private static final int MIN_SAMPLES = 5;
+
+	public interface Attempt<T>
+	{
+		/**
+		 * @return the answer, or null if this source has none
+		 */
+		@Nullable
+		T call() throws Exception;
+
+		/**
+		 * Aborts the attempt, e.g. by closing its connection. May be called from another thread, and after {@link #call()} returned.
+		 */
+		void cancel();
+	}
+
+	private final Executor executor;
+	private final double percentile;
+	private final long minDelayMs;
+	private final long maxDelayMs;
+	private final long defaultDelayMs;
+
+	// guarded by this
+	private final long[] latencies;
+	private int numLatencies = 0;
+	private int nextLatency = 0;
+
+	/**
+	 * @param percentile
+	 *            fraction of calls that should be answered before hedging, e.g. 0.9
+	 */
+	public HedgedCall(@Nonnull final Executor executor, final double percentile, final long minDelayMs, final long maxDelayMs,
+			final int numSamples)
+	{
+		if (percentile <= 0 || percentile > 1 || minDelayMs > maxDelayMs || numSamples < 1)
+			throw new IllegalArgumentException();
+
+		this.executor = executor;
+		this.percentile = percentile;
+		this.minDelayMs = minDelayMs;
+		this.maxDelayMs = maxDelayMs;
+		this.defaultDelayMs = (minDelayMs + maxDelayMs) / 2;
+		this.latencies = new long[numSamples];
+	}
+
+	/**
+	 * Runs the attempts in order, hedged.
+	 *
+	 * @return the first answer, or null if all attempts failed or there was no answer within {@code timeoutMs}
+	 */
+	@Nullable
+	public T call(@Nonnull final List<? extends Attempt<T>> attempts, final long timeoutMs) throws InterruptedException
+	{
+		if (attempts.isEmpty())
+			return null;
+
+		final CompletionService<T> completion = new ExecutorCompletionService<T>(executor);
+		final List<Future<T>> futures = new ArrayList<Future<T>>(attempts.size());
+		final long hedgeDelayMs = getHedgeDelayMs();
+		final long start = System.currentTimeMillis();
+		final long deadline = start + timeoutMs;
+		int finished = 0;
+
+		try
+		{
+			futures.add(completion.submit(callable(attempts.get(0))));
+
+			while (finished < attempts.size())
+			{
+				final long now = System.currentTimeMillis();
+				if (now >= deadline)
+					return null;
+
+				final boolean canHedge = futures.size() < attempts.size();
+				final Future<T> future = completion.poll(canHedge ? Math.min(hedgeDelayMs, deadline - now) : deadline - now,
+						TimeUnit.MILLISECONDS);
+
+				if (future == null)
+				{
+					// too slow, ask the next one as well
+					if (canHedge)
+						futures.add(completion.submit(callable(attempts.get(futures.size()))));
+					continue;
+				}
+
+				finished++;
+
+				final T answer = answerOf(future);
+				if (answer != null)
+				{
+					recordLatency(System.currentTimeMillis() - start);
+					return answer;
+				}
+
+				// everything asked so far failed, no point in waiting
+				if (finished == futures.size() && futures.size() < attempts.size())
+					futures.add(completion.submit(callable(attempts.get(futures.size()))));
+			}
+
+			return null;
+		}
+		finally
+		{
+			for (int i = 0; i < futures.size(); i++)
+			{
+				futures.get(i).cancel(true);
+				attempts.get(i).cancel();
+			}
+		}
+	}
+
+	/**
+	 * @return how long to wait for an answer before asking the next source
+	 */
+	public synchronized long getHedgeDelayMs()
+	{
+		if (numLatencies < MIN_SAMPLES)
+			return defaultDelayMs;
+
+		final long[] sorted = Arrays.copyOf(latencies, numLatencies);
+		Arrays.sort(sorted);
+		final int index = Math.min((int) Math.ceil(percentile * numLatencies) - 1, numLatencies - 1);
+		return Math.max(minDelayMs, Math.min(maxDelayMs, sorted[Math.max(index, 0)]));
+	}
+
+	public synchronized void recordLatency(final long latencyMs)
+	{
+		latencies[nextLatency] = latencyMs;
+		nextLatency = (nextLatency + 1) % latencies.length;
+		numLatencies = Math.min(numLatencies + 1, latencies.length);
+	}
+
+	@Nullable
+	private static <T> T answerOf(final Future<T> future) throws InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (final ExecutionException x)
+		{
+			return null;
+		}
+	}
+
+	private static <T> Callable<T> callable(final Attempt<T> attempt)
+	{
+		return new Callable<T>()
+		{
+			@Override
+			public T call() throws Exception
+			{
+				return attempt.call();
+			}
+		};
+	}
+}
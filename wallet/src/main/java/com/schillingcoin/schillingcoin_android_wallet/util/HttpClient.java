@@ -0,0 +1,311 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+import javax.net.ssl.HttpsURLConnection;
+import javax.net.ssl.SSLSocketFactory;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+import com.schillingcoin.schillingcoin_android_wallet.Constants;
+
+/**
+ * HTTP client shared by everything in the app that talks HTTP.
+ *
+ * Connections are kept alive and reused by the platform as long as each response is read to the end and closed rather than
+ * disconnected, which {@link Call#close()} takes care of; so repeated requests to the same host skip the TCP and TLS
+ * handshakes. The TLS context for our own servers is built once and passed in. Requests to a host are limited to a few at a
+ * time, and the time each one takes is recorded per host.
+ */
+public final class HttpClient
+{
+	/** Leftover response bytes read to keep the connection; beyond that it is cheaper to drop it. */
+	private static final int MAX_DRAIN_BYTES = 64 * 1024;
+
+	public static final class Stats
+	{
+		public final int requests;
+		public final int failures;
+		public final long totalMs;
+		public final long maxMs;
+
+		private Stats(final int requests, final int failures, final long totalMs, final long maxMs)
+		{
+			this.requests = requests;
+			this.failures = failures;
+			this.totalMs = totalMs;
+			this.maxMs = maxMs;
+		}
+
+		@Override
+		public String toString()
+		{
+			return requests + " requests, " + failures + " failed, " + (requests > 0 ? totalMs / requests : 0) + " ms average, " + maxMs
+					+ " ms max";
+		}
+	}
+
+	/**
+	 * One request. The connection can be configured until the request is sent; the call must be closed in any case.
+	 */
+	public final class Call
+	{
+		public final HttpURLConnection connection;
+
+		private final String host;
+		private final Semaphore permits;
+		private final long startTime = System.currentTimeMillis();
+		private int responseCode = -1;
+		@CheckForNull
+		private InputStream rawInputStream = null;
+		private boolean closed = false;
+
+		private Call(@Nonnull final HttpURLConnection connection, @Nonnull final String host, @Nonnull final Semaphore permits)
+		{
+			this.connection = connection;
+			this.host = host;
+			this.permits = permits;
+		}
+
+		public int getResponseCode() throws IOException
+		{
+			responseCode = connection.getResponseCode();
+			return responseCode;
+		}
+
+		/**
+		 * @return the response body, unzipped if the server sent it zipped
+		 */
+		public InputStream getInputStream() throws IOException
+		{
+			rawInputStream = new BufferedInputStream(connection.getInputStream(), 1024);
+
+			if ("gzip".equalsIgnoreCase(connection.getContentEncoding()))
+				return new GZIPInputStream(rawInputStream);
+			else
+				return rawInputStream;
+		}
+
+		/**
+		 * Hands the connection back for reuse, or drops it if the response was not read far enough to do so.
+		 */
+		public void close()
+		{
+			if (closed)
+				return;
+			closed = true;
+
+			try
+			{
+				InputStream is = rawInputStream;
+				if (is == null && responseCode >= 0)
+					is = responseCode < 400 ? connection.getInputStream() : connection.getErrorStream();
+
+				if (is == null || !drain(is))
+					connection.disconnect();
+			}
+			catch (final IOException x)
+			{
+				connection.disconnect();
+			}
+			finally
+			{
+				permits.release();
+				record(host, System.currentTimeMillis() - startTime, responseCode >= 200 && responseCode < 300);
+			}
+		}
+	}
+
+	@Nullable
+	private final String userAgent;
+	@Nullable
+	private final SSLSocketFactory pinnedSocketFactory;
+	private final int maxRequestsPerHost;
+
+	// guarded by this
+	private final Map<String, Semaphore> permitsByHost = new HashMap<String, Semaphore>();
+	private final Map<String, Stats> statsByHost = new HashMap<String, Stats>();
+
+	private static final Logger log = LoggerFactory.getLogger(HttpClient.class);
+
+	/**
+	 * @param pinnedSocketFactory
+	 *            used for requests to our own servers, which must present a certificate we ship
+	 */
+	public HttpClient(@Nullable final String userAgent, @Nullable final SSLSocketFactory pinnedSocketFactory, final int maxRequestsPerHost)
+	{
+		this.userAgent = userAgent;
+		this.pinnedSocketFactory = pinnedSocketFactory;
+		this.maxRequestsPerHost = maxRequestsPerHost;
+	}
+
+	/**
+	 * Waits for a free slot for the host, then opens a connection with the usual timeouts, user agent and gzip accepted.
+	 *
+	 * @param pinned
+	 *            whether the server must be one of our own
+	 */
+	public Call open(@Nonnull final URL url, final boolean pinned) throws IOException
+	{
+		final String host = url.getHost();
+		final Semaphore permits = permits(host);
+
+		try
+		{
+			if (!permits.tryAcquire(Constants.HTTP_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+				throw new IOException("too many requests to " + host);
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException("interrupted waiting for " + host);
+		}
+
+		try
+		{
+			final HttpURLConnection connection = (HttpURLConnection) url.openConnection();
+
+			if (connection instanceof HttpsURLConnection && pinned)
+			{
+				if (pinnedSocketFactory == null)
+					throw new IOException("no pinned certificates for " + host);
+				((HttpsURLConnection) connection).setSSLSocketFactory(pinnedSocketFactory);
+			}
+
+			connection.setInstanceFollowRedirects(false);
+			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
+			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
+			connection.setUseCaches(false);
+			connection.setRequestProperty("Accept-Encoding", "gzip");
+			if (userAgent != null)
+				connection.setRequestProperty("User-Agent", userAgent);
+
+			return new Call(connection, host, permits);
+		}
+		catch (final IOException x)
+		{
+			permits.release();
+			throw x;
+		}
+	}
+
+	/**
+	 * @return the body of a successful response, as UTF-8 text
+	 * @throws IOException
+	 *             on any other response, if there was none or if the body is longer than {@code maxChars}
+	 */
+	@Nonnull
+	public String getString(@Nonnull final URL url, final long maxChars) throws IOException
+	{
+		final Call call = open(url, false);
+
+		try
+		{
+			final int responseCode = call.getResponseCode();
+			if (responseCode != HttpURLConnection.HTTP_OK)
+				throw new IOException("http status " + responseCode + " from " + url);
+
+			final Reader reader = new InputStreamReader(call.getInputStream(), Charsets.UTF_8);
+			final StringBuilder content = new StringBuilder();
+			Io.copy(reader, content, maxChars);
+			return content.toString();
+		}
+		finally
+		{
+			call.close();
+		}
+	}
+
+	public synchronized Stats getStats(@Nonnull final String host)
+	{
+		final Stats stats = statsByHost.get(host);
+		return stats != null ? stats : new Stats(0, 0, 0, 0);
+	}
+
+	private synchronized Semaphore permits(final String host)
+	{
+		Semaphore permits = permitsByHost.get(host);
+		if (permits == null)
+		{
+			permits = new Semaphore(maxRequestsPerHost, true);
+			permitsByHost.put(host, permits);
+		}
+		return permits;
+	}
+
+	private synchronized void record(final String host, final long ms, final boolean success)
+	{
+		final Stats stats = getStats(host);
+		statsByHost.put(host,
+				new Stats(stats.requests + 1, stats.failures + (success ? 0 : 1), stats.totalMs + ms, Math.max(stats.maxMs, ms)));
+
+		log.debug("{} request to {} took {} ms", success ? "successful" : "failed", host, ms);
+	}
+
+	private static boolean drain(final InputStream is)
+	{
+		try
+		{
+			final byte[] buffer = new byte[1024];
+			long left = MAX_DRAIN_BYTES;
+			int read;
+			while ((read = is.read(buffer)) != -1)
+			{
+				left -= read;
+				if (left < 0)
+					return false;
+			}
+			return true;
+		}
+		catch (final IOException x)
+		{
+			return false;
+		}
+		finally
+		{
+			try
+			{
+				is.close();
+			}
+			catch (final IOException x)
+			{
+				// swallow
+			}
+		}
+	}
+}
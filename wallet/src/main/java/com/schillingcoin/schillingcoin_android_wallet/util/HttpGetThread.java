@@ -18,91 +18,52 @@
 package com.schillingcoin.schillingcoin_android_wallet.util;
 
 import java.io.BufferedReader;
-import java.io.InputStream;
 import java.io.InputStreamReader;
 import java.net.HttpURLConnection;
 import java.net.URL;
-import java.security.KeyStore;
 
-import javax.annotation.CheckForNull;
 import javax.annotation.Nonnull;
-import javax.annotation.Nullable;
-import javax.net.ssl.HttpsURLConnection;
-import javax.net.ssl.SSLContext;
-import javax.net.ssl.TrustManagerFactory;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
-import android.content.res.AssetManager;
-
 import com.google.common.base.Charsets;
 
-import com.schillingcoin.schillingcoin_android_wallet.Constants;
-
 /**
  * @author Andreas Schildbach
  */
 public abstract class HttpGetThread extends Thread
 {
-	private final AssetManager assets;
+	private final HttpClient httpClient;
 	private final String url;
-	@CheckForNull
-	private final String userAgent;
 
 	private static final Logger log = LoggerFactory.getLogger(HttpGetThread.class);
 
-	public HttpGetThread(@Nonnull final AssetManager assets, @Nonnull final String url, @Nullable final String userAgent)
+	public HttpGetThread(@Nonnull final HttpClient httpClient, @Nonnull final String url)
 	{
-		this.assets = assets;
+		this.httpClient = httpClient;
 		this.url = url;
-		this.userAgent = userAgent;
 	}
 
 	@Override
 	public void run()
 	{
-		HttpURLConnection connection = null;
+		HttpClient.Call call = null;
 
 		log.debug("querying \"" + url + "\"...");
 
 		try
 		{
-			connection = (HttpURLConnection) new URL(url).openConnection();
-
-			if (connection instanceof HttpsURLConnection)
-			{
-				final InputStream keystoreInputStream = assets.open("ssl-keystore");
-
-				final KeyStore keystore = KeyStore.getInstance("BKS");
-				keystore.load(keystoreInputStream, "password".toCharArray());
-				keystoreInputStream.close();
-
-				final TrustManagerFactory tmf = TrustManagerFactory.getInstance("X509");
-				tmf.init(keystore);
-
-				final SSLContext sslContext = SSLContext.getInstance("TLS");
-				sslContext.init(null, tmf.getTrustManagers(), null);
-
-				((HttpsURLConnection) connection).setSSLSocketFactory(sslContext.getSocketFactory());
-			}
-
-			connection.setInstanceFollowRedirects(false);
-			connection.setConnectTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setReadTimeout(Constants.HTTP_TIMEOUT_MS);
-			connection.setRequestProperty("Accept-Charset", "utf-8");
-			if (userAgent != null)
-				connection.addRequestProperty("User-Agent", userAgent);
-			connection.connect();
+			call = httpClient.open(new URL(url), true);
+			call.connection.setRequestProperty("Accept-Charset", "utf-8");
 
-			if (connection.getResponseCode() == HttpURLConnection.HTTP_OK)
+			if (call.getResponseCode() == HttpURLConnection.HTTP_OK)
 			{
-				final long serverTime = connection.getDate();
+				final long serverTime = call.connection.getDate();
 				// TODO parse connection.getContentType() for charset
 
-				final BufferedReader reader = new BufferedReader(new InputStreamReader(connection.getInputStream(), Charsets.UTF_8), 64);
+				final BufferedReader reader = new BufferedReader(new InputStreamReader(call.getInputStream(), Charsets.UTF_8), 64);
 				final String line = reader.readLine().trim();
-				reader.close();
 
 				handleLine(line, serverTime);
 			}
@@ -113,8 +74,8 @@ public abstract class HttpGetThread extends Thread
 		}
 		finally
 		{
-			if (connection != null)
-				connection.disconnect();
+			if (call != null)
+				call.close();
 		}
 	}
 
@@ -0,0 +1,125 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.util.AbstractMap;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Sheds memory step by step as the system asks for it through {@code onTrimMemory()}. Subsystems register what they can give
+ * up, each with the trim level from which on it should do so. Each trim calls all subsystems registered at or below its level,
+ * lowest level first, so caches that are cheap to rebuild go long before anything that costs sync progress.
+ *
+ * Subsystems are held weakly, so an adapter that goes away with its screen need not unregister.
+ */
+public final class MemoryGovernor
+{
+	/** How long a trim level is reported by {@link #getLevel()} without being repeated. */
+	private static final long PRESSURE_MS = 5 * 60 * 1000;
+
+	public interface Sheddable
+	{
+		/**
+		 * @return rough number of bytes that could be given up right now
+		 */
+		long getSheddableBytes();
+
+		/**
+		 * Gives up what can be given up at the given trim level.
+		 */
+		void shed(int level);
+	}
+
+	private final Map<Sheddable, Integer> sheddables = new WeakHashMap<Sheddable, Integer>();
+	private int level = 0;
+	private long levelAt = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(MemoryGovernor.class);
+
+	public synchronized void register(@Nonnull final Sheddable sheddable, final int minLevel)
+	{
+		sheddables.put(sheddable, minLevel);
+	}
+
+	public synchronized void unregister(@Nonnull final Sheddable sheddable)
+	{
+		sheddables.remove(sheddable);
+	}
+
+	/**
+	 * Sheds everything registered at or below the given level. Call from {@code onTrimMemory()}.
+	 */
+	public void onTrimMemory(final int level)
+	{
+		final List<Map.Entry<Sheddable, Integer>> due = new ArrayList<Map.Entry<Sheddable, Integer>>();
+
+		synchronized (this)
+		{
+			this.level = level;
+			this.levelAt = System.currentTimeMillis();
+
+			for (final Map.Entry<Sheddable, Integer> entry : sheddables.entrySet())
+				if (entry.getValue() <= level)
+					due.add(new AbstractMap.SimpleEntry<Sheddable, Integer>(entry));
+		}
+
+		Collections.sort(due, BY_LEVEL);
+
+		long shedBytes = 0;
+		for (final Map.Entry<Sheddable, Integer> entry : due)
+		{
+			final Sheddable sheddable = entry.getKey();
+			shedBytes += sheddable.getSheddableBytes();
+			sheddable.shed(level);
+		}
+
+		log.info("trim level {}: {} of {} subsystems shed about {} bytes", level, due.size(), size(), shedBytes);
+	}
+
+	/**
+	 * @return the last trim level, or 0 if there was none recently
+	 */
+	public synchronized int getLevel()
+	{
+		return System.currentTimeMillis() - levelAt < PRESSURE_MS ? level : 0;
+	}
+
+	public synchronized int size()
+	{
+		return sheddables.size();
+	}
+
+	private static final Comparator<Map.Entry<Sheddable, Integer>> BY_LEVEL = new Comparator<Map.Entry<Sheddable, Integer>>()
+	{
+		@Override
+		public int compare(final Map.Entry<Sheddable, Integer> lhs, final Map.Entry<Sheddable, Integer> rhs)
+		{
+			return lhs.getValue().compareTo(rhs.getValue());
+		}
+	};
+}
@@ -0,0 +1,383 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.base.Charsets;
+
+/**
+ * History of exchange rates per currency, so amounts can be valued as of when they were paid. Rates are appended in batches,
+ * one per refresh, to an append-only file.
+ *
+ * Each currency keeps its samples in memory as a delta-encoded byte array, a few bytes per sample, plus the absolute time and
+ * value of every {@value #INDEX_INTERVAL}th sample. A lookup binary searches that sparse index and decodes at most
+ * {@value #INDEX_INTERVAL} samples from there.
+ */
+public final class RateHistory
+{
+	private static final int MAGIC = 0x52483031; // "RH01"
+	private static final int MAX_RECORD_LENGTH = 64 * 1024;
+	private static final int INDEX_INTERVAL = 32;
+
+	private static final class Series
+	{
+		private final int id;
+		private final String currencyCode;
+
+		private byte[] data = new byte[64];
+		private int dataLength = 0;
+		private int count = 0;
+		private long lastTime = 0;
+		private long lastValue = 0;
+
+		private long[] indexTimes = new long[4];
+		private long[] indexValues = new long[4];
+		private int[] indexOffsets = new int[4];
+		private int indexLength = 0;
+
+		private Series(final int id, final String currencyCode)
+		{
+			this.id = id;
+			this.currencyCode = currencyCode;
+		}
+
+		private void append(final long time, final long value)
+		{
+			if (data.length - dataLength < 20)
+				data = Arrays.copyOf(data, data.length * 2);
+
+			dataLength = writeVarLong(data, dataLength, time - lastTime);
+			dataLength = writeVarLong(data, dataLength, zigZag(value - lastValue));
+
+			if (count % INDEX_INTERVAL == 0)
+			{
+				if (indexLength == indexTimes.length)
+				{
+					indexTimes = Arrays.copyOf(indexTimes, indexLength * 2);
+					indexValues = Arrays.copyOf(indexValues, indexLength * 2);
+					indexOffsets = Arrays.copyOf(indexOffsets, indexLength * 2);
+				}
+
+				indexTimes[indexLength] = time;
+				indexValues[indexLength] = value;
+				indexOffsets[indexLength] = dataLength; // just after this sample
+				indexLength++;
+			}
+
+			count++;
+			lastTime = time;
+			lastValue = value;
+		}
+
+		private long valueAt(final long time, final long maxAgeMs)
+		{
+			if (count == 0 || time < indexTimes[0])
+				return -1;
+
+			// last index entry at or before time
+			int low = 0;
+			int high = indexLength - 1;
+			while (low < high)
+			{
+				final int mid = (low + high + 1) >>> 1;
+				if (indexTimes[mid] <= time)
+					low = mid;
+				else
+					high = mid - 1;
+			}
+
+			long sampleTime = indexTimes[low];
+			long sampleValue = indexValues[low];
+			final int following = Math.min(INDEX_INTERVAL - 1, count - 1 - low * INDEX_INTERVAL);
+			final int[] pos = new int[] { indexOffsets[low] };
+
+			for (int i = 0; i < following; i++)
+			{
+				final long nextTime = sampleTime + readVarLong(data, pos);
+				final long nextValue = sampleValue + unZigZag(readVarLong(data, pos));
+				if (nextTime > time)
+					break;
+				sampleTime = nextTime;
+				sampleValue = nextValue;
+			}
+
+			return time - sampleTime <= maxAgeMs ? sampleValue : -1;
+		}
+	}
+
+	private final File file;
+	private final RandomAccessFile raf;
+
+	// guarded by this
+	private final List<Series> series = new ArrayList<Series>();
+	private final Map<String, Series> seriesByCurrency = new HashMap<String, Series>();
+	private long lastBatchTime = 0;
+
+	private static final Logger log = LoggerFactory.getLogger(RateHistory.class);
+
+	private RateHistory(final File file, final RandomAccessFile raf)
+	{
+		this.file = file;
+		this.raf = raf;
+	}
+
+	/**
+	 * Opens the history and reads it into memory, creating it if needed. A torn record at the end is cut off.
+	 */
+	public static RateHistory open(@Nonnull final File file) throws IOException
+	{
+		final RateHistory history = new RateHistory(file, new RandomAccessFile(file, "rw"));
+		final RandomAccessFile raf = history.raf;
+
+		if (raf.length() == 0)
+		{
+			raf.writeInt(MAGIC);
+			return history;
+		}
+
+		if (raf.readInt() != MAGIC)
+			throw new IOException("bad magic in " + file);
+
+		long validLength = raf.getFilePointer();
+		int batches = 0;
+		try
+		{
+			while (raf.getFilePointer() < raf.length())
+			{
+				final int length = raf.readInt();
+				if (length <= 0 || length > MAX_RECORD_LENGTH)
+					break;
+
+				final byte[] batch = new byte[length];
+				raf.readFully(batch);
+				if (raf.readInt() != (int) crc(batch))
+					break;
+
+				history.apply(batch);
+				validLength = raf.getFilePointer();
+				batches++;
+			}
+		}
+		catch (final IOException x)
+		{
+			// torn record
+		}
+
+		if (validLength < raf.length())
+		{
+			log.warn("cutting off torn record at the end of '{}'", file);
+			raf.setLength(validLength);
+		}
+
+		log.info("opened rate history '{}' with {} batches of {} currencies", file, batches, history.series.size());
+
+		return history;
+	}
+
+	/**
+	 * Appends the rates of one refresh, unless they are not newer than the last ones.
+	 *
+	 * @param values
+	 *            value of one coin by currency code, in the smallest unit of the currency
+	 * @return true if the rates were appended
+	 */
+	public synchronized boolean append(final long timeMs, @Nonnull final Map<String, Long> values) throws IOException
+	{
+		if (timeMs <= lastBatchTime || values.isEmpty())
+			return false;
+
+		final ByteArrayOutputStream batch = new ByteArrayOutputStream(20 + values.size() * 8);
+		byte[] buffer = new byte[30];
+		int length = writeVarLong(buffer, 0, timeMs - lastBatchTime);
+		length = writeVarLong(buffer, length, values.size());
+		batch.write(buffer, 0, length);
+
+		int newIds = series.size();
+		for (final Map.Entry<String, Long> entry : values.entrySet())
+		{
+			final Series s = seriesByCurrency.get(entry.getKey());
+
+			if (s != null)
+			{
+				length = writeVarLong(buffer, 0, s.id);
+			}
+			else
+			{
+				// a new currency is named once, then referred to by id
+				final byte[] code = entry.getKey().getBytes(Charsets.UTF_8);
+				if (buffer.length < 30 + code.length)
+					buffer = new byte[30 + code.length];
+				length = writeVarLong(buffer, 0, newIds++);
+				length = writeVarLong(buffer, length, code.length);
+				System.arraycopy(code, 0, buffer, length, code.length);
+				length += code.length;
+			}
+
+			length = writeVarLong(buffer, length, zigZag(entry.getValue() - (s != null ? s.lastValue : 0)));
+			batch.write(buffer, 0, length);
+		}
+
+		final byte[] bytes = batch.toByteArray();
+		final byte[] record = new byte[4 + bytes.length + 4];
+		putInt(record, 0, bytes.length);
+		System.arraycopy(bytes, 0, record, 4, bytes.length);
+		putInt(record, 4 + bytes.length, (int) crc(bytes));
+
+		final long start = raf.length();
+		try
+		{
+			raf.seek(start);
+			raf.write(record);
+		}
+		catch (final IOException x)
+		{
+			raf.setLength(start);
+			throw x;
+		}
+
+		apply(bytes);
+		return true;
+	}
+
+	/**
+	 * @return the value of one coin at the given time, in the smallest unit of the currency, or -1 if there is no rate from
+	 *         within {@code maxAgeMs} before that time
+	 */
+	public synchronized long valueAt(@Nonnull final String currencyCode, final long timeMs, final long maxAgeMs)
+	{
+		final Series s = seriesByCurrency.get(currencyCode);
+		return s != null ? s.valueAt(timeMs, maxAgeMs) : -1;
+	}
+
+	public synchronized int size(@Nonnull final String currencyCode)
+	{
+		final Series s = seriesByCurrency.get(currencyCode);
+		return s != null ? s.count : 0;
+	}
+
+	public synchronized void close() throws IOException
+	{
+		raf.close();
+	}
+
+	private void apply(final byte[] batch) throws IOException
+	{
+		final int[] pos = new int[] { 0 };
+
+		try
+		{
+			final long time = lastBatchTime + readVarLong(batch, pos);
+			final long size = readVarLong(batch, pos);
+
+			for (long i = 0; i < size; i++)
+			{
+				final long id = readVarLong(batch, pos);
+				final Series s;
+
+				if (id < series.size())
+				{
+					s = series.get((int) id);
+				}
+				else if (id == series.size())
+				{
+					final int codeLength = (int) readVarLong(batch, pos);
+					s = new Series((int) id, new String(batch, pos[0], codeLength, Charsets.UTF_8));
+					pos[0] += codeLength;
+					series.add(s);
+					seriesByCurrency.put(s.currencyCode, s);
+				}
+				else
+				{
+					throw new IOException("unknown currency id " + id + " in " + file);
+				}
+
+				s.append(time, s.lastValue + unZigZag(readVarLong(batch, pos)));
+			}
+
+			lastBatchTime = time;
+		}
+		catch (final ArrayIndexOutOfBoundsException x)
+		{
+			throw new IOException("truncated batch in " + file);
+		}
+	}
+
+	private static int writeVarLong(final byte[] buffer, int pos, long value)
+	{
+		while ((value & ~0x7fL) != 0)
+		{
+			buffer[pos++] = (byte) ((value & 0x7f) | 0x80);
+			value >>>= 7;
+		}
+		buffer[pos++] = (byte) value;
+		return pos;
+	}
+
+	private static long readVarLong(final byte[] buffer, final int[] pos)
+	{
+		long value = 0;
+		for (int shift = 0; shift < 64; shift += 7)
+		{
+			final byte b = buffer[pos[0]++];
+			value |= (long) (b & 0x7f) << shift;
+			if ((b & 0x80) == 0)
+				return value;
+		}
+		throw new ArrayIndexOutOfBoundsException("varint too long");
+	}
+
+	private static long zigZag(final long value)
+	{
+		return (value << 1) ^ (value >> 63);
+	}
+
+	private static long unZigZag(final long value)
+	{
+		return (value >>> 1) ^ -(value & 1);
+	}
+
+	private static void putInt(final byte[] buffer, final int pos, final int value)
+	{
+		buffer[pos] = (byte) (value >>> 24);
+		buffer[pos + 1] = (byte) (value >>> 16);
+		buffer[pos + 2] = (byte) (value >>> 8);
+		buffer[pos + 3] = (byte) value;
+	}
+
+	private static long crc(final byte[] bytes)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return crc.getValue();
+	}
+}
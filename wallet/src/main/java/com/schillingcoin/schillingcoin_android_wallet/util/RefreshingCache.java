@@ -0,0 +1,299 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.concurrent.Callable;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+
+import javax.annotation.CheckForNull;
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Single value that is expensive to fetch, kept in memory and on disk. Reading never waits for a fetch: a value older than
+ * the TTL is still handed out, up to a maximum staleness, while a fetch runs in the background. Callers that ask at the same
+ * time share one fetch.
+ */
+public final class RefreshingCache<V>
+{
+	private static final int MAGIC = 0x52433031; // "RC01"
+
+	/**
+	 * Don't start another fetch on read for this long after one failed.
+	 */
+	private static final long FAILURE_BACKOFF_MS = 60 * 1000;
+
+	public interface Codec<V>
+	{
+		void write(@Nonnull V value, @Nonnull DataOutputStream os) throws IOException;
+
+		@Nonnull
+		V read(@Nonnull DataInputStream is) throws IOException;
+	}
+
+	public interface Loader<V>
+	{
+		/**
+		 * @return the fresh value, or null if there is none right now
+		 */
+		@Nullable
+		V load() throws Exception;
+	}
+
+	public interface Listener<V>
+	{
+		void onRefreshed(@Nonnull Entry<V> entry);
+	}
+
+	public static final class Entry<V>
+	{
+		public final V value;
+		public final long fetchedAt;
+
+		public Entry(@Nonnull final V value, final long fetchedAt)
+		{
+			this.value = value;
+			this.fetchedAt = fetchedAt;
+		}
+	}
+
+	private final File file;
+	private final Codec<V> codec;
+	private final Loader<V> loader;
+	private final Executor executor;
+	private final long ttlMs;
+	private final long maxStaleMs;
+
+	// guarded by this
+	@CheckForNull
+	private Entry<V> entry = null;
+	private boolean readFromDisk = false;
+	@CheckForNull
+	private FutureTask<Entry<V>> inFlight = null;
+	private long lastFailure = 0;
+	@CheckForNull
+	private Listener<V> listener = null;
+
+	private static final Logger log = LoggerFactory.getLogger(RefreshingCache.class);
+
+	/**
+	 * @param ttlMs
+	 *            age after which a read starts a fetch
+	 * @param maxStaleMs
+	 *            age after which a value is not handed out any more
+	 */
+	public RefreshingCache(@Nonnull final File file, @Nonnull final Codec<V> codec, @Nonnull final Loader<V> loader,
+			@Nonnull final Executor executor, final long ttlMs, final long maxStaleMs)
+	{
+		if (ttlMs > maxStaleMs)
+			throw new IllegalArgumentException("ttl must not exceed max staleness");
+
+		this.file = file;
+		this.codec = codec;
+		this.loader = loader;
+		this.executor = executor;
+		this.ttlMs = ttlMs;
+		this.maxStaleMs = maxStaleMs;
+	}
+
+	public synchronized void setListener(@Nullable final Listener<V> listener)
+	{
+		this.listener = listener;
+	}
+
+	/**
+	 * Returns at once, with whatever is cached.
+	 *
+	 * @param revalidate
+	 *            whether to start a fetch in the background if the value is older than the TTL
+	 * @return the cached value, or null if there is none or it is too old
+	 */
+	@CheckForNull
+	public synchronized Entry<V> get(final long now, final boolean revalidate)
+	{
+		if (!readFromDisk)
+		{
+			readFromDisk = true;
+			if (entry == null)
+				entry = read();
+		}
+
+		final long age = entry != null ? now - entry.fetchedAt : Long.MAX_VALUE;
+
+		if (revalidate && age > ttlMs && now - lastFailure >= FAILURE_BACKOFF_MS)
+			refresh();
+
+		return age <= maxStaleMs ? entry : null;
+	}
+
+	/**
+	 * Starts a fetch, or joins the one already running.
+	 *
+	 * @return the fetch, which yields null if it failed
+	 */
+	@Nonnull
+	public synchronized Future<Entry<V>> refresh()
+	{
+		if (inFlight != null)
+			return inFlight;
+
+		final FutureTask<Entry<V>> task = new FutureTask<Entry<V>>(new Callable<Entry<V>>()
+		{
+			@Override
+			public Entry<V> call()
+			{
+				return fetch();
+			}
+		});
+
+		inFlight = task;
+		executor.execute(task);
+
+		return task;
+	}
+
+	@CheckForNull
+	private Entry<V> fetch()
+	{
+		V value = null;
+
+		try
+		{
+			value = loader.load();
+		}
+		catch (final Exception x)
+		{
+			log.info("problem fetching " + file.getName(), x);
+		}
+
+		final Entry<V> fetched = value != null ? new Entry<V>(value, System.currentTimeMillis()) : null;
+		final Listener<V> listener;
+
+		synchronized (this)
+		{
+			if (fetched == null)
+			{
+				inFlight = null;
+				lastFailure = System.currentTimeMillis();
+				return null;
+			}
+
+			entry = fetched;
+			readFromDisk = true;
+			listener = this.listener;
+		}
+
+		// still in flight while writing, so writes cannot overtake each other
+		write(fetched);
+
+		synchronized (this)
+		{
+			inFlight = null;
+		}
+
+		if (listener != null)
+			listener.onRefreshed(fetched);
+
+		return fetched;
+	}
+
+	@CheckForNull
+	private Entry<V> read()
+	{
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (is.readInt() != MAGIC)
+				throw new IOException("bad magic");
+
+			final long fetchedAt = is.readLong();
+			return new Entry<V>(codec.read(is), fetchedAt);
+		}
+		catch (final FileNotFoundException x)
+		{
+			return null;
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem reading " + file + ", ignoring", x);
+			return null;
+		}
+		finally
+		{
+			if (is != null)
+			{
+				try
+				{
+					is.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	private void write(@Nonnull final Entry<V> entry)
+	{
+		final File tmpFile = new File(file.getPath() + ".tmp");
+
+		try
+		{
+			final FileOutputStream fos = new FileOutputStream(tmpFile);
+			final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(fos));
+
+			try
+			{
+				os.writeInt(MAGIC);
+				os.writeLong(entry.fetchedAt);
+				codec.write(entry.value, os);
+				os.flush();
+				fos.getFD().sync();
+			}
+			finally
+			{
+				os.close();
+			}
+
+			if (!tmpFile.renameTo(file))
+				throw new IOException("cannot rename " + tmpFile + " to " + file);
+		}
+		catch (final IOException x)
+		{
+			log.warn("problem writing " + file, x);
+		}
+	}
+}
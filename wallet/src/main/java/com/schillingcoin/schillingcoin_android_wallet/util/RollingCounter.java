@@ -0,0 +1,99 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+/**
+ * Counter over a sliding time window, backed by a fixed number of primitive buckets. Adding and querying never allocates.
+ */
+public final class RollingCounter
+{
+	private final long bucketMs;
+	private final long[] counts;
+	private final long[] slots;
+	private long total = 0;
+
+	public RollingCounter(final int numBuckets, final long bucketMs)
+	{
+		if (numBuckets <= 0 || bucketMs <= 0)
+			throw new IllegalArgumentException("numBuckets and bucketMs must be positive");
+
+		this.bucketMs = bucketMs;
+		this.counts = new long[numBuckets];
+		this.slots = new long[numBuckets];
+
+		for (int i = 0; i < numBuckets; i++)
+			slots[i] = Long.MIN_VALUE;
+	}
+
+	public synchronized void add(final long nowMs, final long delta)
+	{
+		final long slot = nowMs / bucketMs;
+		final int index = (int) (slot % counts.length);
+
+		if (slots[index] != slot)
+		{
+			slots[index] = slot;
+			counts[index] = 0;
+		}
+
+		counts[index] += delta;
+		total += delta;
+	}
+
+	/** Sum of all values added within the window ending at {@code nowMs}. */
+	public synchronized long sum(final long nowMs)
+	{
+		final long currentSlot = nowMs / bucketMs;
+		final long oldestSlot = currentSlot - counts.length + 1;
+
+		long sum = 0;
+		for (int i = 0; i < counts.length; i++)
+			if (slots[i] >= oldestSlot && slots[i] <= currentSlot)
+				sum += counts[i];
+
+		return sum;
+	}
+
+	/** Average rate per second over the whole window ending at {@code nowMs}. */
+	public double ratePerSecond(final long nowMs)
+	{
+		return sum(nowMs) * 1000.0 / windowMs();
+	}
+
+	/** Sum of all values ever added. */
+	public synchronized long total()
+	{
+		return total;
+	}
+
+	public long windowMs()
+	{
+		return bucketMs * counts.length;
+	}
+
+	public synchronized void clear()
+	{
+		for (int i = 0; i < counts.length; i++)
+		{
+			counts[i] = 0;
+			slots[i] = Long.MIN_VALUE;
+		}
+
+		total = 0;
+	}
+}
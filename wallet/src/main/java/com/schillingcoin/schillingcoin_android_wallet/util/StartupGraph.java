@@ -0,0 +1,220 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.Nonnull;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Runs named startup steps concurrently, each as soon as the steps it depends on have finished, and logs how long every step
+ * took. Dependencies have to be added before their dependents, which rules out cycles.
+ */
+public final class StartupGraph
+{
+	private final String name;
+	private final Map<String, Step> steps = new LinkedHashMap<String, Step>();
+
+	private CountDownLatch remaining;
+	private ExecutorService executor;
+	private long startedAt;
+	private volatile Throwable failure;
+
+	private static final int MAX_THREADS = 4;
+
+	private static final Logger log = LoggerFactory.getLogger(StartupGraph.class);
+
+	public StartupGraph(@Nonnull final String name)
+	{
+		this.name = name;
+	}
+
+	public void add(@Nonnull final String stepName, @Nonnull final Runnable task, final String... dependsOn)
+	{
+		if (steps.containsKey(stepName))
+			throw new IllegalArgumentException("duplicate step: " + stepName);
+		if (executor != null)
+			throw new IllegalStateException("already running");
+
+		final Step step = new Step(stepName, task, dependsOn.length);
+
+		for (final String dependency : dependsOn)
+		{
+			final Step dependencyStep = steps.get(dependency);
+			if (dependencyStep == null)
+				throw new IllegalArgumentException("unknown dependency of " + stepName + ": " + dependency);
+
+			dependencyStep.dependents.add(step);
+		}
+
+		steps.put(stepName, step);
+	}
+
+	/**
+	 * Runs all steps and blocks until they are finished. If a step fails, its dependents are skipped and the first failure is
+	 * rethrown once everything else has settled.
+	 */
+	public void run()
+	{
+		if (executor != null)
+			throw new IllegalStateException("already running");
+
+		remaining = new CountDownLatch(steps.size());
+		startedAt = System.currentTimeMillis();
+		executor = Executors.newFixedThreadPool(Math.max(1, Math.min(MAX_THREADS, steps.size())), new ThreadFactory()
+		{
+			private final AtomicInteger count = new AtomicInteger();
+
+			@Override
+			public Thread newThread(final Runnable runnable)
+			{
+				return new Thread(runnable, name + " startup #" + count.incrementAndGet());
+			}
+		});
+
+		try
+		{
+			// collect roots first, running steps will already be releasing their dependents
+			final List<Step> roots = new ArrayList<Step>();
+			for (final Step step : steps.values())
+				if (step.pendingDependencies.get() == 0)
+					roots.add(step);
+
+			for (final Step root : roots)
+				executor.execute(root);
+
+			remaining.await();
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+			throw new RuntimeException("interrupted while starting " + name, x);
+		}
+		finally
+		{
+			executor.shutdown();
+		}
+
+		log.info(report());
+
+		final Throwable failure = this.failure;
+		if (failure instanceof Error)
+			throw (Error) failure;
+		else if (failure instanceof RuntimeException)
+			throw (RuntimeException) failure;
+		else if (failure != null)
+			throw new RuntimeException(failure);
+	}
+
+	public String report()
+	{
+		final StringBuilder builder = new StringBuilder();
+		long finishedAt = startedAt;
+
+		for (final Step step : steps.values())
+		{
+			builder.append(builder.length() > 0 ? ", " : "").append(step.name);
+
+			if (step.skipped)
+			{
+				builder.append(" skipped");
+			}
+			else
+			{
+				builder.append(' ').append(step.finishedAt - step.startedAt).append("ms @").append(step.startedAt - startedAt);
+				finishedAt = Math.max(finishedAt, step.finishedAt);
+			}
+		}
+
+		return "startup of " + name + " took " + (finishedAt - startedAt) + "ms: " + builder;
+	}
+
+	private void finished(final Step step, final boolean succeeded)
+	{
+		for (final Step dependent : step.dependents)
+		{
+			if (!succeeded)
+				dependent.skipped = true;
+
+			if (dependent.pendingDependencies.decrementAndGet() == 0)
+			{
+				if (dependent.skipped)
+					finished(dependent, false);
+				else
+					executor.execute(dependent);
+			}
+		}
+
+		remaining.countDown();
+	}
+
+	private final class Step implements Runnable
+	{
+		private final String name;
+		private final Runnable task;
+		private final AtomicInteger pendingDependencies;
+		private final List<Step> dependents = new ArrayList<Step>();
+
+		private volatile boolean skipped = false;
+		private volatile long startedAt;
+		private volatile long finishedAt;
+
+		private Step(final String name, final Runnable task, final int numDependencies)
+		{
+			this.name = name;
+			this.task = task;
+			this.pendingDependencies = new AtomicInteger(numDependencies);
+		}
+
+		@Override
+		public void run()
+		{
+			boolean succeeded = false;
+			startedAt = System.currentTimeMillis();
+
+			try
+			{
+				task.run();
+				succeeded = true;
+			}
+			catch (final Throwable x)
+			{
+				log.error("startup step " + name + " failed", x);
+
+				if (failure == null)
+					failure = x;
+			}
+			finally
+			{
+				finishedAt = System.currentTimeMillis();
+				finished(this, succeeded);
+			}
+		}
+	}
+}
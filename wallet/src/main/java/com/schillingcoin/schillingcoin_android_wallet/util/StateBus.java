@@ -0,0 +1,156 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+/**
+ * Holds the latest immutable snapshot of some state, numbered by a version that increases with every publish. Subscribers are
+ * notified on their own executor. Publishes that happen while a notification is still queued are coalesced, so a subscriber
+ * only ever sees the newest state, and only if its filter considers it different from the last state it was given.
+ */
+public final class StateBus<T>
+{
+	public interface Listener<T>
+	{
+		void onStateChanged(@Nonnull T state, long version);
+	}
+
+	public interface Filter<T>
+	{
+		/**
+		 * @param previous
+		 *            state last delivered to this subscriber, or null if none yet
+		 */
+		boolean isRelevant(@Nullable T previous, @Nonnull T current);
+	}
+
+	private T state = null;
+	private long version = 0;
+
+	private final CopyOnWriteArrayList<Subscription<T>> subscriptions = new CopyOnWriteArrayList<Subscription<T>>();
+
+	public static <T> Filter<T> anyChange()
+	{
+		return new Filter<T>()
+		{
+			@Override
+			public boolean isRelevant(final T previous, final T current)
+			{
+				return previous != current;
+			}
+		};
+	}
+
+	public void publish(@Nonnull final T state)
+	{
+		synchronized (this)
+		{
+			this.state = state;
+			this.version++;
+		}
+
+		for (final Subscription<T> subscription : subscriptions)
+			subscription.schedule();
+	}
+
+	public synchronized T get()
+	{
+		return state;
+	}
+
+	public synchronized long getVersion()
+	{
+		return version;
+	}
+
+	/**
+	 * Subscribes to states published from now on. The first one is always delivered, later ones only if the filter says so.
+	 */
+	public void subscribe(@Nonnull final Listener<T> listener, @Nonnull final Filter<T> filter, @Nonnull final Executor executor)
+	{
+		subscriptions.add(new Subscription<T>(this, listener, filter, executor));
+	}
+
+	public void unsubscribe(@Nonnull final Listener<T> listener)
+	{
+		for (final Subscription<T> subscription : subscriptions)
+		{
+			if (subscription.listener == listener)
+			{
+				subscription.active = false;
+				subscriptions.remove(subscription);
+			}
+		}
+	}
+
+	private static final class Subscription<T> implements Runnable
+	{
+		private final StateBus<T> bus;
+		private final Listener<T> listener;
+		private final Filter<T> filter;
+		private final Executor executor;
+
+		private final AtomicBoolean pending = new AtomicBoolean(false);
+		private volatile boolean active = true;
+		private T lastDelivered = null;
+
+		private Subscription(final StateBus<T> bus, final Listener<T> listener, final Filter<T> filter, final Executor executor)
+		{
+			this.bus = bus;
+			this.listener = listener;
+			this.filter = filter;
+			this.executor = executor;
+		}
+
+		private void schedule()
+		{
+			if (pending.compareAndSet(false, true))
+				executor.execute(this);
+		}
+
+		@Override
+		public void run()
+		{
+			// clear first, so a publish racing with this delivery schedules another one
+			pending.set(false);
+
+			if (!active)
+				return;
+
+			final T state;
+			final long version;
+			synchronized (bus)
+			{
+				state = bus.state;
+				version = bus.version;
+			}
+
+			if (state != null && filter.isRelevant(lastDelivered, state))
+			{
+				lastDelivered = state;
+				listener.onStateChanged(state, version);
+			}
+		}
+	}
+}
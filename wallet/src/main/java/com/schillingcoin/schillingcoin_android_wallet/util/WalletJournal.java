@@ -0,0 +1,394 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.io.BufferedInputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import javax.annotation.Nonnull;
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hashing;
+
+/**
+ * Write-ahead journal on top of a full snapshot. The state is a header plus a map of keyed entries, all opaque bytes. Each
+ * {@link #append(State)} writes only the header and entries that changed since the last call, so the cost of saving no
+ * longer grows with the size of the state.
+ *
+ * The journal is bound to the snapshot it was started for by the snapshot's id. A journal found next to a different
+ * snapshot, for example because the app died right after writing a new snapshot, is dropped: that snapshot already contains
+ * everything the journal had. Every record carries its own CRC, and replay stops at the first torn or corrupt one.
+ */
+public final class WalletJournal
+{
+	private static final int MAGIC = 0x574a3031; // "WJ01"
+	private static final int FILE_HEADER_LENGTH = 4 + 8;
+	private static final int MAX_RECORD_LENGTH = 16 * 1024 * 1024;
+
+	private static final byte RECORD_HEADER = 1;
+	private static final byte RECORD_PUT = 2;
+	private static final byte RECORD_REMOVE = 3;
+
+	private static final HashFunction DIGEST = Hashing.sha256();
+	public static final int DIGEST_LENGTH = DIGEST.bits() / 8;
+
+	public static final class State
+	{
+		public byte[] header;
+		public final Map<String, byte[]> entries = new LinkedHashMap<String, byte[]>();
+		/** Digests of entries that are already known, so they need not be computed again. */
+		public final Map<String, HashCode> digests = new HashMap<String, HashCode>();
+
+		public HashCode digest(final String key)
+		{
+			final HashCode digest = digests.get(key);
+			return digest != null ? digest : WalletJournal.digest(entries.get(key));
+		}
+	}
+
+	private final File file;
+	@Nullable
+	private FileOutputStream os = null;
+	private long size = 0;
+
+	@Nullable
+	private HashCode headerDigest = null;
+	private final Map<String, HashCode> entryDigests = new HashMap<String, HashCode>();
+
+	private static final Logger log = LoggerFactory.getLogger(WalletJournal.class);
+
+	public WalletJournal(@Nonnull final File file)
+	{
+		this.file = file;
+	}
+
+	/**
+	 * Replays the journal onto a snapshot that was just read, and opens it for appending. If there is no journal for this
+	 * snapshot, the journal stays closed until the next {@link #reset(long, State)}.
+	 *
+	 * @param state
+	 *            the snapshot, updated in place
+	 * @return number of records replayed
+	 */
+	public synchronized int open(final long snapshotId, @Nonnull final State state) throws IOException
+	{
+		close();
+
+		int replayed = -1;
+		long validLength = 0;
+		DataInputStream is = null;
+
+		try
+		{
+			is = new DataInputStream(new BufferedInputStream(new FileInputStream(file)));
+
+			if (is.readInt() == MAGIC && is.readLong() == snapshotId)
+			{
+				replayed = 0;
+				validLength = FILE_HEADER_LENGTH;
+
+				while (true)
+				{
+					final byte[] record = readRecord(is);
+					if (record == null)
+						break;
+
+					apply(record, state);
+					replayed++;
+					validLength += 4 + record.length + 4;
+				}
+			}
+			else
+			{
+				log.info("journal '{}' belongs to another snapshot, dropping", file);
+			}
+		}
+		catch (final FileNotFoundException x)
+		{
+			// no journal yet
+		}
+		catch (final EOFException x)
+		{
+			// torn file header
+		}
+		finally
+		{
+			if (is != null)
+				is.close();
+		}
+
+		if (replayed < 0)
+			return 0;
+
+		// cut off a torn tail, so new records follow the last good one
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		try
+		{
+			raf.setLength(validLength);
+		}
+		finally
+		{
+			raf.close();
+		}
+
+		os = new FileOutputStream(file, true);
+		size = validLength;
+		remember(state);
+
+		log.info("replayed {} records from journal '{}'", replayed, file);
+
+		return replayed;
+	}
+
+	/**
+	 * Starts an empty journal for a snapshot that was just written.
+	 */
+	public synchronized void reset(final long snapshotId, @Nonnull final State snapshot) throws IOException
+	{
+		close();
+
+		final File tmpFile = new File(file.getPath() + ".tmp");
+		final FileOutputStream tmpOs = new FileOutputStream(tmpFile);
+
+		try
+		{
+			final DataOutputStream dos = new DataOutputStream(tmpOs);
+			dos.writeInt(MAGIC);
+			dos.writeLong(snapshotId);
+			dos.flush();
+			tmpOs.getFD().sync();
+		}
+		finally
+		{
+			tmpOs.close();
+		}
+
+		if (!tmpFile.renameTo(file))
+			throw new IOException("cannot rename " + tmpFile + " to " + file);
+
+		os = new FileOutputStream(file, true);
+		size = FILE_HEADER_LENGTH;
+		remember(snapshot);
+	}
+
+	/**
+	 * Appends what changed since the state last opened, reset or appended, and syncs it to disk. After a failed append, the
+	 * journal needs a {@link #reset(long, State)} with a fresh snapshot.
+	 *
+	 * @return number of records written
+	 */
+	public synchronized int append(@Nonnull final State current) throws IOException
+	{
+		if (os == null)
+			throw new IOException("journal not open");
+
+		final List<byte[]> records = new ArrayList<byte[]>();
+		final Map<String, HashCode> changedDigests = new HashMap<String, HashCode>();
+		final List<String> removedKeys = new ArrayList<String>();
+
+		final HashCode currentHeaderDigest = digest(current.header);
+		if (!currentHeaderDigest.equals(headerDigest))
+			records.add(record(RECORD_HEADER, null, current.header));
+
+		for (final Map.Entry<String, byte[]> entry : current.entries.entrySet())
+		{
+			final HashCode digest = digest(entry.getValue());
+			if (!digest.equals(entryDigests.get(entry.getKey())))
+			{
+				records.add(record(RECORD_PUT, entry.getKey(), entry.getValue()));
+				changedDigests.put(entry.getKey(), digest);
+			}
+		}
+
+		for (final String key : entryDigests.keySet())
+		{
+			if (!current.entries.containsKey(key))
+			{
+				records.add(record(RECORD_REMOVE, key, null));
+				removedKeys.add(key);
+			}
+		}
+
+		if (records.isEmpty())
+			return 0;
+
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream(buffer);
+		for (final byte[] record : records)
+		{
+			dos.writeInt(record.length);
+			dos.write(record);
+			dos.writeInt((int) crc(record));
+		}
+
+		try
+		{
+			os.write(buffer.toByteArray());
+			os.flush();
+			os.getFD().sync();
+		}
+		catch (final IOException x)
+		{
+			// records after a partial one would never be replayed, so refuse to append until reset
+			close();
+			throw x;
+		}
+
+		size += buffer.size();
+		headerDigest = currentHeaderDigest;
+		entryDigests.putAll(changedDigests);
+		for (final String key : removedKeys)
+			entryDigests.remove(key);
+
+		return records.size();
+	}
+
+	public synchronized boolean isOpen()
+	{
+		return os != null;
+	}
+
+	/**
+	 * @return bytes in the journal file
+	 */
+	public synchronized long size()
+	{
+		return size;
+	}
+
+	public synchronized void close() throws IOException
+	{
+		if (os != null)
+		{
+			os.close();
+			os = null;
+		}
+	}
+
+	private void remember(final State state)
+	{
+		headerDigest = digest(state.header);
+		entryDigests.clear();
+		for (final String key : state.entries.keySet())
+			entryDigests.put(key, state.digest(key));
+	}
+
+	@Nullable
+	private static byte[] readRecord(final DataInputStream is) throws IOException
+	{
+		try
+		{
+			final int length = is.readInt();
+			if (length <= 0 || length > MAX_RECORD_LENGTH)
+				return null;
+
+			final byte[] record = new byte[length];
+			is.readFully(record);
+			final int crc = is.readInt();
+
+			return crc == (int) crc(record) ? record : null;
+		}
+		catch (final EOFException x)
+		{
+			return null;
+		}
+	}
+
+	private static void apply(final byte[] record, final State state) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new ByteArrayInputStream(record));
+		final byte type = is.readByte();
+
+		if (type == RECORD_HEADER)
+		{
+			state.header = readRest(is);
+		}
+		else if (type == RECORD_PUT)
+		{
+			final String key = is.readUTF();
+			state.entries.put(key, readRest(is));
+			state.digests.remove(key);
+		}
+		else if (type == RECORD_REMOVE)
+		{
+			final String key = is.readUTF();
+			state.entries.remove(key);
+			state.digests.remove(key);
+		}
+		else
+		{
+			throw new IOException("unknown record type: " + type);
+		}
+	}
+
+	private static byte[] record(final byte type, @Nullable final String key, @Nullable final byte[] value) throws IOException
+	{
+		final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		final DataOutputStream dos = new DataOutputStream(buffer);
+		dos.writeByte(type);
+		if (key != null)
+			dos.writeUTF(key);
+		if (value != null)
+			dos.write(value);
+		dos.flush();
+		return buffer.toByteArray();
+	}
+
+	private static byte[] readRest(final DataInputStream is) throws IOException
+	{
+		final byte[] rest = new byte[is.available()];
+		is.readFully(rest);
+		return rest;
+	}
+
+	/**
+	 * @return SHA-256 of the given bytes, strong enough that an unchanged digest means unchanged bytes
+	 */
+	public static HashCode digest(@Nullable final byte[] bytes)
+	{
+		return DIGEST.hashBytes(bytes != null ? bytes : new byte[0]);
+	}
+
+	private static long crc(final byte[] bytes)
+	{
+		final CRC32 crc = new CRC32();
+		crc.update(bytes);
+		return crc.getValue();
+	}
+}
@@ -0,0 +1,261 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.schillingcoin_android_wallet.util;
+
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.security.SecureRandom;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import javax.annotation.Nonnull;
+
+import com.google.common.hash.HashCode;
+
+/**
+ * Segmented snapshot of a {@link WalletJournal.State}. The file starts with the header segment (keys and metadata), followed
+ * by an index of all entries with their lengths and digests, followed by the entries themselves. Reading maps the file and
+ * decodes only the header and index up front; entries are copied out one by one, on demand, and checked against their digest.
+ *
+ * Every snapshot gets a random id, which is what a {@link WalletJournal} is bound to.
+ */
+public final class WalletSnapshot
+{
+	private static final int MAGIC = 0x57533032; // "WS02"
+
+	private final long id;
+	private final byte[] header;
+	private final List<String> keys;
+	private final HashCode[] digests;
+	private final long[] offsets;
+	private final int[] lengths;
+	private final MappedByteBuffer data;
+
+	private WalletSnapshot(final long id, final byte[] header, final List<String> keys, final HashCode[] digests, final long[] offsets,
+			final int[] lengths, final MappedByteBuffer data)
+	{
+		this.id = id;
+		this.header = header;
+		this.keys = keys;
+		this.digests = digests;
+		this.offsets = offsets;
+		this.lengths = lengths;
+		this.data = data;
+	}
+
+	/**
+	 * @return true if the file is a segmented snapshot, false if it is in some other format
+	 */
+	public static boolean isSnapshot(@Nonnull final File file) throws IOException
+	{
+		final DataInputStream is = new DataInputStream(new FileInputStream(file));
+
+		try
+		{
+			return is.readInt() == MAGIC;
+		}
+		catch (final EOFException x)
+		{
+			return false;
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	/**
+	 * Maps a snapshot and reads its header and index.
+	 */
+	public static WalletSnapshot open(@Nonnull final File file) throws IOException
+	{
+		final RandomAccessFile raf = new RandomAccessFile(file, "r");
+
+		try
+		{
+			final MappedByteBuffer buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+
+			try
+			{
+				if (buffer.getInt() != MAGIC)
+					throw new IOException("not a wallet snapshot: " + file);
+
+				final long id = buffer.getLong();
+
+				final byte[] header = new byte[buffer.getInt()];
+				buffer.get(header);
+				if (!WalletJournal.digest(header).equals(readDigest(buffer)))
+					throw new IOException("corrupt header in wallet snapshot: " + file);
+
+				final int numEntries = buffer.getInt();
+				if (numEntries < 0)
+					throw new IOException("bad number of entries: " + numEntries);
+
+				final List<String> keys = new ArrayList<String>(numEntries);
+				final HashCode[] digests = new HashCode[numEntries];
+				final int[] lengths = new int[numEntries];
+				for (int i = 0; i < numEntries; i++)
+				{
+					final byte[] key = new byte[buffer.getShort() & 0xffff];
+					buffer.get(key);
+					keys.add(new String(key, "UTF-8"));
+					digests[i] = readDigest(buffer);
+					lengths[i] = buffer.getInt();
+				}
+
+				final long[] offsets = new long[numEntries];
+				long offset = buffer.position();
+				for (int i = 0; i < numEntries; i++)
+				{
+					offsets[i] = offset;
+					offset += lengths[i];
+				}
+				if (offset != raf.length())
+					throw new IOException("truncated wallet snapshot: " + file);
+
+				return new WalletSnapshot(id, header, Collections.unmodifiableList(keys), digests, offsets, lengths, buffer);
+			}
+			catch (final RuntimeException x)
+			{
+				// BufferUnderflowException and friends
+				throw new IOException("corrupt wallet snapshot: " + file, x);
+			}
+		}
+		finally
+		{
+			// the mapping stays valid after the file is closed
+			raf.close();
+		}
+	}
+
+	/**
+	 * Writes a snapshot of the given state and syncs it to disk.
+	 *
+	 * @return id of the new snapshot
+	 */
+	public static long write(@Nonnull final File file, @Nonnull final WalletJournal.State state) throws IOException
+	{
+		final long id = new SecureRandom().nextLong();
+		final FileOutputStream fos = new FileOutputStream(file);
+		final DataOutputStream os = new DataOutputStream(new BufferedOutputStream(fos));
+
+		try
+		{
+			os.writeInt(MAGIC);
+			os.writeLong(id);
+			os.writeInt(state.header.length);
+			os.write(state.header);
+			os.write(WalletJournal.digest(state.header).asBytes());
+
+			os.writeInt(state.entries.size());
+			for (final Map.Entry<String, byte[]> entry : state.entries.entrySet())
+			{
+				os.writeUTF(entry.getKey());
+				os.write(state.digest(entry.getKey()).asBytes());
+				os.writeInt(entry.getValue().length);
+			}
+
+			for (final byte[] value : state.entries.values())
+				os.write(value);
+
+			os.flush();
+			fos.getFD().sync();
+		}
+		finally
+		{
+			os.close();
+		}
+
+		return id;
+	}
+
+	public long getId()
+	{
+		return id;
+	}
+
+	public byte[] getHeader()
+	{
+		return header;
+	}
+
+	public List<String> getKeys()
+	{
+		return keys;
+	}
+
+	public int size()
+	{
+		return keys.size();
+	}
+
+	public HashCode getDigest(final int index)
+	{
+		return digests[index];
+	}
+
+	/**
+	 * Copies one entry out of the mapped file. May be called from several threads at once.
+	 */
+	public byte[] get(final int index) throws IOException
+	{
+		final byte[] value = new byte[lengths[index]];
+		final ByteBuffer slice = data.duplicate();
+		slice.position((int) offsets[index]);
+		slice.get(value);
+
+		if (!WalletJournal.digest(value).equals(digests[index]))
+			throw new IOException("corrupt entry in wallet snapshot: " + keys.get(index));
+
+		return value;
+	}
+
+	/**
+	 * Copies all entries into a state. Their digests, just verified, go along so a journal need not compute them again.
+	 */
+	public WalletJournal.State toState() throws IOException
+	{
+		final WalletJournal.State state = new WalletJournal.State();
+		state.header = header;
+		for (int i = 0; i < keys.size(); i++)
+		{
+			state.entries.put(keys.get(i), get(i));
+			state.digests.put(keys.get(i), digests[i]);
+		}
+		return state;
+	}
+
+	private static HashCode readDigest(final ByteBuffer buffer)
+	{
+		final byte[] digest = new byte[WalletJournal.DIGEST_LENGTH];
+		buffer.get(digest);
+		return HashCode.fromBytes(digest);
+	}
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoinj.utils.Fiat;
+
+import com.schillingcoin.android_wallet.tools.StandInRateServer;
+import com.schillingcoin.android_wallet.tools.StandInRateServer.PlainSource;
+import com.schillingcoin.schillingcoin_android_wallet.ExchangeRateAggregator;
+import com.schillingcoin.schillingcoin_android_wallet.ExchangeRateSource;
+import com.schillingcoin.schillingcoin_android_wallet.ExchangeRatesProvider.WalletExchangeRate;
+
+public class ExchangeRateAggregatorTest
+{
+	private final StandInRateServer server;
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	public ExchangeRateAggregatorTest() throws IOException
+	{
+		server = new StandInRateServer();
+	}
+
+	@After
+	public void tearDown()
+	{
+		executor.shutdownNow();
+		server.stop();
+	}
+
+	@Test
+	public void takesMedianAndConvertsTheRest() throws Exception
+	{
+		server.respond("/a", 200, "USD 1.00\nEUR 0.70");
+		server.respond("/b", 200, "USD 1.20\nEUR 0.90");
+		server.respond("/c", 200, "USD 5.00");
+		server.respond("/cross", 200, "EUR 0.75\nCHF 0.90");
+
+		final ExchangeRateAggregator aggregator = new ExchangeRateAggregator(Arrays.<ExchangeRateSource> asList(source("a"),
+				source("b"), source("c")), crossRates("/cross"), executor, 5000);
+		final Map<String, WalletExchangeRate> rates = aggregator.fetch();
+
+		assertEquals(Fiat.parseFiat("USD", "1.20"), rates.get("USD").rate.fiat);
+		assertEquals("a, b, c", rates.get("USD").source);
+		// quoted directly, so not converted; mean of the middle two
+		assertEquals(Fiat.parseFiat("EUR", "0.80"), rates.get("EUR").rate.fiat);
+		assertEquals(Fiat.parseFiat("CHF", "1.08"), rates.get("CHF").rate.fiat);
+	}
+
+	@Test
+	public void leavesOutSlowSource() throws Exception
+	{
+		server.respond("/a", 200, "USD 1.00");
+		server.respondSlowly("/b", "USD 2.00", 3000);
+
+		final ExchangeRateAggregator aggregator = new ExchangeRateAggregator(Arrays.<ExchangeRateSource> asList(source("a"),
+				source("b")), null, executor, 500);
+
+		final long start = System.currentTimeMillis();
+		final Map<String, WalletExchangeRate> rates = aggregator.fetch();
+		assertTrue(System.currentTimeMillis() - start < 2500);
+		assertEquals(Fiat.parseFiat("USD", "1.00"), rates.get("USD").rate.fiat);
+		assertEquals("a", rates.get("USD").source);
+	}
+
+	@Test
+	public void skipsDeadSourceOnceBreakerOpens() throws Exception
+	{
+		server.respond("/a", 200, "USD 1.00");
+		server.respond("/b", 503, "down");
+
+		final ExchangeRateAggregator aggregator = new ExchangeRateAggregator(Arrays.<ExchangeRateSource> asList(source("a"),
+				source("b")), null, executor, 5000);
+
+		for (int i = 0; i < 5; i++)
+			assertEquals("a", aggregator.fetch().get("USD").source);
+
+		assertEquals(5, server.requestCount("/a"));
+		assertEquals(2, server.requestCount("/b"));
+	}
+
+	@Test
+	public void nothingWhenAllFail() throws Exception
+	{
+		server.respond("/a", 500, "");
+
+		final ExchangeRateAggregator aggregator = new ExchangeRateAggregator(Arrays.<ExchangeRateSource> asList(source("a")),
+				crossRates("/cross"), executor, 5000);
+		assertNull(aggregator.fetch());
+		assertFalse(server.requestCount("/cross") == 0);
+	}
+
+	private ExchangeRateSource source(final String name)
+	{
+		return new PlainSource(name, server.url("/" + name));
+	}
+
+	private ExchangeRateAggregator.CrossRateSource crossRates(final String path)
+	{
+		final PlainSource source = new PlainSource("cross", server.url(path));
+
+		return new ExchangeRateAggregator.CrossRateSource()
+		{
+			@Override
+			public String getName()
+			{
+				return source.getName();
+			}
+
+			@Override
+			public Map<String, Fiat> fetch() throws IOException
+			{
+				final Map<String, Fiat> rates = new TreeMap<String, Fiat>();
+				for (final WalletExchangeRate rate : source.fetch().values())
+					rates.put(rate.getCurrencyCode(), rate.rate.fiat);
+				return rates;
+			}
+		};
+	}
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.Map;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoinj.utils.Fiat;
+
+import com.schillingcoin.android_wallet.tools.StandInRateServer;
+import com.schillingcoin.android_wallet.tools.StandInRateServer.PlainSource;
+import com.schillingcoin.schillingcoin_android_wallet.ExchangeRatesProvider.WalletExchangeRate;
+
+public class HttpExchangeRateSourceTest
+{
+	private final StandInRateServer server;
+
+	public HttpExchangeRateSourceTest() throws IOException
+	{
+		server = new StandInRateServer();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop();
+	}
+
+	@Test
+	public void fetchesPlainAndGzipped() throws Exception
+	{
+		server.respond("/plain", 200, "USD 1.25\nEUR 1.00\n");
+		final Map<String, WalletExchangeRate> plain = new PlainSource("stand-in", server.url("/plain")).fetch();
+		assertEquals(2, plain.size());
+		assertEquals(Fiat.parseFiat("USD", "1.25"), plain.get("USD").rate.fiat);
+		assertEquals("stand-in", plain.get("EUR").source);
+
+		server.respondGzipped("/gzip", "CHF 0.90\n");
+		assertEquals(Fiat.parseFiat("CHF", "0.90"), new PlainSource("stand-in", server.url("/gzip")).fetch().get("CHF").rate.fiat);
+	}
+
+	@Test
+	public void failsOnErrorStatusOrMissingServer() throws Exception
+	{
+		server.respond("/down", 503, "maintenance");
+
+		try
+		{
+			new PlainSource("stand-in", server.url("/down")).fetch();
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+
+		final URL gone = server.url("/gone");
+		server.stop();
+
+		try
+		{
+			new PlainSource("stand-in", gone).fetch();
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+	}
+}
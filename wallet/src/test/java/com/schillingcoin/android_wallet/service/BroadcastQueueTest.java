@@ -0,0 +1,103 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.service.BroadcastQueue;
+
+public class BroadcastQueueTest
+{
+	private static final List<String> PEERS = Arrays.asList("a", "b", "c", "d");
+
+	@Test
+	public void survivesReload() throws Exception
+	{
+		final File file = File.createTempFile("broadcast-queue", null);
+		file.delete();
+
+		final BroadcastQueue queue = BroadcastQueue.load(file);
+		assertTrue(queue.add("tx1", 1000));
+		assertTrue(queue.add("tx2", 2000));
+		assertFalse(queue.add("tx1", 3000));
+		queue.remove("tx2");
+
+		final BroadcastQueue reloaded = BroadcastQueue.load(file);
+		assertEquals(1, reloaded.size());
+		assertEquals(Arrays.asList("tx1"), reloaded.due(4000, 10));
+
+		file.delete();
+	}
+
+	@Test
+	public void announcesToHalfThenToTheOthers() throws Exception
+	{
+		final BroadcastQueue queue = BroadcastQueue.load(new File("/nonexistent/broadcast-queue"));
+		queue.add("tx", 0);
+
+		final List<String> first = queue.announce("tx", PEERS, 0);
+		assertEquals(2, first.size());
+
+		// not due again before the retry interval
+		assertTrue(queue.due(BroadcastQueue.RETRY_MS - 1, 10).isEmpty());
+		assertEquals(1, queue.due(BroadcastQueue.RETRY_MS, 10).size());
+
+		final List<String> second = queue.announce("tx", PEERS, BroadcastQueue.RETRY_MS);
+		final Set<String> all = new HashSet<String>(first);
+		all.addAll(second);
+		assertEquals(4, all.size());
+
+		for (final String peer : PEERS)
+			assertEquals(1, queue.getAnnounceCount("tx", peer));
+	}
+
+	@Test
+	public void waitsAfterAnnouncesMadeElsewhere() throws Exception
+	{
+		final BroadcastQueue queue = BroadcastQueue.load(new File("/nonexistent/broadcast-queue"));
+		queue.add("tx", 0);
+		queue.markAnnounced("tx", 0);
+
+		assertTrue(queue.due(BroadcastQueue.RETRY_MS - 1, 10).isEmpty());
+		assertEquals(Arrays.asList("tx"), queue.due(BroadcastQueue.RETRY_MS, 10));
+		assertEquals(0, queue.getAnnounceCount("tx", "a"));
+	}
+
+	@Test
+	public void batchesAndExpires() throws Exception
+	{
+		final BroadcastQueue queue = BroadcastQueue.load(new File("/nonexistent/broadcast-queue"));
+		for (int i = 0; i < 10; i++)
+			queue.add("tx" + i, i);
+
+		assertEquals(Arrays.asList("tx0", "tx1", "tx2"), queue.due(100, 3));
+
+		queue.due(BroadcastQueue.MAX_AGE_MS + 5, 3);
+		assertEquals(5, queue.size());
+	}
+}
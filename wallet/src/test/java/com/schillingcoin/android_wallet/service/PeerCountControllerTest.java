@@ -0,0 +1,58 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.service;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.service.PeerCountController;
+
+public class PeerCountControllerTest
+{
+	@Test
+	public void addsPeersWhileThroughputImproves() throws Exception
+	{
+		final PeerCountController controller = new PeerCountController(2, 10, 4);
+
+		assertEquals(5, controller.update(10, 10000, true, false));
+		assertEquals(6, controller.update(15, 10000, true, false));
+		// no improvement, hold
+		assertEquals(6, controller.update(15.5, 10000, true, false));
+		assertEquals(6, controller.update(15, 10000, true, false));
+	}
+
+	@Test
+	public void dropsToMinimumWhenSynced() throws Exception
+	{
+		final PeerCountController controller = new PeerCountController(2, 10, 6);
+
+		assertEquals(2, controller.update(0, 1, true, false));
+		assertEquals(2, controller.update(0, -1, true, false));
+	}
+
+	@Test
+	public void lowersCeilingOnBatteryAndMemoryPressure() throws Exception
+	{
+		final PeerCountController controller = new PeerCountController(2, 10, 10);
+
+		assertEquals(10, controller.update(10, 10000, true, false));
+		assertEquals(6, controller.update(20, 10000, false, false));
+		assertEquals(4, controller.update(40, 10000, false, true));
+	}
+}
@@ -0,0 +1,95 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.service.PeerScoreStore;
+
+public class PeerScoreStoreTest
+{
+	private static InetSocketAddress address(final int lastByte) throws Exception
+	{
+		return new InetSocketAddress(InetAddress.getByAddress(new byte[] { 10, 0, 0, (byte) lastByte }), 9901);
+	}
+
+	@Test
+	public void ranksAndSurvivesReload() throws Exception
+	{
+		final File file = File.createTempFile("peerscores", null);
+		file.delete();
+
+		final PeerScoreStore store = PeerScoreStore.load(file);
+		store.recordDialled(address(1), 0);
+		store.recordConnected(address(1), 900);
+		store.recordDialled(address(2), 0);
+		store.recordConnected(address(2), 100);
+		for (int i = 0; i < 100; i++)
+			store.recordBlock(address(2));
+		for (int i = 0; i < 3; i++)
+			store.recordFailure(address(3));
+		store.save();
+
+		final PeerScoreStore reloaded = PeerScoreStore.load(file);
+		assertEquals(3, reloaded.size());
+
+		final List<InetSocketAddress> best = reloaded.getBestPeers(10);
+		assertEquals(2, best.size());
+		assertEquals(address(2), best.get(0));
+		assertEquals(address(1), best.get(1));
+		assertFalse(best.contains(address(3)));
+
+		file.delete();
+	}
+
+	@Test
+	public void ignoresStaleDials() throws Exception
+	{
+		final PeerScoreStore store = PeerScoreStore.load(new File("/nonexistent/peerscores"));
+
+		// dialled long ago, so the connect latency is unknown rather than 100 s
+		store.recordDialled(address(1), 0);
+		store.recordConnected(address(1), 100000);
+		store.recordDialled(address(2), 100000);
+		store.recordConnected(address(2), 101500);
+
+		final List<InetSocketAddress> best = store.getBestPeers(10);
+		assertEquals(address(1), best.get(0));
+		assertEquals(address(2), best.get(1));
+	}
+
+	@Test
+	public void evictsLeastRecentlyUsed() throws Exception
+	{
+		final PeerScoreStore store = PeerScoreStore.load(new File("/nonexistent/peerscores"));
+
+		for (int i = 0; i < 200; i++)
+			store.recordBlock(address(i));
+
+		assertEquals(128, store.size());
+		assertFalse(store.getBestPeers(200).contains(address(0)));
+	}
+}
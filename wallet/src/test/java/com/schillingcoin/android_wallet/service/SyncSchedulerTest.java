@@ -0,0 +1,121 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.service;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Calendar;
+import java.util.TimeZone;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.service.SyncScheduler;
+
+public class SyncSchedulerTest
+{
+	private static final TimeZone UTC = TimeZone.getTimeZone("UTC");
+	private static final long MINUTE = 60 * 1000L;
+	private static final long HOUR = 60 * MINUTE;
+	private static final long DAY = 24 * HOUR;
+
+	private static final class FakeClock implements SyncScheduler.Clock
+	{
+		long now;
+
+		@Override
+		public long currentTimeMillis()
+		{
+			return now;
+		}
+	}
+
+	/** Monday, 6 January 2014, at the given hour and minute UTC. */
+	private static long monday(final int hour, final int minute)
+	{
+		final Calendar calendar = Calendar.getInstance(UTC);
+		calendar.clear();
+		calendar.set(2014, Calendar.JANUARY, 6, hour, minute);
+		return calendar.getTimeInMillis();
+	}
+
+	@Test
+	public void backsOffWithoutHistory() throws Exception
+	{
+		final FakeClock clock = new FakeClock();
+		clock.now = monday(8, 0);
+		final SyncScheduler scheduler = new SyncScheduler(clock, UTC);
+
+		assertEquals(15 * MINUTE, scheduler.nextWakeUp(10 * MINUTE).delayMs);
+		assertEquals(12 * HOUR, scheduler.nextWakeUp(DAY).delayMs);
+		assertEquals(DAY, scheduler.nextWakeUp(10 * DAY).delayMs);
+		assertFalse(scheduler.nextWakeUp(10 * DAY).busyHour);
+	}
+
+	@Test
+	public void wakesUpAheadOfBusyHours() throws Exception
+	{
+		final FakeClock clock = new FakeClock();
+		final SyncScheduler scheduler = new SyncScheduler(clock, UTC);
+		scheduler.recordSyncDuration(4 * MINUTE);
+
+		// payments on Monday mornings for four weeks
+		for (int week = 0; week < 4; week++)
+		{
+			clock.now = monday(9, 10) - 4 * 7 * DAY + week * 7 * DAY;
+			scheduler.recordPayment();
+			clock.now += 20 * MINUTE;
+			scheduler.recordPayment();
+		}
+
+		clock.now = monday(8, 0);
+		final SyncScheduler.WakeUp ahead = scheduler.nextWakeUp(10 * DAY);
+		assertTrue(ahead.busyHour);
+		assertEquals(HOUR - 4 * MINUTE, ahead.delayMs);
+
+		clock.now = monday(9, 30);
+		final SyncScheduler.WakeUp during = scheduler.nextWakeUp(10 * DAY);
+		assertTrue(during.busyHour);
+		assertEquals(15 * MINUTE, during.delayMs);
+
+		// after the busy hour, nothing is due until next Monday, beyond the backoff
+		clock.now = monday(11, 0);
+		assertEquals(DAY, scheduler.nextWakeUp(10 * DAY).delayMs);
+	}
+
+	@Test
+	public void survivesSerialization() throws Exception
+	{
+		final FakeClock clock = new FakeClock();
+		clock.now = monday(9, 0);
+		final SyncScheduler scheduler = new SyncScheduler(clock, UTC);
+		for (int i = 0; i < 5; i++)
+			scheduler.recordPayment();
+		scheduler.recordSyncDuration(3 * MINUTE);
+		scheduler.recordSyncDuration(5 * MINUTE);
+
+		final SyncScheduler restored = SyncScheduler.deserialize(scheduler.serialize(), clock, UTC);
+		assertEquals(4 * MINUTE, restored.getTypicalSyncDurationMs());
+
+		clock.now = monday(8, 0) + 7 * DAY;
+		assertEquals(HOUR - 4 * MINUTE, restored.nextWakeUp(10 * DAY).delayMs);
+
+		assertFalse(SyncScheduler.deserialize("garbage", clock, UTC).nextWakeUp(10 * DAY).busyHour);
+	}
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.tools;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.PrintWriter;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.TreeMap;
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.StoredBlock;
+import com.schillingcoin.schillingcoinj.params.MainNetParams;
+import com.schillingcoin.schillingcoinj.store.SPVBlockStore;
+
+/**
+ * Regenerates the bundled {@code checkpoints.txt} asset from a local block store file, for example one pulled from a synced
+ * device's {@code app_blockstore} directory. Checkpoints of an existing asset are kept, so the asset grows monotonically even
+ * though a block store only holds the most recent headers.
+ *
+ * Usage: {@code BuildCheckpoints <blockstore> <checkpoints.txt>}
+ */
+public final class BuildCheckpoints
+{
+	private static final String MAGIC = "TXT CHECKPOINTS 1";
+	private static final BaseEncoding BASE64 = BaseEncoding.base64().omitPadding();
+
+	/** Heights that are multiples of this become checkpoints. */
+	private static final int CHECKPOINT_INTERVAL = 1000;
+
+	/** Blocks younger than this are not checkpointed, so a reorg cannot invalidate the asset. */
+	private static final long MIN_AGE_SECS = 7 * 24 * 60 * 60;
+
+	public static void main(final String[] args) throws Exception
+	{
+		if (args.length != 2)
+		{
+			System.err.println("usage: BuildCheckpoints <blockstore> <checkpoints.txt>");
+			System.exit(1);
+		}
+
+		final NetworkParameters params = MainNetParams.get();
+		final File blockStoreFile = new File(args[0]);
+		final File checkpointsFile = new File(args[1]);
+
+		final TreeMap<Integer, StoredBlock> checkpoints = new TreeMap<Integer, StoredBlock>();
+
+		if (checkpointsFile.exists())
+		{
+			readCheckpoints(params, checkpointsFile, checkpoints);
+			System.out.println("read " + checkpoints.size() + " existing checkpoints");
+		}
+
+		final SPVBlockStore store = new SPVBlockStore(params, blockStoreFile);
+		final long maxTime = System.currentTimeMillis() / 1000 - MIN_AGE_SECS;
+		int added = 0;
+
+		try
+		{
+			StoredBlock block = store.getChainHead();
+
+			while (block != null)
+			{
+				final int height = block.getHeight();
+
+				if (height > 0 && height % CHECKPOINT_INTERVAL == 0 && block.getHeader().getTimeSeconds() <= maxTime
+						&& !checkpoints.containsKey(height))
+				{
+					checkpoints.put(height, block);
+					added++;
+				}
+
+				block = block.getPrev(store);
+			}
+		}
+		finally
+		{
+			store.close();
+		}
+
+		if (checkpoints.isEmpty())
+		{
+			System.err.println("no checkpoints found, block store too young or too short");
+			System.exit(1);
+		}
+
+		writeCheckpoints(checkpoints, checkpointsFile);
+		System.out.println("added " + added + " checkpoints, wrote " + checkpoints.size() + " up to height " + checkpoints.lastKey() + " to "
+				+ checkpointsFile);
+	}
+
+	private static void readCheckpoints(final NetworkParameters params, final File file, final Map<Integer, StoredBlock> checkpoints)
+			throws IOException
+	{
+		final BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(file), Charsets.US_ASCII));
+
+		try
+		{
+			if (!MAGIC.equals(reader.readLine()))
+				throw new IOException("unexpected header in " + file);
+
+			final int numSignatures = Integer.parseInt(reader.readLine().trim());
+			for (int i = 0; i < numSignatures; i++)
+				reader.readLine();
+
+			final int numCheckpoints = Integer.parseInt(reader.readLine().trim());
+			final ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+			for (int i = 0; i < numCheckpoints; i++)
+			{
+				buffer.clear();
+				buffer.put(BASE64.decode(reader.readLine().trim()));
+				buffer.flip();
+				final StoredBlock block = StoredBlock.deserializeCompact(params, buffer);
+				checkpoints.put(block.getHeight(), block);
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+	private static void writeCheckpoints(final TreeMap<Integer, StoredBlock> checkpoints, final File file) throws IOException
+	{
+		final File tmpFile = new File(file.getAbsolutePath() + ".tmp");
+		final PrintWriter writer = new PrintWriter(new OutputStreamWriter(new FileOutputStream(tmpFile), Charsets.US_ASCII));
+
+		try
+		{
+			writer.println(MAGIC);
+			writer.println("0"); // number of signatures, the asset is authenticated by the APK signature
+			writer.println(checkpoints.size());
+
+			final ByteBuffer buffer = ByteBuffer.allocate(StoredBlock.COMPACT_SERIALIZED_SIZE);
+			for (final StoredBlock block : checkpoints.values())
+			{
+				buffer.clear();
+				block.serializeCompact(buffer);
+				writer.println(BASE64.encode(buffer.array()));
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		if (writer.checkError())
+			throw new IOException("problem writing " + tmpFile);
+
+		if (!tmpFile.renameTo(file))
+			throw new IOException("cannot rename " + tmpFile + " to " + file);
+	}
+}
@@ -0,0 +1,328 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.tools;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.schillingcoin.schillingcoinj.core.BitcoinSerializer;
+import com.schillingcoin.schillingcoinj.core.Block;
+import com.schillingcoin.schillingcoinj.core.BloomFilter;
+import com.schillingcoin.schillingcoinj.core.FilteredBlock;
+import com.schillingcoin.schillingcoinj.core.GetBlocksMessage;
+import com.schillingcoin.schillingcoinj.core.GetDataMessage;
+import com.schillingcoin.schillingcoinj.core.GetHeadersMessage;
+import com.schillingcoin.schillingcoinj.core.HeadersMessage;
+import com.schillingcoin.schillingcoinj.core.InventoryItem;
+import com.schillingcoin.schillingcoinj.core.InventoryMessage;
+import com.schillingcoin.schillingcoinj.core.Message;
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.NotFoundMessage;
+import com.schillingcoin.schillingcoinj.core.Ping;
+import com.schillingcoin.schillingcoinj.core.Pong;
+import com.schillingcoin.schillingcoinj.core.Sha256Hash;
+import com.schillingcoin.schillingcoinj.core.Transaction;
+import com.schillingcoin.schillingcoinj.core.VersionAck;
+import com.schillingcoin.schillingcoinj.core.VersionMessage;
+
+/**
+ * Minimal in-process full node for benchmarks. It serves a recorded chain over a loopback socket and answers just what a
+ * syncing SPV client asks for: version handshake, pings, {@code getheaders}, {@code getblocks}, {@code filterload} and
+ * {@code getdata} for full and filtered blocks. Anything else is ignored.
+ */
+public final class StandInPeer implements Runnable
+{
+	private static final int HEADER_LENGTH = 4 + 12 + 4 + 4;
+	private static final int MAX_HEADERS = 2000;
+	private static final int MAX_INV = 500;
+
+	private final NetworkParameters params;
+	private final List<Block> chain;
+	private final Map<Sha256Hash, Integer> heights = new HashMap<Sha256Hash, Integer>();
+	private final BitcoinSerializer serializer;
+	private final ServerSocket serverSocket;
+
+	private BloomFilter filter = null;
+
+	/**
+	 * @param chain
+	 *            blocks of the best chain in order, starting with the genesis block
+	 */
+	public StandInPeer(final NetworkParameters params, final List<Block> chain) throws IOException
+	{
+		this.params = params;
+		this.chain = chain;
+		for (int i = 0; i < chain.size(); i++)
+			heights.put(chain.get(i).getHash(), i);
+		this.serializer = new BitcoinSerializer(params);
+		this.serverSocket = new ServerSocket(0, 1, InetAddress.getLoopbackAddress());
+	}
+
+	public int getPort()
+	{
+		return serverSocket.getLocalPort();
+	}
+
+	public int getBestHeight()
+	{
+		return chain.size() - 1;
+	}
+
+	/**
+	 * Serves one client connection until it disconnects.
+	 */
+	@Override
+	public void run()
+	{
+		Socket socket = null;
+
+		try
+		{
+			socket = serverSocket.accept();
+			socket.setTcpNoDelay(true);
+			filter = null;
+
+			final DataInputStream is = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+			final OutputStream os = new BufferedOutputStream(socket.getOutputStream());
+
+			while (true)
+			{
+				final Message message = read(is);
+				if (message == null)
+					break;
+
+				handle(message, os);
+				os.flush();
+			}
+		}
+		catch (final IOException x)
+		{
+			// client went away
+		}
+		finally
+		{
+			if (socket != null)
+			{
+				try
+				{
+					socket.close();
+				}
+				catch (final IOException x)
+				{
+					// swallow
+				}
+			}
+		}
+	}
+
+	public void close() throws IOException
+	{
+		serverSocket.close();
+	}
+
+	private Message read(final DataInputStream is) throws IOException
+	{
+		final byte[] header = new byte[HEADER_LENGTH];
+
+		try
+		{
+			is.readFully(header);
+		}
+		catch (final EOFException x)
+		{
+			return null;
+		}
+
+		final int length = (header[16] & 0xff) | (header[17] & 0xff) << 8 | (header[18] & 0xff) << 16 | (header[19] & 0xff) << 24;
+		final byte[] message = new byte[HEADER_LENGTH + length];
+		System.arraycopy(header, 0, message, 0, HEADER_LENGTH);
+		is.readFully(message, HEADER_LENGTH, length);
+
+		try
+		{
+			return serializer.deserialize(ByteBuffer.wrap(message));
+		}
+		catch (final Exception x)
+		{
+			throw new IOException("cannot parse message", x);
+		}
+	}
+
+	private void handle(final Message message, final OutputStream os) throws IOException
+	{
+		if (message instanceof VersionMessage)
+		{
+			serializer.serialize(new VersionMessage(params, getBestHeight()), os);
+			serializer.serialize(new VersionAck(), os);
+		}
+		else if (message instanceof Ping)
+		{
+			serializer.serialize(new Pong(((Ping) message).getNonce()), os);
+		}
+		else if (message instanceof BloomFilter)
+		{
+			filter = (BloomFilter) message;
+		}
+		else if (message instanceof GetHeadersMessage) // must be tested before its superclass
+		{
+			final GetHeadersMessage getHeaders = (GetHeadersMessage) message;
+			final List<Block> headers = new ArrayList<Block>();
+			for (int height = forkHeight(getHeaders.getLocator()) + 1; height < chain.size() && headers.size() < MAX_HEADERS; height++)
+			{
+				final Block block = chain.get(height);
+				headers.add(block.cloneAsHeader());
+				if (block.getHash().equals(getHeaders.getStopHash()))
+					break;
+			}
+			serializer.serialize(new HeadersMessage(params, headers.toArray(new Block[headers.size()])), os);
+		}
+		else if (message instanceof GetBlocksMessage)
+		{
+			final GetBlocksMessage getBlocks = (GetBlocksMessage) message;
+			final InventoryMessage inv = new InventoryMessage(params);
+			int count = 0;
+			for (int height = forkHeight(getBlocks.getLocator()) + 1; height < chain.size() && count < MAX_INV; height++, count++)
+			{
+				final Block block = chain.get(height);
+				inv.addBlock(block);
+				if (block.getHash().equals(getBlocks.getStopHash()))
+					break;
+			}
+			if (count > 0)
+				serializer.serialize(inv, os);
+		}
+		else if (message instanceof GetDataMessage)
+		{
+			final List<InventoryItem> notFound = new ArrayList<InventoryItem>();
+
+			for (final InventoryItem item : ((GetDataMessage) message).getItems())
+			{
+				final Integer height = heights.get(item.hash);
+
+				if (height == null || item.type == InventoryItem.Type.Transaction)
+				{
+					notFound.add(item);
+				}
+				else if (item.type == InventoryItem.Type.FilteredBlock && filter != null)
+				{
+					final Block block = chain.get(height);
+					final FilteredBlock filteredBlock = filter.applyAndUpdate(block);
+					serializer.serialize(filteredBlock, os);
+
+					final List<Sha256Hash> matched = filteredBlock.getTransactionHashes();
+					for (final Transaction tx : block.getTransactions())
+						if (matched.contains(tx.getHash()))
+							serializer.serialize(tx, os);
+				}
+				else
+				{
+					serializer.serialize(chain.get(height), os);
+				}
+			}
+
+			if (!notFound.isEmpty())
+				serializer.serialize(new NotFoundMessage(params, notFound), os);
+		}
+	}
+
+	private int forkHeight(final List<Sha256Hash> locator)
+	{
+		for (final Sha256Hash hash : locator)
+		{
+			final Integer height = heights.get(hash);
+			if (height != null)
+				return height;
+		}
+
+		return 0;
+	}
+
+	/**
+	 * Reads the best chain from block files as written by the reference client ({@code blk0001.dat} and following), which
+	 * store each block prefixed by the network magic and its length. Blocks may be stored out of order, and blocks not on the
+	 * chain leading up from genesis are dropped.
+	 */
+	public static List<Block> readChain(final NetworkParameters params, final List<File> blockFiles, final int maxBlocks) throws IOException
+	{
+		final Map<Sha256Hash, Block> byPrev = new HashMap<Sha256Hash, Block>();
+		final long magic = params.getPacketMagic();
+
+		for (final File blockFile : blockFiles)
+		{
+			final InputStream is = new BufferedInputStream(new FileInputStream(blockFile));
+
+			try
+			{
+				final DataInputStream dis = new DataInputStream(is);
+				while (true)
+				{
+					final long fileMagic;
+					try
+					{
+						fileMagic = dis.readInt() & 0xffffffffL;
+					}
+					catch (final EOFException x)
+					{
+						break;
+					}
+
+					if (fileMagic == 0)
+						break; // preallocated, unused space
+					if (fileMagic != magic)
+						throw new IOException("bad magic in " + blockFile + ": " + Long.toHexString(fileMagic));
+
+					final int length = Integer.reverseBytes(dis.readInt());
+					final byte[] bytes = new byte[length];
+					dis.readFully(bytes);
+
+					final Block block = new Block(params, bytes);
+					byPrev.put(block.getPrevBlockHash(), block);
+				}
+			}
+			finally
+			{
+				is.close();
+			}
+		}
+
+		final List<Block> chain = new ArrayList<Block>();
+		Block block = params.getGenesisBlock();
+		while (block != null && chain.size() <= maxBlocks)
+		{
+			chain.add(block);
+			block = byPrev.get(block.getHash());
+		}
+
+		return chain;
+	}
+}
@@ -0,0 +1,230 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.tools;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.GZIPOutputStream;
+
+import com.google.common.base.Charsets;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpHandler;
+import com.sun.net.httpserver.HttpServer;
+
+import com.schillingcoin.schillingcoinj.utils.ExchangeRate;
+import com.schillingcoin.schillingcoinj.utils.Fiat;
+
+import com.schillingcoin.schillingcoin_android_wallet.ExchangeRatesProvider.WalletExchangeRate;
+import com.schillingcoin.schillingcoin_android_wallet.HttpExchangeRateSource;
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
+
+/**
+ * Loopback HTTP server standing in for an exchange rate API in tests. Each path answers with a canned response, which can be
+ * changed at any time, e.g. to make a source fail or hang.
+ */
+public final class StandInRateServer
+{
+	/**
+	 * Source reading one rate per line, e.g. {@code USD 1.25}, from a stand-in server.
+	 */
+	public static class PlainSource extends HttpExchangeRateSource
+	{
+		private static final HttpClient HTTP_CLIENT = new HttpClient("stand-in", null, 4);
+
+		private final URL url;
+
+		public PlainSource(final String name, final URL url)
+		{
+			super(name, HTTP_CLIENT);
+			this.url = url;
+		}
+
+		@Override
+		public Map<String, WalletExchangeRate> fetch() throws IOException
+		{
+			final Map<String, WalletExchangeRate> rates = new TreeMap<String, WalletExchangeRate>();
+
+			for (final String line : get(url).split("\n"))
+			{
+				final String[] parts = line.split(" ");
+				rates.put(parts[0], new WalletExchangeRate(new ExchangeRate(Fiat.parseFiat(parts[0], parts[1])), getName()));
+			}
+
+			return rates;
+		}
+	}
+
+	private static final class Response
+	{
+		private final int status;
+		private final byte[] body;
+		private final boolean gzip;
+		private final long delayMs;
+
+		private Response(final int status, final String body, final boolean gzip, final long delayMs)
+		{
+			this.status = status;
+			this.body = body.getBytes(Charsets.UTF_8);
+			this.gzip = gzip;
+			this.delayMs = delayMs;
+		}
+	}
+
+	private final HttpServer server;
+	private final Map<String, Response> responses = new ConcurrentHashMap<String, Response>();
+	private final Map<String, AtomicInteger> requests = new ConcurrentHashMap<String, AtomicInteger>();
+	private final Set<InetSocketAddress> clients = Collections.newSetFromMap(new ConcurrentHashMap<InetSocketAddress, Boolean>());
+	private final AtomicInteger inFlight = new AtomicInteger();
+	private final AtomicInteger maxInFlight = new AtomicInteger();
+
+	public StandInRateServer() throws IOException
+	{
+		server = HttpServer.create(new InetSocketAddress(InetAddress.getLoopbackAddress(), 0), 0);
+		server.setExecutor(Executors.newCachedThreadPool());
+		server.createContext("/", new HttpHandler()
+		{
+			@Override
+			public void handle(final HttpExchange exchange) throws IOException
+			{
+				serve(exchange);
+			}
+		});
+		server.start();
+	}
+
+	public void respond(final String path, final int status, final String body)
+	{
+		responses.put(path, new Response(status, body, false, 0));
+	}
+
+	public void respondGzipped(final String path, final String body)
+	{
+		responses.put(path, new Response(200, body, true, 0));
+	}
+
+	public void respondSlowly(final String path, final String body, final long delayMs)
+	{
+		responses.put(path, new Response(200, body, false, delayMs));
+	}
+
+	public URL url(final String path)
+	{
+		try
+		{
+			return new URL("http", server.getAddress().getHostString(), server.getAddress().getPort(), path);
+		}
+		catch (final MalformedURLException x)
+		{
+			throw new RuntimeException(x); // cannot happen
+		}
+	}
+
+	public int requestCount(final String path)
+	{
+		final AtomicInteger count = requests.get(path);
+		return count != null ? count.get() : 0;
+	}
+
+	/**
+	 * @return number of distinct client connections seen so far
+	 */
+	public int connectionCount()
+	{
+		return clients.size();
+	}
+
+	/**
+	 * @return most requests seen being served at the same time
+	 */
+	public int maxConcurrentRequests()
+	{
+		return maxInFlight.get();
+	}
+
+	public void stop()
+	{
+		server.stop(0);
+	}
+
+	private void serve(final HttpExchange exchange) throws IOException
+	{
+		final String path = exchange.getRequestURI().getPath();
+
+		synchronized (requests)
+		{
+			if (!requests.containsKey(path))
+				requests.put(path, new AtomicInteger());
+		}
+		requests.get(path).incrementAndGet();
+		clients.add(exchange.getRemoteAddress());
+
+		final Response response = responses.get(path);
+		final int concurrent = inFlight.incrementAndGet();
+		for (int max = maxInFlight.get(); max < concurrent && !maxInFlight.compareAndSet(max, concurrent); max = maxInFlight.get())
+			;
+
+		try
+		{
+			if (response == null)
+			{
+				exchange.sendResponseHeaders(404, -1);
+				return;
+			}
+
+			if (response.delayMs > 0)
+				Thread.sleep(response.delayMs);
+
+			byte[] body = response.body;
+			if (response.gzip)
+			{
+				final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+				final GZIPOutputStream gzip = new GZIPOutputStream(bytes);
+				gzip.write(body);
+				gzip.close();
+				body = bytes.toByteArray();
+				exchange.getResponseHeaders().set("Content-Encoding", "gzip");
+			}
+
+			exchange.sendResponseHeaders(response.status, body.length);
+			final OutputStream os = exchange.getResponseBody();
+			os.write(body);
+			os.close();
+		}
+		catch (final InterruptedException x)
+		{
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			inFlight.decrementAndGet();
+			exchange.close();
+		}
+	}
+}
@@ -0,0 +1,254 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.tools;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.lang.management.ManagementFactory;
+import java.net.InetAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.schillingcoin.schillingcoinj.core.AbstractWalletEventListener;
+import com.schillingcoin.schillingcoinj.core.Block;
+import com.schillingcoin.schillingcoinj.core.BlockChain;
+import com.schillingcoin.schillingcoinj.core.Coin;
+import com.schillingcoin.schillingcoinj.core.NetworkParameters;
+import com.schillingcoin.schillingcoinj.core.PeerAddress;
+import com.schillingcoin.schillingcoinj.core.PeerGroup;
+import com.schillingcoin.schillingcoinj.core.Transaction;
+import com.schillingcoin.schillingcoinj.core.Wallet;
+import com.schillingcoin.schillingcoinj.core.Wallet.BalanceType;
+import com.schillingcoin.schillingcoinj.params.MainNetParams;
+import com.schillingcoin.schillingcoinj.store.SPVBlockStore;
+import com.schillingcoin.schillingcoinj.store.WalletProtobufSerializer;
+import com.schillingcoin.schillingcoinj.utils.Threading;
+
+/**
+ * Measures how fast the wallet's sync stack gets through a recorded chain, without a device and without the network. A
+ * {@link StandInPeer} serves blocks from local block files over loopback to a real {@link PeerGroup}, {@link BlockChain} and
+ * {@link Wallet}. The sync runs twice: once with just the wallet attached, once with listeners that do what the app's wallet
+ * listeners do on every change. The difference is the cost of those listeners.
+ *
+ * Numbers are for comparing builds on the same machine, not for predicting device performance.
+ *
+ * Usage: {@code SyncBenchmark [--wallet <wallet-protobuf>] [--max-blocks <n>] <blk0001.dat> [<blk0002.dat> ...]}
+ */
+public final class SyncBenchmark
+{
+	private static final class Result
+	{
+		int blocks;
+		long elapsedNanos;
+		long allocatedBytes;
+		int listenerCalls;
+
+		double blocksPerSecond()
+		{
+			return blocks * 1e9 / elapsedNanos;
+		}
+
+		double microsPerBlock()
+		{
+			return elapsedNanos / 1e3 / blocks;
+		}
+
+		long bytesPerBlock()
+		{
+			return allocatedBytes / blocks;
+		}
+	}
+
+	/** Sink for listener work, so it cannot be optimized away. */
+	private static volatile long sink;
+
+	public static void main(final String[] args) throws Exception
+	{
+		File walletFile = null;
+		int maxBlocks = Integer.MAX_VALUE;
+		final List<File> blockFiles = new ArrayList<File>();
+
+		for (int i = 0; i < args.length; i++)
+		{
+			if ("--wallet".equals(args[i]) && i + 1 < args.length)
+				walletFile = new File(args[++i]);
+			else if ("--max-blocks".equals(args[i]) && i + 1 < args.length)
+				maxBlocks = Integer.parseInt(args[++i]);
+			else
+				blockFiles.add(new File(args[i]));
+		}
+
+		if (blockFiles.isEmpty())
+		{
+			System.err.println("usage: SyncBenchmark [--wallet <wallet-protobuf>] [--max-blocks <n>] <blk0001.dat> [<blk0002.dat> ...]");
+			System.exit(1);
+		}
+
+		final NetworkParameters params = MainNetParams.get();
+
+		final List<Block> chain = StandInPeer.readChain(params, blockFiles, maxBlocks);
+		if (chain.size() < 2)
+		{
+			System.err.println("no blocks connecting to genesis found");
+			System.exit(1);
+		}
+		System.out.println("read " + (chain.size() - 1) + " blocks");
+
+		final StandInPeer peer = new StandInPeer(params, chain);
+
+		try
+		{
+			// warm up class loading and JIT, so the first measured pass is not penalized
+			sync(params, peer, walletFile, false);
+
+			final Result bare = sync(params, peer, walletFile, false);
+			print("wallet only", bare);
+
+			final Result withListeners = sync(params, peer, walletFile, true);
+			print("wallet + app listeners", withListeners);
+
+			System.out.printf("listener overhead: %.1f us/block (%d calls), %d bytes/block%n",
+					withListeners.microsPerBlock() - bare.microsPerBlock(), withListeners.listenerCalls,
+					withListeners.bytesPerBlock() - bare.bytesPerBlock());
+		}
+		finally
+		{
+			peer.close();
+		}
+	}
+
+	private static Result sync(final NetworkParameters params, final StandInPeer peer, final File walletFile, final boolean withListeners)
+			throws Exception
+	{
+		final File blockStoreFile = File.createTempFile("benchmark", ".spvchain");
+		blockStoreFile.delete();
+		final SPVBlockStore blockStore = new SPVBlockStore(params, blockStoreFile);
+
+		final Wallet wallet = walletFile != null ? readWallet(walletFile) : new Wallet(params);
+		final AtomicInteger listenerCalls = new AtomicInteger();
+		if (withListeners)
+			wallet.addEventListener(new AppLikeWalletListener(listenerCalls), Threading.SAME_THREAD);
+
+		// no ValidHashStore: it asks the trusted servers, which would measure the network rather than the sync
+		final BlockChain blockChain = new BlockChain(params, wallet, blockStore, null);
+		final PeerGroup peerGroup = new PeerGroup(params, blockChain);
+		peerGroup.setDownloadTxDependencies(false);
+		peerGroup.addWallet(wallet);
+		peerGroup.setMaxConnections(1);
+		peerGroup.addAddress(new PeerAddress(InetAddress.getLoopbackAddress(), peer.getPort()));
+
+		final Thread peerThread = new Thread(peer, "stand-in peer");
+		peerThread.start();
+
+		final Result result = new Result();
+
+		try
+		{
+			final long allocatedBefore = allocatedBytes();
+			final long start = System.nanoTime();
+
+			peerGroup.startAsync();
+			peerGroup.awaitRunning();
+			peerGroup.downloadBlockChain();
+
+			result.elapsedNanos = System.nanoTime() - start;
+			result.allocatedBytes = allocatedBytes() - allocatedBefore;
+			result.blocks = blockChain.getBestChainHeight();
+			result.listenerCalls = listenerCalls.get();
+
+			if (result.blocks != peer.getBestHeight())
+				throw new IllegalStateException("synced to " + result.blocks + " but peer has " + peer.getBestHeight());
+		}
+		finally
+		{
+			peerGroup.stopAsync();
+			peerGroup.awaitTerminated();
+			peerThread.join();
+			blockStore.close();
+			blockStoreFile.delete();
+		}
+
+		return result;
+	}
+
+	private static Wallet readWallet(final File file) throws Exception
+	{
+		final InputStream is = new FileInputStream(file);
+
+		try
+		{
+			return new WalletProtobufSerializer().readWallet(is);
+		}
+		finally
+		{
+			is.close();
+		}
+	}
+
+	/**
+	 * Sum of bytes allocated by all live threads. Threads that ended during the measurement are not counted, but the threads
+	 * doing the sync live until the peer group is stopped.
+	 */
+	private static long allocatedBytes()
+	{
+		final com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+		long sum = 0;
+		for (final long allocated : threads.getThreadAllocatedBytes(threads.getAllThreadIds()))
+			if (allocated > 0)
+				sum += allocated;
+		return sum;
+	}
+
+	private static void print(final String label, final Result result)
+	{
+		System.out.printf("%s: %d blocks in %.2f s, %.0f blocks/s, %d bytes/block allocated%n", label, result.blocks,
+				result.elapsedNanos / 1e9, result.blocksPerSecond(), result.bytesPerBlock());
+	}
+
+	/**
+	 * Does on every wallet change what the service, the balance loader and the transaction list do once their throttling has
+	 * expired. Running it unthrottled gives an upper bound for the listener cost.
+	 */
+	private static final class AppLikeWalletListener extends AbstractWalletEventListener
+	{
+		private final AtomicInteger calls;
+
+		public AppLikeWalletListener(final AtomicInteger calls)
+		{
+			this.calls = calls;
+		}
+
+		@Override
+		public void onCoinsReceived(final Wallet wallet, final Transaction tx, final Coin prevBalance, final Coin newBalance)
+		{
+			calls.incrementAndGet();
+			sink += tx.getValue(wallet).value;
+		}
+
+		@Override
+		public void onWalletChanged(final Wallet wallet)
+		{
+			calls.incrementAndGet();
+			sink += wallet.getBalance(BalanceType.ESTIMATED).value;
+			sink += wallet.getBalance(BalanceType.AVAILABLE).value;
+			sink += wallet.getTransactions(true).size();
+		}
+	}
+}
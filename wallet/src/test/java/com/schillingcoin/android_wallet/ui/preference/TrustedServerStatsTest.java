@@ -0,0 +1,120 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.ui.preference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.ui.preference.TrustedServer;
+import com.schillingcoin.schillingcoin_android_wallet.ui.preference.TrustedServerStats;
+
+public class TrustedServerStatsTest
+{
+	@Test
+	public void percentiles() throws Exception
+	{
+		final TrustedServerStats stats = new TrustedServerStats();
+		assertEquals(-1, stats.getLatencyPercentile(0.5));
+
+		for (int i = 10; i >= 1; i--)
+			stats.recordSuccess(i);
+
+		assertEquals(1, stats.getLatencyPercentile(0));
+		assertEquals(5, stats.getLatencyPercentile(0.5));
+		assertEquals(9, stats.getLatencyPercentile(0.9));
+		assertEquals(10, stats.getLatencyPercentile(1));
+
+		// only the latest 32 latencies count
+		for (int i = 0; i < 31; i++)
+			stats.recordSuccess(100);
+		assertEquals(1, stats.getLatencyPercentile(0));
+		stats.recordSuccess(100);
+		assertEquals(100, stats.getLatencyPercentile(0));
+	}
+
+	@Test
+	public void decaysOutcomes() throws Exception
+	{
+		final TrustedServerStats stats = new TrustedServerStats();
+		assertEquals(-1, stats.getSuccessRatio(), 0);
+
+		for (int i = 0; i < 32; i++)
+			stats.recordSuccess(100);
+		for (int i = 0; i < 31; i++)
+			stats.recordFailure(1000);
+		assertEquals(32, stats.getSuccesses());
+		assertEquals(31, stats.getFailures());
+
+		stats.recordFailure(2000);
+		assertEquals(16, stats.getSuccesses());
+		assertEquals(16, stats.getFailures());
+		assertEquals(0.5, stats.getSuccessRatio(), 0);
+		assertEquals(2000, stats.getLastErrorTime());
+
+		// failures count as retries
+		assertEquals(200, stats.getExpectedLatencyMs());
+	}
+
+	@Test
+	public void survivesBytesRoundTrip() throws Exception
+	{
+		final TrustedServerStats stats = new TrustedServerStats();
+		for (int i = 1; i <= 40; i++)
+			stats.recordSuccess(i);
+		stats.recordFailure(5000);
+
+		final TrustedServerStats restored = new TrustedServerStats(stats.getLatencyBytes(), stats.getSuccesses(), stats.getFailures(),
+				stats.getLastErrorTime());
+		assertArrayEquals(stats.getLatencyBytes(), restored.getLatencyBytes());
+		assertEquals(stats.getLatencyPercentile(0.5), restored.getLatencyPercentile(0.5));
+		assertEquals(stats.getExpectedLatencyMs(), restored.getExpectedLatencyMs());
+		assertEquals(5000, restored.getLastErrorTime());
+
+		// the ring continues where it left off
+		stats.recordSuccess(1000);
+		restored.recordSuccess(1000);
+		assertArrayEquals(stats.getLatencyBytes(), restored.getLatencyBytes());
+	}
+
+	@Test
+	public void sortsUnknownFirstThenFastest() throws Exception
+	{
+		final TrustedServer slow = server(500);
+		final TrustedServer unknown = new TrustedServer(2, "unknown", "https://unknown", true);
+		final TrustedServer fast = server(50);
+		final TrustedServer alsoFast = server(50);
+
+		final TrustedServer[] servers = new TrustedServer[] { slow, fast, unknown, alsoFast };
+		TrustedServerStats.sortByExpectedLatency(servers);
+
+		assertSame(unknown, servers[0]);
+		assertSame(fast, servers[1]);
+		assertSame(alsoFast, servers[2]);
+		assertSame(slow, servers[3]);
+	}
+
+	private static TrustedServer server(final long latencyMs)
+	{
+		final TrustedServer server = new TrustedServer(1, "server", "https://server", true);
+		server.stats.recordSuccess(latencyMs);
+		return server;
+	}
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.CircuitBreaker;
+
+public class CircuitBreakerTest
+{
+	@Test
+	public void opensAfterThresholdAndClosesAfterTrial()
+	{
+		final CircuitBreaker breaker = new CircuitBreaker(2, 1000, 4000);
+
+		assertTrue(breaker.allowRequest(0));
+		breaker.recordFailure(0);
+		assertTrue(breaker.allowRequest(0));
+		breaker.recordFailure(0);
+		assertTrue(breaker.isOpen(0));
+		assertFalse(breaker.allowRequest(999));
+
+		// one trial only
+		assertTrue(breaker.allowRequest(1000));
+		assertFalse(breaker.allowRequest(1000));
+		breaker.recordSuccess();
+		assertFalse(breaker.isOpen(1000));
+		assertTrue(breaker.allowRequest(1000));
+	}
+
+	@Test
+	public void failedTrialBacksOffUpToMax()
+	{
+		final CircuitBreaker breaker = new CircuitBreaker(1, 1000, 3000);
+
+		breaker.recordFailure(0);
+		assertTrue(breaker.allowRequest(1000));
+		breaker.recordFailure(1000);
+		assertFalse(breaker.allowRequest(2999));
+		assertTrue(breaker.allowRequest(3000));
+		breaker.recordFailure(3000);
+		assertFalse(breaker.allowRequest(5999));
+		assertTrue(breaker.allowRequest(6000));
+
+		// a success resets the cooldown
+		breaker.recordSuccess();
+		breaker.recordFailure(10000);
+		assertTrue(breaker.allowRequest(11000));
+	}
+
+	@Test
+	public void successResetsFailureCount()
+	{
+		final CircuitBreaker breaker = new CircuitBreaker(3, 1000, 1000);
+
+		breaker.recordFailure(0);
+		breaker.recordFailure(0);
+		breaker.recordSuccess();
+		breaker.recordFailure(0);
+		breaker.recordFailure(0);
+		assertFalse(breaker.isOpen(0));
+		assertTrue(breaker.allowRequest(0));
+	}
+}
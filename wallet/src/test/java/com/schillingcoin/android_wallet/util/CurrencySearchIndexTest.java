@@ -0,0 +1,61 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Locale;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.CurrencySearchIndex;
+
+public class CurrencySearchIndexTest
+{
+	private final CurrencySearchIndex index = CurrencySearchIndex.build(Arrays.asList("USD", "EUR", "CHF", "AUD", "GBP", "XYZ"),
+			Locale.US);
+
+	@Test
+	public void matchesCodesSymbolsAndNames() throws Exception
+	{
+		assertEquals(Arrays.asList("EUR"), index.search("eu"));
+		assertEquals(Arrays.asList("EUR"), index.search(" EURO "));
+		assertEquals(Arrays.asList("CHF"), index.search("swiss fr"));
+		assertEquals(Arrays.asList("GBP"), index.search("pound"));
+		assertTrue(index.search("$").contains("USD"));
+		assertEquals(Arrays.asList("XYZ"), index.search("xy"));
+		assertEquals(Collections.emptyList(), index.search("rouble"));
+		assertEquals(6, index.search("").size());
+	}
+
+	@Test
+	public void refinesAndWidensAgain() throws Exception
+	{
+		assertEquals(Arrays.asList("AUD", "CHF", "EUR", "GBP", "USD"), index.search("r"));
+		assertEquals(Arrays.asList("AUD", "USD"), index.search("dollar"));
+		assertEquals(Arrays.asList("AUD"), index.search("australian dollar"));
+		assertEquals(Collections.emptyList(), index.search("australian dollars"));
+
+		// backspacing starts over from the index
+		assertEquals(Arrays.asList("AUD", "USD"), index.search("dolla"));
+		assertEquals(Arrays.asList("USD"), index.search("us d"));
+	}
+}
@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.HedgedCall;
+
+public class HedgedCallTest
+{
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void hedgesPastHangingSourceAndCancelsIt() throws Exception
+	{
+		final HedgedCall<String> call = new HedgedCall<String>(executor, 0.9, 50, 50, 8);
+		final Source hanging = new Source(null, Long.MAX_VALUE);
+		final Source fast = new Source("b", 0);
+
+		final long start = System.currentTimeMillis();
+		assertEquals("b", call.call(Arrays.asList(hanging, fast), 10000));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+		assertTrue(hanging.cancelled.await(5, TimeUnit.SECONDS));
+	}
+
+	@Test
+	public void movesOnRightAwayWhenSourceFails() throws Exception
+	{
+		final HedgedCall<String> call = new HedgedCall<String>(executor, 0.9, 10000, 10000, 8);
+
+		final long start = System.currentTimeMillis();
+		assertEquals("b", call.call(Arrays.asList(new Source(null, 0), new Source("b", 0)), 20000));
+		assertTrue(System.currentTimeMillis() - start < 5000);
+
+		assertNull(call.call(Arrays.asList(new Source(null, 0), new Source(null, 0)), 20000));
+	}
+
+	@Test
+	public void hedgeDelayFollowsPercentile()
+	{
+		final HedgedCall<String> call = new HedgedCall<String>(executor, 0.9, 10, 1000, 10);
+		assertEquals(505, call.getHedgeDelayMs());
+
+		for (int i = 1; i <= 10; i++)
+			call.recordLatency(i * 20);
+		assertEquals(180, call.getHedgeDelayMs());
+
+		call.recordLatency(5000);
+		assertEquals(200, call.getHedgeDelayMs());
+		call.recordLatency(5000);
+		assertEquals(1000, call.getHedgeDelayMs());
+	}
+
+	private static class Source implements HedgedCall.Attempt<String>
+	{
+		private final String answer;
+		private final long delayMs;
+		private final CountDownLatch cancelled = new CountDownLatch(1);
+
+		public Source(final String answer, final long delayMs)
+		{
+			this.answer = answer;
+			this.delayMs = delayMs;
+		}
+
+		@Override
+		public String call() throws Exception
+		{
+			if (delayMs > 0)
+				cancelled.await(delayMs, TimeUnit.MILLISECONDS);
+			return answer;
+		}
+
+		@Override
+		public void cancel()
+		{
+			cancelled.countDown();
+		}
+	}
+}
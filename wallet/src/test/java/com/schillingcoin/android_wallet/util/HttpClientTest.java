@@ -0,0 +1,112 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.schillingcoin.android_wallet.tools.StandInRateServer;
+import com.schillingcoin.schillingcoin_android_wallet.util.HttpClient;
+
+public class HttpClientTest
+{
+	private final StandInRateServer server;
+
+	public HttpClientTest() throws IOException
+	{
+		server = new StandInRateServer();
+	}
+
+	@After
+	public void tearDown()
+	{
+		server.stop();
+	}
+
+	@Test
+	public void reusesConnectionAndKeepsStats() throws Exception
+	{
+		server.respond("/a", 200, "USD 1.00");
+		server.respondGzipped("/b", "EUR 0.80");
+		server.respond("/down", 503, "maintenance");
+
+		final HttpClient client = new HttpClient("test", null, 4);
+		for (int i = 0; i < 3; i++)
+		{
+			assertEquals("USD 1.00", client.getString(server.url("/a"), 1024));
+			assertEquals("EUR 0.80", client.getString(server.url("/b"), 1024));
+
+			try
+			{
+				client.getString(server.url("/down"), 1024);
+				fail();
+			}
+			catch (final IOException x)
+			{
+				// expected
+			}
+		}
+
+		assertEquals(1, server.connectionCount());
+
+		final HttpClient.Stats stats = client.getStats(server.url("/").getHost());
+		assertEquals(9, stats.requests);
+		assertEquals(3, stats.failures);
+	}
+
+	@Test
+	public void limitsRequestsPerHost() throws Exception
+	{
+		server.respondSlowly("/slow", "USD 1.00", 200);
+
+		final HttpClient client = new HttpClient("test", null, 2);
+		final URL url = server.url("/slow");
+		final ExecutorService executor = Executors.newFixedThreadPool(6);
+		final List<Future<String>> results = new ArrayList<Future<String>>();
+
+		for (int i = 0; i < 6; i++)
+		{
+			results.add(executor.submit(new Callable<String>()
+			{
+				@Override
+				public String call() throws IOException
+				{
+					return client.getString(url, 1024);
+				}
+			}));
+		}
+
+		for (final Future<String> result : results)
+			assertEquals("USD 1.00", result.get());
+		executor.shutdown();
+
+		assertEquals(2, server.maxConcurrentRequests());
+	}
+}
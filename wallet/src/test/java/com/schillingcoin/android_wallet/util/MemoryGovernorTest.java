@@ -0,0 +1,82 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.MemoryGovernor;
+
+public class MemoryGovernorTest
+{
+	// values of ComponentCallbacks2
+	private static final int RUNNING_LOW = 10;
+	private static final int UI_HIDDEN = 20;
+	private static final int BACKGROUND = 40;
+	private static final int COMPLETE = 80;
+
+	private final List<String> shed = new ArrayList<String>();
+
+	@Test
+	public void shedsOnlyUpToLevelCheapestFirst()
+	{
+		final MemoryGovernor governor = new MemoryGovernor();
+		final MemoryGovernor.Sheddable peers = sheddable("peers");
+		final MemoryGovernor.Sheddable labels = sheddable("labels");
+		final MemoryGovernor.Sheddable blocks = sheddable("blocks");
+		governor.register(peers, BACKGROUND);
+		governor.register(labels, RUNNING_LOW);
+		governor.register(blocks, UI_HIDDEN);
+
+		governor.onTrimMemory(RUNNING_LOW);
+		assertEquals(Arrays.asList("labels@10"), shed);
+		assertEquals(RUNNING_LOW, governor.getLevel());
+
+		shed.clear();
+		governor.onTrimMemory(COMPLETE);
+		assertEquals(Arrays.asList("labels@80", "blocks@80", "peers@80"), shed);
+
+		shed.clear();
+		governor.unregister(blocks);
+		governor.onTrimMemory(UI_HIDDEN);
+		assertEquals(Arrays.asList("labels@20"), shed);
+	}
+
+	private MemoryGovernor.Sheddable sheddable(final String name)
+	{
+		return new MemoryGovernor.Sheddable()
+		{
+			@Override
+			public long getSheddableBytes()
+			{
+				return 1;
+			}
+
+			@Override
+			public void shed(final int level)
+			{
+				shed.add(name + "@" + level);
+			}
+		};
+	}
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.HashMap;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.RateHistory;
+
+public class RateHistoryTest
+{
+	private static final long START = 1400000000000L;
+	private static final long STEP = 600000;
+	private static final long DAY = 24 * 60 * 60 * 1000;
+
+	@Test
+	public void looksUpAcrossIndexAndReopen() throws Exception
+	{
+		final File file = tempFile();
+		final RateHistory history = RateHistory.open(file);
+
+		for (int i = 0; i < 100; i++)
+		{
+			final Map<String, Long> values = new HashMap<String, Long>();
+			values.put("USD", usd(i));
+			if (i >= 50)
+				values.put("EUR", 7000L - i);
+			assertTrue(history.append(START + i * STEP, values));
+		}
+
+		assertFalse(history.append(START, single("USD", 1)));
+		assertEquals(100, history.size("USD"));
+		assertEquals(50, history.size("EUR"));
+		assertLookups(history);
+		history.close();
+
+		final RateHistory reopened = RateHistory.open(file);
+		assertEquals(100, reopened.size("USD"));
+		assertLookups(reopened);
+		reopened.close();
+
+		file.delete();
+	}
+
+	@Test
+	public void cutsOffTornRecord() throws Exception
+	{
+		final File file = tempFile();
+		final RateHistory history = RateHistory.open(file);
+		history.append(START, single("USD", 100));
+		history.append(START + STEP, single("USD", 200));
+		history.close();
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 2);
+		raf.close();
+
+		final RateHistory reopened = RateHistory.open(file);
+		assertEquals(1, reopened.size("USD"));
+		assertEquals(100, reopened.valueAt("USD", START + STEP, DAY));
+
+		// appending continues where the good part ended
+		assertTrue(reopened.append(START + 2 * STEP, single("USD", 300)));
+		reopened.close();
+		assertEquals(300, RateHistory.open(file).valueAt("USD", START + 2 * STEP, DAY));
+
+		file.delete();
+	}
+
+	private static void assertLookups(final RateHistory history)
+	{
+		assertEquals(-1, history.valueAt("USD", START - 1, DAY));
+		assertEquals(usd(0), history.valueAt("USD", START, DAY));
+		assertEquals(usd(31), history.valueAt("USD", START + 31 * STEP, DAY));
+		assertEquals(usd(32), history.valueAt("USD", START + 32 * STEP + STEP / 2, DAY));
+		assertEquals(usd(63), history.valueAt("USD", START + 64 * STEP - 1, DAY));
+		assertEquals(usd(99), history.valueAt("USD", START + 99 * STEP + DAY, DAY));
+		assertEquals(-1, history.valueAt("USD", START + 99 * STEP + DAY + 1, DAY));
+
+		assertEquals(-1, history.valueAt("EUR", START + 49 * STEP, DAY));
+		assertEquals(7000 - 50, history.valueAt("EUR", START + 50 * STEP, DAY));
+		assertEquals(7000 - 99, history.valueAt("EUR", START + 200 * STEP, DAY));
+		assertEquals(-1, history.valueAt("CHF", START, DAY));
+	}
+
+	private static long usd(final int i)
+	{
+		// up and down, to have negative deltas
+		return 12000 + (i % 7) * 150 - (i % 3) * 400;
+	}
+
+	private static Map<String, Long> single(final String currencyCode, final long value)
+	{
+		final Map<String, Long> values = new HashMap<String, Long>();
+		values.put(currencyCode, value);
+		return values;
+	}
+
+	private static File tempFile() throws IOException
+	{
+		final File file = File.createTempFile("rate-history", null);
+		file.delete();
+		return file;
+	}
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.junit.After;
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.RefreshingCache;
+import com.schillingcoin.schillingcoin_android_wallet.util.RefreshingCache.Entry;
+
+public class RefreshingCacheTest
+{
+	private static final long TTL = 10000;
+	private static final long MAX_STALE = 100000;
+
+	private static final RefreshingCache.Codec<String> CODEC = new RefreshingCache.Codec<String>()
+	{
+		@Override
+		public void write(final String value, final DataOutputStream os) throws IOException
+		{
+			os.writeUTF(value);
+		}
+
+		@Override
+		public String read(final DataInputStream is) throws IOException
+		{
+			return is.readUTF();
+		}
+	};
+
+	private final ExecutorService executor = Executors.newCachedThreadPool();
+
+	@After
+	public void tearDown()
+	{
+		executor.shutdownNow();
+	}
+
+	@Test
+	public void concurrentReadersShareOneFetch() throws Exception
+	{
+		final File file = tempFile();
+		final Loader loader = new Loader("rates");
+		final RefreshingCache<String> cache = new RefreshingCache<String>(file, CODEC, loader, executor, TTL, MAX_STALE);
+
+		final long now = System.currentTimeMillis();
+		assertNull(cache.get(now, true));
+		assertNull(cache.get(now, true));
+		final Future<Entry<String>> fetch = cache.refresh();
+
+		loader.release.countDown();
+		assertEquals("rates", fetch.get(5, TimeUnit.SECONDS).value);
+		assertEquals(1, loader.calls.get());
+		assertEquals("rates", cache.get(now, true).value);
+		assertEquals(1, loader.calls.get());
+
+		file.delete();
+	}
+
+	@Test
+	public void servesStaleWhileRevalidating() throws Exception
+	{
+		final File file = tempFile();
+		final Loader loader = new Loader("old");
+		loader.release.countDown();
+		final RefreshingCache<String> cache = new RefreshingCache<String>(file, CODEC, loader, executor, TTL, MAX_STALE);
+		cache.refresh().get(5, TimeUnit.SECONDS);
+
+		loader.answer = "new";
+		final long later = System.currentTimeMillis() + TTL * 2;
+		assertEquals("old", cache.get(later, true).value);
+		assertEquals("new", cache.refresh().get(5, TimeUnit.SECONDS).value);
+		assertEquals(2, loader.calls.get());
+
+		// too old to show, but still fetched
+		assertNull(cache.get(System.currentTimeMillis() + MAX_STALE * 2, false));
+
+		file.delete();
+	}
+
+	@Test
+	public void survivesRestartAndFailedFetch() throws Exception
+	{
+		final File file = tempFile();
+		final Loader loader = new Loader("rates");
+		loader.release.countDown();
+		final RefreshingCache<String> cache = new RefreshingCache<String>(file, CODEC, loader, executor, TTL, MAX_STALE);
+		final Entry<String> fetched = cache.refresh().get(5, TimeUnit.SECONDS);
+
+		final Loader failing = new Loader(null);
+		failing.release.countDown();
+		final RefreshingCache<String> restarted = new RefreshingCache<String>(file, CODEC, failing, executor, TTL, MAX_STALE);
+		final Entry<String> read = restarted.get(System.currentTimeMillis(), false);
+		assertEquals("rates", read.value);
+		assertEquals(fetched.fetchedAt, read.fetchedAt);
+
+		assertNull(restarted.refresh().get(5, TimeUnit.SECONDS));
+		assertEquals("rates", restarted.get(System.currentTimeMillis(), false).value);
+
+		// no new fetch right after a failure
+		final Entry<String> stale = restarted.get(System.currentTimeMillis() + TTL * 2, true);
+		assertSame(read, stale);
+		assertEquals(1, failing.calls.get());
+
+		file.delete();
+	}
+
+	private static File tempFile() throws IOException
+	{
+		final File file = File.createTempFile("refreshing-cache", null);
+		file.delete();
+		return file;
+	}
+
+	private static class Loader implements RefreshingCache.Loader<String>
+	{
+		private volatile String answer;
+		private final AtomicInteger calls = new AtomicInteger();
+		private final CountDownLatch release = new CountDownLatch(1);
+
+		public Loader(final String answer)
+		{
+			this.answer = answer;
+		}
+
+		@Override
+		public String load() throws Exception
+		{
+			calls.incrementAndGet();
+			release.await();
+			return answer;
+		}
+	}
+}
@@ -0,0 +1,64 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.RollingCounter;
+
+public class RollingCounterTest
+{
+	@Test
+	public void sumWithinWindow() throws Exception
+	{
+		final RollingCounter counter = new RollingCounter(10, 1000);
+
+		counter.add(0, 1);
+		counter.add(500, 2);
+		counter.add(9999, 3);
+
+		assertEquals(6, counter.sum(9999));
+		assertEquals(0.6, counter.ratePerSecond(9999), 0.0001);
+	}
+
+	@Test
+	public void expiresOldBuckets() throws Exception
+	{
+		final RollingCounter counter = new RollingCounter(10, 1000);
+
+		counter.add(0, 5);
+		counter.add(5000, 7);
+
+		assertEquals(7, counter.sum(10000));
+		assertEquals(0, counter.sum(20000));
+		assertEquals(12, counter.total());
+	}
+
+	@Test
+	public void reusesWrappedBucket() throws Exception
+	{
+		final RollingCounter counter = new RollingCounter(4, 1000);
+
+		counter.add(1000, 5);
+		counter.add(5000, 1); // same index as 1000, one window later
+
+		assertEquals(1, counter.sum(5000));
+	}
+}
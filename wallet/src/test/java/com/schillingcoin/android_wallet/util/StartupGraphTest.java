@@ -0,0 +1,129 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.StartupGraph;
+
+public class StartupGraphTest
+{
+	@Test
+	public void runsDependentsAfterDependencies() throws Exception
+	{
+		final List<String> order = new CopyOnWriteArrayList<String>();
+		final StartupGraph graph = new StartupGraph("test");
+
+		graph.add("a", recorder(order, "a"));
+		graph.add("b", recorder(order, "b"), "a");
+		graph.add("c", recorder(order, "c"), "a", "b");
+		graph.run();
+
+		assertEquals(3, order.size());
+		assertTrue(order.indexOf("a") < order.indexOf("b"));
+		assertTrue(order.indexOf("b") < order.indexOf("c"));
+	}
+
+	@Test
+	public void runsIndependentStepsConcurrently() throws Exception
+	{
+		final CountDownLatch bothRunning = new CountDownLatch(2);
+		final Runnable rendezvous = new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				bothRunning.countDown();
+				try
+				{
+					if (!bothRunning.await(5, TimeUnit.SECONDS))
+						throw new IllegalStateException("steps did not overlap");
+				}
+				catch (final InterruptedException x)
+				{
+					throw new RuntimeException(x);
+				}
+			}
+		};
+
+		final StartupGraph graph = new StartupGraph("test");
+		graph.add("a", rendezvous);
+		graph.add("b", rendezvous);
+		graph.run();
+	}
+
+	@Test
+	public void skipsDependentsOfFailedStep() throws Exception
+	{
+		final List<String> order = new CopyOnWriteArrayList<String>();
+		final StartupGraph graph = new StartupGraph("test");
+
+		graph.add("a", new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				throw new IllegalStateException("boom");
+			}
+		});
+		graph.add("b", recorder(order, "b"), "a");
+		graph.add("c", recorder(order, "c"));
+
+		try
+		{
+			graph.run();
+			fail();
+		}
+		catch (final IllegalStateException x)
+		{
+			assertEquals("boom", x.getMessage());
+		}
+
+		assertFalse(order.contains("b"));
+		assertTrue(order.contains("c"));
+		assertTrue(graph.report().contains("b skipped"));
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void rejectsUnknownDependency() throws Exception
+	{
+		new StartupGraph("test").add("a", recorder(new CopyOnWriteArrayList<String>(), "a"), "b");
+	}
+
+	private static Runnable recorder(final List<String> order, final String name)
+	{
+		return new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				order.add(name);
+			}
+		};
+	}
+}
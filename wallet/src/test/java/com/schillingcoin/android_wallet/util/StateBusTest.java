@@ -0,0 +1,133 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.util.ArrayList;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.Executor;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.StateBus;
+
+public class StateBusTest
+{
+	/** Runs tasks only when asked to, like a busy main thread. */
+	private static final class QueueExecutor implements Executor
+	{
+		final Queue<Runnable> tasks = new LinkedList<Runnable>();
+
+		@Override
+		public void execute(final Runnable task)
+		{
+			tasks.add(task);
+		}
+
+		void drain()
+		{
+			Runnable task;
+			while ((task = tasks.poll()) != null)
+				task.run();
+		}
+	}
+
+	private static final class Recorder implements StateBus.Listener<Integer>
+	{
+		final List<Integer> states = new ArrayList<Integer>();
+		final List<Long> versions = new ArrayList<Long>();
+
+		@Override
+		public void onStateChanged(final Integer state, final long version)
+		{
+			states.add(state);
+			versions.add(version);
+		}
+	}
+
+	@Test
+	public void coalescesPendingPublishes() throws Exception
+	{
+		final StateBus<Integer> bus = new StateBus<Integer>();
+		final QueueExecutor executor = new QueueExecutor();
+		final Recorder recorder = new Recorder();
+		bus.subscribe(recorder, StateBus.<Integer> anyChange(), executor);
+
+		for (int i = 1; i <= 1000; i++)
+			bus.publish(i);
+
+		assertEquals(1, executor.tasks.size());
+		executor.drain();
+
+		assertEquals(1, recorder.states.size());
+		assertEquals(1000, (int) recorder.states.get(0));
+		assertEquals(1000L, (long) recorder.versions.get(0));
+	}
+
+	@Test
+	public void filtersIrrelevantChanges() throws Exception
+	{
+		final StateBus<Integer> bus = new StateBus<Integer>();
+		final QueueExecutor executor = new QueueExecutor();
+		final Recorder recorder = new Recorder();
+
+		// only interested in crossing a multiple of ten
+		bus.subscribe(recorder, new StateBus.Filter<Integer>()
+		{
+			@Override
+			public boolean isRelevant(final Integer previous, final Integer current)
+			{
+				return previous == null || previous / 10 != current / 10;
+			}
+		}, executor);
+
+		for (int i = 1; i <= 25; i++)
+		{
+			bus.publish(i);
+			executor.drain();
+		}
+
+		assertEquals(3, recorder.states.size());
+		assertEquals(1, (int) recorder.states.get(0));
+		assertEquals(10, (int) recorder.states.get(1));
+		assertEquals(20, (int) recorder.states.get(2));
+	}
+
+	@Test
+	public void stopsDeliveringAfterUnsubscribe() throws Exception
+	{
+		final StateBus<Integer> bus = new StateBus<Integer>();
+		final QueueExecutor executor = new QueueExecutor();
+		final Recorder recorder = new Recorder();
+		bus.subscribe(recorder, StateBus.<Integer> anyChange(), executor);
+
+		bus.publish(1);
+		bus.unsubscribe(recorder);
+		executor.drain();
+		bus.publish(2);
+		executor.drain();
+
+		assertTrue(recorder.states.isEmpty());
+		assertEquals(2, (int) bus.get());
+		assertEquals(2, bus.getVersion());
+	}
+}
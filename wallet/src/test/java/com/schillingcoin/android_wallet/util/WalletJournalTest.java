@@ -0,0 +1,128 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+
+import java.io.File;
+import java.io.RandomAccessFile;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.WalletJournal;
+import com.schillingcoin.schillingcoin_android_wallet.util.WalletJournal.State;
+
+public class WalletJournalTest
+{
+	private static final long SNAPSHOT = 42;
+
+	@Test
+	public void appendsOnlyChangesAndReplaysThem() throws Exception
+	{
+		final File file = tempFile();
+
+		final WalletJournal journal = new WalletJournal(file);
+		journal.reset(SNAPSHOT, state("h1", "a", "1", "b", "2"));
+
+		assertEquals(0, journal.append(state("h1", "a", "1", "b", "2")));
+		assertEquals(1, journal.append(state("h1", "a", "1", "b", "2", "c", "3")));
+		assertEquals(2, journal.append(state("h2", "a", "1", "b", "22", "c", "3")));
+		assertEquals(1, journal.append(state("h2", "b", "22", "c", "3")));
+		journal.close();
+
+		final State replayed = state("h1", "a", "1", "b", "2");
+		assertEquals(4, new WalletJournal(file).open(SNAPSHOT, replayed));
+		assertArrayEquals("h2".getBytes(), replayed.header);
+		assertEquals(2, replayed.entries.size());
+		assertArrayEquals("22".getBytes(), replayed.entries.get("b"));
+		assertArrayEquals("3".getBytes(), replayed.entries.get("c"));
+		assertFalse(replayed.entries.containsKey("a"));
+
+		file.delete();
+	}
+
+	@Test
+	public void dropsJournalOfOtherSnapshot() throws Exception
+	{
+		final File file = tempFile();
+
+		final WalletJournal journal = new WalletJournal(file);
+		journal.reset(SNAPSHOT, state("h1"));
+		journal.append(state("h2", "a", "1"));
+		journal.close();
+
+		final State newer = state("h3", "a", "2");
+		final WalletJournal reopened = new WalletJournal(file);
+		assertEquals(0, reopened.open(SNAPSHOT + 1, newer));
+		assertFalse(reopened.isOpen());
+		assertArrayEquals("h3".getBytes(), newer.header);
+		assertArrayEquals("2".getBytes(), newer.entries.get("a"));
+
+		file.delete();
+	}
+
+	@Test
+	public void ignoresTornTailAndContinuesAfterLastGoodRecord() throws Exception
+	{
+		final File file = tempFile();
+
+		final WalletJournal journal = new WalletJournal(file);
+		journal.reset(SNAPSHOT, state("h1"));
+		journal.append(state("h1", "a", "1"));
+		final long goodLength = journal.size();
+		journal.append(state("h1", "a", "1", "b", "2"));
+		journal.close();
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.setLength(raf.length() - 3);
+		raf.close();
+
+		final WalletJournal reopened = new WalletJournal(file);
+		final State replayed = state("h1");
+		assertEquals(1, reopened.open(SNAPSHOT, replayed));
+		assertEquals(goodLength, reopened.size());
+		assertFalse(replayed.entries.containsKey("b"));
+
+		assertEquals(1, reopened.append(state("h1", "a", "1", "c", "3")));
+		reopened.close();
+
+		final State again = state("h1");
+		assertEquals(2, new WalletJournal(file).open(SNAPSHOT, again));
+		assertArrayEquals("3".getBytes(), again.entries.get("c"));
+
+		file.delete();
+	}
+
+	private static File tempFile() throws Exception
+	{
+		final File file = File.createTempFile("wallet-journal", null);
+		file.delete();
+		return file;
+	}
+
+	private static State state(final String header, final String... keyValues)
+	{
+		final State state = new State();
+		state.header = header.getBytes();
+		for (int i = 0; i < keyValues.length; i += 2)
+			state.entries.put(keyValues[i], keyValues[i + 1].getBytes());
+		return state;
+	}
+}
@@ -0,0 +1,114 @@
+/*
+ * Copyright 2014 the original author or authors.
+ *
+ * This program is free software: you can redistribute it and/or modify
+ * it under the terms of the GNU General Public License as published by
+ * the Free Software Foundation, either version 3 of the License, or
+ * (at your option) any later version.
+ *
+ * This program is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ * GNU General Public License for more details.
+ *
+ * You should have received a copy of the GNU General Public License
+ * along with this program.  If not, see <http://www.gnu.org/licenses/>.
+ */
+
+package com.schillingcoin.android_wallet.util;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.Arrays;
+
+import org.junit.Test;
+
+import com.schillingcoin.schillingcoin_android_wallet.util.WalletJournal;
+import com.schillingcoin.schillingcoin_android_wallet.util.WalletSnapshot;
+
+public class WalletSnapshotTest
+{
+	@Test
+	public void roundTrip() throws Exception
+	{
+		final File file = tempFile();
+
+		final WalletJournal.State state = new WalletJournal.State();
+		state.header = "keys".getBytes();
+		state.entries.put("b", "tx b".getBytes());
+		state.entries.put("a", "tx a".getBytes());
+
+		final long id = WalletSnapshot.write(file, state);
+		assertTrue(WalletSnapshot.isSnapshot(file));
+
+		final WalletSnapshot snapshot = WalletSnapshot.open(file);
+		assertEquals(id, snapshot.getId());
+		assertArrayEquals("keys".getBytes(), snapshot.getHeader());
+		assertEquals(Arrays.asList("b", "a"), snapshot.getKeys());
+		assertArrayEquals("tx a".getBytes(), snapshot.get(1));
+		assertEquals(WalletJournal.digest("tx b".getBytes()), snapshot.getDigest(0));
+
+		final WalletJournal.State read = snapshot.toState();
+		assertArrayEquals("tx b".getBytes(), read.entries.get("b"));
+		assertEquals(WalletJournal.digest("tx a".getBytes()), read.digests.get("a"));
+
+		file.delete();
+	}
+
+	@Test
+	public void detectsCorruptEntry() throws Exception
+	{
+		final File file = tempFile();
+
+		final WalletJournal.State state = new WalletJournal.State();
+		state.header = "keys".getBytes();
+		state.entries.put("a", "tx a".getBytes());
+		WalletSnapshot.write(file, state);
+
+		final RandomAccessFile raf = new RandomAccessFile(file, "rw");
+		raf.seek(raf.length() - 1);
+		raf.write('x');
+		raf.close();
+
+		final WalletSnapshot snapshot = WalletSnapshot.open(file);
+		try
+		{
+			snapshot.get(0);
+			fail();
+		}
+		catch (final IOException x)
+		{
+			// expected
+		}
+
+		file.delete();
+	}
+
+	@Test
+	public void recognizesOtherFormats() throws Exception
+	{
+		final File file = tempFile();
+
+		final FileOutputStream os = new FileOutputStream(file);
+		os.write(new byte[] { 0x0a, 0x10 });
+		os.close();
+		assertFalse(WalletSnapshot.isSnapshot(file));
+
+		file.delete();
+	}
+
+	private static File tempFile() throws Exception
+	{
+		final File file = File.createTempFile("wallet-snapshot", null);
+		file.delete();
+		return file;
+	}
+}